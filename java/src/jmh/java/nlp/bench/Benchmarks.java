@@ -0,0 +1,36 @@
+package nlp.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the extraction and serialization benchmarks with the GC profiler, which adds the
+ * allocation rate (gc.alloc.rate.norm, bytes per operation) next to the time of every stage.
+ *
+ * Build and run them with "java/tools.sh bench", which compiles them together with
+ * java/src/main/java and runs jmh-generator-annprocess over them. An optional argument selects
+ * benchmarks by regular expression, e.g. "Serialization.*json", and "-p sentences=1000" style
+ * options are passed on.
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws RunnerException
+    {
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.include(args.length > 0 && !args[0].startsWith("-") ? args[0] : "nlp\\.bench\\..*");
+
+        for(int i = 0; i < args.length - 1; i++)
+        {
+            if(args[i].equals("-p") && args[i + 1].contains("="))
+            {
+                String[] parameter = args[i + 1].split("=", 2);
+                builder.param(parameter[0], parameter[1].split(","));
+            }
+        }
+
+        Options options = builder.addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,41 @@
+package nlp.bench;
+
+import nlp.extraction.AnnotationExtractor;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the annotations of a processed JCas into the syntax and semantic annotation containers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtractionBenchmark {
+    private final AnnotationExtractor extractor = new AnnotationExtractor();
+
+    @Benchmark
+    public SyntaxAnnotations syntax(NoteState note)
+    {
+        return extractor.getSyntax(note.jcas);
+    }
+
+    @Benchmark
+    public SemanticAnnotations semantic(NoteState note)
+    {
+        return extractor.getSemantic(note.jcas);
+    }
+}
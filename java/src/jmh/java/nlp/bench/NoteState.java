@@ -0,0 +1,38 @@
+package nlp.bench;
+
+import nlp.extraction.AnnotationExtractor;
+import nlp.information.ParseResult;
+import nlp.synthetic.SyntheticNotes;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A synthetic note of the given number of sentences, annotated once per trial, together with
+ * the result extracted from it, so every benchmark measures a single stage.
+ */
+@State(Scope.Benchmark)
+public class NoteState {
+    @Param({ "10", "100", "1000" })
+    public int sentences;
+
+    public JCas jcas;
+    public ParseResult result;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        String text = SyntheticNotes.note(sentences, 42);
+
+        jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(text);
+        SyntheticNotes.annotate(jcas);
+
+        AnnotationExtractor extractor = new AnnotationExtractor();
+        result = new ParseResult("note.txt", text, extractor.getSyntax(jcas), extractor.getSemantic(jcas), 0, true, 0);
+    }
+}
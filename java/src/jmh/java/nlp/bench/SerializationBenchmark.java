@@ -0,0 +1,66 @@
+package nlp.bench;
+
+import nlp.output.BinaryResultWriter;
+import nlp.output.JSONResultWriter;
+import nlp.output.XMLResultWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing an extracted result in each output format. The output is counted and discarded, so
+ * only the work of the writer itself is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Benchmark
+    public void xml(NoteState note, Blackhole blackhole) throws IOException
+    {
+        CountingStream out = new CountingStream();
+        new XMLResultWriter().write(note.result, out);
+        blackhole.consume(out.count);
+    }
+
+    @Benchmark
+    public void json(NoteState note, Blackhole blackhole) throws IOException
+    {
+        CountingStream out = new CountingStream();
+        new JSONResultWriter().write(note.result, out);
+        blackhole.consume(out.count);
+    }
+
+    @Benchmark
+    public void binary(NoteState note, Blackhole blackhole) throws IOException
+    {
+        CountingStream out = new CountingStream();
+        new BinaryResultWriter().write(note.result, out);
+        blackhole.consume(out.count);
+    }
+
+    private static class CountingStream extends OutputStream {
+        private long count;
+
+        public void write(int b)
+        {
+            count++;
+        }
+
+        public void write(byte[] bytes, int offset, int length)
+        {
+            count += length;
+        }
+    }
+}
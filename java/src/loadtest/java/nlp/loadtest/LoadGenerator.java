@@ -0,0 +1,345 @@
+package nlp.loadtest;
+
+import nlp.synthetic.SyntheticNotes;
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives NLPServlet in an embedded Tomcat with the stub engine, so the server layer (queue,
+ * pool, cache and output) can be load tested on any machine. A fixed number of client threads
+ * post synthetic notes whose sizes follow the configured mix, and the throughput and latency
+ * percentiles of the measured requests are reported afterwards.
+ *
+ * Options are given as name=value arguments:
+ *   concurrency   client threads (8)
+ *   requests      measured requests (2000), preceded by warmup requests (200)
+ *   mix           note sizes in sentences with their weights ("10:60,100:30,1000:10")
+ *   latency       stub latency per document in milliseconds (50)
+ *   latencyPerKb  stub latency per kilobyte of text in milliseconds (10)
+ *   pool, queue   parser.pool.size (4) and parser.queue.capacity (16)
+ *   cache         parser.cache.size in megabytes (0; every note is unique anyway)
+ *   chunk         parser.chunk.size in characters (0; documents are never split)
+ *   format        output format requested from the servlet (xml)
+ *   profiles      parser.profiles, with per-profile settings given as system properties (one profile)
+ *   profile       the profile requested from the servlet (the default profile)
+ *   verbose       keep the per-document logging of the server (false)
+ *
+ * Build and run it with "java/tools.sh loadtest name=value ...", which compiles it together with
+ * java/src/main/java and puts tomcat-embed-core 8.5 on the classpath.
+ */
+public class LoadGenerator {
+    private final Map<String, String> options;
+    private final int[] sizes;
+    private final int[] weights;
+    private int totalWeight;
+
+    private String url;
+
+    public LoadGenerator(Map<String, String> options)
+    {
+        this.options = options;
+
+        String[] entries = option("mix", "10:60,100:30,1000:10").split(",");
+        sizes = new int[entries.length];
+        weights = new int[entries.length];
+        for(int i = 0; i < entries.length; i++)
+        {
+            String[] entry = entries[i].trim().split(":");
+            sizes[i] = Integer.parseInt(entry[0]);
+            weights[i] = entry.length > 1 ? Integer.parseInt(entry[1]) : 1;
+            totalWeight += weights[i];
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        for(String arg : args)
+        {
+            int separator = arg.indexOf('=');
+            if(separator < 0)
+            {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception
+    {
+        PrintStream report = System.out;
+        if(!Boolean.parseBoolean(option("verbose", "false")))
+        {
+            // Parser and NLPServlet log every document; under load that measures the console
+            System.setOut(new PrintStream(new OutputStream() {
+                public void write(int b) {
+                }
+
+                public void write(byte[] bytes, int offset, int length) {
+                }
+            }));
+        }
+
+        Tomcat tomcat = startServer();
+        try {
+            waitUntilReady();
+
+            int concurrency = Integer.parseInt(option("concurrency", "8"));
+            int warmup = Integer.parseInt(option("warmup", "200"));
+            int requests = Integer.parseInt(option("requests", "2000"));
+
+            report.println("Warming up with " + warmup + " requests");
+            runPhase(concurrency, warmup, 0);
+
+            report.println("Measuring " + requests + " requests from " + concurrency + " clients, mix " + option("mix", "10:60,100:30,1000:10"));
+            Phase phase = runPhase(concurrency, requests, warmup);
+            phase.report(report);
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+            System.setOut(report);
+        }
+    }
+
+    private Tomcat startServer() throws Exception
+    {
+        File baseDirectory = File.createTempFile("loadtest", "");
+        baseDirectory.delete();
+        baseDirectory.mkdirs();
+        baseDirectory.deleteOnExit();
+
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDirectory.getAbsolutePath());
+        tomcat.setPort(Integer.parseInt(option("port", "0")));
+
+        Context context = tomcat.addContext("", baseDirectory.getAbsolutePath());
+        context.addParameter("parser.engine", "stub");
+        context.addParameter("parser.stub.latency", option("latency", "50"));
+        context.addParameter("parser.stub.latencyPerKb", option("latencyPerKb", "10"));
+        context.addParameter("parser.pool.size", option("pool", "4"));
+        context.addParameter("parser.queue.capacity", option("queue", "16"));
+        context.addParameter("parser.cache.size", option("cache", "0"));
+        context.addParameter("parser.chunk.size", option("chunk", "0"));
+        if(!option("profiles", "").isEmpty())
+        {
+            context.addParameter("parser.profiles", option("profiles", ""));
+        }
+
+        // The servlets live in the default package, so they are registered by name. An embedded
+        // context does not scan annotations; only @MultipartConfig is picked up when loading.
+        context.addApplicationListener("ParserContextListener");
+        addServlet(context, "NLPServlet", "/NLPServlet");
+        addServlet(context, "ReadinessServlet", "/ready");
+        addServlet(context, "MetricsServlet", "/metrics");
+
+        tomcat.start();
+        url = "http://localhost:" + tomcat.getConnector().getLocalPort();
+        return tomcat;
+    }
+
+    private void addServlet(Context context, String servletClass, String pattern)
+    {
+        Wrapper wrapper = Tomcat.addServlet(context, servletClass, servletClass);
+        wrapper.setAsyncSupported(true);
+        wrapper.setLoadOnStartup(1);
+        context.addServletMappingDecoded(pattern, servletClass);
+    }
+
+    private void waitUntilReady() throws IOException, InterruptedException
+    {
+        while(true)
+        {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url + "/ready").openConnection();
+            int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            if(status == HttpURLConnection.HTTP_OK)
+            {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private Phase runPhase(int concurrency, final int requests, final int firstSeed) throws InterruptedException
+    {
+        final Phase phase = new Phase(requests);
+        final AtomicInteger next = new AtomicInteger();
+        final String query = "format=" + option("format", "xml") + (option("profile", "").isEmpty() ? "" : "&profile=" + option("profile", ""));
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long startTime = System.nanoTime();
+
+        for(int i = 0; i < concurrency; i++)
+        {
+            clients.execute(new Runnable() {
+                public void run() {
+                    int index;
+                    while((index = next.getAndIncrement()) < requests)
+                    {
+                        // Every note is unique, so the cache does not hide the pipeline
+                        int seed = firstSeed + index;
+                        String note = SyntheticNotes.note(size(seed), seed);
+
+                        long requestStart = System.nanoTime();
+                        int status = post(note, query);
+                        phase.record(index, status, System.nanoTime() - requestStart);
+                    }
+                }
+            });
+        }
+
+        clients.shutdown();
+        clients.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        phase.elapsedNanos = System.nanoTime() - startTime;
+        return phase;
+    }
+
+    private int size(int seed)
+    {
+        int pick = new Random(seed).nextInt(totalWeight);
+        for(int i = 0; i < sizes.length; i++)
+        {
+            pick -= weights[i];
+            if(pick < 0)
+            {
+                return sizes[i];
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    private int post(String note, String query)
+    {
+        try {
+            byte[] body = ("text=" + URLEncoder.encode(note, "UTF-8")).getBytes(StandardCharsets.UTF_8);
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(url + "/NLPServlet?" + query).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            return status;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException
+    {
+        if(in == null)
+        {
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[8192];
+            while(in.read(buffer) >= 0)
+            {
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private String option(String name, String defaultValue)
+    {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Latencies and status codes of one run; failed connections are counted as status -1.
+     */
+    private static class Phase {
+        private final long[] latencies;
+        private final int[] statuses;
+        private long elapsedNanos;
+
+        private Phase(int requests)
+        {
+            latencies = new long[requests];
+            statuses = new int[requests];
+        }
+
+        private void record(int index, int status, long latencyNanos)
+        {
+            // Every index is written by exactly one client thread and read after the executor terminated
+            latencies[index] = latencyNanos;
+            statuses[index] = status;
+        }
+
+        private void report(PrintStream out)
+        {
+            TreeMap<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+            List<Long> successful = new ArrayList<Long>();
+            for(int i = 0; i < statuses.length; i++)
+            {
+                Integer count = counts.get(statuses[i]);
+                counts.put(statuses[i], count == null ? 1 : count + 1);
+                if(statuses[i] == HttpURLConnection.HTTP_OK)
+                {
+                    successful.add(latencies[i]);
+                }
+            }
+
+            long[] sorted = new long[successful.size()];
+            for(int i = 0; i < sorted.length; i++)
+            {
+                sorted[i] = successful.get(i);
+            }
+            Arrays.sort(sorted);
+
+            double seconds = elapsedNanos / 1000000000.0;
+            out.println();
+            out.printf("Requests:    %d in %.2f s%n", statuses.length, seconds);
+            out.printf("Throughput:  %.1f requests/s (%.1f successful/s)%n", statuses.length / seconds, sorted.length / seconds);
+            out.println("Status:      " + counts);
+            if(sorted.length > 0)
+            {
+                out.printf("Latency ms:  p50 %.1f  p90 %.1f  p99 %.1f  p999 %.1f  max %.1f%n",
+                        percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                        percentile(sorted, 0.999), sorted[sorted.length - 1] / 1000000.0);
+            }
+        }
+
+        private static double percentile(long[] sorted, double quantile)
+        {
+            int rank = (int) Math.ceil(quantile * sorted.length);
+            return sorted[Math.max(rank, 1) - 1] / 1000000.0;
+        }
+    }
+}
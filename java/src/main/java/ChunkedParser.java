@@ -0,0 +1,165 @@
+import nlp.chunking.ResultMerger;
+import nlp.chunking.TextChunker;
+import nlp.engine.Deadline;
+import nlp.engine.EngineConfiguration;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.information.ParseResult;
+import nlp.metrics.Metrics;
+
+import javax.servlet.ServletContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses documents longer than "parser.chunk.size" characters in chunks that end at a paragraph
+ * or sentence boundary, on as many workers of the ParserPool as are free, and merges the chunk
+ * results. Pipeline cost grows faster than the length of a document, so this is faster even on
+ * a single worker. Annotations that would have crossed a chunk boundary are lost or cut.
+ *
+ * The calling thread parses the first chunk itself and never holds a worker while it waits for
+ * the others, so chunked documents cannot deadlock the pool. Every chunk shares the deadline of
+ * the document; when one of them times out, the others are cancelled.
+ */
+public class ChunkedParser {
+    public static final String SIZE_PARAMETER = "parser.chunk.size";
+
+    private final ParserPool pool;
+    private final TextChunker chunker;
+    private final ExecutorService executor;
+
+    public ChunkedParser(final String name, ParserPool pool, int size)
+    {
+        this.pool = pool;
+        this.chunker = new TextChunker(size);
+        this.executor = Executors.newFixedThreadPool(pool.getSize(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-chunk-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates the chunked parser of a profile, or returns null when "parser.chunk.size" is not set
+     * or 0 and documents are always parsed in one go.
+     */
+    public static ChunkedParser forProfile(ServletContext application, String profile, ParserPool pool)
+    {
+        String value = EngineConfiguration.parameter(application, profile, SIZE_PARAMETER);
+        int size = value == null ? 0 : Integer.parseInt(value);
+        return size > 0 ? new ChunkedParser(profile, pool, size) : null;
+    }
+
+    /**
+     * Whether the document is long enough to be split.
+     */
+    public boolean accepts(String content)
+    {
+        return content.length() > chunker.getSize();
+    }
+
+    /**
+     * Parses the document chunk by chunk; returns null when any chunk could not be parsed.
+     */
+    public ParseResult parse(String fileName, String content) throws InterruptedException
+    {
+        return parse(fileName, content, AnnotationFilter.ALL);
+    }
+
+    public ParseResult parse(String fileName, String content, AnnotationFilter filter) throws InterruptedException
+    {
+        try {
+            return parse(fileName, content, filter, Deadline.NONE);
+        } catch (ParseTimeoutException e) {
+            // Not thrown without a deadline
+            return null;
+        }
+    }
+
+    /**
+     * Parses the document chunk by chunk before the deadline. Partial results of chunks are not
+     * merged, so the exception never holds one.
+     *
+     * @throws ParseTimeoutException when any chunk was not parsed before the deadline
+     */
+    public ParseResult parse(String fileName, String content, final AnnotationFilter filter, final Deadline deadline)
+            throws InterruptedException, ParseTimeoutException
+    {
+        long startTime = System.nanoTime();
+        int[] boundaries = chunker.split(content);
+
+        List<Future<ParseResult>> futures = new ArrayList<Future<ParseResult>>();
+        for(int i = 1; i < boundaries.length - 1; i++)
+        {
+            final String chunk = content.substring(boundaries[i], boundaries[i + 1]);
+            final String name = fileName;
+            futures.add(executor.submit(new Callable<ParseResult>() {
+                public ParseResult call() throws InterruptedException, ParseTimeoutException {
+                    return parseChunk(name, chunk, filter, deadline);
+                }
+            }));
+        }
+
+        List<ParseResult> parts = new ArrayList<ParseResult>();
+        try {
+            parts.add(parseChunk(fileName, content.substring(boundaries[0], boundaries[1]), filter, deadline));
+            for(Future<ParseResult> future : futures)
+            {
+                parts.add(future.get());
+            }
+        } catch (ParseTimeoutException e) {
+            throw new ParseTimeoutException(deadline, null);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof ParseTimeoutException)
+            {
+                throw new ParseTimeoutException(deadline, null);
+            }
+            e.printStackTrace();
+            return null;
+        } finally {
+            for(Future<ParseResult> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
+
+        if(parts.contains(null))
+        {
+            return null;
+        }
+
+        double duration = (System.nanoTime() - startTime) / 1000000000.0;
+        System.out.println("\n*** Done parsing document in " + parts.size() + " chunks in " + duration + " sec. ***\n");
+        Metrics.getDefault().counter("nlp_chunks_total", "Chunks parsed for documents longer than the chunk size.").addAndGet(parts.size());
+
+        return ResultMerger.merge(fileName, content, boundaries, parts, duration);
+    }
+
+    private ParseResult parseChunk(String fileName, String chunk, AnnotationFilter filter, Deadline deadline)
+            throws InterruptedException, ParseTimeoutException
+    {
+        Parser parser = pool.borrow(deadline);
+        try {
+            parser.setFile(fileName, chunk);
+            return parser.parse(filter, deadline);
+        } finally {
+            pool.release(parser);
+        }
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,113 @@
+import nlp.index.ConceptIndex;
+import nlp.index.ConceptMention;
+import nlp.metrics.Metrics;
+import nlp.output.JSONResultWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Finds the indexed documents that mention a concept, from the ConceptIndex:
+ *
+ *   ?cui=C0011849[&polarity=1][&historyOf=0][&subject=patient][&after=id][&limit=100]
+ *
+ * Polarity is -1 for negated and 1 for affirmed mentions. Documents are returned in the order
+ * they were indexed, with the offsets of their mentions; when there may be more, "next" holds
+ * the document id to pass as "after" for the following page.
+ */
+@WebServlet("/concepts")
+public class ConceptServlet extends HttpServlet {
+    private static final int MAX_LIMIT = 10000;
+
+    private ConceptIndex index;
+
+    public void init() throws ServletException {
+        index = ConceptIndex.forContext(getServletContext());
+    }
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if(index == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No concept index configured");
+            return;
+        }
+
+        String cui = request.getParameter("cui");
+        if(cui == null || cui.trim().isEmpty())
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Please give a cui");
+            return;
+        }
+
+        Integer polarity;
+        Integer historyOf;
+        int after;
+        int limit;
+        try {
+            polarity = number(request.getParameter("polarity"));
+            historyOf = number(request.getParameter("historyOf"));
+            after = request.getParameter("after") == null ? -1 : Integer.parseInt(request.getParameter("after"));
+            limit = request.getParameter("limit") == null ? 100 : Integer.parseInt(request.getParameter("limit"));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Polarity, historyOf, after and limit must be numbers");
+            return;
+        }
+        if(limit < 1 || limit > MAX_LIMIT)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Limit must be between 1 and " + MAX_LIMIT);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        List<ConceptMention> mentions = index.query(cui.trim(), polarity, historyOf, request.getParameter("subject"), after, limit);
+        Metrics.getDefault().histogram("nlp_index_query_seconds", "Time spent looking up a concept in the index.").observeNanos(System.nanoTime() - startTime);
+
+        response.setContentType("application/json; charset=UTF-8");
+        Writer out = response.getWriter();
+        out.write("{\"cui\":");
+        JSONResultWriter.quote(out, cui.trim());
+        out.write(",\"documents\":[");
+
+        int documents = 0;
+        int lastDoc = -1;
+        for(ConceptMention mention : mentions)
+        {
+            if(mention.getDocumentId() != lastDoc)
+            {
+                if(documents > 0) out.write("]},");
+                out.write("{\"id\":" + mention.getDocumentId() + ",\"name\":");
+                JSONResultWriter.quote(out, mention.getDocumentName());
+                out.write(",\"mentions\":[");
+                lastDoc = mention.getDocumentId();
+                documents++;
+            }
+            else
+            {
+                out.write(',');
+            }
+
+            out.write("{\"begin\":" + mention.getBegin() + ",\"end\":" + mention.getEnd() + ",\"code\":");
+            JSONResultWriter.quote(out, mention.getCode());
+            out.write(",\"system\":");
+            JSONResultWriter.quote(out, mention.getSystem());
+            out.write(",\"polarity\":" + mention.getPolarity() + ",\"historyOf\":" + mention.getHistoryOf() + ",\"subject\":");
+            JSONResultWriter.quote(out, mention.getSubject());
+            out.write('}');
+        }
+        if(documents > 0) out.write("]}");
+
+        out.write("],\"next\":" + (documents == limit ? Integer.toString(lastDoc) : "null") + "}");
+        out.flush();
+    }
+
+    private static Integer number(String value)
+    {
+        return value == null || value.trim().isEmpty() ? null : Integer.valueOf(value.trim());
+    }
+}
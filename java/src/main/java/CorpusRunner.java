@@ -0,0 +1,330 @@
+import nlp.corpus.CheckpointJournal;
+import nlp.corpus.CorpusSource;
+import nlp.engine.Deadline;
+import nlp.engine.EngineConfiguration;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.index.ConceptIndex;
+import nlp.information.ParseResult;
+import nlp.ingest.DocumentReader;
+import nlp.ingest.DocumentTooLargeException;
+import nlp.output.ResultWriter;
+import nlp.output.ResultWriters;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Parses a corpus from the command line, without the servlet container: the notes of a directory
+ * tree or zip archive are parsed on a ParserPool of the given number of workers, and the result
+ * of every note is written gzipped next to its relative path under the output directory, e.g.
+ * "2015/note-1.txt" to "2015/note-1.txt.json.gz". Finished notes are recorded in a
+ * CheckpointJournal, so running the same command again after an interruption skips them.
+ * Progress is reported every few seconds in documents per second.
+ *
+ * Options are given as name=value arguments:
+ *   input     directory or zip archive of notes (required)
+ *   output    directory for the results (required)
+ *   format    xml (default), json or binary
+ *   compact   leave the input and covered text out of xml and json and write every concept once (false)
+ *   threads   Parser workers (the number of processors)
+ *   journal   checkpoint journal (output/corpus.journal)
+ *   index     directory of a ConceptIndex the concepts of every note are added to (none)
+ *   profile   pipeline profile whose parser.profile.NAME.* system properties apply (none)
+ *   charset   charset of the notes (detected per note)
+ *   maxSize   notes larger than this many megabytes are skipped as failed (32)
+ *   timeout   seconds a note may take before its run is abandoned and it counts as failed (none)
+ *   report    seconds between progress reports (10)
+ *   verbose   keep the per-document logging of the Parser (false)
+ *
+ * The engine is configured with the usual parser.* settings as system properties, e.g.
+ * -Dparser.descriptor=/path/to/AggregatePlaintextFastUMLSProcessor.xml or -Dparser.engine=stub.
+ * The exit status is 1 when any note failed; those are retried by the next run. The concept index
+ * is closed, writing what it holds in memory, when the runner stops, also on Ctrl-C.
+ */
+public class CorpusRunner {
+    private final Map<String, String> options;
+
+    private final File output;
+    private final String format;
+    private final boolean compact;
+    private final String charset;
+    private final long timeoutMillis;
+    private final ParserPool pool;
+    private final DocumentReader reader;
+    private final CheckpointJournal journal;
+    private final ConceptIndex index;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong characters = new AtomicLong();
+
+    public CorpusRunner(Map<String, String> options) throws IOException
+    {
+        this.options = options;
+
+        output = new File(required("output"));
+        format = option("format", ResultWriters.FORMAT_XML);
+        compact = Boolean.parseBoolean(option("compact", "false"));
+        charset = options.get("charset");
+        timeoutMillis = Math.round(Double.parseDouble(option("timeout", "0")) * 1000);
+
+        String profile = options.get("profile");
+        int threads = Integer.parseInt(option("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        pool = new ParserPool(threads, EngineConfiguration.forProfile(null, profile, Parser.PROCESSOR));
+        reader = new DocumentReader(Long.parseLong(option("maxSize", "32")) * 1024 * 1024, 1024 * 1024);
+        journal = new CheckpointJournal(new File(option("journal", new File(output, "corpus.journal").getPath())));
+        index = options.get("index") == null ? null : new ConceptIndex(new File(options.get("index")), 1000000, 60 * 1000, 10);
+
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-corpus-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Enough notes read ahead to keep every worker busy, without holding the corpus in memory
+        inFlight = new Semaphore(threads * 2);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        for(String arg : args)
+        {
+            int separator = arg.indexOf('=');
+            if(separator < 0)
+            {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        boolean complete = new CorpusRunner(options).run();
+        System.exit(complete ? 0 : 1);
+    }
+
+    /**
+     * Parses every note that is not in the journal yet; returns whether none of them failed.
+     */
+    public boolean run() throws IOException, InterruptedException
+    {
+        PrintStream report = System.out;
+        if(!Boolean.parseBoolean(option("verbose", "false")))
+        {
+            // The Parser logs every document, which would bury the progress reports
+            System.setOut(new PrintStream(new OutputStream() {
+                public void write(int b) {
+                }
+
+                public void write(byte[] bytes, int offset, int length) {
+                }
+            }));
+        }
+
+        CorpusSource source = new CorpusSource(new File(required("input")));
+        report.println("Parsing " + required("input") + " into " + output + " on " + pool.getSize()
+                + " workers, " + journal.size() + " documents already in " + journal.getFile());
+
+        ScheduledExecutorService reporter = startReporter(report);
+        Thread closeIndex = new Thread(new Runnable() {
+            public void run() {
+                if(index != null)
+                {
+                    index.close();
+                }
+            }
+        }, "nlp-corpus-close");
+        Runtime.getRuntime().addShutdownHook(closeIndex);
+
+        long startTime = System.nanoTime();
+        try {
+            source.visit(new CorpusSource.Visitor() {
+                public void visit(String name, InputStream in) throws IOException, InterruptedException {
+                    submit(name, in);
+                }
+            });
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            reporter.shutdownNow();
+            executor.shutdownNow();
+            journal.close();
+            if(index != null)
+            {
+                index.close();
+            }
+            Runtime.getRuntime().removeShutdownHook(closeIndex);
+            System.setOut(report);
+        }
+
+        double duration = (System.nanoTime() - startTime) / 1000000000.0;
+        report.println(String.format("Done in %.1f s: %d documents parsed (%.1f documents/s, %.1f MB of text), %d failed, %d skipped as already done",
+                duration, done.get(), done.get() / duration, characters.get() / 1048576.0, failed.get(), skipped.get()));
+        return failed.get() == 0;
+    }
+
+    private void submit(final String name, InputStream in) throws IOException, InterruptedException
+    {
+        if(journal.contains(name))
+        {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        final String content;
+        try {
+            content = reader.read(in, charset);
+        } catch (DocumentTooLargeException e) {
+            System.err.println("Skipping " + name + ": " + e.getMessage());
+            failed.incrementAndGet();
+            return;
+        }
+
+        inFlight.acquire();
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    process(name, content);
+                } finally {
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    private void process(String name, String content)
+    {
+        try {
+            ParseResult result;
+            Deadline deadline = Deadline.after(timeoutMillis);
+            Parser parser = pool.borrow(deadline);
+            try {
+                parser.setFile(name, content);
+                result = parser.parse(AnnotationFilter.ALL, deadline);
+            } finally {
+                pool.release(parser);
+            }
+
+            if(result == null)
+            {
+                System.err.println("Could not parse " + name);
+                failed.incrementAndGet();
+                return;
+            }
+
+            write(name, result);
+            if(index != null)
+            {
+                index.add(result);
+            }
+            journal.record(name);
+            done.incrementAndGet();
+            characters.addAndGet(content.length());
+        } catch (ParseTimeoutException e) {
+            System.err.println("Could not parse " + name + ": " + e.getMessage());
+            failed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the result to a temporary file that is moved into place once it is complete, so a
+     * file with the final name is never cut off.
+     */
+    private void write(String name, ParseResult result) throws IOException
+    {
+        ResultWriter writer = ResultWriters.forFormat(format, compact);
+        File target = new File(output, name + "." + writer.getFileExtension() + ".gz");
+        if(!target.getCanonicalPath().startsWith(output.getCanonicalPath() + File.separator))
+        {
+            throw new IOException("Document " + name + " would be written outside of " + output);
+        }
+
+        File directory = target.getParentFile();
+        if(!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+        {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File partial = new File(directory, target.getName() + ".part");
+        OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(partial)), 8192);
+        try {
+            writer.write(result, out);
+        } finally {
+            out.close();
+        }
+        Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private ScheduledExecutorService startReporter(final PrintStream report)
+    {
+        final long interval = Long.parseLong(option("report", "10"));
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-corpus-report");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final long startTime = System.nanoTime();
+        reporter.scheduleAtFixedRate(new Runnable() {
+            private int previous;
+
+            public void run() {
+                int current = done.get();
+                double elapsed = (System.nanoTime() - startTime) / 1000000000.0;
+                report.println(String.format("%d documents parsed, %d failed, %d skipped; %.1f documents/s over the last %d s, %.1f documents/s overall",
+                        current, failed.get(), skipped.get(), (current - previous) / (double) interval, interval, current / elapsed));
+                previous = current;
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+        return reporter;
+    }
+
+    private String required(String name)
+    {
+        String value = options.get(name);
+        if(value == null || value.isEmpty())
+        {
+            throw new IllegalArgumentException("Missing option " + name + "=...");
+        }
+        return value;
+    }
+
+    private String option(String name, String defaultValue)
+    {
+        String value = options.get(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
@@ -0,0 +1,352 @@
+import nlp.engine.Deadline;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.information.ParseResult;
+import nlp.ingest.DocumentReader;
+import nlp.ingest.DocumentTooLargeException;
+import nlp.metrics.Metrics;
+import nlp.output.ContentEncodings;
+import nlp.output.ResultWriter;
+import nlp.output.ResultWriters;
+import nlp.session.DocumentSession;
+import nlp.session.DocumentSessions;
+import nlp.session.ResultSplicer;
+import nlp.session.TextEdit;
+import nlp.snomed.SnomedService;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps the result of a document that is being edited, so that after an edit only the sentences
+ * around it are parsed again instead of the whole document.
+ *
+ *   POST id=...&text=...                            the new version of the document
+ *   POST id=...&begin=...&end=...&replacement=...   replaces [begin, end) of the current version
+ *   GET  ?id=...                                    the current result
+ *   DELETE ?id=...                                  forgets the document
+ *
+ * Without an id a new document is started. POST takes the "profile", "format", "compact",
+ * "timeout", "types", "schemes", "tuis" and "polarity" parameters of NLPServlet and an optional
+ * "version": when it is not the current version of the document the edit is refused with 409, as
+ * it was made against another text. An edit that arrives while the previous one of the same
+ * document is still waiting or being parsed is refused with 409 as well, so a client sends its
+ * edits one after another. An edit with another profile or filter than the current result parses
+ * the whole document again. Every response carries the X-Document-Id and X-Document-Version
+ * headers, and X-Reparsed holds the part of the text that was parsed. Updates go through the
+ * ParseQueue of the profile, so a full queue is answered with 503 and Retry-After. SNOMED CT
+ * information is added when a version is stored.
+ */
+@WebServlet(value = "/document", asyncSupported = true)
+public class DocumentServlet extends HttpServlet {
+    private ParserProfiles profiles;
+    private DocumentSessions sessions;
+    private SnomedService snomed;
+    private DocumentReader reader;
+
+    public void init() throws ServletException {
+        ServletContext application = getServletContext();
+        profiles = ParserProfiles.forContext(application);
+        sessions = DocumentSessions.forContext(application);
+        snomed = SnomedService.forContext(application);
+        reader = DocumentReader.forContext(application);
+    }
+
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if(request.getCharacterEncoding() == null)
+        {
+            request.setCharacterEncoding("UTF-8");
+        }
+
+        if(sessions == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Document sessions are disabled");
+            return;
+        }
+
+        final ParserProfile profile = profiles.get(request.getParameter("profile"));
+        if(profile == null)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown profile, expected one of " + profiles.getNames());
+            return;
+        }
+
+        final Deadline deadline;
+        try {
+            deadline = profile.deadline(request.getParameter("timeout"));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        final AnnotationFilter filter;
+        try {
+            filter = NLPServlet.filter(request);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        String id = request.getParameter("id");
+        final boolean replace = request.getParameter("replacement") != null;
+        if(!replace && request.getParameter("text") == null)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Please post the text or a replacement");
+            return;
+        }
+
+        final DocumentSession session = replace ? (id == null ? null : sessions.get(id)) : sessions.open(id);
+        if(session == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown document, please post its full text");
+            return;
+        }
+
+        // A second edit of the same document is refused rather than queued behind the first, it
+        // would be made against a version the client has not seen yet
+        if(!session.startUpdate())
+        {
+            response.setHeader("X-Document-Id", session.getId());
+            response.sendError(HttpServletResponse.SC_CONFLICT, "Another edit of the document is still being parsed");
+            return;
+        }
+
+        // Like NLPServlet, the document is parsed on a thread of the ParseQueue of the profile
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+
+        ParseQueue queue = profile.getQueue();
+        try {
+            queue.submit(new ParseQueue.Job() {
+                public void run(double queued) {
+                    try {
+                        update(context, session, profile, filter, replace, deadline);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        session.endUpdate();
+                        context.complete();
+                    }
+                }
+
+                public void expired() {
+                    session.endUpdate();
+                    try {
+                        ((HttpServletResponse) context.getResponse()).sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                                new ParseTimeoutException(deadline, null).getMessage());
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        context.complete();
+                    }
+                }
+            }, deadline);
+        } catch (RejectedExecutionException e) {
+            session.endUpdate();
+            response.setHeader("Retry-After", Integer.toString(queue.getRetryAfter()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many documents are waiting to be parsed, please try again later");
+            context.complete();
+        }
+    }
+
+    /**
+     * Parses the new version of the document. The caller has claimed the session with startUpdate,
+     * so its result cannot change meanwhile and the session is only held to read and store it.
+     */
+    private void update(AsyncContext context, DocumentSession session, ParserProfile profile, AnnotationFilter filter, boolean replace, Deadline deadline) throws IOException
+    {
+        HttpServletRequest request = (HttpServletRequest) context.getRequest();
+        HttpServletResponse response = (HttpServletResponse) context.getResponse();
+
+        ParseResult previous;
+        String previousProfile;
+        AnnotationFilter previousFilter;
+        synchronized (session) {
+            String expected = request.getParameter("version");
+            if(expected != null && !expected.trim().equals(Integer.toString(session.getVersion())))
+            {
+                response.setHeader("X-Document-Version", Integer.toString(session.getVersion()));
+                response.sendError(HttpServletResponse.SC_CONFLICT, "The document has changed, its current version is " + session.getVersion());
+                return;
+            }
+            previous = session.getResult();
+            previousProfile = session.getProfile();
+            previousFilter = session.getFilter();
+        }
+
+        String text;
+        if(replace)
+        {
+            if(previous == null)
+            {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown document, please post its full text");
+                return;
+            }
+
+            String input = previous.getInput();
+            int begin;
+            int end;
+            try {
+                begin = Integer.parseInt(request.getParameter("begin"));
+                end = Integer.parseInt(request.getParameter("end"));
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Begin and end must be numbers");
+                return;
+            }
+            if(begin < 0 || begin > end || end > input.length())
+            {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Begin and end must lie within the document of " + input.length() + " characters");
+                return;
+            }
+            text = input.substring(0, begin) + request.getParameter("replacement") + input.substring(end);
+        }
+        else
+        {
+            text = request.getParameter("text");
+        }
+
+        try {
+            reader.checkText(text);
+        } catch (DocumentTooLargeException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            return;
+        }
+
+        ParseResult result;
+        int[] window;
+        try {
+            // Sentences parsed with another profile or filter cannot be spliced into the previous result
+            if(previous == null || !profile.getName().equals(previousProfile) || !filter.equals(previousFilter))
+            {
+                window = new int[] { 0, text.length() };
+                result = profile.parse("", text, filter, deadline);
+                count("full", text.length());
+            }
+            else
+            {
+                TextEdit edit = TextEdit.between(previous.getInput(), text);
+                if(edit.isEmpty())
+                {
+                    window = new int[] { 0, 0 };
+                    result = previous;
+                    count("unchanged", 0);
+                }
+                else
+                {
+                    long startTime = System.nanoTime();
+                    window = sessions.getSplicer().window(previous, text, edit);
+                    ParseResult part = profile.parse("", text.substring(window[0], window[1]), filter, deadline);
+                    result = part == null ? null : ResultSplicer.splice(previous, text, edit, window, part, (System.nanoTime() - startTime) / 1000000000.0);
+                    count("incremental", window[1] - window[0]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted while waiting for a parser");
+            return;
+        } catch (ParseTimeoutException e) {
+            // The session keeps its previous version, a partial result would be spliced into it as if complete
+            response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, e.getMessage());
+            return;
+        }
+
+        if(result == null)
+        {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Could not parse the document");
+            return;
+        }
+
+        // A stored result is never changed again, so GET can write it out without holding the session
+        if(result != previous && snomed != null)
+        {
+            snomed.enrich(result);
+        }
+        int version;
+        synchronized (session) {
+            session.update(profile.getName(), filter, result);
+            version = session.getVersion();
+        }
+
+        response.setHeader("X-Document-Id", session.getId());
+        response.setHeader("X-Document-Version", Integer.toString(version));
+        response.setHeader("X-Reparsed", window[0] + "-" + window[1]);
+        write(request, response, result);
+    }
+
+    private static void count(String kind, int characters)
+    {
+        Metrics metrics = Metrics.getDefault();
+        metrics.counter("nlp_session_updates_total", "Document session updates by how much was parsed again.", "kind", kind).incrementAndGet();
+        metrics.counter("nlp_session_parsed_characters_total", "Characters parsed for document session updates.").addAndGet(characters);
+    }
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        DocumentSession session = find(request, response);
+        if(session == null)
+        {
+            return;
+        }
+
+        ParseResult result;
+        int version;
+        synchronized (session) {
+            result = session.getResult();
+            version = session.getVersion();
+        }
+        if(result == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "The document has not been parsed yet");
+            return;
+        }
+
+        response.setHeader("X-Document-Id", session.getId());
+        response.setHeader("X-Document-Version", Integer.toString(version));
+        write(request, response, result);
+    }
+
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        DocumentSession session = find(request, response);
+        if(session != null)
+        {
+            sessions.remove(session.getId());
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+    }
+
+    private DocumentSession find(HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        String id = request.getParameter("id");
+        DocumentSession session = sessions == null || id == null ? null : sessions.get(id);
+        if(session == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown document");
+        }
+        return session;
+    }
+
+    private void write(HttpServletRequest request, HttpServletResponse response, ParseResult result) throws IOException
+    {
+        ResultWriter writer = ResultWriters.forRequest(request.getHeader("Accept"), request.getParameter("format"),
+                Boolean.parseBoolean(request.getParameter("compact")));
+        String encoding = ContentEncodings.negotiate(request.getHeader("Accept-Encoding"));
+
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+        response.setContentType(writer.getContentType());
+        if(encoding != null)
+        {
+            response.setHeader("Content-Encoding", encoding);
+        }
+
+        OutputStream out = ContentEncodings.wrap(response.getOutputStream(), encoding);
+        writer.write(result, out);
+        ContentEncodings.finish(out);
+    }
+}
@@ -0,0 +1,130 @@
+import nlp.cache.ResultCache;
+import nlp.dispatch.WorkerDispatcher;
+import nlp.index.ConceptIndex;
+import nlp.metrics.Gauge;
+import nlp.metrics.Metrics;
+import nlp.session.DocumentSessions;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Exposes the latency histograms of the pipeline stages and delegate annotators, together with
+ * the state of the ParserPool, ParseQueue and worker processes of every profile, of the ResultCache, of the
+ * document sessions and of the ConceptIndex, in the Prometheus text format.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+    public void init() throws ServletException {
+        ServletContext application = getServletContext();
+        Metrics metrics = Metrics.getDefault();
+
+        ParserProfiles profiles = ParserProfiles.forContext(application);
+        for(ParserProfile profile : profiles.getProfiles())
+        {
+            final ParserPool pool = profile.getPool();
+            final ParseQueue queue = profile.getQueue();
+            String name = profile.getName();
+
+            metrics.gauge("nlp_pool_size", "Maximum number of Parser workers.", "profile", name, new Gauge() {
+                public double getValue() { return pool.getSize(); }
+            });
+            metrics.gauge("nlp_pool_created", "Parser workers that have been created.", "profile", name, new Gauge() {
+                public double getValue() { return pool.getCreated(); }
+            });
+            metrics.gauge("nlp_pool_idle", "Parser workers that are not checked out.", "profile", name, new Gauge() {
+                public double getValue() { return pool.getIdle(); }
+            });
+
+            metrics.gauge("nlp_queue_depth", "Parse jobs waiting for a thread.", "profile", name, new Gauge() {
+                public double getValue() { return queue.getDepth(); }
+            });
+            metrics.gauge("nlp_queue_active", "Parse jobs that are being processed.", "profile", name, new Gauge() {
+                public double getValue() { return queue.getActive(); }
+            });
+            metrics.gauge("nlp_queue_capacity", "Maximum number of waiting parse jobs.", "profile", name, new Gauge() {
+                public double getValue() { return queue.getCapacity(); }
+            });
+            metrics.counter("nlp_queue_accepted_total", "Parse jobs accepted by the queue.", "profile", name, new Gauge() {
+                public double getValue() { return queue.getAccepted(); }
+            });
+            metrics.counter("nlp_queue_rejected_total", "Parse jobs rejected because the queue was full.", "profile", name, new Gauge() {
+                public double getValue() { return queue.getRejected(); }
+            });
+
+            final WorkerDispatcher dispatcher = pool.getDispatcher();
+            if(dispatcher != null)
+            {
+                metrics.gauge("nlp_workers", "Worker processes the engines run in.", "profile", name, new Gauge() {
+                    public double getValue() { return dispatcher.getWorkers().size(); }
+                });
+                metrics.gauge("nlp_workers_ready", "Worker processes that take documents.", "profile", name, new Gauge() {
+                    public double getValue() { return dispatcher.getReady(); }
+                });
+            }
+        }
+
+        final ResultCache cache = ResultCache.forContext(application, profiles.getDescriptors());
+        if(cache != null)
+        {
+            metrics.counter("nlp_cache_hits_total", "Results served from the memory tier of the cache.", new Gauge() {
+                public double getValue() { return cache.getHits(); }
+            });
+            metrics.counter("nlp_cache_disk_hits_total", "Results served from the disk tier of the cache.", new Gauge() {
+                public double getValue() { return cache.getDiskHits(); }
+            });
+            metrics.counter("nlp_cache_misses_total", "Documents that were not in the cache.", new Gauge() {
+                public double getValue() { return cache.getMisses(); }
+            });
+            metrics.counter("nlp_cache_evictions_total", "Results evicted from the memory tier of the cache.", new Gauge() {
+                public double getValue() { return cache.getEvictions(); }
+            });
+            metrics.counter("nlp_cache_invalidations_total", "Times the cache was cleared because the pipeline or dictionary changed.", new Gauge() {
+                public double getValue() { return cache.getInvalidations(); }
+            });
+            metrics.gauge("nlp_cache_bytes", "Bytes held by the memory tier of the cache.", new Gauge() {
+                public double getValue() { return cache.getBytes(); }
+            });
+        }
+
+        final DocumentSessions sessions = DocumentSessions.forContext(application);
+        if(sessions != null)
+        {
+            metrics.gauge("nlp_sessions", "Documents whose result is kept for incremental updates.", new Gauge() {
+                public double getValue() { return sessions.getSize(); }
+            });
+        }
+
+        final ConceptIndex index = ConceptIndex.forContext(application);
+        if(index != null)
+        {
+            metrics.gauge("nlp_index_documents", "Documents in the concept index.", new Gauge() {
+                public double getValue() { return index.getDocumentCount(); }
+            });
+            metrics.gauge("nlp_index_segments", "Segment files of the concept index.", new Gauge() {
+                public double getValue() { return index.getSegmentCount(); }
+            });
+            metrics.counter("nlp_index_flushes_total", "Segments written from the memory buffer of the concept index.", new Gauge() {
+                public double getValue() { return index.getFlushes(); }
+            });
+            metrics.counter("nlp_index_merges_total", "Merges of concept index segments.", new Gauge() {
+                public double getValue() { return index.getMerges(); }
+            });
+        }
+    }
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+
+        Writer out = response.getWriter();
+        Metrics.getDefault().write(out);
+        out.flush();
+    }
+}
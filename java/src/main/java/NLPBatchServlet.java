@@ -0,0 +1,561 @@
+import nlp.cache.ResultCache;
+import nlp.engine.Deadline;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.index.ConceptIndex;
+import nlp.information.ParseResult;
+import nlp.ingest.DocumentReader;
+import nlp.ingest.DocumentTooLargeException;
+import nlp.output.ContentEncodings;
+import nlp.output.ResultWriter;
+import nlp.output.ResultWriters;
+import nlp.snomed.SnomedService;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Parses many documents in one request. Documents are posted as multipart parts (every part
+ * with a file name) or as zip archives, either as a part or as the whole request body with
+ * Content-Type application/zip. Every document goes through the ParseQueue of the requested
+ * profile like a request to NLPServlet, and every result is streamed back as soon as it is
+ * finished, tagged with its FileName. A document that fails is reported inline and does not abort
+ * the rest of the batch. When the queue is full before anything has been written the batch is
+ * answered with 503 and Retry-After. The "format", "compact" and filter parameters and the
+ * compression are those of NLPServlet, and so is the "timeout" parameter, which holds for every
+ * document from the moment it is queued.
+ */
+@WebServlet(value = "/NLPBatchServlet", asyncSupported = true)
+@MultipartConfig
+public class NLPBatchServlet extends HttpServlet {
+    /**
+     * How long a document the full queue refused waits before it is offered again, when no other
+     * document of its batch is queued that could pick it up when it finishes.
+     */
+    private static final long RETRY_MILLIS = 200;
+
+    private ParserProfiles profiles;
+    private ScheduledExecutorService retries;
+    private ResultCache cache;
+    private SnomedService snomed;
+    private DocumentReader reader;
+    private ConceptIndex index;
+
+    public void init() throws ServletException {
+        profiles = ParserProfiles.forContext(getServletContext());
+        cache = ResultCache.forContext(getServletContext(), profiles.getDescriptors());
+        snomed = SnomedService.forContext(getServletContext());
+        reader = DocumentReader.forContext(getServletContext());
+        index = ConceptIndex.forContext(getServletContext());
+
+        retries = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-batch-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void destroy() {
+        retries.shutdownNow();
+    }
+
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        ParserProfile profile = profiles.get(request.getParameter("profile"));
+        if(profile == null)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown profile, expected one of " + profiles.getNames());
+            return;
+        }
+
+        AnnotationFilter filter;
+        String timeout = request.getParameter("timeout");
+        try {
+            filter = NLPServlet.filter(request);
+            profile.deadline(timeout);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        Documents documents;
+        String contentType = request.getContentType();
+        if(contentType != null && contentType.startsWith("multipart/"))
+        {
+            documents = new Documents(request, request.getParts(), null);
+        }
+        else if(isZip("", contentType))
+        {
+            documents = new Documents(request, null, new ZipInputStream(request.getInputStream()));
+        }
+        else
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Please upload one or more files or a zip archive");
+            return;
+        }
+
+        ResultWriter writer = ResultWriters.forRequest(request.getHeader("Accept"), request.getParameter("format"),
+                Boolean.parseBoolean(request.getParameter("compact")));
+        String encoding = ContentEncodings.negotiate(request.getHeader("Accept-Encoding"));
+
+        // The container thread only reads documents; it is released once the queue holds enough of them
+        AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+        new Batch(context, profile, filter, timeout, writer, encoding, documents).pump();
+    }
+
+    private static boolean isZip(String fileName, String contentType)
+    {
+        return fileName.toLowerCase().endsWith(".zip")
+                || (contentType != null && (contentType.startsWith("application/zip") || contentType.startsWith("application/x-zip")));
+    }
+
+    /**
+     * The documents of a request, read one at a time from its parts and from the zip archives among
+     * them or from the zip archive of the request body.
+     */
+    private class Documents {
+        private final HttpServletRequest request;
+        private final Iterator<Part> parts;
+        private ZipInputStream zip;
+
+        private Documents(HttpServletRequest request, Collection<Part> parts, ZipInputStream zip)
+        {
+            this.request = request;
+            this.parts = parts == null ? null : parts.iterator();
+            this.zip = zip;
+        }
+
+        /**
+         * The next document, or null when there are no more.
+         */
+        private Document next() throws IOException
+        {
+            while(true)
+            {
+                if(zip != null)
+                {
+                    ZipEntry entry;
+                    while((entry = zip.getNextEntry()) != null)
+                    {
+                        if(!entry.isDirectory())
+                        {
+                            Document document = read(entry.getName(), zip, request.getParameter("charset"));
+                            zip.closeEntry();
+                            return document;
+                        }
+                        zip.closeEntry();
+                    }
+                    zip = null;
+                }
+
+                if(parts == null || !parts.hasNext())
+                {
+                    return null;
+                }
+
+                Part part = parts.next();
+                String submittedFileName = part.getSubmittedFileName();
+                if(submittedFileName == null)
+                {
+                    continue;
+                }
+
+                String fileName = Paths.get(submittedFileName).getFileName().toString();
+                if(isZip(fileName, part.getContentType()))
+                {
+                    zip = new ZipInputStream(part.getInputStream());
+                }
+                else
+                {
+                    return read(fileName, part.getInputStream(), NLPServlet.charset(request, part));
+                }
+            }
+        }
+
+        /**
+         * Reads the document; a document over the size limit is reported in the batch instead of
+         * failing the whole request.
+         */
+        private Document read(String fileName, InputStream stream, String charset) throws IOException
+        {
+            try {
+                return new Document(fileName, reader.read(stream, charset), null);
+            } catch (DocumentTooLargeException e) {
+                return new Document(fileName, null, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The documents of one request. At most twice the pool size is in the queue at a time, so a
+     * batch leaves room for other requests and a large archive is never held in memory as a whole.
+     * Documents are read by one thread at a time: the container thread of the request first, then
+     * a container thread started whenever a document of the batch is written.
+     */
+    private class Batch {
+        private final AsyncContext context;
+        private final ParserProfile profile;
+        private final AnnotationFilter filter;
+        private final String timeout;
+        private final String pipeline;
+        private final ResultWriter writer;
+        private final String encoding;
+        private final HttpServletResponse response;
+        private final Documents documents;
+        private final int maxPending;
+
+        private int read;
+        private int pending;
+        private Document held;
+        private boolean waiting;
+        private boolean pumping;
+        private boolean exhausted;
+        private boolean stopped;
+        private boolean completed;
+        private OutputStream out;
+
+        private Batch(AsyncContext context, ParserProfile profile, AnnotationFilter filter, String timeout, ResultWriter writer,
+                      String encoding, Documents documents)
+        {
+            this.context = context;
+            this.profile = profile;
+            this.filter = filter;
+            this.timeout = timeout;
+            this.pipeline = profile.getDescriptor(filter);
+            this.maxPending = profile.getPool().getSize() * 2;
+            this.writer = writer;
+            this.encoding = encoding;
+            this.response = (HttpServletResponse) context.getResponse();
+            this.documents = documents;
+        }
+
+        /**
+         * Reads documents and queues them until maxPending are queued, the queue is full or there
+         * are no more; a document that finishes calls it again to carry on from there.
+         */
+        private void pump()
+        {
+            synchronized (this) {
+                if(pumping)
+                {
+                    return;
+                }
+                pumping = true;
+            }
+
+            while(true)
+            {
+                Document document;
+                synchronized (this) {
+                    // Decided while holding the batch, so a document finishing meanwhile sees pumping=false and pumps itself
+                    if(stopped || waiting || pending >= maxPending || (held == null && exhausted))
+                    {
+                        pumping = false;
+                        break;
+                    }
+                    document = held;
+                    held = null;
+                }
+
+                if(document == null)
+                {
+                    try {
+                        document = documents.next();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        unreadable(e);
+                        continue;
+                    }
+
+                    if(document == null)
+                    {
+                        synchronized (this) {
+                            exhausted = true;
+                        }
+                        continue;
+                    }
+                    synchronized (this) {
+                        read++;
+                    }
+                }
+
+                submit(document);
+            }
+
+            finishIfDone();
+        }
+
+        private void submit(final Document document)
+        {
+            if(document.error != null)
+            {
+                write(new Item(document.fileName, null, document.error));
+                return;
+            }
+
+            ParseResult cached = cache == null ? null : cache.get(pipeline, document.fileName, document.content);
+            if(cached != null)
+            {
+                write(new Item(document.fileName, cached, null));
+                return;
+            }
+
+            final Deadline deadline = profile.deadline(timeout);
+            ParseQueue queue = profile.getQueue();
+            synchronized (this) {
+                pending++;
+            }
+            try {
+                queue.submit(new ParseQueue.Job() {
+                    public void run(double queued) {
+                        finished(parse(document, deadline));
+                    }
+
+                    public void expired() {
+                        finished(new Item(document.fileName, null, new ParseTimeoutException(deadline, null).getMessage()));
+                    }
+                }, deadline);
+            } catch (RejectedExecutionException e) {
+                rejected(document, queue);
+            }
+        }
+
+        /**
+         * Keeps a document the full queue refused until a document of the batch finishes, or for
+         * RETRY_MILLIS when none is queued. When nothing has been written yet the batch is answered
+         * with 503 instead.
+         */
+        private void rejected(Document document, ParseQueue queue)
+        {
+            synchronized (this) {
+                pending--;
+                if(pending == 0 && out == null)
+                {
+                    stopped = true;
+                    try {
+                        response.setHeader("Retry-After", Integer.toString(queue.getRetryAfter()));
+                        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many documents are waiting to be parsed, please try again later");
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+
+                held = document;
+                waiting = true;
+                if(pending > 0)
+                {
+                    return;
+                }
+            }
+
+            try {
+                retries.schedule(new Runnable() {
+                    public void run() {
+                        resume();
+                    }
+                }, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The servlet is being destroyed
+                synchronized (this) {
+                    stopped = true;
+                }
+            }
+        }
+
+        /**
+         * An upload that cannot be read, such as a damaged zip archive, ends the batch after the
+         * documents read before it.
+         */
+        private synchronized void unreadable(IOException e)
+        {
+            exhausted = true;
+            if(out == null && read == 0)
+            {
+                stopped = true;
+                try {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Could not read the upload: " + e.getMessage());
+                } catch (IOException f) {
+                    f.printStackTrace();
+                }
+                return;
+            }
+            write(new Item(null, null, "Could not read the upload: " + e.getMessage()));
+        }
+
+        private Item parse(Document document, Deadline deadline)
+        {
+            try {
+                ParseResult result = profile.parse(document.fileName, document.content, filter, deadline);
+                if(result != null && cache != null)
+                {
+                    cache.put(pipeline, document.content, result);
+                }
+                if(result != null && index != null && filter.isAll())
+                {
+                    index.add(result);
+                }
+                return new Item(document.fileName, result, result == null ? "Could not parse the document" : null);
+            } catch (ParseTimeoutException e) {
+                return new Item(document.fileName, null, e.getMessage());
+            } catch (Exception e) {
+                return new Item(document.fileName, null, e.toString());
+            }
+        }
+
+        /**
+         * Writes a document that left the queue and resumes reading.
+         */
+        private void finished(Item item)
+        {
+            write(item);
+            synchronized (this) {
+                pending--;
+            }
+            resume();
+        }
+
+        /**
+         * Has the next documents read on a container thread, so neither a queue thread nor the
+         * retry thread waits for the upload.
+         */
+        private void resume()
+        {
+            synchronized (this) {
+                waiting = false;
+            }
+
+            try {
+                context.start(new Runnable() {
+                    public void run() {
+                        pump();
+                    }
+                });
+            } catch (IllegalStateException e) {
+                // The container is shutting down; read on here instead
+                pump();
+            }
+        }
+
+        private synchronized void write(Item item)
+        {
+            if(stopped)
+            {
+                return;
+            }
+
+            try {
+                start();
+                if(item.error == null)
+                {
+                    if(snomed != null)
+                    {
+                        snomed.enrich(item.result);
+                    }
+                    writer.writeBatchResult(item.result);
+                }
+                else
+                {
+                    writer.writeBatchError(item.fileName, item.error);
+                }
+            } catch (IOException e) {
+                // The client went away; the queued documents still run but are not written
+                stopped = true;
+            }
+        }
+
+        private void finishIfDone()
+        {
+            synchronized (this) {
+                if(completed || pumping || pending > 0 || !(exhausted || stopped))
+                {
+                    return;
+                }
+                completed = true;
+
+                try {
+                    if(!stopped)
+                    {
+                        if(read == 0)
+                        {
+                            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Please upload one or more files or a zip archive");
+                        }
+                        else
+                        {
+                            start();
+                            writer.endBatch();
+                            ContentEncodings.finish(out);
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            context.complete();
+        }
+
+        private void start() throws IOException
+        {
+            if(out != null)
+            {
+                return;
+            }
+
+            response.setContentType(writer.getBatchContentType());
+            response.setHeader("Vary", "Accept, Accept-Encoding");
+            if(encoding != null)
+            {
+                response.setHeader("Content-Encoding", encoding);
+            }
+            out = ContentEncodings.wrap(response.getOutputStream(), encoding);
+            writer.startBatch(out);
+        }
+    }
+
+    private static class Document {
+        private final String fileName;
+        private final String content;
+        private final String error;
+
+        private Document(String fileName, String content, String error)
+        {
+            this.fileName = fileName;
+            this.content = content;
+            this.error = error;
+        }
+    }
+
+    private static class Item {
+        private final String fileName;
+        private final ParseResult result;
+        private final String error;
+
+        private Item(String fileName, ParseResult result, String error)
+        {
+            this.fileName = fileName;
+            this.result = result;
+            this.error = error;
+        }
+    }
+}
@@ -1,3 +1,18 @@
+import nlp.cache.ResultCache;
+import nlp.engine.Deadline;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.index.ConceptIndex;
+import nlp.information.ParseResult;
+import nlp.ingest.DocumentReader;
+import nlp.ingest.DocumentTooLargeException;
+import nlp.metrics.Metrics;
+import nlp.output.ContentEncodings;
+import nlp.output.ResultWriter;
+import nlp.output.ResultWriters;
+import nlp.snomed.SnomedService;
+
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
@@ -7,63 +22,249 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.concurrent.RejectedExecutionException;
 
-@WebServlet("/NLPServlet")
+@WebServlet(value = "/NLPServlet", asyncSupported = true)
 @MultipartConfig
 public class NLPServlet extends HttpServlet {
-    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    private ParserProfiles profiles;
+    private ResultCache cache;
+    private SnomedService snomed;
+    private DocumentReader reader;
+    private ConceptIndex index;
 
+    public void init() throws ServletException {
         ServletContext application = getServletContext();
-        Parser parser = (Parser) application.getAttribute("parser");
-        if(parser == null)
+        profiles = ParserProfiles.forContext(application);
+        cache = ResultCache.forContext(application, profiles.getDescriptors());
+        index = ConceptIndex.forContext(application);
+        snomed = SnomedService.forContext(application);
+        reader = DocumentReader.forContext(application);
+    }
+
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String fileName = "";
+        String fileContent;
+
+        // Form fields are UTF-8 unless the client says otherwise; the container would assume ISO-8859-1
+        if(request.getCharacterEncoding() == null)
         {
-            parser = new Parser();
-            application.setAttribute("parser", parser);
+            request.setCharacterEncoding("UTF-8");
         }
-        else
+
+        final ParserProfile profile = profiles.get(request.getParameter("profile"));
+        if(profile == null)
         {
-            System.out.println("- The parser already existed in the ServletContext - ");
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown profile, expected one of " + profiles.getNames());
+            return;
         }
 
-        if(request.getParameterMap().containsKey("text"))
-        {
-            String text = request.getParameter("text");
-            byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
-            text = new String(bytes, StandardCharsets.UTF_8);
+        // The time budget includes the time spent waiting in the queue
+        final AnnotationFilter filter;
+        final Deadline deadline;
+        try {
+            filter = filter(request);
+            deadline = profile.deadline(request.getParameter("timeout"));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
 
-            parser.setText(text);
-            System.out.println(text);
+        try {
+            if(request.getParameterMap().containsKey("text"))
+            {
+                fileContent = request.getParameter("text");
+                reader.checkText(fileContent);
+            }
+            else if(request.getPart("file") != null)
+            {
+                Part filePart = request.getPart("file");
+                fileName = Paths.get(filePart.getSubmittedFileName()).getFileName().toString();
+                reader.checkSize(filePart.getSize());
+                fileContent = reader.read(filePart.getInputStream(), charset(request, filePart));
+            }
+            else
+            {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Please upload file or post text");
+                return;
+            }
+        } catch (DocumentTooLargeException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            return;
         }
-        else if(request.getPart("file") != null)
+
+        // A document that has been parsed before with the same pipeline skips the queue and the pipeline
+        if(cache != null)
         {
-            Part filePart = request.getPart("file");
-            String fileName = Paths.get(filePart.getSubmittedFileName()).getFileName().toString();
-            InputStream fileStream = filePart.getInputStream();
-            String fileContent = convertStreamToString(fileStream);
+            ParseResult cached = cache.get(profile.getDescriptor(filter), fileName, fileContent);
+            if(cached != null)
+            {
+                response.setHeader("X-Cache", "HIT");
+                write(request, response, cached);
+                return;
+            }
+        }
+
+        // The pipeline runs on a thread of the ParseQueue of the profile; the container thread is released right away
+        final String name = fileName;
+        final String content = fileContent;
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(0);
 
+        ParseQueue queue = profile.getQueue();
+        try {
+            queue.submit(new ParseQueue.Job() {
+                public void run(double queued) {
+                    try {
+                        parse(context, profile, filter, deadline, name, content, queued);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        context.complete();
+                    }
+                }
 
-            parser.setFile(fileName, fileContent);
+                public void expired() {
+                    try {
+                        timedOut((HttpServletRequest) context.getRequest(), (HttpServletResponse) context.getResponse(),
+                                new ParseTimeoutException(deadline, null));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        context.complete();
+                    }
+                }
+            }, deadline);
+        } catch (RejectedExecutionException e) {
+            response.setHeader("Retry-After", Integer.toString(queue.getRetryAfter()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many documents are waiting to be parsed, please try again later");
+            context.complete();
         }
-        else
+    }
+
+    private void parse(AsyncContext context, ParserProfile profile, AnnotationFilter filter, Deadline deadline,
+                       String fileName, String fileContent, double queued) throws IOException
+    {
+        HttpServletRequest request = (HttpServletRequest) context.getRequest();
+        HttpServletResponse response = (HttpServletResponse) context.getResponse();
+
+        ParserPool pool = profile.getPool();
+        ChunkedParser chunked = profile.getChunked();
+        long startTime = System.nanoTime();
+        ParseResult result;
+        double waited;
+
+        try {
+            if(chunked != null && chunked.accepts(fileContent))
+            {
+                // Long documents are split and spread over several workers; the wait is part of the parse
+                waited = 0;
+                result = chunked.parse(fileName, fileContent, filter, deadline);
+            }
+            else
+            {
+                Parser parser = pool.borrow(deadline);
+                waited = (System.nanoTime() - startTime) / 1000000.0;
+
+                try {
+                    if(fileName.isEmpty())
+                    {
+                        parser.setText(fileContent);
+                    }
+                    else
+                    {
+                        parser.setFile(fileName, fileContent);
+                    }
+                    result = parser.parse(filter, deadline);
+                } finally {
+                    pool.release(parser);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted while waiting for a parser");
+            return;
+        } catch (ParseTimeoutException e) {
+            timedOut(request, response, e);
+            return;
+        }
+
+        if(result == null)
         {
-            System.out.println("Please upload file or post text");
-            System.exit(0);
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Could not parse the document");
+            return;
         }
-        String xml = parser.getXML();
 
-        response.setContentType("text/xml; charset=UTF-8");
-        response.setCharacterEncoding("UTF-8");
+        if(cache != null)
+        {
+            cache.put(profile.getDescriptor(filter), fileContent, result);
+            response.setHeader("X-Cache", "MISS");
+        }
+        // Only complete results are indexed, a filtered one would hide the mentions it left out
+        if(index != null && filter.isAll())
+        {
+            try {
+                response.setHeader("X-Index-Id", Integer.toString(index.add(result)));
+            } catch (InterruptedException e) {
+                // The result is still returned, it is only missing from the index
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        response.setHeader("X-Queue-Wait", Double.toString(queued));
+        response.setHeader("X-Parser-Wait", Double.toString(waited));
+        write(request, response, result);
+    }
+
+    /**
+     * Answers a document that was not parsed within its time budget with 504. With partial=true the
+     * annotations of the annotators that finished are returned in the body, when there are any; they
+     * are never cached or indexed.
+     */
+    private void timedOut(HttpServletRequest request, HttpServletResponse response, ParseTimeoutException e) throws IOException
+    {
+        if(e.getPartial() != null && Boolean.parseBoolean(request.getParameter("partial")))
+        {
+            response.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+            response.setHeader("X-Partial-Result", "true");
+            write(request, response, e.getPartial());
+            return;
+        }
+
+        response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, e.getMessage());
+    }
+
+    private void write(HttpServletRequest request, HttpServletResponse response, ParseResult result) throws IOException
+    {
+        // XML stays the default; JSON and binary are chosen through the Accept header or the format parameter.
+        // compact=true leaves out the text the client sent, and gzip or deflate is used when it is accepted
+        ResultWriter writer = ResultWriters.forRequest(request.getHeader("Accept"), request.getParameter("format"),
+                Boolean.parseBoolean(request.getParameter("compact")));
+        String encoding = ContentEncodings.negotiate(request.getHeader("Accept-Encoding"));
+
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+        response.setContentType(writer.getContentType());
         response.setHeader("Content-Disposition",
-                "attachment;filename=download.xml");
-        PrintWriter out = response.getWriter();
-        out.println(xml);
-        parser = null;
-        out = null;
-        System.gc();
+                "attachment;filename=download." + writer.getFileExtension());
+        // The cache holds results without SNOMED CT information, so a new release needs no invalidation
+        if(snomed != null)
+        {
+            snomed.enrich(result);
+        }
+
+        if(encoding != null)
+        {
+            response.setHeader("Content-Encoding", encoding);
+        }
+
+        OutputStream out = ContentEncodings.wrap(response.getOutputStream(), encoding);
+        long startTime = System.nanoTime();
+        writer.write(result, out);
+        ContentEncodings.finish(out);
+        Metrics.getDefault().histogram(Parser.STAGE_METRIC, Parser.STAGE_HELP, "stage", "serialization").observeNanos(System.nanoTime() - startTime);
     }
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -75,8 +276,34 @@ public class NLPServlet extends HttpServlet {
         out.println("Please upload the file by using a POST request.");
     }
 
-    private String convertStreamToString(java.io.InputStream is) {
-        java.util.Scanner s = new java.util.Scanner(is, "UTF-8").useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
+    public void destroy() {
+        profiles.shutdown();
+        if(cache != null)
+        {
+            cache.shutdown();
+        }
+    }
+
+    /**
+     * The annotations the client asked for: "types" (annotation short names), "schemes" (coding
+     * schemes of concepts), "tuis" (semantic types of concepts), each repeated or comma-separated,
+     * and "polarity" (-1 or 1). Without any of them everything is returned.
+     *
+     * @throws IllegalArgumentException when a parameter has an invalid value
+     */
+    static AnnotationFilter filter(HttpServletRequest request)
+    {
+        return AnnotationFilter.parse(request.getParameterValues("types"), request.getParameterValues("schemes"),
+                request.getParameterValues("tuis"), request.getParameter("polarity"));
+    }
+
+    /**
+     * The charset of an uploaded file: the "charset" request parameter, else the charset of the part
+     * Content-Type, else null so the DocumentReader detects it.
+     */
+    static String charset(HttpServletRequest request, Part part)
+    {
+        String charset = request.getParameter("charset");
+        return charset != null ? charset : DocumentReader.charsetOf(part.getContentType());
     }
-}
\ No newline at end of file
+}
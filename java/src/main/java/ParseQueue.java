@@ -0,0 +1,215 @@
+import nlp.engine.Deadline;
+import nlp.engine.EngineConfiguration;
+import nlp.metrics.Metrics;
+
+import javax.servlet.ServletContext;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounded queue of parse jobs in front of the ParserPool. One thread per pool worker takes
+ * jobs off the queue, so container threads are never blocked by the pipeline. When the queue
+ * is full a job is rejected straight away, which the servlet turns into a 503 with Retry-After.
+ * A job with a deadline that is still queued when the deadline passes is taken off the queue by
+ * a watchdog thread, so its client hears about it then instead of once a thread is free. The
+ * watch of a job is cancelled when a thread picks it up, so busy queues do not pile up timers.
+ */
+public class ParseQueue {
+    public static final String CAPACITY_PARAMETER = "parser.queue.capacity";
+    public static final String RETRY_AFTER_PARAMETER = "parser.queue.retryAfter";
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor watchdog;
+    private final int capacity;
+    private final int retryAfter;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ParseQueue(final String name, int threads, int capacity, int retryAfter)
+    {
+        this.capacity = capacity;
+        this.retryAfter = retryAfter;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-parse-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-watchdog-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // A cancelled watch would otherwise stay in the scheduler until its deadline
+        watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Creates the queue of a profile with one thread per pool worker, the capacity from
+     * "parser.queue.capacity" (four jobs per worker by default) and the delay from
+     * "parser.queue.retryAfter" (5 seconds by default).
+     */
+    public static ParseQueue forProfile(ServletContext application, String profile, ParserPool pool)
+    {
+        int capacity = intParameter(application, profile, CAPACITY_PARAMETER, pool.getSize() * 4);
+        int retryAfter = intParameter(application, profile, RETRY_AFTER_PARAMETER, 5);
+
+        return new ParseQueue(profile, pool.getSize(), capacity, retryAfter);
+    }
+
+    private static int intParameter(ServletContext application, String profile, String name, int defaultValue)
+    {
+        String value = EngineConfiguration.parameter(application, profile, name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Queues a job, or throws RejectedExecutionException when the queue is full.
+     */
+    public void submit(Job job) throws RejectedExecutionException
+    {
+        submit(job, Deadline.NONE);
+    }
+
+    /**
+     * Queues a job like submit(job); when it has not been picked up by the deadline, it is taken off
+     * the queue and expired() is called on the watchdog thread instead of run().
+     */
+    public void submit(final Job job, Deadline deadline) throws RejectedExecutionException
+    {
+        final long queuedTime = System.nanoTime();
+        final AtomicReference<ScheduledFuture<?>> watch = new AtomicReference<ScheduledFuture<?>>();
+        final Runnable task = new Runnable() {
+            public void run() {
+                ScheduledFuture<?> timer = watch.get();
+                if(timer != null)
+                {
+                    timer.cancel(false);
+                }
+
+                long waitNanos = System.nanoTime() - queuedTime;
+                recordWait(waitNanos);
+                job.run(waitNanos / 1000000.0);
+            }
+        };
+
+        // Watched before it is queued, so a thread that picks it up right away can cancel the watch
+        if(!deadline.isNone())
+        {
+            watch.set(watchdog.schedule(new Runnable() {
+                public void run() {
+                    // Fails when a thread has taken the job, which then keeps to the deadline itself
+                    if(executor.remove(task))
+                    {
+                        recordWait(System.nanoTime() - queuedTime);
+                        Metrics.getDefault().counter(Parser.TIMEOUT_METRIC, Parser.TIMEOUT_HELP, "outcome", "waiting").incrementAndGet();
+                        job.expired();
+                    }
+                }
+            }, Math.max(deadline.remainingNanos(), 0), TimeUnit.NANOSECONDS));
+        }
+
+        try {
+            executor.execute(task);
+            accepted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            if(watch.get() != null)
+            {
+                watch.get().cancel(false);
+            }
+            throw e;
+        }
+    }
+
+    private void recordWait(long waitNanos)
+    {
+        Metrics.getDefault().histogram("nlp_queue_wait_seconds", "Time parse jobs spent in the queue before a thread picked them up.").observeNanos(waitNanos);
+
+        started.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+
+        long max = maxWaitNanos.get();
+        while(waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos))
+        {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public int getRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    public int getDepth()
+    {
+        return executor.getQueue().size();
+    }
+
+    public int getActive()
+    {
+        return executor.getActiveCount();
+    }
+
+    public long getAccepted()
+    {
+        return accepted.get();
+    }
+
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    public double getAverageWaitMillis()
+    {
+        long count = started.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxWaitMillis()
+    {
+        return maxWaitNanos.get() / 1000000.0;
+    }
+
+    /**
+     * Work handed to the queue; receives how long it waited before a thread picked it up.
+     */
+    public interface Job {
+        void run(double waitedMillis);
+
+        /**
+         * Called instead of run() when the deadline passed while the job was still queued.
+         */
+        void expired();
+    }
+}
@@ -1,61 +1,74 @@
-import nlp.information.SemanticInformation;
-import nlp.information.SyntaxInformation;
-import nlp.information.UMLSConcept;
-import org.apache.ctakes.typesystem.type.refsem.OntologyConcept;
-import org.apache.ctakes.typesystem.type.syntax.BaseToken;
-import org.apache.ctakes.typesystem.type.syntax.ConllDependencyNode;
-import org.apache.ctakes.typesystem.type.textsem.IdentifiedAnnotation;
-import org.apache.uima.analysis_engine.AnalysisEngine;
-import org.apache.uima.analysis_engine.AnalysisEngineDescription;
-import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import nlp.dispatch.WorkerDispatcher;
+import nlp.engine.Deadline;
+import nlp.engine.Engine;
+import nlp.engine.EngineConfiguration;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationExtractor;
+import nlp.extraction.AnnotationFilter;
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.metrics.Metrics;
+import org.apache.uima.analysis_engine.AnalysisEngineManagement;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.factory.JCasFactory;
-import org.apache.uima.fit.pipeline.SimplePipeline;
-import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.jcas.cas.FSArray;
-import org.apache.uima.jcas.tcas.Annotation;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Parser {
     private String fileName;
     private String fileContent;
-    private AnalysisEngineDescription pipelineIncludingUmlsDictionaries;
-    private AnalysisEngine ae;
+    private Engine engine;
     private JCas jcas;
-    private Document xmlDoc;
     private double durationCreating;
     private boolean createdBefore;
+    private HashMap<String, Long> annotatorTimes = new HashMap<String, Long>();
+    private AnnotationExtractor extractor = new AnnotationExtractor();
+    private ExecutorService engineThread;
+    private volatile boolean abandoned;
+    // Counted down when the last run on the engine thread has stopped
+    private volatile CountDownLatch running;
+    private WorkerDispatcher dispatcher;
+
+    private static final AtomicInteger engineThreads = new AtomicInteger();
 
+    // Descriptor of profiles without "parser.descriptor"; other pipelines, such as the ytex one, are configured as profiles
     public static final String PROCESSOR = "/Users/martijn/IdeaProjects/ctakesrunner/cTAKES-3.2.2/desc/ctakes-clinical-pipeline/desc/analysis_engine/AggregatePlaintextFastUMLSProcessor.xml";
-    //public static final String PROCESSOR = "/Users/martijn/IdeaProjects/ctakesrunner/cTAKES-3.2.2/desc/ctakes-ytex-uima/desc/analysis_engine/AggregatePlaintextUMLSProcessor.xml";
-    public static final String CUI_REGEX = "cui: \"([^\"]*)\"";
+
+    public static final String STAGE_METRIC = "nlp_stage_seconds";
+    public static final String STAGE_HELP = "Time spent per document in each processing stage.";
+    public static final String ANNOTATOR_METRIC = "nlp_annotator_seconds";
+    public static final String ANNOTATOR_HELP = "Time spent per document in each delegate annotator of the pipeline.";
+    public static final String TIMEOUT_METRIC = "nlp_timeouts_total";
+    public static final String TIMEOUT_HELP = "Documents that were not parsed within their time budget, by what happened to the run.";
+
+    // How long an interrupted pipeline gets to stop before its engine and JCas are given up
+    private static final long STOP_GRACE_MILLIS = 1000;
 
     public Parser() {
+        this(new EngineConfiguration(EngineConfiguration.CTAKES, PROCESSOR, 0, 0));
+    }
+
+    public Parser(EngineConfiguration configuration) {
         try {
             long startTime = System.nanoTime();
 
-            pipelineIncludingUmlsDictionaries = AnalysisEngineFactory.createEngineDescriptionFromPath(PROCESSOR);
-            ae = AnalysisEngineFactory.createEngine(pipelineIncludingUmlsDictionaries);
+            engine = configuration.createEngine();
             jcas = JCasFactory.createJCas();
 
             long endTime = System.nanoTime();
@@ -68,367 +81,350 @@ public class Parser {
         }
     }
 
+    /**
+     * A Parser without an engine of its own, which hands every document to a worker process of the
+     * dispatcher.
+     */
+    public Parser(WorkerDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public boolean isInitialized()
+    {
+        return dispatcher != null || (engine != null && jcas != null);
+    }
+
     public void setFile(String name, String content)
     {
         fileName = name;
         fileContent = content;
-        setXML();
     }
 
     public void setText(String content)
     {
         fileName = "";
         fileContent = content;
-        setXML();
     }
 
-    private void setXML()
+    public ParseResult parse()
+    {
+        return parse(AnnotationFilter.ALL);
+    }
+
+    /**
+     * Runs the pipeline on the document and copies the annotations the filter accepts out of the CAS.
+     */
+    public ParseResult parse(AnnotationFilter filter)
     {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder;
         try {
-            docBuilder = docFactory.newDocumentBuilder();
-            xmlDoc = docBuilder.newDocument();
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
+            return parse(filter, Deadline.NONE);
+        } catch (ParseTimeoutException e) {
+            // Not thrown without a deadline
+            return null;
+        } catch (InterruptedException e) {
+            // Neither is this, the pipeline then runs on the calling thread
+            Thread.currentThread().interrupt();
+            return null;
         }
     }
 
-    public String getXML()
+    /**
+     * Parses the document like parse(filter), abandoning the run when the deadline passes. The
+     * pipeline then runs on a thread of its own, which is interrupted at the deadline; when it stops
+     * within a second the annotations so far are thrown along as a partial result. When it does not,
+     * the engine and JCas are left to it and this Parser is abandoned, so the pool replaces it.
+     *
+     * @throws ParseTimeoutException when the document was not parsed before the deadline
+     * @throws InterruptedException when the calling thread was interrupted while the pipeline ran
+     */
+    public ParseResult parse(AnnotationFilter filter, Deadline deadline) throws ParseTimeoutException, InterruptedException
     {
-        String output = null;
+        if(dispatcher != null)
+        {
+            return parseRemote(filter, deadline);
+        }
 
-        long startTime;
-        long endTime;
-        double duration;
+        ParseResult result = null;
+        boolean complete = false;
 
         try {
-            startTime = System.nanoTime();
+            long startTime = System.nanoTime();
             // Set-up UIMA environment
             jcas.setDocumentText(fileContent);
 
             // Run cTAKES Pipeline
-            SimplePipeline.runPipeline(jcas, ae);
-
-            endTime = System.nanoTime();
-            duration = (endTime - startTime) / 1000000000.0;
-            System.out.println("\n*** Done parsing document in " + duration + " sec. ***\n");
-
-            // Create document and document root
-
-            Element xmlRoot = xmlDoc.createElement("AnnotatedOutput");
-            xmlDoc.appendChild(xmlRoot);
-
-            // Add filename to XML output
-            Element xmlElementFileName = xmlDoc.createElement("FileName");
-            xmlElementFileName.appendChild(xmlDoc.createTextNode(fileName));
-            xmlRoot.appendChild(xmlElementFileName);
-
-            // Add input string to XML output
-            Element xmlElementInput = xmlDoc.createElement("Input");
-            xmlElementInput.appendChild(xmlDoc.createTextNode(fileContent));
-            xmlRoot.appendChild(xmlElementInput);
-
-            // Add Syntax elements (WorkToken, NP, VP, ...) to XML output
-            HashMap<String, ArrayList<SyntaxInformation>> syntaxMap = getSyntax();
-            Element xmlSyntax = xmlDoc.createElement("Syntax");
-            xmlSyntax = generateSyntaxXML(syntaxMap, xmlSyntax);
-            xmlRoot.appendChild(xmlSyntax);
+            complete = process(deadline);
 
-            // Add Semantic elements (ProcedureMention, SemanticArgument, ...) to XML output
-            HashMap<String, ArrayList<SemanticInformation>> semanticMap = getSemantic();
-            Element xmlSemantic = xmlDoc.createElement("Semantic");
-            xmlSemantic = generateSemanticXML(semanticMap, xmlSemantic);
-            xmlRoot.appendChild(xmlSemantic);
-
-            Element xmlElementDuration = xmlDoc.createElement("Duration");
-
-            Element xmlElementCreateDuration = xmlDoc.createElement("Environment");
-            xmlElementCreateDuration.appendChild(xmlDoc.createTextNode(Double.toString(durationCreating)));
+            long endTime = System.nanoTime();
+            double duration = (endTime - startTime) / 1000000000.0;
+            Metrics metrics = Metrics.getDefault();
 
-            Attr xmlSyntaxElementCreated = xmlDoc.createAttribute("existed");
-            xmlSyntaxElementCreated.setValue(String.valueOf(createdBefore));
-            xmlElementCreateDuration.setAttributeNode(xmlSyntaxElementCreated);
+            if(complete)
+            {
+                System.out.println("\n*** Done parsing document in " + duration + " sec. ***\n");
 
-            xmlElementDuration.appendChild(xmlElementCreateDuration);
+                metrics.histogram(STAGE_METRIC, STAGE_HELP, "stage", "pipeline").observeNanos(endTime - startTime);
+            }
+            else
+            {
+                System.out.println("\n*** Stopped parsing document after " + duration + " sec., the time budget was exceeded ***\n");
+            }
 
-            Element xmlElementParseDuration = xmlDoc.createElement("Parsing");
-            xmlElementParseDuration.appendChild(xmlDoc.createTextNode(Double.toString(duration)));
-            xmlElementDuration.appendChild(xmlElementParseDuration);
+            // Copy the Syntax (WorkToken, NP, VP, ...) and Semantic (ProcedureMention, SemanticArgument, ...)
+            // elements out of the CAS, so it can be reset before the output is written
+            startTime = System.nanoTime();
+            SyntaxAnnotations syntax = extractor.getSyntax(jcas, filter);
+            endTime = System.nanoTime();
+            metrics.histogram(STAGE_METRIC, STAGE_HELP, "stage", "syntax_extraction").observeNanos(endTime - startTime);
 
-            xmlRoot.appendChild(xmlElementDuration);
+            startTime = endTime;
+            SemanticAnnotations semantic = extractor.getSemantic(jcas, filter);
+            endTime = System.nanoTime();
+            metrics.histogram(STAGE_METRIC, STAGE_HELP, "stage", "semantic_extraction").observeNanos(endTime - startTime);
 
-            // Generate output
-            output = xmlToString(xmlDoc);
-            setNull();
+            result = new ParseResult(fileName, fileContent, syntax, semantic, durationCreating, createdBefore, duration);
 
+            if(!complete)
+            {
+                metrics.counter(TIMEOUT_METRIC, TIMEOUT_HELP, "outcome", "partial").incrementAndGet();
+                throw new ParseTimeoutException(deadline, result);
+            }
+        } catch (ParseTimeoutException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            // An abandoned run may still be writing to the JCas
+            if(jcas != null && !abandoned)
+            {
+                // Runs that were cut short or failed only move the baseline, so their time is not
+                // added to the next document
+                recordAnnotatorTimes(complete);
+                setNull();
+            }
+            createdBefore = true;
         }
 
-        startTime = System.nanoTime();
-        endTime = System.nanoTime();
-        duration = (endTime - startTime) / 1000000000.0;
-
-        createdBefore = true;
-
-        System.out.println("\n*** Done generating XML in " + duration + " sec. ***\n");
-
-        return output;
+        return result;
     }
 
-    private HashMap<String, ArrayList<SyntaxInformation>> getSyntax()
+    private ParseResult parseRemote(AnnotationFilter filter, Deadline deadline) throws ParseTimeoutException
     {
-        HashMap<String, ArrayList<SyntaxInformation>> syntaxMap = new HashMap<String, ArrayList<SyntaxInformation>>();
-
-        for (Annotation chunk : JCasUtil.select(jcas, Annotation.class))
-        {
-
-            if(!syntaxMap.containsKey(chunk.getType().getShortName()))
+        long startTime = System.nanoTime();
+        try {
+            ParseResult result = dispatcher.parse(fileName, fileContent, filter, deadline);
+            if(result != null)
             {
-                syntaxMap.put(chunk.getType().getShortName(), new ArrayList<SyntaxInformation>());
-            }
-
-            if(chunk.getType().getName().contains("org.apache.ctakes.typesystem.type.syntax")) {
-                int dependentBegin = 0;
-                int dependentEnd = 0;
-                String dependentText = null;
-                String relation = null;
-                int token = -1;
-                int id = -1;
-                int dependentId = -1;
-
-                if(chunk.getType().getName().contains("org.apache.ctakes.typesystem.type.syntax.ConllDependencyNode")) {
-                    ConllDependencyNode chunk2 = (ConllDependencyNode) chunk;
-                    ConllDependencyNode head = chunk2.getHead();
-
-                    if(head != null) {
-                        dependentBegin = head.getBegin();
-                        dependentEnd = head.getEnd();
-                        dependentText = head.getCoveredText();
-                        dependentId = head.hashCode();
-                    }
-                    relation = chunk2.getDeprel();
-
-                    id = chunk2.hashCode();
-                }
-
-                if(chunk.getType().getName().contains("Token"))
-                {
-                    BaseToken baseToken = (BaseToken) chunk;
-                    token = baseToken.getTokenNumber();
-                }
-
-                ArrayList<SyntaxInformation> list = syntaxMap.get(chunk.getType().getShortName());
-                list.add(new SyntaxInformation(
-                        id,
-                        chunk.getCoveredText(),
-                        chunk.getType().getShortName(),
-                        relation,
-                        chunk.getBegin(),
-                        chunk.getEnd(),
-                        token,
-                        dependentId,
-                        dependentBegin,
-                        dependentEnd,
-                        dependentText
-                ));
-                syntaxMap.put(chunk.getType().getShortName(), list);
+                Metrics.getDefault().histogram(STAGE_METRIC, STAGE_HELP, "stage", "worker").observeNanos(System.nanoTime() - startTime);
             }
+            return result;
+        } catch (ParseTimeoutException e) {
+            // The worker process counts how its run ended; here it only shows whether something came back
+            Metrics.getDefault().counter(TIMEOUT_METRIC, TIMEOUT_HELP, "outcome", e.getPartial() != null ? "partial" : "worker").incrementAndGet();
+            throw e;
         }
-
-        return syntaxMap;
     }
 
-    private HashMap<String, ArrayList<SemanticInformation>> getSemantic()
+    /**
+     * Runs the engine over the JCas; returns false when it was interrupted at the deadline and
+     * stopped in time, so the JCas holds what the annotators added until then.
+     */
+    private boolean process(Deadline deadline) throws AnalysisEngineProcessException, ParseTimeoutException, InterruptedException
     {
-        HashMap<String, ArrayList<SemanticInformation>> semanticMap = new HashMap<String, ArrayList<SemanticInformation>>();
-
-        for (IdentifiedAnnotation entity : JCasUtil.select(jcas, IdentifiedAnnotation.class))
+        if(deadline.isNone())
         {
-            if(!semanticMap.containsKey(entity.getType().getShortName()))
-            {
-                semanticMap.put(entity.getType().getShortName(), new ArrayList<SemanticInformation>());
-            }
-
-            ArrayList<SemanticInformation> list = semanticMap.get(entity.getType().getShortName());
-
-            SemanticInformation information = new SemanticInformation(
-                    entity.getCoveredText(),
-                    entity.getType().getShortName(),
-                    entity.getBegin(),
-                    entity.getEnd(),
-                    entity.getPolarity(),
-                    entity.getSubject(),
-                    entity.getHistoryOf()
-            );
-
-            FSArray concepts = entity.getOntologyConceptArr();
-
-            //System.out.println(entity.getCoveredText() + " : " + concepts);
-            if(concepts != null) {
-                for (int i = 0; i < concepts.size(); i++) {
-                    OntologyConcept ontologyConcept = (OntologyConcept) concepts.get(i);
+            engine.process(jcas);
+            return true;
+        }
 
-                    String string = ontologyConcept.toString();
-                    Pattern pattern = Pattern.compile(CUI_REGEX);
-                    Matcher matcher = pattern.matcher(string);
-                    String cui = null;
+        Metrics metrics = Metrics.getDefault();
+        if(deadline.isExpired())
+        {
+            metrics.counter(TIMEOUT_METRIC, TIMEOUT_HELP, "outcome", "waiting").incrementAndGet();
+            throw new ParseTimeoutException(deadline, null);
+        }
 
-                    if (matcher.find()) {
-                        cui = matcher.group(1);
-                    }
+        if(engineThread == null)
+        {
+            engineThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "nlp-engine-" + engineThreads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
 
-                    information.addConcept(ontologyConcept.getCode(), ontologyConcept.getCodingScheme(), cui);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        running = stopped;
+        Future<Void> run = engineThread.submit(new Callable<Void>() {
+            public Void call() throws AnalysisEngineProcessException {
+                try {
+                    engine.process(jcas);
+                    return null;
+                } finally {
+                    stopped.countDown();
                 }
             }
+        });
 
-            list.add(information);
-            semanticMap.put(entity.getType().getShortName(), list);
+        try {
+            run.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof AnalysisEngineProcessException)
+            {
+                throw (AnalysisEngineProcessException) e.getCause();
+            }
+            throw new AnalysisEngineProcessException(e.getCause());
+        } catch (TimeoutException e) {
+            run.cancel(true);
+        } catch (InterruptedException e) {
+            // The request itself was cancelled, e.g. because another chunk of its document timed out
+            run.cancel(true);
+            // Not interruptible itself, the grace period is still given to the run
+            if(!awaitUninterruptibly(stopped, STOP_GRACE_MILLIS))
+            {
+                abandon();
+                metrics.counter(TIMEOUT_METRIC, TIMEOUT_HELP, "outcome", "abandoned").incrementAndGet();
+            }
+            throw e;
         }
 
-        return semanticMap;
+        // Uninterruptible as well, the JCas must not be reset while the run may still write to it
+        boolean stoppedInTime = awaitUninterruptibly(stopped, STOP_GRACE_MILLIS);
+        if(!stoppedInTime)
+        {
+            abandon();
+            metrics.counter(TIMEOUT_METRIC, TIMEOUT_HELP, "outcome", "abandoned").incrementAndGet();
+        }
+        if(Thread.interrupted())
+        {
+            throw new InterruptedException("Interrupted while waiting for the pipeline to stop");
+        }
+        if(stoppedInTime)
+        {
+            return false;
+        }
+        throw new ParseTimeoutException(deadline, null);
     }
 
-    private Element generateSyntaxXML(HashMap<String, ArrayList<SyntaxInformation>> syntaxMap, Element xmlSyntax)
+    /**
+     * Waits for the latch like await(timeout), but lets an interrupt of the waiting thread only
+     * take effect afterwards.
+     */
+    private static boolean awaitUninterruptibly(CountDownLatch latch, long timeoutMillis)
     {
-        for (Map.Entry<String, ArrayList<SyntaxInformation>> entry : syntaxMap.entrySet())
-        {
-            Element xmlSyntaxElements = xmlDoc.createElement(entry.getKey() + "s");
-
-            for(SyntaxInformation information : entry.getValue())
+        boolean interrupted = false;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while(true)
             {
-                Element xmlSyntaxElement = xmlDoc.createElement(information.getType());
-
-                Attr xmlSyntaxElementText = xmlDoc.createAttribute("text");
-                xmlSyntaxElementText.setValue(information.getText());
-                xmlSyntaxElement.setAttributeNode(xmlSyntaxElementText);
-
-                Attr xmlSyntaxElementBegin = xmlDoc.createAttribute("begin");
-                xmlSyntaxElementBegin.setValue(Integer.toString(information.getBegin()));
-                xmlSyntaxElement.setAttributeNode(xmlSyntaxElementBegin);
-
-                Attr xmlSyntaxElementEnd = xmlDoc.createAttribute("end");
-                xmlSyntaxElementEnd.setValue(Integer.toString(information.getEnd()));
-                xmlSyntaxElement.setAttributeNode(xmlSyntaxElementEnd);
-
-                if(information.getId() >= 0) {
-                    Attr xmlSyntaxElementId = xmlDoc.createAttribute("id");
-                    xmlSyntaxElementId.setValue(Integer.toString(information.getId()));
-                    xmlSyntaxElement.setAttributeNode(xmlSyntaxElementId);
-                }
-
-                if(information.getToken() >= 0) {
-                    Attr xmlSyntaxElementToken = xmlDoc.createAttribute("token");
-                    xmlSyntaxElementToken.setValue(Integer.toString(information.getToken()));
-                    xmlSyntaxElement.setAttributeNode(xmlSyntaxElementToken);
-                }
-
-                if(information.getRelation() != null) {
-                    Attr xmlSyntaxElementRelation = xmlDoc.createAttribute("relation");
-                    xmlSyntaxElementRelation.setValue(information.getRelation());
-                    xmlSyntaxElement.setAttributeNode(xmlSyntaxElementRelation);
+                try {
+                    return latch.await(end - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
                 }
+            }
+        } finally {
+            if(interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-                if(information.getDependentText() != null)
-                {
-                    Attr xmlSyntaxElementDependentBegin = xmlDoc.createAttribute("dependentBegin");
-                    xmlSyntaxElementDependentBegin.setValue(Integer.toString(information.getDependentBegin()));
-                    xmlSyntaxElement.setAttributeNode(xmlSyntaxElementDependentBegin);
+    /**
+     * Leaves the engine and JCas to a run that ignores the interrupt and gives up on this Parser.
+     */
+    private void abandon()
+    {
+        abandoned = true;
+        engineThread.shutdownNow();
+        System.out.println("\n*** Abandoned a pipeline run that did not stop within " + STOP_GRACE_MILLIS + " ms of being interrupted ***\n");
+    }
 
-                    Attr xmlSyntaxElementDependentEnd = xmlDoc.createAttribute("dependentEnd");
-                    xmlSyntaxElementDependentEnd.setValue(Integer.toString(information.getDependentEnd()));
-                    xmlSyntaxElement.setAttributeNode(xmlSyntaxElementDependentEnd);
+    /**
+     * Whether a run that exceeded its deadline still holds the engine and JCas; the pool then
+     * creates a new Parser instead of taking this one back, or waits for the run to stop.
+     */
+    public boolean isAbandoned()
+    {
+        return abandoned;
+    }
 
-                    Attr xmlSyntaxElementDependentText = xmlDoc.createAttribute("dependentText");
-                    xmlSyntaxElementDependentText.setValue(information.getDependentText());
-                    xmlSyntaxElement.setAttributeNode(xmlSyntaxElementDependentText);
+    /**
+     * Waits at most timeoutMillis for the abandoned run to stop; returns whether it has.
+     */
+    public boolean awaitAbandonedRun(long timeoutMillis) throws InterruptedException
+    {
+        return !abandoned || running.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
 
-                    Attr xmlSyntaxElementDependentId = xmlDoc.createAttribute("dependentId");
-                    xmlSyntaxElementDependentId.setValue(Integer.toString(information.getDependentId()));
-                    xmlSyntaxElement.setAttributeNode(xmlSyntaxElementDependentId);
-                }
+    /**
+     * Takes the engine and JCas back from an abandoned run that has stopped, so this Parser can be
+     * used again.
+     */
+    public void reclaim()
+    {
+        if(!abandoned)
+        {
+            return;
+        }
+        if(running.getCount() > 0)
+        {
+            throw new IllegalStateException("The abandoned pipeline run is still going");
+        }
 
-                xmlSyntaxElements.appendChild(xmlSyntaxElement);
-            }
+        recordAnnotatorTimes(false);
+        setNull();
+        engineThread = null;
+        abandoned = false;
+    }
 
-            xmlSyntax.appendChild(xmlSyntaxElements);
+    /**
+     * Records how long every delegate annotator (tokenizer, chunker, dictionary lookup, negation, ...)
+     * spent on the last document. UIMA only keeps cumulative analysis times per component, so the
+     * time up to the previous run is subtracted; that baseline is moved after every run, and only
+     * a complete one is observed.
+     */
+    private void recordAnnotatorTimes(boolean observe)
+    {
+        if(engine != null && engine.getManagementInterface() != null)
+        {
+            recordAnnotatorTimes(engine.getManagementInterface(), observe ? Metrics.getDefault() : null);
         }
-
-        return xmlSyntax;
     }
 
-    private Element generateSemanticXML(HashMap<String, ArrayList<SemanticInformation>> semanticMap, Element xmlSemantic)
+    private void recordAnnotatorTimes(AnalysisEngineManagement management, Metrics metrics)
     {
-        for (Map.Entry<String, ArrayList<SemanticInformation>> entry : semanticMap.entrySet())
+        for (Map.Entry<String, AnalysisEngineManagement> component : management.getComponents().entrySet())
         {
-            Element xmlSemanticElements = xmlDoc.createElement(entry.getKey() + "s");
+            AnalysisEngineManagement delegate = component.getValue();
 
-            for(SemanticInformation information : entry.getValue())
+            if(delegate.getComponents().isEmpty())
             {
+                Long previous = annotatorTimes.put(component.getKey(), delegate.getAnalysisTime());
+                long spent = delegate.getAnalysisTime() - (previous == null ? 0 : previous);
 
-                Element xmlSemanticElement = xmlDoc.createElement(information.getType());
-
-                Attr xmlSemanticElementText = xmlDoc.createAttribute("text");
-                xmlSemanticElementText.setValue(information.getText());
-                xmlSemanticElement.setAttributeNode(xmlSemanticElementText);
-
-                Attr xmlSemanticElementBegin = xmlDoc.createAttribute("begin");
-                xmlSemanticElementBegin.setValue(Integer.toString(information.getBegin()));
-                xmlSemanticElement.setAttributeNode(xmlSemanticElementBegin);
-
-                Attr xmlSemanticElementEnd = xmlDoc.createAttribute("end");
-                xmlSemanticElementEnd.setValue(Integer.toString(information.getEnd()));
-                xmlSemanticElement.setAttributeNode(xmlSemanticElementEnd);
-
-                Attr xmlSemanticElementPolarity = xmlDoc.createAttribute("polarity");
-                xmlSemanticElementPolarity.setValue(Integer.toString(information.getPolarity()));
-                xmlSemanticElement.setAttributeNode(xmlSemanticElementPolarity);
-
-                Attr xmlSemanticElementSubject = xmlDoc.createAttribute("subject");
-                xmlSemanticElementSubject.setValue(information.getSubject());
-                xmlSemanticElement.setAttributeNode(xmlSemanticElementSubject);
-
-                Attr xmlSemanticElementHistoryOf = xmlDoc.createAttribute("historyOf");
-                xmlSemanticElementHistoryOf.setValue(Integer.toString(information.getHistoryOf()));
-                xmlSemanticElement.setAttributeNode(xmlSemanticElementHistoryOf);
-
-                ArrayList<String> concepts = new ArrayList<String>();
-
-                for (UMLSConcept concept : information.getConcepts()) {
-                    if(!concepts.contains(concept.getCode())) {
-                        Element xmlOntologyConcept = xmlDoc.createElement("concept");
-
-                        Attr xmlOntologyConceptSystem = xmlDoc.createAttribute("system");
-                        xmlOntologyConceptSystem.setValue(concept.getSystem());
-                        xmlOntologyConcept.setAttributeNode(xmlOntologyConceptSystem);
-
-                        Attr xmlOntologyConceptCode = xmlDoc.createAttribute("code");
-                        xmlOntologyConceptCode.setValue(concept.getCode());
-                        xmlOntologyConcept.setAttributeNode(xmlOntologyConceptCode);
-
-                        Attr xmlOntologyConceptCui = xmlDoc.createAttribute("cui");
-                        xmlOntologyConceptCui.setValue(concept.getCui());
-                        xmlOntologyConcept.setAttributeNode(xmlOntologyConceptCui);
-
-                        xmlSemanticElement.appendChild(xmlOntologyConcept);
-                        concepts.add(concept.getCode());
-                    }
+                if(metrics != null)
+                {
+                    metrics.histogram(ANNOTATOR_METRIC, ANNOTATOR_HELP, "annotator", component.getKey()).observeMillis(spent);
                 }
-
-                xmlSemanticElements.appendChild(xmlSemanticElement);
             }
-
-            xmlSemantic.appendChild(xmlSemanticElements);
+            else
+            {
+                recordAnnotatorTimes(delegate, metrics);
+            }
         }
-
-        return xmlSemantic;
     }
 
     private void setNull()
     {
         jcas.reset();
-        System.gc();
     }
 
     private String readFile(String path) throws IOException
@@ -444,23 +440,4 @@ public class Parser {
         stringBuilder.deleteCharAt(stringBuilder.length()-1);
         return stringBuilder.toString();
     }
-
-    private String xmlToString(Document doc)
-    {
-        try {
-            StringWriter sw = new StringWriter();
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer transformer = tf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-
-            transformer.transform(new DOMSource(doc), new StreamResult(sw));
-            return sw.toString();
-        } catch (Exception ex) {
-            throw new RuntimeException("Error converting to String", ex);
-        }
-    }
 }
\ No newline at end of file
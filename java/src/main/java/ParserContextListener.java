@@ -0,0 +1,73 @@
+import nlp.index.ConceptIndex;
+import nlp.snomed.SnomedService;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the pipeline profiles when the application is deployed and warms every worker up on a
+ * background thread, followed by loading the SNOMED CT index when one is configured, so the
+ * first clinical request does not pay for loading the pipeline.
+ * ReadinessServlet reports success once the warm-up has finished. The concept index is opened
+ * at startup and the documents it still holds in memory are written when the application stops.
+ */
+@WebListener
+public class ParserContextListener implements ServletContextListener {
+    private static final List<String> WARM_UP_NOTES = Arrays.asList(
+            "Patient is a 67 year old male with a history of type 2 diabetes mellitus and hypertension.",
+            "He denies chest pain or shortness of breath. No fever was reported.",
+            "The patient was started on metformin 500 mg twice daily. Family history of myocardial infarction in his father."
+    );
+
+    private Thread warmUp;
+    private ConceptIndex index;
+
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext application = event.getServletContext();
+
+        final ParserProfiles profiles = ParserProfiles.forContext(application);
+        final SnomedService snomed = SnomedService.forContext(application);
+        index = ConceptIndex.forContext(application);
+
+        warmUp = new Thread(new Runnable() {
+            public void run() {
+                long startTime = System.nanoTime();
+                for(ParserProfile profile : profiles.getProfiles())
+                {
+                    profile.getPool().prepare(WARM_UP_NOTES);
+                }
+                if(snomed != null)
+                {
+                    snomed.load();
+                }
+                double duration = (System.nanoTime() - startTime) / 1000000000.0;
+
+                if(profiles.isReady() && (snomed == null || snomed.isLoaded()))
+                {
+                    System.out.println("\n*** Parser pool ready after " + duration + " sec. ***\n");
+                }
+                else
+                {
+                    System.out.println("\n*** Parser pool failed to initialize after " + duration + " sec. ***\n");
+                }
+            }
+        }, "parser-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+        if(warmUp != null)
+        {
+            warmUp.interrupt();
+        }
+        if(index != null)
+        {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,423 @@
+import nlp.dispatch.WorkerDispatcher;
+import nlp.engine.Deadline;
+import nlp.engine.EngineConfiguration;
+import nlp.engine.ParseTimeoutException;
+import nlp.metrics.Metrics;
+
+import javax.servlet.ServletContext;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of Parser workers. Every Parser owns its own AnalysisEngine, JCas and
+ * request state, so a worker that has been checked out can be used without any locking.
+ * Workers are created lazily until the pool reaches its configured size. A worker that had to be
+ * abandoned after a timeout is replaced by a new one, built in the background. While as many
+ * abandoned runs as the pool has workers are still going, the pool waits for the run to stop and
+ * takes its engine back instead, so runs that ignore their interrupts cannot use up the memory.
+ * A worker that cannot be initialized is not handed out; its slot is built again in the background.
+ *
+ * With "parser.workers" the engines run in worker processes of a WorkerDispatcher instead, and
+ * the pool holds "parser.pool.size" Parsers per worker that hand their documents to them.
+ */
+public class ParserPool {
+    public static final String SIZE_PARAMETER = "parser.pool.size";
+
+    // Every worker loads a full pipeline with its dictionaries, so more have to be asked for
+    private static final int DEFAULT_SIZE = 1;
+
+    // How long a rebuild waits before it tries again when the new worker could not be initialized
+    private static final long REBUILD_RETRY_MILLIS = 10000;
+
+    private final int size;
+    private final EngineConfiguration configuration;
+    private final WorkerDispatcher dispatcher;
+    private final BlockingQueue<Parser> idle;
+    private final AtomicInteger created = new AtomicInteger();
+    // Abandoned runs that have not stopped yet, whether their worker was replaced or not
+    private final AtomicInteger orphaned = new AtomicInteger();
+    // Workers created for a request rather than by prepare(), until they have parsed their first document
+    private final Set<Parser> cold = Collections.newSetFromMap(new ConcurrentHashMap<Parser, Boolean>());
+    // Workers that could not be initialized and are being built again
+    private final AtomicInteger failing = new AtomicInteger();
+    private volatile boolean ready;
+
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ParserPool(int size, EngineConfiguration configuration)
+    {
+        this(size, configuration, null);
+    }
+
+    public ParserPool(int size, EngineConfiguration configuration, WorkerDispatcher dispatcher)
+    {
+        if(size < 1)
+        {
+            throw new IllegalArgumentException("Pool size must be at least 1, was " + size);
+        }
+
+        this.size = size;
+        this.configuration = configuration;
+        this.dispatcher = dispatcher;
+        this.idle = new ArrayBlockingQueue<Parser>(size);
+    }
+
+    /**
+     * Creates the pool of a profile with its configured size and engine.
+     */
+    public static ParserPool forProfile(ServletContext application, String profile)
+    {
+        int size = configuredSize(application, profile);
+        EngineConfiguration configuration = EngineConfiguration.forProfile(application, profile, Parser.PROCESSOR);
+        WorkerDispatcher dispatcher = WorkerDispatcher.forProfile(application, profile, configuration, ParserWorker.class.getName(), size);
+        if(dispatcher == null)
+        {
+            return new ParserPool(size, configuration);
+        }
+
+        return new ParserPool(size * dispatcher.getWorkers().size(), configuration, dispatcher);
+    }
+
+    /**
+     * Reads the pool size from the context parameter or system property "parser.pool.size"
+     * (or "parser.profile.NAME.pool.size"), falling back to a single worker.
+     */
+    public static int configuredSize(ServletContext application, String profile)
+    {
+        String value = EngineConfiguration.parameter(application, profile, SIZE_PARAMETER);
+        if(value != null)
+        {
+            return Integer.parseInt(value);
+        }
+
+        return DEFAULT_SIZE;
+    }
+
+    /**
+     * Checks out a worker, creating one if the pool has not reached its size yet and
+     * otherwise blocking until another request returns one.
+     */
+    public Parser borrow() throws InterruptedException
+    {
+        long startTime = System.nanoTime();
+
+        Parser parser = idle.poll();
+        if(parser == null)
+        {
+            parser = createCold();
+        }
+        if(parser == null)
+        {
+            parser = idle.take();
+        }
+
+        recordWait(System.nanoTime() - startTime);
+        return parser;
+    }
+
+    /**
+     * Checks out a worker like borrow(), but gives up when none is free before the deadline.
+     *
+     * @throws ParseTimeoutException when the deadline passed before a worker was free
+     */
+    public Parser borrow(Deadline deadline) throws InterruptedException, ParseTimeoutException
+    {
+        if(deadline.isNone())
+        {
+            return borrow();
+        }
+
+        long startTime = System.nanoTime();
+
+        Parser parser = deadline.isExpired() ? null : idle.poll();
+        if(parser == null && !deadline.isExpired())
+        {
+            parser = createCold();
+        }
+        if(parser == null)
+        {
+            parser = idle.poll(Math.max(deadline.remainingNanos(), 0), TimeUnit.NANOSECONDS);
+        }
+
+        recordWait(System.nanoTime() - startTime);
+        if(parser == null)
+        {
+            Metrics.getDefault().counter(Parser.TIMEOUT_METRIC, Parser.TIMEOUT_HELP, "outcome", "waiting").incrementAndGet();
+            throw new ParseTimeoutException(deadline, null);
+        }
+        return parser;
+    }
+
+    public void release(Parser parser)
+    {
+        if(parser == null)
+        {
+            return;
+        }
+
+        cold.remove(parser);
+        if(parser.isAbandoned())
+        {
+            replace(parser);
+        }
+        else
+        {
+            idle.offer(parser);
+        }
+    }
+
+    /**
+     * Puts a worker in place of an abandoned one on a thread of its own, as loading the pipeline
+     * takes a while; until then the pool has one worker less. Below the cap on abandoned runs a new
+     * worker is built, and built again after a while when it could not be initialized. Past the cap,
+     * or when the run stops first, the abandoned worker gets its engine back and returns.
+     */
+    private void replace(final Parser abandoned)
+    {
+        final boolean rebuild = orphaned.incrementAndGet() <= size;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                long startTime = System.nanoTime();
+                try {
+                    while(true)
+                    {
+                        if(abandoned.awaitAbandonedRun(rebuild ? 0 : REBUILD_RETRY_MILLIS))
+                        {
+                            abandoned.reclaim();
+                            orphaned.decrementAndGet();
+                            idle.offer(abandoned);
+
+                            double duration = (System.nanoTime() - startTime) / 1000000000.0;
+                            System.out.println("\n*** Took back the engine of an abandoned parser after " + duration + " sec. ***\n");
+                            Metrics.getDefault().counter("nlp_pool_reclaims_total", "Parser workers that got their engine back once their abandoned run stopped.").incrementAndGet();
+                            return;
+                        }
+                        if(!rebuild)
+                        {
+                            continue;
+                        }
+
+                        Parser parser = new Parser(configuration);
+                        if(parser.isInitialized())
+                        {
+                            idle.offer(parser);
+
+                            double duration = (System.nanoTime() - startTime) / 1000000000.0;
+                            System.out.println("\n*** Replaced an abandoned parser in " + duration + " sec. ***\n");
+                            Metrics.getDefault().counter("nlp_pool_rebuilds_total", "Parser workers created in place of one abandoned after a timeout.").incrementAndGet();
+
+                            // The run counts against the cap until it lets go of its engine and JCas
+                            abandoned.awaitAbandonedRun(Long.MAX_VALUE);
+                            orphaned.decrementAndGet();
+                            return;
+                        }
+
+                        System.out.println("\n*** Could not create a parser in place of an abandoned one, trying again in " + REBUILD_RETRY_MILLIS / 1000 + " sec. ***\n");
+                        abandoned.awaitAbandonedRun(REBUILD_RETRY_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "nlp-pool-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Builds the worker of a slot whose Parser could not be initialized on a thread of its own,
+     * again every REBUILD_RETRY_MILLIS until it can, and puts it in the pool. The pool is not ready
+     * until then.
+     */
+    private void retry()
+    {
+        failing.incrementAndGet();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while(true)
+                    {
+                        System.out.println("\n*** Could not create a parser, trying again in " + REBUILD_RETRY_MILLIS / 1000 + " sec. ***\n");
+                        Thread.sleep(REBUILD_RETRY_MILLIS);
+
+                        Parser parser = new Parser(configuration);
+                        if(parser.isInitialized())
+                        {
+                            idle.offer(parser);
+                            failing.decrementAndGet();
+                            System.out.println("\n*** Created a parser that could not be initialized before ***\n");
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "nlp-pool-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates every remaining worker up front and runs the given notes through each of them,
+     * so the first real request does not pay for loading the pipeline and dictionaries.
+     * The pool is marked ready once all workers have been initialized and warmed up; workers that
+     * requests created in the meantime count as warmed up once they have parsed their document.
+     */
+    public void prepare(List<String> notes)
+    {
+        while(true)
+        {
+            long startTime = System.nanoTime();
+
+            Parser parser = create();
+            if(parser == null)
+            {
+                // Full, or the worker could not be initialized and is being built again
+                if(created.get() >= size)
+                {
+                    break;
+                }
+                continue;
+            }
+
+            if(parser.isInitialized())
+            {
+                for(String note : notes)
+                {
+                    parser.setText(note);
+                    parser.parse();
+                }
+            }
+            release(parser);
+
+            double duration = (System.nanoTime() - startTime) / 1000000000.0;
+            System.out.println("\n*** Created and warmed up parser " + created.get() + "/" + size + " in " + duration + " sec. ***\n");
+        }
+
+        ready = true;
+    }
+
+    /**
+     * Whether every worker has been initialized and warmed up; with worker processes, also
+     * whether one of them is ready to take documents.
+     */
+    public boolean isReady()
+    {
+        return ready && failing.get() == 0 && cold.isEmpty() && (dispatcher == null || dispatcher.getReady() > 0);
+    }
+
+    /**
+     * Creates a worker for a request, which warms it up with its own document.
+     */
+    private Parser createCold()
+    {
+        Parser parser = create();
+        if(parser != null)
+        {
+            cold.add(parser);
+        }
+        return parser;
+    }
+
+    /**
+     * Takes a free slot of the pool and creates its worker; returns null when the pool is full, or
+     * when the worker could not be initialized and is being built again in the background.
+     */
+    private Parser create()
+    {
+        while(true)
+        {
+            int current = created.get();
+            if(current >= size)
+            {
+                return null;
+            }
+            if(created.compareAndSet(current, current + 1))
+            {
+                Parser parser = dispatcher == null ? new Parser(configuration) : new Parser(dispatcher);
+                if(!parser.isInitialized())
+                {
+                    retry();
+                    return null;
+                }
+                return parser;
+            }
+        }
+    }
+
+    private void recordWait(long waitNanos)
+    {
+        Metrics.getDefault().histogram("nlp_pool_wait_seconds", "Time spent waiting to check out a Parser worker.").observeNanos(waitNanos);
+
+        checkouts.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+
+        long max = maxWaitNanos.get();
+        while(waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos))
+        {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * The dispatcher of the worker processes, or null when the engines run in this JVM.
+     */
+    public WorkerDispatcher getDispatcher()
+    {
+        return dispatcher;
+    }
+
+    public void shutdown()
+    {
+        if(dispatcher != null)
+        {
+            dispatcher.shutdown();
+        }
+    }
+
+    public EngineConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public int getCreated()
+    {
+        return created.get();
+    }
+
+    public int getIdle()
+    {
+        return idle.size();
+    }
+
+    public long getCheckouts()
+    {
+        return checkouts.get();
+    }
+
+    public double getAverageWaitMillis()
+    {
+        long count = checkouts.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxWaitMillis()
+    {
+        return maxWaitNanos.get() / 1000000.0;
+    }
+}
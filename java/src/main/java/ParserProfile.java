@@ -0,0 +1,192 @@
+import nlp.engine.Deadline;
+import nlp.engine.EngineConfiguration;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.information.ParseResult;
+
+import javax.servlet.ServletContext;
+
+/**
+ * A named pipeline with its own ParserPool, ParseQueue and (optional) ChunkedParser, so a slow
+ * profile that is busy never holds up requests for another one.
+ */
+public class ParserProfile {
+    public static final String TIMEOUT_PARAMETER = "parser.timeout";
+    public static final String MIN_TIMEOUT_PARAMETER = "parser.timeout.min";
+
+    // Shorter client timeouts would mostly abandon runs, each of which costs a rebuilt worker
+    private static final long DEFAULT_MIN_TIMEOUT_MILLIS = 1000;
+
+    private final String name;
+    private final ParserPool pool;
+    private final ParseQueue queue;
+    private final ChunkedParser chunked;
+    private final long timeoutMillis;
+    private final long minTimeoutMillis;
+
+    public ParserProfile(String name, ParserPool pool, ParseQueue queue, ChunkedParser chunked)
+    {
+        this(name, pool, queue, chunked, 0);
+    }
+
+    public ParserProfile(String name, ParserPool pool, ParseQueue queue, ChunkedParser chunked, long timeoutMillis)
+    {
+        this(name, pool, queue, chunked, timeoutMillis, DEFAULT_MIN_TIMEOUT_MILLIS);
+    }
+
+    public ParserProfile(String name, ParserPool pool, ParseQueue queue, ChunkedParser chunked, long timeoutMillis, long minTimeoutMillis)
+    {
+        this.name = name;
+        this.pool = pool;
+        this.queue = queue;
+        this.chunked = chunked;
+        this.timeoutMillis = timeoutMillis;
+        this.minTimeoutMillis = minTimeoutMillis;
+    }
+
+    /**
+     * Creates the profile from its "parser.*" settings, with "parser.profile.NAME.*" taking precedence.
+     */
+    public static ParserProfile create(ServletContext application, String name)
+    {
+        ParserPool pool = ParserPool.forProfile(application, name);
+        String timeout = EngineConfiguration.parameter(application, name, TIMEOUT_PARAMETER);
+        String minTimeout = EngineConfiguration.parameter(application, name, MIN_TIMEOUT_PARAMETER);
+        return new ParserProfile(name, pool, ParseQueue.forProfile(application, name, pool), ChunkedParser.forProfile(application, name, pool),
+                timeout == null ? 0 : Math.round(Double.parseDouble(timeout) * 1000),
+                minTimeout == null ? DEFAULT_MIN_TIMEOUT_MILLIS : Math.round(Double.parseDouble(minTimeout) * 1000));
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public ParserPool getPool()
+    {
+        return pool;
+    }
+
+    public ParseQueue getQueue()
+    {
+        return queue;
+    }
+
+    /**
+     * The chunked parser for long documents, or null when this profile does not split documents.
+     */
+    public ChunkedParser getChunked()
+    {
+        return chunked;
+    }
+
+    /**
+     * Parses the document on the calling thread with a worker of the pool, or in chunks when it is
+     * long enough; returns null when it could not be parsed.
+     */
+    public ParseResult parse(String fileName, String content) throws InterruptedException
+    {
+        return parse(fileName, content, AnnotationFilter.ALL);
+    }
+
+    /**
+     * Parses the document like parse(fileName, content), keeping only the annotations the filter accepts.
+     */
+    public ParseResult parse(String fileName, String content, AnnotationFilter filter) throws InterruptedException
+    {
+        try {
+            return parse(fileName, content, filter, Deadline.NONE);
+        } catch (ParseTimeoutException e) {
+            // Not thrown without a deadline
+            return null;
+        }
+    }
+
+    /**
+     * Parses the document like parse(fileName, content, filter), giving up at the deadline.
+     *
+     * @throws ParseTimeoutException when the document was not parsed before the deadline
+     */
+    public ParseResult parse(String fileName, String content, AnnotationFilter filter, Deadline deadline)
+            throws InterruptedException, ParseTimeoutException
+    {
+        if(chunked != null && chunked.accepts(content))
+        {
+            return chunked.parse(fileName, content, filter, deadline);
+        }
+
+        Parser parser = pool.borrow(deadline);
+        try {
+            parser.setFile(fileName, content);
+            return parser.parse(filter, deadline);
+        } finally {
+            pool.release(parser);
+        }
+    }
+
+    /**
+     * The deadline of a request that starts now: "parser.timeout" seconds (or
+     * "parser.profile.NAME.timeout"), lowered to the seconds the client asked for, if any. Without
+     * either a document may take as long as it takes. A client gets at least "parser.timeout.min"
+     * seconds (1 by default), so it cannot have nearly every run abandoned.
+     *
+     * @throws IllegalArgumentException when the requested timeout is not a positive number
+     */
+    public Deadline deadline(String requested)
+    {
+        long budgetMillis = timeoutMillis;
+        if(requested != null && !requested.isEmpty())
+        {
+            double seconds;
+            try {
+                seconds = Double.parseDouble(requested);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid timeout " + requested + ", expected a number of seconds");
+            }
+            if(!(seconds > 0))
+            {
+                throw new IllegalArgumentException("Invalid timeout " + requested + ", expected a number of seconds");
+            }
+
+            long requestedMillis = Math.max(Math.max(1, minTimeoutMillis), Math.round(seconds * 1000));
+            budgetMillis = budgetMillis > 0 ? Math.min(budgetMillis, requestedMillis) : requestedMillis;
+        }
+
+        return Deadline.after(budgetMillis);
+    }
+
+    /**
+     * The configured time budget per document in milliseconds, 0 when there is none.
+     */
+    public long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    /**
+     * Identifies the pipeline of this profile in the result cache.
+     */
+    public String getDescriptor()
+    {
+        return pool.getConfiguration().getDescriptor();
+    }
+
+    /**
+     * Identifies the results of this profile with the given filter in the result cache; a filtered
+     * result is cached apart from the full one.
+     */
+    public String getDescriptor(AnnotationFilter filter)
+    {
+        return filter.isAll() ? getDescriptor() : getDescriptor() + "\n" + filter.getKey();
+    }
+
+    public void shutdown()
+    {
+        queue.shutdown();
+        pool.shutdown();
+        if(chunked != null)
+        {
+            chunked.shutdown();
+        }
+    }
+}
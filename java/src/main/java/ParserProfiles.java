@@ -0,0 +1,130 @@
+import nlp.engine.EngineConfiguration;
+
+import javax.servlet.ServletContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The pipeline profiles of the application, e.g. a fast profile with tokens, negation and the
+ * dictionary lookup for the interactive UI and a full profile with the chunker and dependency
+ * parser for batch analytics. "parser.profiles" lists their names, the first being the default;
+ * without it there is one profile, "default", configured by the plain "parser.*" settings.
+ * Requests pick a profile with the "profile" parameter. All profiles are warmed up at startup.
+ */
+public class ParserProfiles {
+    public static final String CONTEXT_ATTRIBUTE = "parserProfiles";
+    public static final String PROFILES_PARAMETER = "parser.profiles";
+    public static final String DEFAULT_PROFILE = "default";
+
+    private final LinkedHashMap<String, ParserProfile> profiles = new LinkedHashMap<String, ParserProfile>();
+    private final ParserProfile defaultProfile;
+
+    public ParserProfiles(List<ParserProfile> profiles)
+    {
+        if(profiles.isEmpty())
+        {
+            throw new IllegalArgumentException("At least one profile is required");
+        }
+
+        for(ParserProfile profile : profiles)
+        {
+            this.profiles.put(profile.getName(), profile);
+        }
+        this.defaultProfile = profiles.get(0);
+    }
+
+    /**
+     * Returns the profiles of this application, creating them if no listener or servlet has done so yet.
+     */
+    public static ParserProfiles forContext(ServletContext application)
+    {
+        synchronized (application) {
+            ParserProfiles profiles = (ParserProfiles) application.getAttribute(CONTEXT_ATTRIBUTE);
+            if(profiles == null)
+            {
+                String names = EngineConfiguration.parameter(application, null, PROFILES_PARAMETER);
+
+                List<ParserProfile> list = new ArrayList<ParserProfile>();
+                for(String name : (names == null ? DEFAULT_PROFILE : names).split(","))
+                {
+                    if(!name.trim().isEmpty())
+                    {
+                        list.add(ParserProfile.create(application, name.trim()));
+                    }
+                }
+
+                profiles = new ParserProfiles(list);
+                application.setAttribute(CONTEXT_ATTRIBUTE, profiles);
+            }
+            return profiles;
+        }
+    }
+
+    /**
+     * The profile with the given name, the default profile when no name is given, or null when
+     * there is no such profile.
+     */
+    public ParserProfile get(String name)
+    {
+        if(name == null || name.trim().isEmpty())
+        {
+            return defaultProfile;
+        }
+        return profiles.get(name.trim());
+    }
+
+    public ParserProfile getDefault()
+    {
+        return defaultProfile;
+    }
+
+    public Collection<ParserProfile> getProfiles()
+    {
+        return profiles.values();
+    }
+
+    public List<String> getDescriptors()
+    {
+        List<String> descriptors = new ArrayList<String>();
+        for(ParserProfile profile : profiles.values())
+        {
+            descriptors.add(profile.getDescriptor());
+        }
+        return descriptors;
+    }
+
+    /**
+     * Whether the pools of all profiles have been created and warmed up.
+     */
+    public boolean isReady()
+    {
+        for(ParserProfile profile : profiles.values())
+        {
+            if(!profile.getPool().isReady())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getNames()
+    {
+        StringBuilder names = new StringBuilder();
+        for(String name : profiles.keySet())
+        {
+            names.append(names.length() == 0 ? "" : ", ").append(name);
+        }
+        return names.toString();
+    }
+
+    public void shutdown()
+    {
+        for(ParserProfile profile : profiles.values())
+        {
+            profile.shutdown();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import nlp.engine.Deadline;
+import nlp.engine.EngineConfiguration;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.information.ParseResult;
+import nlp.output.BinaryResultWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A worker process started by a WorkerDispatcher. It runs a ParserPool of its own and answers on
+ * a loopback port:
+ *
+ *   POST /parse?fileName=...&timeout=...   the text in UTF-8 as the body; 200 with the result in
+ *       the binary format, or 504 when it was not parsed within timeout milliseconds (with the
+ *       binary partial result and X-Partial-Result: true when there is one). Takes the filter
+ *       parameters of NLPServlet.
+ *   GET  /health                            200 once the Parsers have been warmed up, 503 before
+ *
+ * Options are given as name=value arguments:
+ *   port      port to listen on, 0 for any free one (0)
+ *   threads   Parser workers (1)
+ *
+ * The engine is configured with the usual parser.* settings as system properties. Once the server
+ * is up the port is printed in a line "listening on PORT". The worker finishes the documents it has and
+ * exits when its standard input is closed, which also happens when the dispatcher goes away.
+ */
+public class ParserWorker {
+    private static final List<String> WARM_UP_NOTES = Arrays.asList(
+            "Patient is a 67 year old male with a history of type 2 diabetes mellitus and hypertension.",
+            "He denies chest pain or shortness of breath. No fever was reported."
+    );
+
+    private static final long STOP_TIMEOUT_NANOS = 9000000000L;
+
+    private final ParserPool pool;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger active = new AtomicInteger();
+
+    public ParserWorker(int port, int threads) throws IOException
+    {
+        pool = new ParserPool(threads, EngineConfiguration.forProfile(null, null, Parser.PROCESSOR));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        // One thread per Parser and one more, so health checks are answered while every Parser is busy
+        executor = Executors.newFixedThreadPool(threads + 1, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+
+        server.createContext("/parse", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                active.incrementAndGet();
+                try {
+                    parse(exchange);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    send(exchange, 500, e.toString());
+                } finally {
+                    exchange.close();
+                    active.decrementAndGet();
+                }
+            }
+        });
+        server.createContext("/health", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if(pool.isReady())
+                    {
+                        send(exchange, 200, "ready");
+                    }
+                    else
+                    {
+                        send(exchange, 503, "warming up (" + pool.getCreated() + "/" + pool.getSize() + " parsers created)");
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        for(String arg : args)
+        {
+            int separator = arg.indexOf('=');
+            if(separator < 0)
+            {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        String port = options.get("port");
+        String threads = options.get("threads");
+        ParserWorker worker = new ParserWorker(port == null ? 0 : Integer.parseInt(port), threads == null ? 1 : Integer.parseInt(threads));
+        worker.run();
+        System.exit(0);
+    }
+
+    /**
+     * Serves until standard input is closed.
+     */
+    public void run() throws IOException
+    {
+        server.start();
+        System.out.println("listening on " + server.getAddress().getPort());
+        System.out.flush();
+
+        Thread warmUp = new Thread(new Runnable() {
+            public void run() {
+                pool.prepare(WARM_UP_NOTES);
+            }
+        }, "nlp-worker-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+
+        byte[] buffer = new byte[256];
+        while(System.in.read(buffer) >= 0)
+        {
+            // Nothing is sent on standard input, it only tells whether the dispatcher is still there
+        }
+
+        // Documents in progress get about as long as the dispatcher waits before it kills the process;
+        // HttpServer.stop would also wait for idle keep-alive connections
+        long stopUntil = System.nanoTime() + STOP_TIMEOUT_NANOS;
+        while(active.get() > 0 && stopUntil - System.nanoTime() > 0)
+        {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void parse(HttpExchange exchange) throws IOException, InterruptedException
+    {
+        if(!"POST".equals(exchange.getRequestMethod()))
+        {
+            send(exchange, 405, "Please post the text");
+            return;
+        }
+
+        Map<String, List<String>> parameters = parameters(exchange.getRequestURI().getRawQuery());
+        String content = new String(read(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        String fileName = first(parameters, "fileName");
+        String timeout = first(parameters, "timeout");
+
+        AnnotationFilter filter;
+        try {
+            filter = AnnotationFilter.parse(values(parameters, "types"), values(parameters, "schemes"),
+                    values(parameters, "tuis"), first(parameters, "polarity"));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, e.getMessage());
+            return;
+        }
+
+        Deadline deadline = Deadline.after(timeout == null ? 0 : Long.parseLong(timeout));
+        ParseResult result;
+        try {
+            Parser parser = pool.borrow(deadline);
+            try {
+                parser.setFile(fileName == null ? "" : fileName, content);
+                result = parser.parse(filter, deadline);
+            } finally {
+                pool.release(parser);
+            }
+        } catch (ParseTimeoutException e) {
+            if(e.getPartial() == null)
+            {
+                send(exchange, 504, e.getMessage());
+                return;
+            }
+
+            exchange.getResponseHeaders().set("X-Partial-Result", "true");
+            write(exchange, 504, e.getPartial());
+            return;
+        }
+
+        if(result == null)
+        {
+            send(exchange, 500, "Could not parse the document");
+            return;
+        }
+        write(exchange, 200, result);
+    }
+
+    private static void write(HttpExchange exchange, int status, ParseResult result) throws IOException
+    {
+        BinaryResultWriter writer = new BinaryResultWriter();
+        exchange.getResponseHeaders().set("Content-Type", writer.getContentType());
+        exchange.sendResponseHeaders(status, 0);
+
+        OutputStream out = exchange.getResponseBody();
+        writer.write(result, out);
+        out.close();
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException
+    {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while((read = in.read(buffer)) > 0)
+        {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, List<String>> parameters(String query) throws IOException
+    {
+        Map<String, List<String>> parameters = new HashMap<String, List<String>>();
+        if(query == null)
+        {
+            return parameters;
+        }
+
+        for(String pair : query.split("&"))
+        {
+            int separator = pair.indexOf('=');
+            String name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), "UTF-8");
+            String value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), "UTF-8");
+
+            List<String> values = parameters.get(name);
+            if(values == null)
+            {
+                values = new ArrayList<String>();
+                parameters.put(name, values);
+            }
+            values.add(value);
+        }
+        return parameters;
+    }
+
+    private static String first(Map<String, List<String>> parameters, String name)
+    {
+        List<String> values = parameters.get(name);
+        return values == null ? null : values.get(0);
+    }
+
+    private static String[] values(Map<String, List<String>> parameters, String name)
+    {
+        List<String> values = parameters.get(name);
+        return values == null ? null : values.toArray(new String[values.size()]);
+    }
+}
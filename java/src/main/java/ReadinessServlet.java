@@ -0,0 +1,56 @@
+import nlp.snomed.SnomedService;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Readiness probe for load balancers: returns 200 only once every Parser of every profile has been
+ * created and warmed up and the SNOMED CT index (if configured) is loaded, and 503 before that.
+ */
+@WebServlet("/ready")
+public class ReadinessServlet extends HttpServlet {
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        ParserProfiles profiles = (ParserProfiles) getServletContext().getAttribute(ParserProfiles.CONTEXT_ATTRIBUTE);
+        Object snomed = getServletContext().getAttribute(SnomedService.CONTEXT_ATTRIBUTE);
+        SnomedService service = snomed instanceof SnomedService ? (SnomedService) snomed : null;
+
+        response.setContentType("text/plain; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+
+        PrintWriter out = response.getWriter();
+        if(profiles != null && profiles.isReady() && (service == null || service.isLoaded()))
+        {
+            out.println("ready");
+        }
+        else if(service != null && service.hasFailed())
+        {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            out.println("SNOMED CT index failed to load");
+        }
+        else if(profiles != null && profiles.isReady())
+        {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            out.println("loading SNOMED CT index");
+        }
+        else
+        {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            int created = 0;
+            int size = 0;
+            if(profiles != null)
+            {
+                for(ParserProfile profile : profiles.getProfiles())
+                {
+                    created += profile.getPool().getCreated();
+                    size += profile.getPool().getSize();
+                }
+            }
+            out.println("warming up (" + created + "/" + size + " parsers created)");
+        }
+    }
+}
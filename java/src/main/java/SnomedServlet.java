@@ -0,0 +1,190 @@
+import nlp.output.JSONResultWriter;
+import nlp.snomed.SnomedIndex;
+import nlp.snomed.SnomedMatch;
+import nlp.snomed.SnomedService;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Answers the SNOMED CT lookups of the PHP layer from the in-memory SnomedIndex, with the same
+ * fields as SNOMEDSearch:
+ *
+ *   ?action=search&term=...[&parent=id][&limit=10]  descriptions containing the term
+ *   ?action=concept&id=...                          name, descendant count, parents and ancestors
+ *   ?action=subtype&id=...&parent=...               whether id is a subtype of parent
+ *   ?action=toplevel                                the children of the root concept
+ *
+ * Identifiers are written as strings, as they do not fit in a JavaScript number.
+ */
+@WebServlet("/snomed")
+public class SnomedServlet extends HttpServlet {
+    private SnomedService snomed;
+
+    public void init() throws ServletException {
+        snomed = SnomedService.forContext(getServletContext());
+    }
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if(snomed == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No SNOMED CT release configured");
+            return;
+        }
+
+        SnomedIndex index = snomed.getIndex();
+        if(index == null)
+        {
+            response.setHeader("Retry-After", "30");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The SNOMED CT index is not loaded");
+            return;
+        }
+
+        String action = request.getParameter("action");
+        long id;
+        long parent;
+        int limit;
+        try {
+            id = identifier(request.getParameter("id"));
+            parent = identifier(request.getParameter("parent"));
+            limit = request.getParameter("limit") == null ? 10 : Integer.parseInt(request.getParameter("limit"));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Identifiers and limit must be numbers");
+            return;
+        }
+
+        boolean known = ("search".equals(action) && request.getParameter("term") != null)
+                || ("concept".equals(action) && index.contains(id))
+                || ("subtype".equals(action) && id > 0 && parent > 0)
+                || "toplevel".equals(action);
+        if(!known)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown action or concept");
+            return;
+        }
+
+        response.setContentType("application/json; charset=UTF-8");
+        Writer out = response.getWriter();
+
+        if("search".equals(action))
+        {
+            writeMatches(out, index.search(request.getParameter("term"), parent, limit));
+        }
+        else if("concept".equals(action))
+        {
+            writeConcept(out, index, id);
+        }
+        else if("subtype".equals(action))
+        {
+            out.write("{\"subtype\":" + index.isSubtypeOf(id, parent) + "}");
+        }
+        else
+        {
+            writeTopLevel(out, index);
+        }
+        out.flush();
+    }
+
+    private static long identifier(String value)
+    {
+        return value == null || value.trim().isEmpty() ? 0 : Long.parseLong(value.trim());
+    }
+
+    private void writeMatches(Writer out, List<SnomedMatch> matches) throws IOException
+    {
+        out.write('[');
+        for(int i = 0; i < matches.size(); i++)
+        {
+            SnomedMatch match = matches.get(i);
+            String id = Long.toString(match.getConceptId());
+
+            if(i > 0) out.write(',');
+            out.write("{\"id\":");
+            JSONResultWriter.quote(out, id);
+            out.write(",\"value\":");
+            JSONResultWriter.quote(out, id);
+            out.write(",\"description\":");
+            JSONResultWriter.quote(out, match.getTerm());
+            out.write(",\"displayName\":");
+            JSONResultWriter.quote(out, id + "|" + match.getFullySpecifiedName() + "|");
+            out.write(",\"fsn\":");
+            JSONResultWriter.quote(out, match.getFullySpecifiedName());
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    private void writeConcept(Writer out, SnomedIndex index, long id) throws IOException
+    {
+        String fsn = index.getFullySpecifiedName(id);
+        int children = index.getDescendantCount(id);
+
+        out.write("{\"id\":");
+        JSONResultWriter.quote(out, Long.toString(id));
+        out.write(",\"fsn\":");
+        JSONResultWriter.quote(out, fsn);
+        out.write(",\"displayName\":");
+        JSONResultWriter.quote(out, id + "|" + fsn + "|");
+        out.write(",\"preferredTerm\":");
+        JSONResultWriter.quote(out, index.getPreferredTerm(id));
+        out.write(",\"active\":" + index.isActive(id));
+        out.write(",\"children\":" + children);
+        out.write(",\"hasChildren\":" + (children > 0));
+        out.write(",\"parents\":");
+        writeIdentifiers(out, index.getParents(id));
+        out.write(",\"ancestors\":");
+        writeIdentifiers(out, index.getAncestors(id));
+        out.write('}');
+    }
+
+    private void writeTopLevel(Writer out, final SnomedIndex index) throws IOException
+    {
+        List<Long> concepts = new ArrayList<Long>();
+        for(long child : index.getChildren(SnomedIndex.ROOT))
+        {
+            concepts.add(child);
+        }
+        Collections.sort(concepts, new Comparator<Long>() {
+            public int compare(Long a, Long b) {
+                return String.valueOf(index.getFullySpecifiedName(a)).compareTo(String.valueOf(index.getFullySpecifiedName(b)));
+            }
+        });
+
+        out.write('[');
+        for(int i = 0; i < concepts.size(); i++)
+        {
+            long id = concepts.get(i);
+            String fsn = index.getFullySpecifiedName(id);
+
+            if(i > 0) out.write(',');
+            out.write("{\"id\":");
+            JSONResultWriter.quote(out, Long.toString(id));
+            out.write(",\"fsn\":");
+            JSONResultWriter.quote(out, fsn);
+            out.write(",\"displayName\":");
+            JSONResultWriter.quote(out, id + "|" + fsn + "|");
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    private void writeIdentifiers(Writer out, long[] identifiers) throws IOException
+    {
+        out.write('[');
+        for(int i = 0; i < identifiers.length; i++)
+        {
+            if(i > 0) out.write(',');
+            JSONResultWriter.quote(out, Long.toString(identifiers[i]));
+        }
+        out.write(']');
+    }
+}
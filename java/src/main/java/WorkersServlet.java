@@ -0,0 +1,103 @@
+import nlp.dispatch.WorkerDispatcher;
+import nlp.dispatch.WorkerProcess;
+import nlp.output.JSONResultWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The worker processes of the profiles that run their engines out of process ("parser.workers"):
+ *
+ *   GET                             state, documents in flight, documents and restarts of every worker
+ *   POST action=restart[&profile=NAME][&worker=INDEX]   rolling restart of the workers of a profile
+ *
+ * A rolling restart drains, stops and starts one worker at a time, so the others keep taking
+ * documents; it runs in the background and is answered with 202, or 409 when one is running.
+ */
+@WebServlet("/workers")
+public class WorkersServlet extends HttpServlet {
+    private ParserProfiles profiles;
+
+    public void init() throws ServletException {
+        profiles = ParserProfiles.forContext(getServletContext());
+    }
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+
+        Writer out = response.getWriter();
+        out.write("{\"profiles\":[");
+        int written = 0;
+        for(ParserProfile profile : profiles.getProfiles())
+        {
+            WorkerDispatcher dispatcher = profile.getPool().getDispatcher();
+            if(dispatcher == null)
+            {
+                continue;
+            }
+
+            if(written++ > 0) out.write(',');
+            out.write("{\"name\":");
+            JSONResultWriter.quote(out, profile.getName());
+            out.write(",\"restarting\":" + dispatcher.isRestarting() + ",\"workers\":[");
+            for(WorkerProcess worker : dispatcher.getWorkers())
+            {
+                if(worker.getIndex() > 0) out.write(',');
+                out.write("{\"index\":" + worker.getIndex() + ",\"port\":" + worker.getPort() + ",\"state\":");
+                JSONResultWriter.quote(out, dispatcher.getState(worker).name());
+                out.write(",\"inFlight\":" + dispatcher.getInFlight(worker) + ",\"documents\":" + worker.getRequests()
+                        + ",\"restarts\":" + worker.getRestarts() + ",\"uptime\":" + worker.getUptime() + "}");
+            }
+            out.write("]}");
+        }
+        out.write("]}");
+        out.flush();
+    }
+
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if(!"restart".equals(request.getParameter("action")))
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown action, expected restart");
+            return;
+        }
+
+        ParserProfile profile = profiles.get(request.getParameter("profile"));
+        WorkerDispatcher dispatcher = profile == null ? null : profile.getPool().getDispatcher();
+        if(dispatcher == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "The profile does not run worker processes");
+            return;
+        }
+
+        Integer worker = null;
+        if(request.getParameter("worker") != null)
+        {
+            try {
+                worker = Integer.valueOf(request.getParameter("worker").trim());
+            } catch (NumberFormatException e) {
+                worker = -1;
+            }
+            if(worker < 0 || worker >= dispatcher.getWorkers().size())
+            {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Worker must be between 0 and " + (dispatcher.getWorkers().size() - 1));
+                return;
+            }
+        }
+
+        if(!dispatcher.restart(worker))
+        {
+            response.sendError(HttpServletResponse.SC_CONFLICT, "A rolling restart is already running");
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.setContentType("text/plain; charset=UTF-8");
+        response.getWriter().println("restarting");
+    }
+}
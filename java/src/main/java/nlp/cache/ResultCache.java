@@ -0,0 +1,437 @@
+package nlp.cache;
+
+import nlp.information.ParseResult;
+import nlp.output.BinaryResultReader;
+import nlp.output.BinaryResultWriter;
+
+import javax.servlet.ServletContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of parse results. The key is a SHA-256 hash of the pipeline
+ * fingerprint, the descriptor of the profile and the document text, and the value is the result
+ * in the binary output format. Results are kept in a size-bounded in-memory LRU tier and, when a
+ * directory is configured, in an on-disk tier below it.
+ *
+ * The fingerprint covers the descriptor paths of all profiles, the binary format version and the
+ * size and modification time of the descriptors and every other watched file or directory (e.g.
+ * the dictionary). It is checked once per check interval on a background thread; when it changes
+ * the memory tier is cleared and the disk tier moves to a new subdirectory, after the old one is
+ * deleted.
+ */
+public class ResultCache {
+    public static final String CONTEXT_ATTRIBUTE = "resultCache";
+    public static final String SIZE_PARAMETER = "parser.cache.size";
+    public static final String DIRECTORY_PARAMETER = "parser.cache.directory";
+    public static final String WATCH_PARAMETER = "parser.cache.watch";
+
+    private static final long CHECK_INTERVAL = 60 * 1000;
+
+    private final String descriptor;
+    private final File[] watched;
+    private final long maxBytes;
+    private final File directory;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(256, 0.75f, true);
+    private long bytes;
+
+    private volatile String fingerprint;
+    private final ScheduledExecutorService checker;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ResultCache(String descriptor, File[] watched, long maxBytes, File directory)
+    {
+        this.descriptor = descriptor;
+        this.watched = watched;
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.fingerprint = computeFingerprint();
+        this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-cache-check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        checker.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    checkFingerprint();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the cache of this application, or null when it is disabled. The memory tier holds
+     * "parser.cache.size" megabytes (64 by default, 0 disables the cache), "parser.cache.directory"
+     * enables the disk tier and "parser.cache.watch" lists extra comma-separated paths, such as the
+     * dictionary, whose changes invalidate the cache.
+     */
+    public static ResultCache forContext(ServletContext application, List<String> descriptors)
+    {
+        synchronized (application) {
+            Object cache = application.getAttribute(CONTEXT_ATTRIBUTE);
+            if(cache == null)
+            {
+                String size = parameter(application, SIZE_PARAMETER);
+                long megabytes = size == null ? 64 : Long.parseLong(size);
+                if(megabytes <= 0)
+                {
+                    cache = Boolean.FALSE;
+                }
+                else
+                {
+                    String directory = parameter(application, DIRECTORY_PARAMETER);
+                    String watch = parameter(application, WATCH_PARAMETER);
+
+                    String[] paths = watch == null ? new String[0] : watch.split(",");
+                    File[] watched = new File[descriptors.size() + paths.length];
+                    StringBuilder descriptor = new StringBuilder();
+                    for(int i = 0; i < descriptors.size(); i++)
+                    {
+                        watched[i] = new File(descriptors.get(i));
+                        descriptor.append(i == 0 ? "" : "\n").append(descriptors.get(i));
+                    }
+                    for(int i = 0; i < paths.length; i++)
+                    {
+                        watched[descriptors.size() + i] = new File(paths[i].trim());
+                    }
+
+                    cache = new ResultCache(descriptor.toString(), watched, megabytes * 1024 * 1024, directory == null ? null : new File(directory));
+                }
+                application.setAttribute(CONTEXT_ATTRIBUTE, cache);
+            }
+            return cache instanceof ResultCache ? (ResultCache) cache : null;
+        }
+    }
+
+    private static String parameter(ServletContext application, String name)
+    {
+        String value = application.getInitParameter(name);
+        if(value == null)
+        {
+            value = System.getProperty(name);
+        }
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    /**
+     * Returns the result of the pipeline for the text under the given file name, or null on a miss.
+     */
+    public ParseResult get(String pipeline, String fileName, String text)
+    {
+        String key = key(pipeline, text);
+
+        byte[] value;
+        synchronized (memory) {
+            value = memory.get(key);
+        }
+
+        if(value != null)
+        {
+            hits.incrementAndGet();
+        }
+        else
+        {
+            value = readDisk(key);
+            if(value != null)
+            {
+                diskHits.incrementAndGet();
+                putMemory(key, value);
+            }
+        }
+
+        if(value == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            return new BinaryResultReader().read(new ByteArrayInputStream(value)).withFileName(fileName);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void put(String pipeline, String text, ParseResult result)
+    {
+        String key = key(pipeline, text);
+
+        byte[] value;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new BinaryResultWriter().write(result, out);
+            value = out.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        putMemory(key, value);
+        writeDisk(key, value);
+    }
+
+    private void putMemory(String key, byte[] value)
+    {
+        if(value.length > maxBytes)
+        {
+            return;
+        }
+
+        synchronized (memory) {
+            byte[] previous = memory.put(key, value);
+            if(previous != null)
+            {
+                bytes -= previous.length;
+            }
+            bytes += value.length;
+
+            Iterator<Map.Entry<String, byte[]>> iterator = memory.entrySet().iterator();
+            while(bytes > maxBytes && iterator.hasNext())
+            {
+                bytes -= iterator.next().getValue().length;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private byte[] readDisk(String key)
+    {
+        File file = file(key);
+        if(file == null || !file.isFile())
+        {
+            return null;
+        }
+
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] value = new byte[(int) file.length()];
+                int offset = 0;
+                int read;
+                while(offset < value.length && (read = in.read(value, offset, value.length - offset)) >= 0)
+                {
+                    offset += read;
+                }
+                return offset == value.length ? value : null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, byte[] value)
+    {
+        File file = file(key);
+        if(file == null)
+        {
+            return;
+        }
+
+        try {
+            File parent = file.getParentFile();
+            if(!parent.isDirectory() && !parent.mkdirs())
+            {
+                return;
+            }
+
+            // Write next to the target and rename, so readers never see a partial file
+            File temporary = File.createTempFile(key, ".tmp", parent);
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(value);
+            } finally {
+                out.close();
+            }
+            if(!temporary.renameTo(file))
+            {
+                temporary.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private File file(String key)
+    {
+        if(directory == null)
+        {
+            return null;
+        }
+        return new File(new File(new File(directory, fingerprint), key.substring(0, 2)), key + ".bin");
+    }
+
+    private String key(String pipeline, String text)
+    {
+        MessageDigest digest = sha256();
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(pipeline.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    private void checkFingerprint()
+    {
+        String current = computeFingerprint();
+        if(!current.equals(fingerprint))
+        {
+            String previous = fingerprint;
+            fingerprint = current;
+            invalidate(previous);
+        }
+    }
+
+    public void shutdown()
+    {
+        checker.shutdownNow();
+    }
+
+    private void invalidate(String previous)
+    {
+        synchronized (memory) {
+            memory.clear();
+            bytes = 0;
+        }
+        invalidations.incrementAndGet();
+
+        if(directory != null)
+        {
+            delete(new File(directory, previous));
+        }
+        System.out.println("\n*** Pipeline or dictionary changed, result cache invalidated ***\n");
+    }
+
+    private void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if(children != null)
+        {
+            for(File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private String computeFingerprint()
+    {
+        // Entries are stored in the binary output format, so a new format version starts over too
+        StringBuilder builder = new StringBuilder(descriptor).append('\n').append(BinaryResultWriter.VERSION);
+        for(File file : watched)
+        {
+            describe(file, builder);
+        }
+        return hex(sha256().digest(builder.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    }
+
+    private void describe(File file, StringBuilder builder)
+    {
+        builder.append('\n').append(file.getPath()).append(':').append(file.length()).append(':').append(file.lastModified());
+
+        File[] children = file.listFiles();
+        if(children != null)
+        {
+            // listFiles() gives no order, which would change the fingerprint when nothing did
+            Arrays.sort(children);
+            for(File child : children)
+            {
+                describe(child, builder);
+            }
+        }
+    }
+
+    private static MessageDigest sha256()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest)
+    {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for(byte b : digest)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getDiskHits()
+    {
+        return diskHits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    public long getBytes()
+    {
+        synchronized (memory) {
+            return bytes;
+        }
+    }
+
+    public int getEntries()
+    {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+}
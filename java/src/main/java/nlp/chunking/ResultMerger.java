@@ -0,0 +1,47 @@
+package nlp.chunking;
+
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+
+import java.util.List;
+
+/**
+ * Combines the results of the chunks of one document into the result of the whole document.
+ * Every chunk was parsed as a document of its own, so its offsets start at 0, its token numbers
+ * start at 0 and its dependency node ids are only unique within the chunk. They are moved past
+ * those of the chunks before it; groups keep the order of the chunks, which is document order.
+ */
+public class ResultMerger {
+    private ResultMerger()
+    {
+    }
+
+    /**
+     * @param boundaries the chunk boundaries returned by TextChunker.split for input
+     * @param parts the result of every chunk, in order
+     * @param parsingDuration the time it took to parse all chunks
+     */
+    public static ParseResult merge(String fileName, String input, int[] boundaries, List<ParseResult> parts, double parsingDuration)
+    {
+        if(parts.size() != boundaries.length - 1)
+        {
+            throw new IllegalArgumentException("Expected " + (boundaries.length - 1) + " chunk results, got " + parts.size());
+        }
+
+        SyntaxAnnotations syntax = new SyntaxAnnotations(input);
+        SemanticAnnotations semantic = new SemanticAnnotations(input);
+
+        for(int i = 0; i < parts.size(); i++)
+        {
+            ParseResult part = parts.get(i);
+            int length = part.getInput().length();
+
+            syntax.append(part.getSyntax(), 0, length, boundaries[i]);
+            semantic.append(part.getSemantic(), 0, length, boundaries[i]);
+        }
+
+        ParseResult first = parts.get(0);
+        return new ParseResult(fileName, input, syntax, semantic, first.getEnvironmentDuration(), first.isExisted(), parsingDuration);
+    }
+}
@@ -0,0 +1,148 @@
+package nlp.chunking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a long document into chunks of at most a given number of characters. A chunk ends
+ * after a run of whitespace, preferably a blank line between paragraphs, otherwise the end of a
+ * sentence or a line, otherwise any space; only when the second half of the window has no
+ * whitespace at all is a word cut. The chunks together are exactly the original text, so an
+ * annotation of a chunk is moved back into the document by adding the start of the chunk.
+ */
+public class TextChunker {
+    private static final int WORD = 1;
+    private static final int SENTENCE = 2;
+    private static final int PARAGRAPH = 3;
+
+    private final int size;
+
+    public TextChunker(int size)
+    {
+        if(size < 2)
+        {
+            throw new IllegalArgumentException("Chunk size must be at least 2, was " + size);
+        }
+        this.size = size;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * The start offsets of the chunks followed by the length of the text, so chunk i is
+     * text.substring(boundaries[i], boundaries[i + 1]). A text that fits in one chunk gives {0, length}.
+     */
+    public int[] split(String text)
+    {
+        List<Integer> boundaries = new ArrayList<Integer>();
+        boundaries.add(0);
+
+        int start = 0;
+        while(text.length() - start > size)
+        {
+            start = boundary(text, start, start + size);
+            boundaries.add(start);
+        }
+        boundaries.add(text.length());
+
+        int[] result = new int[boundaries.size()];
+        for(int i = 0; i < result.length; i++)
+        {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * The best place to end a chunk that starts at start and may not go beyond limit. Runs of
+     * whitespace are visited from the end of the window back to its middle; the first one of the
+     * strongest kind wins.
+     */
+    private int boundary(String text, int start, int limit)
+    {
+        int minimum = start + size / 2;
+        int best = -1;
+        int bestLevel = 0;
+
+        int i = limit;
+        while(i > minimum && bestLevel < PARAGRAPH)
+        {
+            if(!Character.isWhitespace(text.charAt(i - 1)) || (i < text.length() && Character.isWhitespace(text.charAt(i))))
+            {
+                i--;
+                continue;
+            }
+
+            // text[runStart, i) is a run of whitespace followed by the start of the next chunk
+            int runStart = i - 1;
+            int newlines = 0;
+            while(runStart > start && Character.isWhitespace(text.charAt(runStart - 1)))
+            {
+                runStart--;
+            }
+            for(int j = runStart; j < i; j++)
+            {
+                if(text.charAt(j) == '\n')
+                {
+                    newlines++;
+                }
+            }
+
+            int level = WORD;
+            if(newlines >= 2)
+            {
+                level = PARAGRAPH;
+            }
+            else if(newlines == 1 || (runStart > start && isSentenceEnd(text.charAt(runStart - 1))))
+            {
+                level = SENTENCE;
+            }
+
+            if(level > bestLevel)
+            {
+                best = i;
+                bestLevel = level;
+            }
+            i = runStart;
+        }
+
+        if(best > 0)
+        {
+            return best;
+        }
+
+        // One long word; never cut a surrogate pair in half
+        return Character.isLowSurrogate(text.charAt(limit)) ? limit - 1 : limit;
+    }
+
+    /**
+     * Whether a sentence starts at offset: the start or end of the text, or the end of a run of
+     * whitespace that holds a line break or follows the end of a sentence.
+     */
+    public static boolean isSentenceBoundary(String text, int offset)
+    {
+        if(offset <= 0 || offset >= text.length())
+        {
+            return true;
+        }
+        if(!Character.isWhitespace(text.charAt(offset - 1)) || Character.isWhitespace(text.charAt(offset)))
+        {
+            return false;
+        }
+
+        int runStart = offset - 1;
+        while(runStart > 0 && Character.isWhitespace(text.charAt(runStart - 1)))
+        {
+            runStart--;
+        }
+        return text.lastIndexOf('\n', offset - 1) >= runStart || (runStart > 0 && isSentenceEnd(text.charAt(runStart - 1)));
+    }
+
+    private static boolean isSentenceEnd(char c)
+    {
+        return c == '.' || c == '!' || c == '?' || c == ':' || c == ';';
+    }
+}
@@ -0,0 +1,199 @@
+package nlp.corpus;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Append-only record of the documents of a corpus run whose output has been written, one name
+ * per line, so a run that is interrupted resumes without parsing them again. A document is only
+ * recorded once its output is complete; at worst the documents that were in flight are redone.
+ *
+ * The names read back are kept as 64-bit hashes in an open-addressing table rather than as
+ * Strings, so a journal of millions of documents takes tens of megabytes instead of hundreds.
+ */
+public class CheckpointJournal {
+    private static final long EMPTY = 0;
+
+    private final File file;
+    private final Writer out;
+
+    private long[] hashes;
+    private int size;
+    private int mask;
+
+    public CheckpointJournal(File file) throws IOException
+    {
+        this.file = file;
+        allocate(1024);
+
+        boolean endsWithNewline = true;
+        if(file.exists())
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while((line = reader.readLine()) != null)
+                {
+                    if(!line.isEmpty())
+                    {
+                        add(hash(line));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            endsWithNewline = endsWithNewline(file);
+        }
+        else if(file.getAbsoluteFile().getParentFile() != null)
+        {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        if(!endsWithNewline)
+        {
+            // The last name was cut off when the previous run was killed; that document is redone
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException
+    {
+        RandomAccessFile journal = new RandomAccessFile(file, "r");
+        try {
+            if(journal.length() == 0)
+            {
+                return true;
+            }
+            journal.seek(journal.length() - 1);
+            return journal.read() == '\n';
+        } finally {
+            journal.close();
+        }
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Whether the document was finished by this or an earlier run.
+     */
+    public synchronized boolean contains(String name)
+    {
+        long hash = hash(name);
+        int slot = slot(hash);
+        while(true)
+        {
+            long current = hashes[slot];
+            if(current == hash)
+            {
+                return true;
+            }
+            if(current == EMPTY)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Records the document as finished. The line is flushed right away, so it survives the
+     * process being killed.
+     */
+    public synchronized void record(String name) throws IOException
+    {
+        out.write(name);
+        out.write('\n');
+        out.flush();
+        add(hash(name));
+    }
+
+    /**
+     * The number of finished documents.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    public synchronized void close() throws IOException
+    {
+        out.close();
+    }
+
+    private void add(long hash)
+    {
+        if((size + 1) * 2 > hashes.length)
+        {
+            long[] old = hashes;
+            allocate(hashes.length * 2);
+            for(long current : old)
+            {
+                if(current != EMPTY)
+                {
+                    insert(current);
+                }
+            }
+        }
+        insert(hash);
+    }
+
+    private void insert(long hash)
+    {
+        int slot = slot(hash);
+        while(true)
+        {
+            long current = hashes[slot];
+            if(current == hash)
+            {
+                return;
+            }
+            if(current == EMPTY)
+            {
+                hashes[slot] = hash;
+                size++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        hashes = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private int slot(long hash)
+    {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * 64-bit FNV-1a of the name; with ten million names the chance of any collision is about 1 in 400,000.
+     */
+    private static long hash(String name)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < name.length(); i++)
+        {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+}
@@ -0,0 +1,122 @@
+package nlp.corpus;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The documents of a corpus: the files of a directory tree in name order, or the entries of a zip
+ * archive. Zip archives inside the tree are read entry by entry as well. Every document is named
+ * by its path relative to the root with '/' separators, e.g. "2015/notes.zip/note-1.txt", so the
+ * names stay the same from one run to the next.
+ */
+public class CorpusSource {
+    private final File root;
+
+    public interface Visitor {
+        /**
+         * Called for every document; the stream is closed once this returns.
+         */
+        void visit(String name, InputStream in) throws IOException, InterruptedException;
+    }
+
+    public CorpusSource(File root)
+    {
+        if(!root.exists())
+        {
+            throw new IllegalArgumentException("No such file or directory: " + root);
+        }
+        this.root = root;
+    }
+
+    public void visit(Visitor visitor) throws IOException, InterruptedException
+    {
+        if(root.isDirectory())
+        {
+            visitDirectory(root, "", visitor);
+        }
+        else
+        {
+            visitFile(root, "", visitor);
+        }
+    }
+
+    private void visitDirectory(File directory, String prefix, Visitor visitor) throws IOException, InterruptedException
+    {
+        File[] files = directory.listFiles();
+        if(files == null)
+        {
+            throw new IOException("Could not list " + directory);
+        }
+        Arrays.sort(files);
+
+        for(File file : files)
+        {
+            if(file.getName().startsWith("."))
+            {
+                continue;
+            }
+
+            if(file.isDirectory())
+            {
+                visitDirectory(file, prefix + file.getName() + "/", visitor);
+            }
+            else if(file.isFile())
+            {
+                visitFile(file, prefix, visitor);
+            }
+        }
+    }
+
+    private void visitFile(File file, String prefix, Visitor visitor) throws IOException, InterruptedException
+    {
+        if(isZip(file.getName()))
+        {
+            visitZip(file, prefix + file.getName() + "/", visitor);
+            return;
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            visitor.visit(prefix + file.getName(), in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void visitZip(File file, String prefix, Visitor visitor) throws IOException, InterruptedException
+    {
+        ZipFile zip = new ZipFile(file);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while(entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                if(entry.isDirectory())
+                {
+                    continue;
+                }
+
+                InputStream in = zip.getInputStream(entry);
+                try {
+                    visitor.visit(prefix + entry.getName(), in);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static boolean isZip(String fileName)
+    {
+        return fileName.toLowerCase().endsWith(".zip");
+    }
+}
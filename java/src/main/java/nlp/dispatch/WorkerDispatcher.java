@@ -0,0 +1,581 @@
+package nlp.dispatch;
+
+import nlp.engine.Deadline;
+import nlp.engine.EngineConfiguration;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.information.ParseResult;
+import nlp.metrics.Metrics;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the engines of a profile in "parser.workers" separate JVMs instead of in the servlet
+ * container, so their heaps are collected apart and a crashing annotator only takes one worker
+ * down. Every worker process runs "parser.pool.size" Parsers and answers on a loopback port.
+ *
+ * Documents go to the ready worker with the fewest documents in flight. A health checker asks
+ * every worker for /health every "parser.worker.healthInterval" seconds (5): a worker whose
+ * process has exited, or that failed three checks in a row, is started again, as is one that did
+ * not become ready within "parser.worker.startTimeout" seconds (600). Checks and starts run on a
+ * thread per worker, so a worker that is slow to stop or start does not hold up the others; a
+ * worker whose last check is still running is skipped. restart() replaces the
+ * workers one at a time, each after it has been drained: it gets no new documents and is stopped
+ * once the ones it has are done, or after "parser.worker.drainTimeout" seconds (120).
+ *
+ * Workers are started with the java of this JVM, the options of "parser.worker.jvmOptions"
+ * (e.g. "-Xmx6g") and the class path of "parser.worker.classpath", which defaults to that of the
+ * web application. A worker exits when its standard input is closed, so it does not outlive this JVM.
+ */
+public class WorkerDispatcher {
+    public static final String WORKERS_PARAMETER = "parser.workers";
+    public static final String JVM_OPTIONS_PARAMETER = "parser.worker.jvmOptions";
+    public static final String CLASSPATH_PARAMETER = "parser.worker.classpath";
+    public static final String HEALTH_INTERVAL_PARAMETER = "parser.worker.healthInterval";
+    public static final String START_TIMEOUT_PARAMETER = "parser.worker.startTimeout";
+    public static final String DRAIN_TIMEOUT_PARAMETER = "parser.worker.drainTimeout";
+
+    private static final int MAX_FAILED_CHECKS = 3;
+
+    private final String name;
+    private final int size;
+    private final List<WorkerProcess> workers = new ArrayList<WorkerProcess>();
+    private final long healthIntervalMillis;
+    private final long startTimeoutMillis;
+    private final long drainTimeoutMillis;
+    private final ScheduledExecutorService checker;
+    private final ExecutorService tasks;
+    private final AtomicBoolean restarting = new AtomicBoolean();
+    private volatile boolean shutdown;
+
+    /**
+     * @param command the java command and options that start a worker, without the worker arguments
+     * @param size    the number of Parsers of every worker
+     */
+    public WorkerDispatcher(final String name, int workers, int size, List<String> command,
+                            long healthIntervalMillis, long startTimeoutMillis, long drainTimeoutMillis)
+    {
+        if(workers < 1)
+        {
+            throw new IllegalArgumentException("At least one worker is required, was " + workers);
+        }
+
+        this.name = name;
+        this.size = size;
+        this.healthIntervalMillis = healthIntervalMillis;
+        this.startTimeoutMillis = startTimeoutMillis;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+
+        for(int i = 0; i < workers; i++)
+        {
+            List<String> arguments = new ArrayList<String>(command);
+            arguments.add("threads=" + size);
+            this.workers.add(new WorkerProcess(name + "-" + (i + 1), i, arguments));
+        }
+
+        this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-dispatch-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.tasks = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "nlp-dispatch-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates the dispatcher of a profile and starts its workers, or returns null when
+     * "parser.workers" is not set or 0 and the engines run in this JVM.
+     *
+     * @param mainClass the class whose main method runs a worker
+     * @param size      the number of Parsers of every worker
+     */
+    public static WorkerDispatcher forProfile(ServletContext application, String profile, EngineConfiguration configuration,
+                                              String mainClass, int size)
+    {
+        String value = EngineConfiguration.parameter(application, profile, WORKERS_PARAMETER);
+        int workers = value == null ? 0 : Integer.parseInt(value);
+        if(workers <= 0)
+        {
+            return null;
+        }
+
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String options = EngineConfiguration.parameter(application, profile, JVM_OPTIONS_PARAMETER);
+        if(options != null)
+        {
+            command.addAll(Arrays.asList(options.split("\\s+")));
+        }
+        command.addAll(configuration.toSystemProperties());
+        command.add("-cp");
+        String classPath = EngineConfiguration.parameter(application, profile, CLASSPATH_PARAMETER);
+        command.add(classPath == null ? classPath(WorkerDispatcher.class.getClassLoader()) : classPath);
+        command.add(mainClass);
+
+        WorkerDispatcher dispatcher = new WorkerDispatcher(profile, workers, size, command,
+                seconds(application, profile, HEALTH_INTERVAL_PARAMETER, 5),
+                seconds(application, profile, START_TIMEOUT_PARAMETER, 600),
+                seconds(application, profile, DRAIN_TIMEOUT_PARAMETER, 120));
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    private static long seconds(ServletContext application, String profile, String name, long defaultValue)
+    {
+        String value = EngineConfiguration.parameter(application, profile, name);
+        return Math.round((value == null ? defaultValue : Double.parseDouble(value)) * 1000);
+    }
+
+    /**
+     * The class path of the class loader and its parents, followed by that of the JVM; the web
+     * application classes come first, as they do in the container.
+     */
+    static String classPath(ClassLoader loader)
+    {
+        Set<String> entries = new LinkedHashSet<String>();
+        for(ClassLoader current = loader; current != null; current = current.getParent())
+        {
+            if(current instanceof URLClassLoader)
+            {
+                for(URL url : ((URLClassLoader) current).getURLs())
+                {
+                    if("file".equals(url.getProtocol()))
+                    {
+                        try {
+                            entries.add(new File(url.toURI()).getPath());
+                        } catch (Exception e) {
+                            entries.add(url.getPath());
+                        }
+                    }
+                }
+            }
+        }
+        entries.addAll(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        entries.remove("");
+
+        StringBuilder classPath = new StringBuilder();
+        for(String entry : entries)
+        {
+            classPath.append(classPath.length() == 0 ? "" : File.pathSeparator).append(entry);
+        }
+        return classPath.toString();
+    }
+
+    /**
+     * Starts every worker, each on a thread of its own, and the health checker; workers that do
+     * not start are retried by it.
+     */
+    public void start()
+    {
+        for(final WorkerProcess worker : workers)
+        {
+            submit(worker, new Runnable() {
+                public void run() {
+                    synchronized (worker) {
+                        launch(worker);
+                    }
+                }
+            });
+        }
+
+        checker.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for(WorkerProcess worker : workers)
+                {
+                    checkSoon(worker);
+                }
+            }
+        }, healthIntervalMillis, healthIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the task for the worker on a thread of its own, unless a task of the worker is still
+     * running; returns whether it was started.
+     */
+    private boolean submit(final WorkerProcess worker, final Runnable task)
+    {
+        synchronized (this) {
+            if(worker.busy || shutdown)
+            {
+                return false;
+            }
+            worker.busy = true;
+        }
+
+        try {
+            tasks.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        synchronized (WorkerDispatcher.this) {
+                            worker.busy = false;
+                        }
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Shut down in the meantime
+            synchronized (this) {
+                worker.busy = false;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Parses the document on the least loaded ready worker, waiting for one to become ready when
+     * there is none; returns null when it could not be parsed. A worker that could not be reached
+     * is checked right away and the document goes to another one. A worker that fails while it
+     * has the document is not retried, as the document may well be what made it fail, and neither
+     * is one that did not answer in time.
+     *
+     * @throws ParseTimeoutException when the document was not parsed before the deadline
+     */
+    public ParseResult parse(String fileName, String content, AnnotationFilter filter, Deadline deadline) throws ParseTimeoutException
+    {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        // Workers this document could not reach, which may still be marked ready until their check
+        Set<WorkerProcess> unreachable = new HashSet<WorkerProcess>();
+
+        for(int attempt = 0; attempt < workers.size(); attempt++)
+        {
+            WorkerProcess worker;
+            try {
+                worker = acquire(deadline, unreachable);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+
+            if(worker == null)
+            {
+                if(deadline.isExpired())
+                {
+                    throw new ParseTimeoutException(deadline, null);
+                }
+                System.out.println("\n*** No worker of " + name + " became ready within " + startTimeoutMillis / 1000 + " sec. ***\n");
+                return null;
+            }
+
+            try {
+                return worker.parse(fileName, body, filter, deadline);
+            } catch (ConnectException e) {
+                unreachable.add(worker);
+                checkSoon(worker);
+            } catch (ParseTimeoutException e) {
+                if(e.getPartial() == null)
+                {
+                    // Without a partial result the worker may not have answered at all
+                    checkSoon(worker);
+                }
+                throw e;
+            } catch (IOException e) {
+                System.out.println("\n*** Worker " + worker.getName() + " failed: " + e.getMessage() + " ***\n");
+                checkSoon(worker);
+                return null;
+            } finally {
+                release(worker);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Takes the ready worker with the fewest documents in flight, leaving out the excluded ones,
+     * waiting until the deadline (or the start timeout without one) for a worker to become ready;
+     * returns null when none did.
+     */
+    private synchronized WorkerProcess acquire(Deadline deadline, Set<WorkerProcess> excluded) throws InterruptedException
+    {
+        long waitUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startTimeoutMillis);
+
+        while(true)
+        {
+            WorkerProcess best = null;
+            for(WorkerProcess worker : workers)
+            {
+                if(worker.state == WorkerProcess.State.READY && !excluded.contains(worker) && (best == null || worker.inFlight < best.inFlight))
+                {
+                    best = worker;
+                }
+            }
+
+            if(best != null)
+            {
+                best.inFlight++;
+                return best;
+            }
+
+            long remaining = Math.min(waitUntil - System.nanoTime(), deadline.remainingNanos());
+            if(remaining <= 0 || shutdown)
+            {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private synchronized void release(WorkerProcess worker)
+    {
+        worker.inFlight--;
+        notifyAll();
+    }
+
+    private synchronized void setState(WorkerProcess worker, WorkerProcess.State state)
+    {
+        worker.state = state;
+        notifyAll();
+    }
+
+    private void checkSoon(final WorkerProcess worker)
+    {
+        submit(worker, new Runnable() {
+            public void run() {
+                check(worker);
+            }
+        });
+    }
+
+    /**
+     * Restarts the worker when its process has exited, when it failed too many health checks or
+     * when it did not become ready in time, and marks it ready once its health check succeeds.
+     */
+    private void check(WorkerProcess worker)
+    {
+        synchronized (worker) {
+            WorkerProcess.State state;
+            synchronized (this) {
+                state = worker.state;
+            }
+            // A draining worker is being restarted on purpose
+            if(shutdown || state == WorkerProcess.State.DRAINING)
+            {
+                return;
+            }
+
+            if(!worker.isAlive())
+            {
+                relaunch(worker, state == WorkerProcess.State.STOPPED ? "not_started" : "crashed");
+            }
+            else if(worker.checkHealth())
+            {
+                worker.failedChecks = 0;
+                if(state == WorkerProcess.State.STARTING)
+                {
+                    setState(worker, WorkerProcess.State.READY);
+                    System.out.println("\n*** Worker " + worker.getName() + " is ready after " + worker.getUptime() + " sec. ***\n");
+                }
+            }
+            else if(state == WorkerProcess.State.READY && ++worker.failedChecks >= MAX_FAILED_CHECKS)
+            {
+                relaunch(worker, "unhealthy");
+            }
+            else if(state == WorkerProcess.State.STARTING && worker.getUptime() * 1000 > startTimeoutMillis)
+            {
+                relaunch(worker, "start_timeout");
+            }
+        }
+    }
+
+    private void relaunch(WorkerProcess worker, String reason)
+    {
+        System.out.println("\n*** Restarting worker " + worker.getName() + ": " + reason.replace('_', ' ') + " ***\n");
+        Metrics.getDefault().counter("nlp_worker_restarts_total", "Worker processes that were started again, by reason.", "reason", reason).incrementAndGet();
+        worker.countRestart();
+
+        setState(worker, WorkerProcess.State.STOPPED);
+        worker.stop();
+        launch(worker);
+    }
+
+    private void launch(WorkerProcess worker)
+    {
+        if(shutdown)
+        {
+            return;
+        }
+        worker.failedChecks = 0;
+        try {
+            worker.start(startTimeoutMillis);
+            setState(worker, WorkerProcess.State.STARTING);
+        } catch (IOException e) {
+            // Retried by the next health check
+            e.printStackTrace();
+            setState(worker, WorkerProcess.State.STOPPED);
+        }
+    }
+
+    /**
+     * Starts a rolling restart of all workers, or of the one with the given index, on a thread of
+     * its own; returns false when one is already running. Every worker is drained, stopped, started
+     * again and given until it is ready before the next one is drained.
+     */
+    public boolean restart(final Integer only)
+    {
+        if(!restarting.compareAndSet(false, true))
+        {
+            return false;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for(WorkerProcess worker : workers)
+                    {
+                        if(only == null || only == worker.getIndex())
+                        {
+                            restart(worker);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    restarting.set(false);
+                }
+            }
+        }, "nlp-dispatch-" + name + "-restart");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void restart(WorkerProcess worker) throws InterruptedException
+    {
+        long startTime = System.nanoTime();
+
+        synchronized (this) {
+            worker.state = WorkerProcess.State.DRAINING;
+            long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+            while(worker.inFlight > 0 && drainUntil - System.nanoTime() > 0 && !shutdown)
+            {
+                TimeUnit.NANOSECONDS.timedWait(this, drainUntil - System.nanoTime());
+            }
+        }
+
+        synchronized (worker) {
+            if(shutdown)
+            {
+                return;
+            }
+            Metrics.getDefault().counter("nlp_worker_restarts_total", "Worker processes that were started again, by reason.", "reason", "rolling").incrementAndGet();
+            worker.countRestart();
+            worker.stop();
+            launch(worker);
+        }
+
+        // The health checker marks the new process ready
+        synchronized (this) {
+            long readyUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startTimeoutMillis);
+            while(worker.state != WorkerProcess.State.READY && readyUntil - System.nanoTime() > 0 && !shutdown)
+            {
+                TimeUnit.NANOSECONDS.timedWait(this, readyUntil - System.nanoTime());
+            }
+        }
+
+        double duration = (System.nanoTime() - startTime) / 1000000000.0;
+        System.out.println("\n*** Drained and restarted worker " + worker.getName() + " in " + duration + " sec. ***\n");
+    }
+
+    /**
+     * Stops the health checker and every worker.
+     */
+    public void shutdown()
+    {
+        synchronized (this) {
+            shutdown = true;
+            notifyAll();
+        }
+        checker.shutdownNow();
+        // Interrupts starts that wait for the port of their process, which is then destroyed
+        tasks.shutdownNow();
+
+        for(WorkerProcess worker : workers)
+        {
+            synchronized (worker) {
+                setState(worker, WorkerProcess.State.STOPPED);
+                worker.stop();
+            }
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public List<WorkerProcess> getWorkers()
+    {
+        return Collections.unmodifiableList(workers);
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public synchronized WorkerProcess.State getState(WorkerProcess worker)
+    {
+        return worker.state;
+    }
+
+    public synchronized int getInFlight(WorkerProcess worker)
+    {
+        return worker.inFlight;
+    }
+
+    /**
+     * The number of workers that take documents.
+     */
+    public synchronized int getReady()
+    {
+        int ready = 0;
+        for(WorkerProcess worker : workers)
+        {
+            if(worker.state == WorkerProcess.State.READY)
+            {
+                ready++;
+            }
+        }
+        return ready;
+    }
+
+    public boolean isRestarting()
+    {
+        return restarting.get();
+    }
+}
@@ -0,0 +1,346 @@
+package nlp.dispatch;
+
+import nlp.engine.Deadline;
+import nlp.engine.ParseTimeoutException;
+import nlp.extraction.AnnotationFilter;
+import nlp.information.ParseResult;
+import nlp.output.BinaryResultReader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One worker process of a WorkerDispatcher and the loopback HTTP connection to it. The process
+ * prints the port it listens on in a line "listening on PORT"; everything else it prints, before
+ * and after, is passed on to the standard output of this JVM, prefixed with the name of the
+ * worker. The fields that describe the load and state of the worker are guarded by the dispatcher.
+ */
+public class WorkerProcess {
+    public enum State { STARTING, READY, DRAINING, STOPPED }
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int HEALTH_TIMEOUT_MILLIS = 5000;
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+    // Extra time on top of the deadline for the worker to stop the run and answer
+    private static final int ANSWER_GRACE_MILLIS = 5000;
+    // How long a document without a deadline may take before the worker is considered lost
+    private static final int ANSWER_TIMEOUT_MILLIS = 30 * 60 * 1000;
+    private static final String LISTENING = "listening on ";
+
+    private final String name;
+    private final int index;
+    private final List<String> command;
+
+    private volatile Process process;
+    private volatile int port;
+    private long startedNanos;
+
+    State state = State.STOPPED;
+    int inFlight;
+    int failedChecks;
+    // A check or (re)start of the worker is running on a thread of the dispatcher
+    boolean busy;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+
+    public WorkerProcess(String name, int index, List<String> command)
+    {
+        this.name = name;
+        this.index = index;
+        this.command = command;
+    }
+
+    /**
+     * Starts the process and waits at most timeoutMillis for the port it listens on; the worker is
+     * STARTING until its health check succeeds. The output is read on a thread of its own, so a
+     * process that hangs before it prints its port does not hold up the caller past the timeout.
+     */
+    void start(long timeoutMillis) throws IOException
+    {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        final Process started = builder.start();
+
+        final BufferedReader output = new BufferedReader(new InputStreamReader(started.getInputStream(), StandardCharsets.UTF_8));
+        final AtomicInteger listening = new AtomicInteger();
+        final CountDownLatch announced = new CountDownLatch(1);
+
+        Thread echo = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    String line;
+                    while((line = output.readLine()) != null)
+                    {
+                        if(announced.getCount() > 0 && line.startsWith(LISTENING))
+                        {
+                            try {
+                                listening.set(Integer.parseInt(line.substring(LISTENING.length()).trim()));
+                                announced.countDown();
+                                continue;
+                            } catch (NumberFormatException e) {
+                                // Echoed like any other line
+                            }
+                        }
+                        if(!line.isEmpty())
+                        {
+                            System.out.println("[" + name + "] " + line);
+                        }
+                    }
+                } catch (IOException e) {
+                    // The process has gone
+                } finally {
+                    // Also when the process exited before it printed its port
+                    announced.countDown();
+                }
+            }
+        }, "nlp-worker-" + name + "-output");
+        echo.setDaemon(true);
+        echo.start();
+
+        boolean done;
+        try {
+            done = announced.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            started.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while starting worker " + name);
+        }
+
+        if(listening.get() <= 0)
+        {
+            started.destroy();
+            throw new IOException("Worker " + name + (done ? " exited before it printed its port"
+                    : " did not print its port within " + timeoutMillis / 1000 + " sec."));
+        }
+
+        port = listening.get();
+        process = started;
+        startedNanos = System.nanoTime();
+        System.out.println("\n*** Started worker " + name + " on port " + port + " ***\n");
+    }
+
+    /**
+     * Closes the standard input of the process, which makes it finish its requests and exit, and
+     * kills it when it has not done so in time.
+     */
+    void stop()
+    {
+        Process stopping = process;
+        if(stopping == null)
+        {
+            return;
+        }
+
+        try {
+            stopping.getOutputStream().close();
+            if(!stopping.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            {
+                stopping.destroyForcibly();
+            }
+        } catch (IOException e) {
+            stopping.destroyForcibly();
+        } catch (InterruptedException e) {
+            stopping.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        process = null;
+    }
+
+    boolean isAlive()
+    {
+        Process current = process;
+        return current != null && current.isAlive();
+    }
+
+    /**
+     * Whether the worker answers its health check with 200, which it does once it has warmed up.
+     */
+    boolean checkHealth()
+    {
+        HttpURLConnection connection = null;
+        try {
+            connection = open("/health");
+            connection.setReadTimeout(HEALTH_TIMEOUT_MILLIS);
+            int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            return status == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses the document on the worker.
+     *
+     * @throws java.net.ConnectException when the worker could not be reached, so nothing was sent
+     * @throws ParseTimeoutException when the worker did not parse the document before the deadline,
+     * or did not answer within the grace period after it
+     * @throws IOException when the worker failed or went away while parsing
+     */
+    ParseResult parse(String fileName, byte[] content, AnnotationFilter filter, Deadline deadline)
+            throws IOException, ParseTimeoutException
+    {
+        StringBuilder query = new StringBuilder("/parse?fileName=").append(encode(fileName == null ? "" : fileName));
+        if(!deadline.isNone())
+        {
+            long remainingMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos()), 1);
+            query.append("&timeout=").append(remainingMillis);
+        }
+        append(query, "types", filter.getTypes());
+        append(query, "schemes", filter.getSchemes());
+        append(query, "tuis", filter.getTuis());
+        if(filter.getPolarity() != null)
+        {
+            query.append("&polarity=").append(filter.getPolarity());
+        }
+
+        HttpURLConnection connection = open(query.toString());
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+        connection.setFixedLengthStreamingMode(content.length);
+        connection.setReadTimeout(deadline.isNone() ? ANSWER_TIMEOUT_MILLIS : (int) Math.min(Integer.MAX_VALUE,
+                Math.max(TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos()), 0) + ANSWER_GRACE_MILLIS));
+
+        try {
+            connection.connect();
+        } catch (SocketTimeoutException e) {
+            throw new ConnectException("Worker " + name + " did not accept a connection within " + CONNECT_TIMEOUT_MILLIS + " ms");
+        }
+
+        requests.incrementAndGet();
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+
+        int status;
+        try {
+            status = connection.getResponseCode();
+            if(status == HttpURLConnection.HTTP_OK)
+            {
+                return read(connection.getInputStream());
+            }
+        } catch (SocketTimeoutException e) {
+            // The read timeout, the worker did not stop the run at the deadline or is stuck
+            throw new ParseTimeoutException(deadline.isNone() ? Deadline.after(ANSWER_TIMEOUT_MILLIS) : deadline, null);
+        }
+        if(status == HttpURLConnection.HTTP_GATEWAY_TIMEOUT)
+        {
+            boolean partial = "true".equals(connection.getHeaderField("X-Partial-Result"));
+            InputStream error = connection.getErrorStream();
+            throw new ParseTimeoutException(deadline, partial ? read(error) : null);
+        }
+
+        throw new IOException("Worker " + name + " answered " + status + ": " + drain(connection.getErrorStream()));
+    }
+
+    private HttpURLConnection open(String path) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private static ParseResult read(InputStream in) throws IOException
+    {
+        try {
+            return new BinaryResultReader().read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String drain(InputStream in) throws IOException
+    {
+        if(in == null)
+        {
+            return "";
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = in.read(buffer)) > 0)
+            {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    private static void append(StringBuilder query, String name, Set<String> values) throws IOException
+    {
+        for(String value : values)
+        {
+            query.append('&').append(name).append('=').append(encode(value));
+        }
+    }
+
+    private static String encode(String value) throws IOException
+    {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Seconds since the current process was started, 0 when there is none.
+     */
+    public double getUptime()
+    {
+        return process == null ? 0 : (System.nanoTime() - startedNanos) / 1000000000.0;
+    }
+
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    public long getRestarts()
+    {
+        return restarts.get();
+    }
+
+    void countRestart()
+    {
+        restarts.incrementAndGet();
+    }
+}
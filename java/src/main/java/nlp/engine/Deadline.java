@@ -0,0 +1,59 @@
+package nlp.engine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a request has to be parsed, measured on System.nanoTime so it is not
+ * affected by changes of the wall clock. NONE never expires.
+ */
+public class Deadline {
+    public static final Deadline NONE = new Deadline(0, 0);
+
+    private final long budgetMillis;
+    private final long expiresNanos;
+
+    private Deadline(long budgetMillis, long expiresNanos)
+    {
+        this.budgetMillis = budgetMillis;
+        this.expiresNanos = expiresNanos;
+    }
+
+    /**
+     * A deadline the given number of milliseconds from now, or NONE when it is 0 or less.
+     */
+    public static Deadline after(long budgetMillis)
+    {
+        if(budgetMillis <= 0)
+        {
+            return NONE;
+        }
+
+        return new Deadline(budgetMillis, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+    }
+
+    public boolean isNone()
+    {
+        return budgetMillis == 0;
+    }
+
+    /**
+     * Nanoseconds left until the deadline, 0 or less once it has passed; Long.MAX_VALUE for NONE.
+     */
+    public long remainingNanos()
+    {
+        return isNone() ? Long.MAX_VALUE : expiresNanos - System.nanoTime();
+    }
+
+    public boolean isExpired()
+    {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * The whole time budget the deadline was created with, 0 for NONE.
+     */
+    public long getBudgetMillis()
+    {
+        return budgetMillis;
+    }
+}
@@ -0,0 +1,22 @@
+package nlp.engine;
+
+import org.apache.uima.analysis_engine.AnalysisEngineManagement;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.jcas.JCas;
+
+/**
+ * The NLP pipeline a Parser runs over a document. Every Parser owns its own engine, so an
+ * implementation does not have to be thread-safe.
+ */
+public interface Engine {
+    /**
+     * Adds the annotations for the document text of the JCas.
+     */
+    void process(JCas jcas) throws AnalysisEngineProcessException;
+
+    /**
+     * The UIMA management interface with the analysis times per annotator, or null when the
+     * engine has no delegate annotators.
+     */
+    AnalysisEngineManagement getManagementInterface();
+}
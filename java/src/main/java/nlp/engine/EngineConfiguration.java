@@ -0,0 +1,128 @@
+package nlp.engine;
+
+import javax.servlet.ServletContext;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the engine the Parsers of a pipeline profile run. "parser.engine" is either "ctakes"
+ * (the default), which loads the aggregate descriptor, or "stub", which runs a StubEngine with
+ * "parser.stub.latency" milliseconds per document and "parser.stub.latencyPerKb" milliseconds
+ * per kilobyte of text (both 0 by default).
+ *
+ * Every "parser.*" setting can be overridden for one profile as "parser.profile.NAME.*", e.g.
+ * "parser.profile.full.descriptor" or "parser.profile.full.pool.size".
+ */
+public class EngineConfiguration {
+    public static final String PROFILE_PREFIX = "parser.profile.";
+    public static final String ENGINE_PARAMETER = "parser.engine";
+    public static final String DESCRIPTOR_PARAMETER = "parser.descriptor";
+    public static final String STUB_LATENCY_PARAMETER = "parser.stub.latency";
+    public static final String STUB_LATENCY_PER_KB_PARAMETER = "parser.stub.latencyPerKb";
+
+    public static final String CTAKES = "ctakes";
+    public static final String STUB = "stub";
+
+    private final String engine;
+    private final String descriptor;
+    private final long stubLatencyMillis;
+    private final double stubLatencyPerKilobyteMillis;
+
+    public EngineConfiguration(String engine, String descriptor, long stubLatencyMillis, double stubLatencyPerKilobyteMillis)
+    {
+        if(!engine.equals(CTAKES) && !engine.equals(STUB))
+        {
+            throw new IllegalArgumentException("Unknown engine " + engine + ", expected " + CTAKES + " or " + STUB);
+        }
+
+        this.engine = engine;
+        this.descriptor = descriptor;
+        this.stubLatencyMillis = stubLatencyMillis;
+        this.stubLatencyPerKilobyteMillis = stubLatencyPerKilobyteMillis;
+    }
+
+    /**
+     * Returns the configuration of the profile. The descriptor of the ctakes engine is
+     * "parser.descriptor", falling back to the given default.
+     */
+    public static EngineConfiguration forProfile(ServletContext application, String profile, String defaultDescriptor)
+    {
+        String engine = parameter(application, profile, ENGINE_PARAMETER);
+        String descriptor = parameter(application, profile, DESCRIPTOR_PARAMETER);
+        String latency = parameter(application, profile, STUB_LATENCY_PARAMETER);
+        String latencyPerKilobyte = parameter(application, profile, STUB_LATENCY_PER_KB_PARAMETER);
+
+        return new EngineConfiguration(
+                engine == null ? CTAKES : engine,
+                descriptor == null ? defaultDescriptor : descriptor,
+                latency == null ? 0 : Long.parseLong(latency),
+                latencyPerKilobyte == null ? 0 : Double.parseDouble(latencyPerKilobyte));
+    }
+
+    /**
+     * Reads a "parser.*" context parameter or system property, preferring the "parser.profile.NAME.*"
+     * variant for the given profile; returns null when neither is set. Without an application, as
+     * for the CorpusRunner, only system properties are read.
+     */
+    public static String parameter(ServletContext application, String profile, String name)
+    {
+        if(profile != null && name.startsWith("parser."))
+        {
+            String value = parameter(application, PROFILE_PREFIX + profile + "." + name.substring("parser.".length()));
+            if(value != null)
+            {
+                return value;
+            }
+        }
+        return parameter(application, name);
+    }
+
+    private static String parameter(ServletContext application, String name)
+    {
+        String value = application == null ? null : application.getInitParameter(name);
+        if(value == null)
+        {
+            value = System.getProperty(name);
+        }
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    public Engine createEngine() throws Exception
+    {
+        if(engine.equals(STUB))
+        {
+            return new StubEngine(stubLatencyMillis, stubLatencyPerKilobyteMillis);
+        }
+        return new UimaEngine(descriptor);
+    }
+
+    /**
+     * Identifies the pipeline for the result cache: the descriptor path, or the stub engine.
+     */
+    public String getDescriptor()
+    {
+        return engine.equals(STUB) ? STUB : descriptor;
+    }
+
+    public String getEngine()
+    {
+        return engine;
+    }
+
+    /**
+     * The settings of this configuration as -D options, so a worker process builds the same engine
+     * from its system properties.
+     */
+    public List<String> toSystemProperties()
+    {
+        List<String> properties = new ArrayList<String>();
+        properties.add("-D" + ENGINE_PARAMETER + "=" + engine);
+        if(descriptor != null)
+        {
+            properties.add("-D" + DESCRIPTOR_PARAMETER + "=" + descriptor);
+        }
+        properties.add("-D" + STUB_LATENCY_PARAMETER + "=" + stubLatencyMillis);
+        properties.add("-D" + STUB_LATENCY_PER_KB_PARAMETER + "=" + stubLatencyPerKilobyteMillis);
+        return properties;
+    }
+}
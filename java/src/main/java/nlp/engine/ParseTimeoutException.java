@@ -0,0 +1,26 @@
+package nlp.engine;
+
+import nlp.information.ParseResult;
+
+/**
+ * Thrown when a document could not be parsed before its Deadline; the servlets answer it with
+ * 504 Gateway Timeout. When the pipeline stopped once it was interrupted, the annotations of the
+ * annotators that had finished are kept as a partial result.
+ */
+public class ParseTimeoutException extends Exception {
+    private final ParseResult partial;
+
+    public ParseTimeoutException(Deadline deadline, ParseResult partial)
+    {
+        super("The document could not be parsed within " + deadline.getBudgetMillis() + " ms");
+        this.partial = partial;
+    }
+
+    /**
+     * The annotations added before the run was stopped, or null when there are none to return.
+     */
+    public ParseResult getPartial()
+    {
+        return partial;
+    }
+}
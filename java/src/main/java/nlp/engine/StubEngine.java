@@ -0,0 +1,47 @@
+package nlp.engine;
+
+import nlp.synthetic.SyntheticNotes;
+import org.apache.uima.analysis_engine.AnalysisEngineManagement;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.jcas.JCas;
+
+/**
+ * Deterministic stand-in for the clinical pipeline, for load tests and CI machines without a
+ * cTAKES install or UMLS credentials. It adds the synthetic annotations of SyntheticNotes and
+ * then sleeps for a fixed latency plus a latency per kilobyte of text, so the server layer sees
+ * roughly the timing and annotation volume of the real pipeline.
+ */
+public class StubEngine implements Engine {
+    private final long latencyMillis;
+    private final double latencyPerKilobyteMillis;
+
+    public StubEngine(long latencyMillis, double latencyPerKilobyteMillis)
+    {
+        this.latencyMillis = latencyMillis;
+        this.latencyPerKilobyteMillis = latencyPerKilobyteMillis;
+    }
+
+    public void process(JCas jcas) throws AnalysisEngineProcessException
+    {
+        long startTime = System.nanoTime();
+
+        SyntheticNotes.annotate(jcas);
+
+        long latencyNanos = (long) ((latencyMillis + latencyPerKilobyteMillis * jcas.getDocumentText().length() / 1024) * 1000000);
+        long remaining = latencyNanos - (System.nanoTime() - startTime);
+        if(remaining > 0)
+        {
+            try {
+                Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AnalysisEngineProcessException(e);
+            }
+        }
+    }
+
+    public AnalysisEngineManagement getManagementInterface()
+    {
+        return null;
+    }
+}
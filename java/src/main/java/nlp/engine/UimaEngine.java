@@ -0,0 +1,36 @@
+package nlp.engine;
+
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineManagement;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.fit.pipeline.SimplePipeline;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.InvalidXMLException;
+
+import java.io.IOException;
+
+/**
+ * Runs an aggregate analysis engine descriptor, such as the cTAKES clinical pipeline.
+ */
+public class UimaEngine implements Engine {
+    private final AnalysisEngine ae;
+
+    public UimaEngine(String descriptor) throws InvalidXMLException, IOException, ResourceInitializationException
+    {
+        AnalysisEngineDescription description = AnalysisEngineFactory.createEngineDescriptionFromPath(descriptor);
+        ae = AnalysisEngineFactory.createEngine(description);
+    }
+
+    public void process(JCas jcas) throws AnalysisEngineProcessException
+    {
+        SimplePipeline.runPipeline(jcas, ae);
+    }
+
+    public AnalysisEngineManagement getManagementInterface()
+    {
+        return ae.getManagementInterface();
+    }
+}
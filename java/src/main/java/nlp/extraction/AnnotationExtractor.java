@@ -0,0 +1,385 @@
+package nlp.extraction;
+
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.information.UMLSConcept;
+import org.apache.ctakes.typesystem.type.refsem.OntologyConcept;
+import org.apache.ctakes.typesystem.type.refsem.UmlsConcept;
+import org.apache.ctakes.typesystem.type.syntax.BaseToken;
+import org.apache.ctakes.typesystem.type.syntax.ConllDependencyNode;
+import org.apache.ctakes.typesystem.type.textsem.IdentifiedAnnotation;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.cas.FSArray;
+import org.apache.uima.jcas.tcas.Annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Copies the syntax and semantic annotations of a processed JCas into SyntaxAnnotations and
+ * SemanticAnnotations, grouped by the short name of their type. Every Parser owns its own
+ * extractor, so the resolved types and the concept pool are not guarded against concurrent use.
+ */
+public class AnnotationExtractor {
+    public static final int MAX_CONCEPTS = 100000;
+    public static final String SYNTAX_PACKAGE = "org.apache.ctakes.typesystem.type.syntax";
+
+    private TypeSystem resolvedTypeSystem;
+    private HashMap<Type, SyntaxType> syntaxTypes;
+    private List<Type> syntaxRoots;
+    private List<Type> otherTypes;
+    private Type dependencyNodeType;
+    private final HashMap<Annotation, Integer> nodeIds = new HashMap<Annotation, Integer>();
+    private final HashMap<UMLSConcept, UMLSConcept> conceptPool = new HashMap<UMLSConcept, UMLSConcept>();
+
+    public SyntaxAnnotations getSyntax(JCas jcas)
+    {
+        return getSyntax(jcas, AnnotationFilter.ALL);
+    }
+
+    /**
+     * Copies every annotation of the cTAKES syntax package whose type the filter accepts. Only
+     * the indexes of the accepted syntax types are visited; other accepted annotation types just
+     * get an empty group when the CAS contains them. Dependency nodes get their ordinal in the
+     * index, which is in document order, as their id, so the ids are dense and the same for the
+     * same text in every run.
+     */
+    public SyntaxAnnotations getSyntax(JCas jcas, AnnotationFilter filter)
+    {
+        resolveTypes(jcas.getTypeSystem());
+
+        // The accepted types, and the roots whose indexes hold any of them
+        boolean[] accepted = new boolean[syntaxTypes.size()];
+        boolean[] visited = new boolean[syntaxRoots.size()];
+        boolean dependencies = false;
+        for(SyntaxType syntaxType : syntaxTypes.values())
+        {
+            if(filter.acceptsType(syntaxType.shortName))
+            {
+                accepted[syntaxType.ordinal] = true;
+                visited[syntaxType.root] = true;
+                dependencies |= syntaxType.dependencyNode;
+            }
+        }
+
+        int capacity = 0;
+        for(int r = 0; r < syntaxRoots.size(); r++)
+        {
+            if(visited[r]) capacity += jcas.getAnnotationIndex(syntaxRoots.get(r)).size();
+        }
+
+        SyntaxAnnotations syntax = new SyntaxAnnotations(jcas.getDocumentText(), capacity);
+
+        // Numbered up front, as a head may come after the nodes that depend on it
+        if(dependencies && dependencyNodeType != null)
+        {
+            for(Annotation node : jcas.getAnnotationIndex(dependencyNodeType))
+            {
+                nodeIds.put(node, nodeIds.size());
+            }
+        }
+
+        int[] groups = new int[syntaxTypes.size()];
+        Arrays.fill(groups, -1);
+
+        for(int r = 0; r < syntaxRoots.size(); r++)
+        {
+            if(!visited[r])
+            {
+                continue;
+            }
+
+            for(Annotation chunk : jcas.getAnnotationIndex(syntaxRoots.get(r)))
+            {
+                SyntaxType syntaxType = syntaxTypes.get(chunk.getType());
+                if(!accepted[syntaxType.ordinal])
+                {
+                    continue;
+                }
+
+                int dependentBegin = SyntaxAnnotations.NONE;
+                int dependentEnd = SyntaxAnnotations.NONE;
+                String relation = null;
+                int token = SyntaxAnnotations.NONE;
+                int id = SyntaxAnnotations.NONE;
+                int dependentId = SyntaxAnnotations.NONE;
+
+                if(syntaxType.dependencyNode)
+                {
+                    ConllDependencyNode node = (ConllDependencyNode) chunk;
+                    ConllDependencyNode head = node.getHead();
+
+                    if(head != null) {
+                        dependentBegin = head.getBegin();
+                        dependentEnd = head.getEnd();
+                        Integer headId = nodeIds.get(head);
+                        dependentId = headId == null ? SyntaxAnnotations.NONE : headId;
+                    }
+                    relation = node.getDeprel();
+
+                    id = nodeIds.get(node);
+                }
+                else if(syntaxType.token)
+                {
+                    token = ((BaseToken) chunk).getTokenNumber();
+                }
+
+                int group = groups[syntaxType.ordinal];
+                if(group < 0)
+                {
+                    group = syntax.group(syntaxType.shortName);
+                    groups[syntaxType.ordinal] = group;
+                }
+
+                syntax.add(group, chunk.getBegin(), chunk.getEnd(), token, id, relation, dependentId, dependentBegin, dependentEnd);
+            }
+        }
+        nodeIds.clear();
+
+        // The output has always listed an (empty) group for every other annotation type in the CAS.
+        // An index includes the subtypes, so a type has annotations of its own when its index is
+        // larger than those of its direct subtypes together.
+        TypeSystem typeSystem = jcas.getTypeSystem();
+        int syntaxGroups = syntax.getGroupCount();
+        for(Type type : otherTypes)
+        {
+            if(!filter.acceptsType(type.getShortName()) || hasGroup(syntax, syntaxGroups, type.getShortName()))
+            {
+                continue;
+            }
+
+            int own = jcas.getAnnotationIndex(type).size();
+            for(Type subtype : typeSystem.getDirectSubtypes(type))
+            {
+                own -= jcas.getAnnotationIndex(subtype).size();
+            }
+
+            if(own > 0)
+            {
+                syntax.group(type.getShortName());
+            }
+        }
+
+        return syntax;
+    }
+
+    private static boolean hasGroup(SyntaxAnnotations syntax, int groups, String name)
+    {
+        for(int g = 0; g < groups; g++)
+        {
+            if(syntax.getGroupName(g).equals(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Classifies the annotation types once per type system: the syntax types with a handle that
+     * says which features to read, the topmost syntax types whose indexes cover all of them, and
+     * the remaining annotation types.
+     */
+    private void resolveTypes(TypeSystem typeSystem)
+    {
+        if(typeSystem == resolvedTypeSystem)
+        {
+            return;
+        }
+
+        Type annotation = typeSystem.getType(CAS.TYPE_NAME_ANNOTATION);
+        Type baseToken = typeSystem.getType(BaseToken.class.getName());
+        Type dependencyNode = typeSystem.getType(ConllDependencyNode.class.getName());
+        dependencyNodeType = dependencyNode;
+
+        List<Type> annotationTypes = new ArrayList<Type>(typeSystem.getProperlySubsumedTypes(annotation));
+        annotationTypes.add(0, annotation);
+
+        syntaxTypes = new HashMap<Type, SyntaxType>();
+        syntaxRoots = new ArrayList<Type>();
+        otherTypes = new ArrayList<Type>();
+
+        for(Type type : annotationTypes)
+        {
+            if(!isSyntax(type))
+            {
+                otherTypes.add(type);
+            }
+            else if(!isSyntax(typeSystem.getParent(type)))
+            {
+                syntaxRoots.add(type);
+            }
+        }
+
+        for(Type type : annotationTypes)
+        {
+            if(isSyntax(type))
+            {
+                Type root = type;
+                while(isSyntax(typeSystem.getParent(root)))
+                {
+                    root = typeSystem.getParent(root);
+                }
+
+                syntaxTypes.put(type, new SyntaxType(
+                        syntaxTypes.size(),
+                        syntaxRoots.indexOf(root),
+                        type.getShortName(),
+                        baseToken != null && typeSystem.subsumes(baseToken, type),
+                        dependencyNode != null && typeSystem.subsumes(dependencyNode, type)));
+            }
+        }
+
+        resolvedTypeSystem = typeSystem;
+    }
+
+    private static boolean isSyntax(Type type)
+    {
+        return type != null && type.getName().contains(SYNTAX_PACKAGE);
+    }
+
+    public SemanticAnnotations getSemantic(JCas jcas)
+    {
+        return getSemantic(jcas, AnnotationFilter.ALL);
+    }
+
+    /**
+     * Copies the identified annotations (mentions) with their concepts that the filter accepts.
+     * The type and polarity of a mention are checked before anything else is read, and with
+     * concept filters a mention whose concepts are all rejected is left out.
+     */
+    public SemanticAnnotations getSemantic(JCas jcas, AnnotationFilter filter)
+    {
+        SemanticAnnotations semantic = new SemanticAnnotations(jcas.getDocumentText(), jcas.getAnnotationIndex(IdentifiedAnnotation.type).size());
+        HashMap<Type, Integer> groups = new HashMap<Type, Integer>();
+        HashMap<Type, Boolean> acceptedTypes = new HashMap<Type, Boolean>();
+        boolean filtersConcepts = filter.filtersConcepts();
+
+        for (IdentifiedAnnotation entity : JCasUtil.select(jcas, IdentifiedAnnotation.class))
+        {
+            Type type = entity.getType();
+
+            Boolean accepted = acceptedTypes.get(type);
+            if(accepted == null)
+            {
+                accepted = filter.acceptsType(type.getShortName());
+                acceptedTypes.put(type, accepted);
+            }
+            if(!accepted || !filter.acceptsPolarity(entity.getPolarity()))
+            {
+                continue;
+            }
+
+            FSArray concepts = entity.getOntologyConceptArr();
+            if(filtersConcepts && !hasAcceptedConcept(concepts, filter))
+            {
+                continue;
+            }
+
+            Integer group = groups.get(type);
+            if(group == null)
+            {
+                group = semantic.group(type.getShortName());
+                groups.put(type, group);
+            }
+
+            semantic.add(group, entity.getBegin(), entity.getEnd(), entity.getPolarity(), entity.getSubject(), entity.getHistoryOf());
+
+            if(concepts != null) {
+                for (int i = 0; i < concepts.size(); i++) {
+                    OntologyConcept concept = (OntologyConcept) concepts.get(i);
+                    if(!filtersConcepts || accepts(concept, filter)) {
+                        semantic.addConcept(concept(concept));
+                    }
+                }
+            }
+        }
+
+        return semantic;
+    }
+
+    private static boolean hasAcceptedConcept(FSArray concepts, AnnotationFilter filter)
+    {
+        if(concepts != null)
+        {
+            for(int i = 0; i < concepts.size(); i++)
+            {
+                if(accepts((OntologyConcept) concepts.get(i), filter))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean accepts(OntologyConcept concept, AnnotationFilter filter)
+    {
+        String tui = concept instanceof UmlsConcept ? ((UmlsConcept) concept).getTui() : null;
+        return filter.acceptsConcept(concept.getCodingScheme(), tui);
+    }
+
+    /**
+     * Reads the concept from its typed features and returns the shared instance for it. The same
+     * concepts recur on many mentions and documents; the pool is bounded by starting over once it
+     * holds MAX_CONCEPTS distinct concepts.
+     */
+    private UMLSConcept concept(OntologyConcept ontologyConcept)
+    {
+        String cui = null;
+        String tui = null;
+        String preferredText = null;
+
+        if(ontologyConcept instanceof UmlsConcept)
+        {
+            UmlsConcept umlsConcept = (UmlsConcept) ontologyConcept;
+            cui = umlsConcept.getCui();
+            tui = umlsConcept.getTui();
+            preferredText = umlsConcept.getPreferredText();
+        }
+
+        UMLSConcept concept = new UMLSConcept(ontologyConcept.getCode(), ontologyConcept.getCodingScheme(), cui, tui, preferredText);
+
+        UMLSConcept shared = conceptPool.get(concept);
+        if(shared != null)
+        {
+            return shared;
+        }
+
+        if(conceptPool.size() >= MAX_CONCEPTS)
+        {
+            conceptPool.clear();
+        }
+        conceptPool.put(concept, concept);
+        return concept;
+    }
+
+    /**
+     * What getSyntax reads for annotations of one syntax type.
+     */
+    private static class SyntaxType {
+        private final int ordinal;
+        private final int root;
+        private final String shortName;
+        private final boolean token;
+        private final boolean dependencyNode;
+
+        /**
+         * @param root the index in syntaxRoots of the root whose index holds annotations of this type
+         */
+        private SyntaxType(int ordinal, int root, String shortName, boolean token, boolean dependencyNode)
+        {
+            this.ordinal = ordinal;
+            this.root = root;
+            this.shortName = shortName;
+            this.token = token;
+            this.dependencyNode = dependencyNode;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package nlp.extraction;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Which annotations a client wants, so the AnnotationExtractor never copies the others out of the
+ * CAS: annotation types by short name (WordToken, DiseaseDisorderMention, ...), the polarity of
+ * mentions, and the concepts of mentions by coding scheme (SNOMEDCT, RXNORM, ...) and semantic
+ * type (T047, ...). A mention is only kept when it has a concept left after the concept filters.
+ * An empty set or a null polarity does not filter.
+ */
+public class AnnotationFilter {
+    public static final AnnotationFilter ALL = new AnnotationFilter(null, null, null, null);
+
+    private final Set<String> types;
+    private final Set<String> schemes;
+    private final Set<String> tuis;
+    private final Integer polarity;
+    private final String key;
+
+    public AnnotationFilter(Set<String> types, Set<String> schemes, Set<String> tuis, Integer polarity)
+    {
+        this.types = types == null ? Collections.<String>emptySet() : new TreeSet<String>(types);
+        this.schemes = schemes == null ? Collections.<String>emptySet() : new TreeSet<String>(schemes);
+        this.tuis = tuis == null ? Collections.<String>emptySet() : new TreeSet<String>(tuis);
+        this.polarity = polarity;
+        this.key = "types=" + join(this.types) + ";schemes=" + join(this.schemes) + ";tuis=" + join(this.tuis) + ";polarity=" + polarity;
+    }
+
+    /**
+     * Creates the filter from request parameters, every one of which may be repeated and hold a
+     * comma-separated list. The polarity is -1 for negated and 1 for affirmed mentions only.
+     *
+     * @throws IllegalArgumentException when the polarity is not -1 or 1
+     */
+    public static AnnotationFilter parse(String[] types, String[] schemes, String[] tuis, String polarity)
+    {
+        Integer value = null;
+        if(polarity != null && !polarity.trim().isEmpty())
+        {
+            try {
+                value = Integer.valueOf(polarity.trim());
+            } catch (NumberFormatException e) {
+                value = 0;
+            }
+            if(value != -1 && value != 1)
+            {
+                throw new IllegalArgumentException("Polarity must be -1 (negated) or 1 (affirmed)");
+            }
+        }
+
+        AnnotationFilter filter = new AnnotationFilter(split(types), split(schemes), split(tuis), value);
+        return filter.isAll() ? ALL : filter;
+    }
+
+    private static Set<String> split(String[] values)
+    {
+        Set<String> set = new TreeSet<String>();
+        if(values != null)
+        {
+            for(String value : values)
+            {
+                for(String item : value.split(","))
+                {
+                    if(!item.trim().isEmpty())
+                    {
+                        set.add(item.trim());
+                    }
+                }
+            }
+        }
+        return set;
+    }
+
+    private static String join(Set<String> values)
+    {
+        StringBuilder builder = new StringBuilder();
+        for(String value : values)
+        {
+            if(builder.length() > 0) builder.append(',');
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Whether everything is kept.
+     */
+    public boolean isAll()
+    {
+        return types.isEmpty() && polarity == null && !filtersConcepts();
+    }
+
+    public boolean acceptsType(String shortName)
+    {
+        return types.isEmpty() || types.contains(shortName);
+    }
+
+    public boolean acceptsPolarity(int polarity)
+    {
+        return this.polarity == null || this.polarity == polarity;
+    }
+
+    /**
+     * Whether concepts are filtered, which drops the mentions that have none left.
+     */
+    public boolean filtersConcepts()
+    {
+        return !schemes.isEmpty() || !tuis.isEmpty();
+    }
+
+    /**
+     * @param tui the semantic type of the concept, null when it is not a UMLS concept
+     */
+    public boolean acceptsConcept(String scheme, String tui)
+    {
+        return (schemes.isEmpty() || schemes.contains(scheme)) && (tuis.isEmpty() || tuis.contains(tui));
+    }
+
+    public Set<String> getTypes()
+    {
+        return Collections.unmodifiableSet(types);
+    }
+
+    public Set<String> getSchemes()
+    {
+        return Collections.unmodifiableSet(schemes);
+    }
+
+    public Set<String> getTuis()
+    {
+        return Collections.unmodifiableSet(tuis);
+    }
+
+    /**
+     * -1 or 1, or null when the polarity is not filtered.
+     */
+    public Integer getPolarity()
+    {
+        return polarity;
+    }
+
+    /**
+     * Identifies the filter in cache keys; equal filters have equal keys.
+     */
+    public String getKey()
+    {
+        return key;
+    }
+
+    public boolean equals(Object o)
+    {
+        return o instanceof AnnotationFilter && key.equals(((AnnotationFilter) o).key);
+    }
+
+    public int hashCode()
+    {
+        return key.hashCode();
+    }
+
+    public String toString()
+    {
+        return key;
+    }
+}
@@ -0,0 +1,759 @@
+package nlp.index;
+
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.UMLSConcept;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inverted index from CUIs to the documents and offsets of their mentions, so questions such as
+ * "which notes mention C0011849 without negation" are answered without parsing the corpus again.
+ * Every document that is added gets the next document id; its concept mentions (CUI, code,
+ * system, polarity, historyOf, subject and offsets) are kept in memory until "flushSize" postings
+ * have been collected or "flushInterval" has passed, and are then written to a new IndexSegment.
+ *
+ * Segments are memory-mapped and never change. A background thread writes the buffers and merges
+ * runs of "mergeFactor" segments of about the same size into one, so the number of segments a
+ * query visits grows with the logarithm of the corpus size. Documents that were added less than
+ * a flush interval before the process died are lost; after a crash during a merge the segments
+ * it had merged are found next to the merged one and removed.
+ */
+public class ConceptIndex {
+    public static final String CONTEXT_ATTRIBUTE = "conceptIndex";
+    public static final String DIRECTORY_PARAMETER = "parser.index.directory";
+    public static final String FLUSH_SIZE_PARAMETER = "parser.index.flushSize";
+    public static final String FLUSH_INTERVAL_PARAMETER = "parser.index.flushInterval";
+    public static final String MERGE_FACTOR_PARAMETER = "parser.index.mergeFactor";
+
+    // A segment is mapped as a whole, so it has to stay below 2 GB; 32 bytes per posting
+    private static final int MAX_SEGMENT_POSTINGS = 1 << 25;
+    // Full buffers that may wait for the writer before add() waits as well
+    private static final int MAX_PENDING = 4;
+
+    private final File directory;
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final int mergeFactor;
+    private final Thread writer;
+
+    // Replaced as a whole, in document order
+    private volatile List<IndexSegment> segments;
+
+    private final List<Buffer> pending = new ArrayList<Buffer>();
+    private Buffer buffer;
+    private int nextDoc;
+    private boolean closed;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+
+    public ConceptIndex(File directory, int flushSize, long flushIntervalMillis, int mergeFactor) throws IOException
+    {
+        if(flushSize < 1 || flushIntervalMillis < 1 || mergeFactor < 2)
+        {
+            throw new IllegalArgumentException("Flush size and interval must be positive and merge factor at least 2, were "
+                    + flushSize + ", " + flushIntervalMillis + " ms and " + mergeFactor);
+        }
+
+        this.directory = directory;
+        this.flushSize = flushSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.mergeFactor = mergeFactor;
+
+        this.segments = Collections.unmodifiableList(openSegments());
+        this.nextDoc = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getEndDoc();
+        this.buffer = new Buffer(nextDoc);
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeSegments();
+            }
+        }, "nlp-index-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns the index of this application, or null when "parser.index.directory" is not set or
+     * the index there could not be opened. A buffer is written after "parser.index.flushSize"
+     * postings (1,000,000 by default) or "parser.index.flushInterval" seconds (60 by default), and
+     * "parser.index.mergeFactor" segments (10 by default) of a size are merged.
+     */
+    public static ConceptIndex forContext(ServletContext application)
+    {
+        synchronized (application) {
+            Object index = application.getAttribute(CONTEXT_ATTRIBUTE);
+            if(index == null)
+            {
+                String directory = parameter(application, DIRECTORY_PARAMETER);
+                if(directory == null)
+                {
+                    index = Boolean.FALSE;
+                }
+                else
+                {
+                    String flushSize = parameter(application, FLUSH_SIZE_PARAMETER);
+                    String flushInterval = parameter(application, FLUSH_INTERVAL_PARAMETER);
+                    String mergeFactor = parameter(application, MERGE_FACTOR_PARAMETER);
+
+                    try {
+                        index = new ConceptIndex(new File(directory),
+                                flushSize == null ? 1000000 : Integer.parseInt(flushSize),
+                                (flushInterval == null ? 60 : Long.parseLong(flushInterval)) * 1000,
+                                mergeFactor == null ? 10 : Integer.parseInt(mergeFactor));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        index = Boolean.FALSE;
+                    }
+                }
+                application.setAttribute(CONTEXT_ATTRIBUTE, index);
+            }
+            return index instanceof ConceptIndex ? (ConceptIndex) index : null;
+        }
+    }
+
+    private static String parameter(ServletContext application, String name)
+    {
+        String value = application.getInitParameter(name);
+        if(value == null)
+        {
+            value = System.getProperty(name);
+        }
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    /**
+     * Opens the segments in the directory. Temporary files of an interrupted write are deleted, as
+     * are segments whose documents are also in a larger segment, left behind by an interrupted merge.
+     */
+    private List<IndexSegment> openSegments() throws IOException
+    {
+        if(!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File[] files = directory.listFiles();
+        if(files == null)
+        {
+            throw new IOException("Could not list " + directory);
+        }
+
+        List<File> found = new ArrayList<File>();
+        for(File file : files)
+        {
+            if(file.getName().endsWith(IndexSegment.TEMPORARY_SUFFIX))
+            {
+                delete(file);
+            }
+            else if(IndexSegment.range(file.getName()) != null)
+            {
+                found.add(file);
+            }
+        }
+
+        // By first document, and the largest segment first when several start at the same document
+        Collections.sort(found, new Comparator<File>() {
+            public int compare(File a, File b) {
+                int[] first = IndexSegment.range(a.getName());
+                int[] second = IndexSegment.range(b.getName());
+                return first[0] != second[0] ? Integer.compare(first[0], second[0]) : Integer.compare(second[1], first[1]);
+            }
+        });
+
+        List<IndexSegment> opened = new ArrayList<IndexSegment>();
+        int end = 0;
+        for(File file : found)
+        {
+            int[] range = IndexSegment.range(file.getName());
+            if(range[0] < end)
+            {
+                delete(file);
+                continue;
+            }
+            opened.add(IndexSegment.open(file));
+            end = range[1];
+        }
+        return opened;
+    }
+
+    /**
+     * Adds the concept mentions of the document and returns its document id. When the writer has
+     * fallen behind by several buffers this waits for it, so memory use stays bounded.
+     */
+    public int add(ParseResult result) throws InterruptedException
+    {
+        SemanticAnnotations semantic = result.getSemantic();
+
+        synchronized (this) {
+            while(pending.size() >= MAX_PENDING && !closed)
+            {
+                wait();
+            }
+            if(closed)
+            {
+                throw new IllegalStateException("The concept index has been closed");
+            }
+
+            int doc = nextDoc++;
+            buffer.names.add(result.getFileName() == null ? "" : result.getFileName());
+            if(buffer.names.size() == 1)
+            {
+                // The flush interval starts with the first document of the buffer
+                buffer.started = System.currentTimeMillis();
+                notifyAll();
+            }
+
+            for(int row = 0; row < semantic.size(); row++)
+            {
+                for(int i = semantic.getConceptStart(row); i < semantic.getConceptEnd(row); i++)
+                {
+                    UMLSConcept concept = semantic.getConcept(i);
+                    if(concept.getCui() != null)
+                    {
+                        buffer.add(concept.getCui(), doc, semantic.getBegin(row), semantic.getEnd(row),
+                                semantic.getPolarity(row), semantic.getHistoryOf(row), semantic.getSubject(row),
+                                concept.getCode(), concept.getSystem());
+                    }
+                }
+            }
+
+            if(buffer.postingCount >= flushSize)
+            {
+                pending.add(buffer);
+                buffer = new Buffer(nextDoc);
+                notifyAll();
+            }
+            return doc;
+        }
+    }
+
+    /**
+     * The mentions of the CUI in documents after the given document id, in document order, for at
+     * most limit documents. Polarity, historyOf and subject restrict the mentions when not null.
+     * A caller pages through all documents by passing the last document id it received as after.
+     */
+    public List<ConceptMention> query(String cui, Integer polarity, Integer historyOf, String subject, int after, int limit)
+    {
+        List<IndexSegment> visible;
+        List<Buffer> buffers;
+        Buffer current;
+        synchronized (this) {
+            visible = segments;
+            buffers = new ArrayList<Buffer>(pending);
+            current = buffer;
+        }
+
+        Matches matches = new Matches(limit);
+        for(IndexSegment segment : visible)
+        {
+            if(matches.isFull())
+            {
+                return matches.mentions;
+            }
+            if(segment.getEndDoc() - 1 > after)
+            {
+                query(segment, cui, polarity, historyOf, subject, after, matches);
+            }
+        }
+
+        // Buffers that are waiting to be written no longer change; the current one is read under the lock
+        for(Buffer waiting : buffers)
+        {
+            waiting.query(cui, polarity, historyOf, subject, after, matches);
+        }
+        synchronized (this) {
+            current.query(cui, polarity, historyOf, subject, after, matches);
+        }
+        return matches.mentions;
+    }
+
+    private static void query(IndexSegment segment, String cui, Integer polarity, Integer historyOf, String subject, int after, Matches matches)
+    {
+        int term = segment.find(cui);
+        if(term < 0)
+        {
+            return;
+        }
+
+        int end = segment.getPostingEnd(term);
+        int lastDoc = -1;
+        String name = null;
+        for(int posting = segment.seekAfter(segment.getPostingStart(term), end, after); posting < end; posting++)
+        {
+            if((polarity != null && segment.get(posting, IndexSegment.POLARITY) != polarity)
+                    || (historyOf != null && segment.get(posting, IndexSegment.HISTORY_OF) != historyOf)
+                    || (subject != null && !subject.equals(segment.getString(segment.get(posting, IndexSegment.SUBJECT)))))
+            {
+                continue;
+            }
+
+            int doc = segment.get(posting, IndexSegment.DOC);
+            if(doc != lastDoc)
+            {
+                if(!matches.startDocument(doc))
+                {
+                    return;
+                }
+                lastDoc = doc;
+                name = segment.getName(doc);
+            }
+
+            matches.mentions.add(new ConceptMention(doc, name,
+                    segment.get(posting, IndexSegment.BEGIN), segment.get(posting, IndexSegment.END),
+                    segment.getString(segment.get(posting, IndexSegment.CODE)), segment.getString(segment.get(posting, IndexSegment.SYSTEM)),
+                    segment.get(posting, IndexSegment.POLARITY), segment.get(posting, IndexSegment.HISTORY_OF),
+                    segment.getString(segment.get(posting, IndexSegment.SUBJECT))));
+        }
+    }
+
+    /**
+     * Writes the buffers that are full or older than the flush interval, and merges segments in
+     * between, until the index is closed and everything has been written.
+     */
+    private void writeSegments()
+    {
+        while(true)
+        {
+            Buffer next;
+            synchronized (this) {
+                try {
+                    while(!closed && pending.isEmpty() && !isFlushDue())
+                    {
+                        // Woken up by add() when a buffer is full or gets its first document
+                        wait(buffer.names.isEmpty() ? 0 : Math.max(buffer.started + flushIntervalMillis - System.currentTimeMillis(), 1));
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+
+                if(pending.isEmpty() && !buffer.names.isEmpty())
+                {
+                    pending.add(buffer);
+                    buffer = new Buffer(nextDoc);
+                }
+                if(pending.isEmpty())
+                {
+                    if(closed)
+                    {
+                        notifyAll();
+                        return;
+                    }
+                    continue;
+                }
+                next = pending.get(0);
+            }
+
+            IndexSegment segment = null;
+            try {
+                segment = next.write(directory);
+                flushes.incrementAndGet();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("\n*** Could not write the concepts of documents " + next.firstDoc + " to " + (next.firstDoc + next.names.size()) + " to the index ***\n");
+            }
+
+            synchronized (this) {
+                if(segment != null)
+                {
+                    List<IndexSegment> updated = new ArrayList<IndexSegment>(segments);
+                    updated.add(segment);
+                    segments = Collections.unmodifiableList(updated);
+                }
+                pending.remove(0);
+                notifyAll();
+                if(closed)
+                {
+                    continue;
+                }
+            }
+
+            merge();
+        }
+    }
+
+    private boolean isFlushDue()
+    {
+        return !buffer.names.isEmpty() && System.currentTimeMillis() - buffer.started >= flushIntervalMillis;
+    }
+
+    /**
+     * Merges runs of mergeFactor adjacent segments of the same size class until there are none.
+     * When buffers are waiting it returns after one merge, so under a steady stream of documents
+     * writing and merging take turns and neither falls behind.
+     */
+    private void merge()
+    {
+        while(true)
+        {
+            List<IndexSegment> current = segments;
+            int start = -1;
+            int run = 0;
+            for(int i = 0; i < current.size() && start < 0; i++)
+            {
+                run = i > 0 && level(current.get(i)) == level(current.get(i - 1)) ? run + 1 : 1;
+                if(run == mergeFactor)
+                {
+                    start = i - run + 1;
+                }
+            }
+            if(start < 0)
+            {
+                return;
+            }
+
+            List<IndexSegment> merging = current.subList(start, start + mergeFactor);
+            long postings = 0;
+            for(IndexSegment segment : merging)
+            {
+                postings += segment.getPostingCount();
+            }
+            if(postings > MAX_SEGMENT_POSTINGS)
+            {
+                return;
+            }
+
+            IndexSegment merged;
+            try {
+                merged = merge(merging);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            synchronized (this) {
+                List<IndexSegment> updated = new ArrayList<IndexSegment>(segments);
+                int index = updated.indexOf(merging.get(0));
+                for(int i = 0; i < merging.size(); i++)
+                {
+                    updated.remove(index);
+                }
+                updated.add(index, merged);
+                segments = Collections.unmodifiableList(updated);
+            }
+            merges.incrementAndGet();
+
+            // Queries that are still reading them keep their mappings
+            for(IndexSegment segment : merging)
+            {
+                delete(segment.getFile());
+            }
+
+            synchronized (this) {
+                if(closed || !pending.isEmpty())
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The size class of a segment: 0 up to mergeFactor times the flush size, 1 up to mergeFactor
+     * squared times the flush size, and so on.
+     */
+    private int level(IndexSegment segment)
+    {
+        int level = 0;
+        long size = (long) flushSize * mergeFactor;
+        while(segment.getPostingCount() >= size)
+        {
+            size *= mergeFactor;
+            level++;
+        }
+        return level;
+    }
+
+    private IndexSegment merge(List<IndexSegment> merging) throws IOException
+    {
+        SegmentWriter out = new SegmentWriter(directory, merging.get(0).getFirstDoc());
+        try {
+            for(IndexSegment segment : merging)
+            {
+                for(int doc = segment.getFirstDoc(); doc < segment.getEndDoc(); doc++)
+                {
+                    out.addDocument(segment.getName(doc));
+                }
+            }
+
+            TreeSet<String> terms = new TreeSet<String>();
+            for(IndexSegment segment : merging)
+            {
+                for(int term = 0; term < segment.getTermCount(); term++)
+                {
+                    terms.add(segment.getTerm(term));
+                }
+            }
+
+            for(String term : terms)
+            {
+                out.startTerm(term);
+                for(IndexSegment segment : merging)
+                {
+                    int index = segment.find(term);
+                    if(index < 0)
+                    {
+                        continue;
+                    }
+                    for(int posting = segment.getPostingStart(index); posting < segment.getPostingEnd(index); posting++)
+                    {
+                        out.addPosting(segment.get(posting, IndexSegment.DOC),
+                                segment.get(posting, IndexSegment.BEGIN), segment.get(posting, IndexSegment.END),
+                                segment.get(posting, IndexSegment.POLARITY), segment.get(posting, IndexSegment.HISTORY_OF),
+                                segment.getString(segment.get(posting, IndexSegment.SUBJECT)),
+                                segment.getString(segment.get(posting, IndexSegment.CODE)),
+                                segment.getString(segment.get(posting, IndexSegment.SYSTEM)));
+                    }
+                }
+            }
+
+            return out.finish();
+        } catch (IOException e) {
+            out.abort();
+            throw e;
+        }
+    }
+
+    private static void delete(File file)
+    {
+        if(!file.delete())
+        {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Writes the documents that are still in memory and stops the background thread.
+     */
+    public void close()
+    {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The number of documents that have been added, including those that are not written yet.
+     */
+    public synchronized int getDocumentCount()
+    {
+        int count = buffer.names.size();
+        for(Buffer waiting : pending)
+        {
+            count += waiting.names.size();
+        }
+        for(IndexSegment segment : segments)
+        {
+            count += segment.getEndDoc() - segment.getFirstDoc();
+        }
+        return count;
+    }
+
+    public int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    public long getFlushes()
+    {
+        return flushes.get();
+    }
+
+    public long getMerges()
+    {
+        return merges.get();
+    }
+
+    /**
+     * Collects query results up to a number of documents.
+     */
+    private static class Matches {
+        private final List<ConceptMention> mentions = new ArrayList<ConceptMention>();
+        private final int limit;
+        private int documents;
+
+        private Matches(int limit)
+        {
+            this.limit = limit;
+        }
+
+        private boolean isFull()
+        {
+            return documents >= limit;
+        }
+
+        /**
+         * Counts the next matching document; returns false when the limit has been reached.
+         */
+        private boolean startDocument(int doc)
+        {
+            if(isFull())
+            {
+                return false;
+            }
+            documents++;
+            return true;
+        }
+    }
+
+    /**
+     * The postings of one CUI in a Buffer, FIELDS ints per posting.
+     */
+    private static class PostingList {
+        private int[] data = new int[IndexSegment.FIELDS * 4];
+        private int size;
+    }
+
+    /**
+     * The postings of documents that have not been written to a segment yet, in the same layout.
+     */
+    private static class Buffer {
+        private final int firstDoc;
+        private final List<String> names = new ArrayList<String>();
+        private final HashMap<String, PostingList> postings = new HashMap<String, PostingList>();
+        private final HashMap<String, Integer> stringIndex = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+        private int postingCount;
+        private long started;
+
+        private Buffer(int firstDoc)
+        {
+            this.firstDoc = firstDoc;
+        }
+
+        private void add(String cui, int doc, int begin, int end, int polarity, int historyOf, String subject, String code, String system)
+        {
+            PostingList list = postings.get(cui);
+            if(list == null)
+            {
+                list = new PostingList();
+                postings.put(cui, list);
+            }
+            if((list.size + 1) * IndexSegment.FIELDS > list.data.length)
+            {
+                list.data = Arrays.copyOf(list.data, list.data.length * 2);
+            }
+
+            int[] data = list.data;
+            int offset = list.size * IndexSegment.FIELDS;
+            data[offset + IndexSegment.DOC] = doc;
+            data[offset + IndexSegment.BEGIN] = begin;
+            data[offset + IndexSegment.END] = end;
+            data[offset + IndexSegment.POLARITY] = polarity;
+            data[offset + IndexSegment.HISTORY_OF] = historyOf;
+            data[offset + IndexSegment.SUBJECT] = intern(subject);
+            data[offset + IndexSegment.CODE] = intern(code);
+            data[offset + IndexSegment.SYSTEM] = intern(system);
+            list.size++;
+            postingCount++;
+        }
+
+        private int intern(String value)
+        {
+            if(value == null)
+            {
+                return -1;
+            }
+
+            Integer index = stringIndex.get(value);
+            if(index == null)
+            {
+                index = strings.size();
+                stringIndex.put(value, index);
+                strings.add(value);
+            }
+            return index;
+        }
+
+        private String string(int index)
+        {
+            return index < 0 ? null : strings.get(index);
+        }
+
+        private void query(String cui, Integer polarity, Integer historyOf, String subject, int after, Matches matches)
+        {
+            PostingList list = postings.get(cui);
+            if(list == null)
+            {
+                return;
+            }
+
+            int[] data = list.data;
+            int lastDoc = -1;
+            for(int offset = 0; offset < list.size * IndexSegment.FIELDS; offset += IndexSegment.FIELDS)
+            {
+                int doc = data[offset + IndexSegment.DOC];
+                if(doc <= after
+                        || (polarity != null && data[offset + IndexSegment.POLARITY] != polarity)
+                        || (historyOf != null && data[offset + IndexSegment.HISTORY_OF] != historyOf)
+                        || (subject != null && !subject.equals(string(data[offset + IndexSegment.SUBJECT]))))
+                {
+                    continue;
+                }
+
+                if(doc != lastDoc)
+                {
+                    if(!matches.startDocument(doc))
+                    {
+                        return;
+                    }
+                    lastDoc = doc;
+                }
+
+                matches.mentions.add(new ConceptMention(doc, names.get(doc - firstDoc),
+                        data[offset + IndexSegment.BEGIN], data[offset + IndexSegment.END],
+                        string(data[offset + IndexSegment.CODE]), string(data[offset + IndexSegment.SYSTEM]),
+                        data[offset + IndexSegment.POLARITY], data[offset + IndexSegment.HISTORY_OF],
+                        string(data[offset + IndexSegment.SUBJECT])));
+            }
+        }
+
+        private IndexSegment write(File directory) throws IOException
+        {
+            String[] terms = postings.keySet().toArray(new String[postings.size()]);
+            Arrays.sort(terms);
+
+            SegmentWriter out = new SegmentWriter(directory, firstDoc);
+            try {
+                for(String name : names)
+                {
+                    out.addDocument(name);
+                }
+                for(String term : terms)
+                {
+                    out.startTerm(term);
+                    PostingList list = postings.get(term);
+                    int[] data = list.data;
+                    for(int offset = 0; offset < list.size * IndexSegment.FIELDS; offset += IndexSegment.FIELDS)
+                    {
+                        out.addPosting(data[offset + IndexSegment.DOC], data[offset + IndexSegment.BEGIN], data[offset + IndexSegment.END],
+                                data[offset + IndexSegment.POLARITY], data[offset + IndexSegment.HISTORY_OF],
+                                string(data[offset + IndexSegment.SUBJECT]), string(data[offset + IndexSegment.CODE]), string(data[offset + IndexSegment.SYSTEM]));
+                    }
+                }
+                return out.finish();
+            } catch (IOException e) {
+                out.abort();
+                throw e;
+            }
+        }
+    }
+}
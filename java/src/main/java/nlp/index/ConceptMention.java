@@ -0,0 +1,80 @@
+package nlp.index;
+
+/**
+ * A mention of a concept in an indexed document, as returned by a ConceptIndex query.
+ */
+public class ConceptMention {
+    private final int documentId;
+    private final String documentName;
+    private final int begin;
+    private final int end;
+    private final String code;
+    private final String system;
+    private final int polarity;
+    private final int historyOf;
+    private final String subject;
+
+    public ConceptMention(int documentId, String documentName, int begin, int end, String code, String system, int polarity, int historyOf, String subject)
+    {
+        this.documentId = documentId;
+        this.documentName = documentName;
+        this.begin = begin;
+        this.end = end;
+        this.code = code;
+        this.system = system;
+        this.polarity = polarity;
+        this.historyOf = historyOf;
+        this.subject = subject;
+    }
+
+    /**
+     * The id the index gave the document; ids increase in the order documents were added.
+     */
+    public int getDocumentId()
+    {
+        return documentId;
+    }
+
+    /**
+     * The file name the document was parsed under, empty for posted text.
+     */
+    public String getDocumentName()
+    {
+        return documentName;
+    }
+
+    public int getBegin()
+    {
+        return begin;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    public String getCode()
+    {
+        return code;
+    }
+
+    public String getSystem()
+    {
+        return system;
+    }
+
+    public int getPolarity()
+    {
+        return polarity;
+    }
+
+    public int getHistoryOf()
+    {
+        return historyOf;
+    }
+
+    public String getSubject()
+    {
+        return subject;
+    }
+}
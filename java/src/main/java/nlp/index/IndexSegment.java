@@ -0,0 +1,251 @@
+package nlp.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, memory-mapped part of the ConceptIndex holding the documents [firstDoc, endDoc).
+ * The postings are fixed-width records of eight ints (document, begin, end, polarity, historyOf,
+ * subject, code and system, the last three as indexes in the string table), grouped by CUI and in
+ * document order within a CUI, so a posting list is read straight from the mapping and can be
+ * searched by document. The term dictionary and string table are read onto the heap when the
+ * segment is opened; the document names stay in the mapping.
+ */
+class IndexSegment {
+    static final int MAGIC = 0x4e4c5049;
+    static final int VERSION = 1;
+    static final int FIELDS = 8;
+    static final int HEADER = 16;
+    static final int TRAILER = 24;
+    static final String TEMPORARY_SUFFIX = ".tmp";
+
+    static final int DOC = 0;
+    static final int BEGIN = 1;
+    static final int END = 2;
+    static final int POLARITY = 3;
+    static final int HISTORY_OF = 4;
+    static final int SUBJECT = 5;
+    static final int CODE = 6;
+    static final int SYSTEM = 7;
+
+    private static final Pattern FILE_NAME = Pattern.compile("segment-(\\d+)-(\\d+)\\.idx");
+
+    private final File file;
+    private final int firstDoc;
+    private final int docCount;
+    private final int postingCount;
+    private final IntBuffer postings;
+    private final IntBuffer nameOffsets;
+    private final ByteBuffer names;
+    private final String[] strings;
+    private final String[] terms;
+    private final int[] termStart;
+    private final int[] termCount;
+
+    private IndexSegment(File file, MappedByteBuffer mapping) throws IOException
+    {
+        this.file = file;
+
+        int size = mapping.capacity();
+        if(size < HEADER + TRAILER || mapping.getInt(0) != MAGIC || mapping.getInt(size - 4) != MAGIC)
+        {
+            throw new IOException("Not an index segment: " + file);
+        }
+        if(mapping.getInt(4) != VERSION)
+        {
+            throw new IOException("Index segment " + file + " has version " + mapping.getInt(4) + ", expected " + VERSION);
+        }
+
+        firstDoc = mapping.getInt(8);
+        int namesOffset = mapping.getInt(size - TRAILER);
+        int stringsOffset = mapping.getInt(size - TRAILER + 4);
+        int termsOffset = mapping.getInt(size - TRAILER + 8);
+        docCount = mapping.getInt(size - TRAILER + 12);
+        postingCount = mapping.getInt(size - TRAILER + 16);
+
+        postings = slice(mapping, HEADER, postingCount * FIELDS * 4).asIntBuffer();
+        nameOffsets = slice(mapping, namesOffset, (docCount + 1) * 4).asIntBuffer();
+        names = slice(mapping, namesOffset + (docCount + 1) * 4, nameOffsets.get(docCount));
+
+        byte[] tail = new byte[size - TRAILER - stringsOffset];
+        slice(mapping, stringsOffset, tail.length).get(tail);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tail));
+
+        strings = new String[in.readInt()];
+        for(int i = 0; i < strings.length; i++)
+        {
+            strings[i] = in.readUTF();
+        }
+
+        if(tail.length - in.available() != termsOffset - stringsOffset)
+        {
+            throw new IOException("Corrupt string table in " + file);
+        }
+        int count = in.readInt();
+        terms = new String[count];
+        termStart = new int[count];
+        termCount = new int[count];
+        for(int i = 0; i < count; i++)
+        {
+            terms[i] = in.readUTF();
+            termStart[i] = in.readInt();
+            termCount[i] = in.readInt();
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length)
+    {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    static IndexSegment open(File file) throws IOException
+    {
+        RandomAccessFile segment = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed, and after it is deleted by a merge
+            return new IndexSegment(file, segment.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.length()));
+        } finally {
+            segment.close();
+        }
+    }
+
+    static String fileName(int firstDoc, int endDoc)
+    {
+        return String.format("segment-%010d-%010d.idx", firstDoc, endDoc);
+    }
+
+    /**
+     * The document range [first, end) in the name of a segment file, or null when it is not one.
+     */
+    static int[] range(String fileName)
+    {
+        Matcher matcher = FILE_NAME.matcher(fileName);
+        if(!matcher.matches())
+        {
+            return null;
+        }
+        return new int[] { Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)) };
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    int getFirstDoc()
+    {
+        return firstDoc;
+    }
+
+    int getEndDoc()
+    {
+        return firstDoc + docCount;
+    }
+
+    int getPostingCount()
+    {
+        return postingCount;
+    }
+
+    String getName(int doc)
+    {
+        int start = nameOffsets.get(doc - firstDoc);
+        byte[] bytes = new byte[nameOffsets.get(doc - firstDoc + 1) - start];
+        ByteBuffer name = names.duplicate();
+        name.position(start);
+        name.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    String getString(int index)
+    {
+        return index < 0 ? null : strings[index];
+    }
+
+    int getTermCount()
+    {
+        return terms.length;
+    }
+
+    String getTerm(int term)
+    {
+        return terms[term];
+    }
+
+    /**
+     * The index of the term in the dictionary, or -1 when the segment has no postings for it.
+     */
+    int find(String term)
+    {
+        int low = 0;
+        int high = terms.length - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int comparison = terms[middle].compareTo(term);
+            if(comparison < 0)
+            {
+                low = middle + 1;
+            }
+            else if(comparison > 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    int getPostingStart(int term)
+    {
+        return termStart[term];
+    }
+
+    int getPostingEnd(int term)
+    {
+        return termStart[term] + termCount[term];
+    }
+
+    /**
+     * The first posting in [start, end) of a document after the given one.
+     */
+    int seekAfter(int start, int end, int doc)
+    {
+        int low = start;
+        int high = end;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(get(middle, DOC) <= doc)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    int get(int posting, int field)
+    {
+        return postings.get(posting * FIELDS + field);
+    }
+}
@@ -0,0 +1,173 @@
+package nlp.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes an IndexSegment in one sequential pass: the postings of every term in term order, then
+ * the document names, the string table and the term dictionary, and a trailer with their offsets.
+ * The segment is written to a temporary file and renamed once it is complete, so a segment file
+ * is never seen half-written.
+ */
+class SegmentWriter {
+    private final File directory;
+    private final File temporary;
+    private final int firstDoc;
+    private final DataOutputStream out;
+
+    private final List<String> names = new ArrayList<String>();
+    private final HashMap<String, Integer> stringIndex = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    private final List<String> terms = new ArrayList<String>();
+    private int[] termStart = new int[256];
+    private int postingCount;
+
+    SegmentWriter(File directory, int firstDoc) throws IOException
+    {
+        this.directory = directory;
+        this.firstDoc = firstDoc;
+        this.temporary = new File(directory, "segment-" + firstDoc + IndexSegment.TEMPORARY_SUFFIX);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 65536));
+
+        out.writeInt(IndexSegment.MAGIC);
+        out.writeInt(IndexSegment.VERSION);
+        out.writeInt(firstDoc);
+        out.writeInt(0);
+    }
+
+    /**
+     * Adds the next document of the segment; documents without concepts take an id as well.
+     */
+    void addDocument(String name)
+    {
+        names.add(name == null ? "" : name);
+    }
+
+    /**
+     * Starts the postings of the next term; terms have to be added in ascending order.
+     */
+    void startTerm(String term)
+    {
+        if(terms.size() == termStart.length)
+        {
+            termStart = Arrays.copyOf(termStart, termStart.length * 2);
+        }
+        termStart[terms.size()] = postingCount;
+        terms.add(term);
+    }
+
+    /**
+     * Adds a posting to the current term; the postings of a term have to be added in document order.
+     */
+    void addPosting(int doc, int begin, int end, int polarity, int historyOf, String subject, String code, String system) throws IOException
+    {
+        out.writeInt(doc);
+        out.writeInt(begin);
+        out.writeInt(end);
+        out.writeInt(polarity);
+        out.writeInt(historyOf);
+        out.writeInt(intern(subject));
+        out.writeInt(intern(code));
+        out.writeInt(intern(system));
+        postingCount++;
+    }
+
+    int getPostingCount()
+    {
+        return postingCount;
+    }
+
+    private int intern(String value)
+    {
+        if(value == null)
+        {
+            return -1;
+        }
+
+        Integer index = stringIndex.get(value);
+        if(index == null)
+        {
+            index = strings.size();
+            stringIndex.put(value, index);
+            strings.add(value);
+        }
+        return index;
+    }
+
+    /**
+     * Writes the rest of the segment, moves it into place and opens it.
+     */
+    IndexSegment finish() throws IOException
+    {
+        try {
+            int namesOffset = out.size();
+            byte[][] encoded = new byte[names.size()][];
+            int length = 0;
+            for(int i = 0; i < encoded.length; i++)
+            {
+                encoded[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(length);
+                length += encoded[i].length;
+            }
+            out.writeInt(length);
+            for(byte[] name : encoded)
+            {
+                out.write(name);
+            }
+
+            int stringsOffset = out.size();
+            out.writeInt(strings.size());
+            for(String value : strings)
+            {
+                out.writeUTF(value);
+            }
+
+            int termsOffset = out.size();
+            out.writeInt(terms.size());
+            for(int i = 0; i < terms.size(); i++)
+            {
+                int end = i + 1 < terms.size() ? termStart[i + 1] : postingCount;
+                out.writeUTF(terms.get(i));
+                out.writeInt(termStart[i]);
+                out.writeInt(end - termStart[i]);
+            }
+
+            out.writeInt(namesOffset);
+            out.writeInt(stringsOffset);
+            out.writeInt(termsOffset);
+            out.writeInt(names.size());
+            out.writeInt(postingCount);
+            out.writeInt(IndexSegment.MAGIC);
+        } finally {
+            out.close();
+        }
+
+        File file = new File(directory, IndexSegment.fileName(firstDoc, firstDoc + names.size()));
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return IndexSegment.open(file);
+    }
+
+    void abort()
+    {
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if(!temporary.delete())
+        {
+            temporary.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package nlp.information;
+
+/**
+ * Everything extracted from one parsed document, detached from the JCas it came from so the
+ * Parser can be reused while the result is being written out.
+ */
+public class ParseResult {
+    private String fileName, input;
+    private SyntaxAnnotations syntax;
+    private SemanticAnnotations semantic;
+    private double environmentDuration, parsingDuration;
+    private boolean existed;
+
+    public ParseResult(String rFileName, String rInput, SyntaxAnnotations rSyntax, SemanticAnnotations rSemantic, double rEnvironmentDuration, boolean rExisted, double rParsingDuration)
+    {
+        fileName = rFileName;
+        input = rInput;
+        syntax = rSyntax;
+        semantic = rSemantic;
+        environmentDuration = rEnvironmentDuration;
+        existed = rExisted;
+        parsingDuration = rParsingDuration;
+    }
+
+    /**
+     * The same result for a document with another name, e.g. when it was served from a cache.
+     */
+    public ParseResult withFileName(String name)
+    {
+        return new ParseResult(name, input, syntax, semantic, environmentDuration, existed, parsingDuration);
+    }
+
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    public String getInput()
+    {
+        return input;
+    }
+
+    public SyntaxAnnotations getSyntax()
+    {
+        return syntax;
+    }
+
+    public SemanticAnnotations getSemantic()
+    {
+        return semantic;
+    }
+
+    public double getEnvironmentDuration()
+    {
+        return environmentDuration;
+    }
+
+    public boolean isExisted()
+    {
+        return existed;
+    }
+
+    public double getParsingDuration()
+    {
+        return parsingDuration;
+    }
+}
@@ -0,0 +1,329 @@
+package nlp.information;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * The identified annotations (mentions) of one document, column by column, in the same way as
+ * SyntaxAnnotations. The concepts of all mentions are kept in one array: those of a row follow
+ * those of the row before it, so a row only stores where its concepts start.
+ */
+public class SemanticAnnotations {
+    private final String input;
+    private final StringTable strings = new StringTable();
+
+    private int[] groups = new int[16];
+    private int groupCount;
+
+    private int size;
+    private int[] group;
+    private int[] begin;
+    private int[] end;
+    private int[] polarity;
+    private int[] subject;
+    private int[] historyOf;
+    private int[] conceptStart;
+
+    private UMLSConcept[] concepts = new UMLSConcept[32];
+    private int conceptCount;
+    // Codes of the concepts of the last mention
+    private final HashSet<String> codes = new HashSet<String>();
+
+    // Rows ordered by group, built on first use
+    private int[] groupStart;
+    private int[] groupRows;
+
+    /**
+     * @param input the text of the document, which the offsets of the rows point into
+     */
+    public SemanticAnnotations(String input)
+    {
+        this(input, 32);
+    }
+
+    /**
+     * @param capacity the number of rows to make room for, e.g. the size of the annotation index
+     */
+    public SemanticAnnotations(String input, int capacity)
+    {
+        this.input = input;
+        capacity = Math.max(capacity, 1);
+        group = new int[capacity];
+        begin = new int[capacity];
+        end = new int[capacity];
+        polarity = new int[capacity];
+        subject = new int[capacity];
+        historyOf = new int[capacity];
+        conceptStart = new int[capacity];
+    }
+
+    public String getInput()
+    {
+        return input;
+    }
+
+    /**
+     * Returns the index of the group with the given type name, adding an empty group if there is none.
+     */
+    public int group(String type)
+    {
+        int name = strings.index(type);
+        for(int g = 0; g < groupCount; g++)
+        {
+            if(groups[g] == name)
+            {
+                return g;
+            }
+        }
+
+        if(groupCount == groups.length)
+        {
+            groups = Arrays.copyOf(groups, groupCount * 2);
+        }
+        groups[groupCount] = name;
+        groupStart = null;
+        return groupCount++;
+    }
+
+    /**
+     * Adds a mention to the group; addConcept adds concepts to the mention that was added last.
+     */
+    public void add(int group, int begin, int end, int polarity, String subject, int historyOf)
+    {
+        if(size == this.group.length)
+        {
+            int capacity = size * 2;
+            this.group = Arrays.copyOf(this.group, capacity);
+            this.begin = Arrays.copyOf(this.begin, capacity);
+            this.end = Arrays.copyOf(this.end, capacity);
+            this.polarity = Arrays.copyOf(this.polarity, capacity);
+            this.subject = Arrays.copyOf(this.subject, capacity);
+            this.historyOf = Arrays.copyOf(this.historyOf, capacity);
+            this.conceptStart = Arrays.copyOf(this.conceptStart, capacity);
+        }
+
+        this.group[size] = group;
+        this.begin[size] = begin;
+        this.end[size] = end;
+        this.polarity[size] = polarity;
+        this.subject[size] = strings.index(subject);
+        this.historyOf[size] = historyOf;
+        this.conceptStart[size] = conceptCount;
+        size++;
+        groupStart = null;
+        codes.clear();
+    }
+
+    /**
+     * Adds the concept to the last mention unless it already has a concept with the same code; the
+     * dictionary lookup often finds the same code more than once for a single mention.
+     */
+    public void addConcept(UMLSConcept concept)
+    {
+        if(size == 0)
+        {
+            throw new IllegalStateException("No mention to add the concept to");
+        }
+
+        if(!codes.add(concept.getCode()))
+        {
+            return;
+        }
+
+        if(conceptCount == concepts.length)
+        {
+            concepts = Arrays.copyOf(concepts, conceptCount * 2);
+        }
+        concepts[conceptCount++] = concept;
+    }
+
+    /**
+     * Adds the mentions, with their concepts, of other that lie within [from, to) of its input,
+     * moved by offset characters; groups are matched by name.
+     */
+    public void append(SemanticAnnotations other, int from, int to, int offset)
+    {
+        // A group is added with its first row, so one whose rows all lie outside the range is left
+        // out; groups that have no rows in other either are kept, like the extractor lists them
+        int[] groupMap = new int[other.groupCount];
+        for(int g = 0; g < other.groupCount; g++)
+        {
+            groupMap[g] = other.getGroupSize(g) == 0 ? group(other.getGroupName(g)) : -1;
+        }
+
+        for(int row = 0; row < other.size; row++)
+        {
+            int begin = other.begin[row];
+            int end = other.end[row];
+            if(begin < from || end > to || (begin == to && to != other.input.length()))
+            {
+                continue;
+            }
+
+            if(groupMap[other.group[row]] < 0)
+            {
+                groupMap[other.group[row]] = group(other.getGroupName(other.group[row]));
+            }
+            add(groupMap[other.group[row]], begin + offset, end + offset,
+                    other.polarity[row], other.getSubject(row), other.historyOf[row]);
+
+            for(int i = other.getConceptStart(row); i < other.getConceptEnd(row); i++)
+            {
+                addConcept(other.concepts[i]);
+            }
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getGroupCount()
+    {
+        return groupCount;
+    }
+
+    public String getGroupName(int group)
+    {
+        return strings.get(groups[group]);
+    }
+
+    public int getGroupSize(int group)
+    {
+        sortGroups();
+        return groupStart[group + 1] - groupStart[group];
+    }
+
+    /**
+     * The row of the i-th mention of the group.
+     */
+    public int getRow(int group, int i)
+    {
+        sortGroups();
+        return groupRows[groupStart[group] + i];
+    }
+
+    private void sortGroups()
+    {
+        if(groupStart != null)
+        {
+            return;
+        }
+
+        int[] start = new int[groupCount + 1];
+        for(int row = 0; row < size; row++)
+        {
+            start[group[row] + 1]++;
+        }
+        for(int g = 0; g < groupCount; g++)
+        {
+            start[g + 1] += start[g];
+        }
+
+        int[] next = Arrays.copyOf(start, groupCount);
+        int[] rows = new int[size];
+        for(int row = 0; row < size; row++)
+        {
+            rows[next[group[row]]++] = row;
+        }
+
+        groupRows = rows;
+        groupStart = start;
+    }
+
+    public int getGroup(int row)
+    {
+        return group[row];
+    }
+
+    public String getType(int row)
+    {
+        return getGroupName(group[row]);
+    }
+
+    public int getBegin(int row)
+    {
+        return begin[row];
+    }
+
+    public int getEnd(int row)
+    {
+        return end[row];
+    }
+
+    public String getText(int row)
+    {
+        return input.substring(begin[row], end[row]);
+    }
+
+    public int getPolarity(int row)
+    {
+        return polarity[row];
+    }
+
+    public String getSubject(int row)
+    {
+        return strings.get(subject[row]);
+    }
+
+    /**
+     * The index of the subject of the row in the string table, or -1 when it has none.
+     */
+    public int getSubjectIndex(int row)
+    {
+        return subject[row];
+    }
+
+    public int getStringCount()
+    {
+        return strings.size();
+    }
+
+    public String getString(int index)
+    {
+        return strings.get(index);
+    }
+
+    public int getHistoryOf(int row)
+    {
+        return historyOf[row];
+    }
+
+    /**
+     * The index of the first concept of the row in the concepts of the document.
+     */
+    public int getConceptStart(int row)
+    {
+        return conceptStart[row];
+    }
+
+    /**
+     * The index just past the last concept of the row.
+     */
+    public int getConceptEnd(int row)
+    {
+        return row + 1 < size ? conceptStart[row + 1] : conceptCount;
+    }
+
+    /**
+     * The number of concepts of all mentions together.
+     */
+    public int getConceptCount()
+    {
+        return conceptCount;
+    }
+
+    public UMLSConcept getConcept(int index)
+    {
+        return concepts[index];
+    }
+
+    /**
+     * Replaces a concept, e.g. by the same concept with SNOMED CT information.
+     */
+    public void setConcept(int index, UMLSConcept concept)
+    {
+        concepts[index] = concept;
+    }
+}
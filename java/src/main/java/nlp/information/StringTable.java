@@ -0,0 +1,46 @@
+package nlp.information;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The distinct strings of one result container (type names, relations, subjects), so rows refer to
+ * them by index. Index -1 stands for null.
+ */
+class StringTable {
+    private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+    private String[] strings = new String[16];
+    private int size;
+
+    int index(String value)
+    {
+        if(value == null)
+        {
+            return -1;
+        }
+
+        Integer index = indexes.get(value);
+        if(index != null)
+        {
+            return index;
+        }
+
+        if(size == strings.length)
+        {
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size] = value;
+        indexes.put(value, size);
+        return size++;
+    }
+
+    String get(int index)
+    {
+        return index < 0 ? null : strings[index];
+    }
+
+    int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,525 @@
+package nlp.information;
+
+import java.util.Arrays;
+
+/**
+ * The syntax annotations of one document, column by column: every annotation is a row with its
+ * offsets, token number, dependency node id, relation and head in primitive arrays. Type names and
+ * relations are kept once in a string table, and the covered text of a row and of its head is
+ * taken from the document text only when it is asked for.
+ *
+ * Rows are grouped by the short name of their type. Groups keep the order in which they were first
+ * added and rows keep their order within a group; a group may be empty.
+ *
+ * The id of a dependency node is its ordinal among the nodes of the document, in document order,
+ * so the nodes are numbered 0 to getNodeCount() - 1 and the id of a head is the index of its node.
+ * The dependency graph is also available in adjacency form: the head of every node, the children
+ * of every node as a range of getChild, and the sentences as ranges of nodes.
+ */
+public class SyntaxAnnotations {
+    /**
+     * The id, token number or head begin of a row that has none.
+     */
+    public static final int NONE = -1;
+
+    private final String input;
+    private final StringTable strings = new StringTable();
+
+    private int[] groups = new int[16];
+    private int groupCount;
+
+    private int size;
+    private int maxToken = -1;
+    private int maxId = -1;
+    private int[] group;
+    private int[] begin;
+    private int[] end;
+    private int[] token;
+    private int[] id;
+    private int[] relation;
+    private int[] dependentId;
+    private int[] dependentBegin;
+    private int[] dependentEnd;
+
+    // Rows ordered by group, built on first use
+    private int[] groupStart;
+    private int[] groupRows;
+
+    // The dependency graph by node id, built on first use
+    private int[] nodeRows;
+    private int[] heads;
+    private int[] childStart;
+    private int[] children;
+    private int[] sentenceStart;
+    private int sentenceCount;
+
+    /**
+     * @param input the text of the document, which the offsets of the rows point into
+     */
+    public SyntaxAnnotations(String input)
+    {
+        this(input, 64);
+    }
+
+    /**
+     * @param capacity the number of rows to make room for, e.g. the size of the annotation index
+     */
+    public SyntaxAnnotations(String input, int capacity)
+    {
+        this.input = input;
+        capacity = Math.max(capacity, 1);
+        group = new int[capacity];
+        begin = new int[capacity];
+        end = new int[capacity];
+        token = new int[capacity];
+        id = new int[capacity];
+        relation = new int[capacity];
+        dependentId = new int[capacity];
+        dependentBegin = new int[capacity];
+        dependentEnd = new int[capacity];
+    }
+
+    public String getInput()
+    {
+        return input;
+    }
+
+    /**
+     * Returns the index of the group with the given type name, adding an empty group if there is none.
+     */
+    public int group(String type)
+    {
+        int name = strings.index(type);
+        for(int g = 0; g < groupCount; g++)
+        {
+            if(groups[g] == name)
+            {
+                return g;
+            }
+        }
+
+        if(groupCount == groups.length)
+        {
+            groups = Arrays.copyOf(groups, groupCount * 2);
+        }
+        groups[groupCount] = name;
+        groupStart = null;
+        return groupCount++;
+    }
+
+    /**
+     * Adds a row to the group. Pass NONE for a token number or id that does not apply, and as
+     * dependentBegin for a dependency node without a head.
+     */
+    public void add(int group, int begin, int end, int token, int id, String relation, int dependentId, int dependentBegin, int dependentEnd)
+    {
+        if(size == this.group.length)
+        {
+            grow();
+        }
+
+        this.group[size] = group;
+        this.begin[size] = begin;
+        this.end[size] = end;
+        this.token[size] = token;
+        this.id[size] = id;
+        this.relation[size] = strings.index(relation);
+        this.dependentId[size] = dependentBegin < 0 ? NONE : dependentId;
+        this.dependentBegin[size] = dependentBegin < 0 ? NONE : dependentBegin;
+        this.dependentEnd[size] = dependentBegin < 0 ? NONE : dependentEnd;
+        maxToken = Math.max(maxToken, token);
+        maxId = Math.max(maxId, Math.max(id, this.dependentId[size]));
+        size++;
+        groupStart = null;
+        nodeRows = null;
+    }
+
+    private void grow()
+    {
+        int capacity = size * 2;
+        group = Arrays.copyOf(group, capacity);
+        begin = Arrays.copyOf(begin, capacity);
+        end = Arrays.copyOf(end, capacity);
+        token = Arrays.copyOf(token, capacity);
+        id = Arrays.copyOf(id, capacity);
+        relation = Arrays.copyOf(relation, capacity);
+        dependentId = Arrays.copyOf(dependentId, capacity);
+        dependentBegin = Arrays.copyOf(dependentBegin, capacity);
+        dependentEnd = Arrays.copyOf(dependentEnd, capacity);
+    }
+
+    /**
+     * Adds the rows of other that lie within [from, to) of its input, head included, moved by
+     * offset characters; groups are matched by name. Token numbers and ids keep their order but
+     * are renumbered to follow those already added, so the parts of a document can be combined.
+     * Ids stay dense: a node whose head was left out keeps the offsets of its head, but no head id.
+     */
+    public void append(SyntaxAnnotations other, int from, int to, int offset)
+    {
+        // A group is added with its first row, so one whose rows all lie outside the range is left
+        // out; groups that have no rows in other either are kept, like the extractor lists them
+        int[] groupMap = new int[other.groupCount];
+        for(int g = 0; g < other.groupCount; g++)
+        {
+            groupMap[g] = other.getGroupSize(g) == 0 ? group(other.getGroupName(g)) : NONE;
+        }
+
+        int firstToken = Integer.MAX_VALUE;
+        int[] ids = new int[other.size];
+        int idCount = 0;
+        for(int row = 0; row < other.size; row++)
+        {
+            if(other.within(row, from, to))
+            {
+                if(other.token[row] >= 0) firstToken = Math.min(firstToken, other.token[row]);
+                if(other.id[row] >= 0) ids[idCount++] = other.id[row];
+            }
+        }
+        int tokenOffset = maxToken + 1 - firstToken;
+
+        // The new id of a node is the number of nodes added before it
+        ids = Arrays.copyOf(ids, idCount);
+        Arrays.sort(ids);
+        int firstId = maxId + 1;
+
+        for(int row = 0; row < other.size; row++)
+        {
+            if(!other.within(row, from, to))
+            {
+                continue;
+            }
+
+            if(groupMap[other.group[row]] < 0)
+            {
+                groupMap[other.group[row]] = group(other.getGroupName(other.group[row]));
+            }
+
+            boolean hasHead = other.hasDependent(row);
+            int head = hasHead ? Arrays.binarySearch(ids, other.dependentId[row]) : -1;
+            add(groupMap[other.group[row]],
+                    other.begin[row] + offset,
+                    other.end[row] + offset,
+                    other.token[row] < 0 ? other.token[row] : other.token[row] + tokenOffset,
+                    other.id[row] < 0 ? other.id[row] : firstId + Arrays.binarySearch(ids, other.id[row]),
+                    other.getRelation(row),
+                    head < 0 ? NONE : firstId + head,
+                    hasHead ? other.dependentBegin[row] + offset : NONE,
+                    hasHead ? other.dependentEnd[row] + offset : NONE);
+        }
+    }
+
+    /**
+     * Whether the row and its head lie within [from, to); an empty row at to only counts at the
+     * end of the text.
+     */
+    private boolean within(int row, int from, int to)
+    {
+        boolean inside = begin[row] >= from && end[row] <= to && (begin[row] < to || to == input.length());
+        if(inside && hasDependent(row))
+        {
+            inside = dependentBegin[row] >= from && dependentEnd[row] <= to;
+        }
+        return inside;
+    }
+
+    /**
+     * The highest token number, or -1 when there are no tokens.
+     */
+    public int getMaxToken()
+    {
+        return maxToken;
+    }
+
+    /**
+     * The highest id of a node or a head, or -1 when there are no dependency nodes.
+     */
+    public int getMaxId()
+    {
+        return maxId;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getGroupCount()
+    {
+        return groupCount;
+    }
+
+    public String getGroupName(int group)
+    {
+        return strings.get(groups[group]);
+    }
+
+    public int getGroupSize(int group)
+    {
+        sortGroups();
+        return groupStart[group + 1] - groupStart[group];
+    }
+
+    /**
+     * The row of the i-th annotation of the group.
+     */
+    public int getRow(int group, int i)
+    {
+        sortGroups();
+        return groupRows[groupStart[group] + i];
+    }
+
+    private void sortGroups()
+    {
+        if(groupStart != null)
+        {
+            return;
+        }
+
+        int[] start = new int[groupCount + 1];
+        for(int row = 0; row < size; row++)
+        {
+            start[group[row] + 1]++;
+        }
+        for(int g = 0; g < groupCount; g++)
+        {
+            start[g + 1] += start[g];
+        }
+
+        int[] next = Arrays.copyOf(start, groupCount);
+        int[] rows = new int[size];
+        for(int row = 0; row < size; row++)
+        {
+            rows[next[group[row]]++] = row;
+        }
+
+        groupRows = rows;
+        groupStart = start;
+    }
+
+    public int getGroup(int row)
+    {
+        return group[row];
+    }
+
+    public String getType(int row)
+    {
+        return getGroupName(group[row]);
+    }
+
+    public int getBegin(int row)
+    {
+        return begin[row];
+    }
+
+    public int getEnd(int row)
+    {
+        return end[row];
+    }
+
+    public String getText(int row)
+    {
+        return input.substring(begin[row], end[row]);
+    }
+
+    public int getToken(int row)
+    {
+        return token[row];
+    }
+
+    public int getId(int row)
+    {
+        return id[row];
+    }
+
+    public String getRelation(int row)
+    {
+        return strings.get(relation[row]);
+    }
+
+    /**
+     * The index of the relation of the row in the string table, or -1 when it has none.
+     */
+    public int getRelationIndex(int row)
+    {
+        return relation[row];
+    }
+
+    public int getStringCount()
+    {
+        return strings.size();
+    }
+
+    public String getString(int index)
+    {
+        return strings.get(index);
+    }
+
+    /**
+     * Whether the row is a dependency node with a head.
+     */
+    public boolean hasDependent(int row)
+    {
+        return dependentBegin[row] >= 0;
+    }
+
+    public int getDependentId(int row)
+    {
+        return dependentId[row];
+    }
+
+    public int getDependentBegin(int row)
+    {
+        return dependentBegin[row];
+    }
+
+    public int getDependentEnd(int row)
+    {
+        return dependentEnd[row];
+    }
+
+    public String getDependentText(int row)
+    {
+        return hasDependent(row) ? input.substring(dependentBegin[row], dependentEnd[row]) : null;
+    }
+
+    /**
+     * The number of dependency nodes; their ids run from 0 to this number - 1.
+     */
+    public int getNodeCount()
+    {
+        buildGraph();
+        return nodeRows.length;
+    }
+
+    /**
+     * The row of the dependency node with the given id, or NONE when no row has that id.
+     */
+    public int getNodeRow(int node)
+    {
+        buildGraph();
+        return nodeRows[node];
+    }
+
+    /**
+     * The id of the head of the node, or NONE for the root of a sentence.
+     */
+    public int getHead(int node)
+    {
+        buildGraph();
+        return heads[node];
+    }
+
+    /**
+     * The children of the node are getChild(i) for i from getChildStart(node) up to
+     * getChildStart(node + 1), in document order; getChildStart(getNodeCount()) is the end of the
+     * last range.
+     */
+    public int getChildStart(int node)
+    {
+        buildGraph();
+        return childStart[node];
+    }
+
+    public int getChild(int i)
+    {
+        buildGraph();
+        return children[i];
+    }
+
+    public int getSentenceCount()
+    {
+        buildGraph();
+        return sentenceCount;
+    }
+
+    /**
+     * The nodes of a sentence are the ids from getSentenceStart(sentence) up to
+     * getSentenceStart(sentence + 1); getSentenceStart(getSentenceCount()) is the node count.
+     */
+    public int getSentenceStart(int sentence)
+    {
+        buildGraph();
+        return sentenceStart[sentence];
+    }
+
+    /**
+     * Builds the adjacency form of the dependency graph in a few passes over the nodes: heads by
+     * id, the children as ranges of one array (counted, then filled in id order), and a sentence
+     * boundary wherever the root a node leads up to differs from that of the node before it.
+     */
+    private void buildGraph()
+    {
+        if(nodeRows != null)
+        {
+            return;
+        }
+
+        int nodes = maxId + 1;
+        int[] rows = new int[nodes];
+        int[] head = new int[nodes];
+        Arrays.fill(rows, NONE);
+        Arrays.fill(head, NONE);
+        for(int row = 0; row < size; row++)
+        {
+            if(id[row] >= 0)
+            {
+                rows[id[row]] = row;
+                head[id[row]] = dependentId[row];
+            }
+        }
+
+        int[] start = new int[nodes + 1];
+        for(int node = 0; node < nodes; node++)
+        {
+            if(head[node] >= 0) start[head[node] + 1]++;
+        }
+        for(int node = 0; node < nodes; node++)
+        {
+            start[node + 1] += start[node];
+        }
+        int[] next = Arrays.copyOf(start, nodes);
+        int[] child = new int[start[nodes]];
+        for(int node = 0; node < nodes; node++)
+        {
+            if(head[node] >= 0) child[next[head[node]]++] = node;
+        }
+
+        // The root of every node, following heads up to a node whose root is known already; a walk
+        // as long as the number of nodes is a cycle, which is treated as rooted where it stopped
+        int[] root = new int[nodes];
+        Arrays.fill(root, NONE);
+        int[] sentences = new int[nodes + 1];
+        int count = 0;
+        for(int node = 0; node < nodes; node++)
+        {
+            int current = node;
+            int steps = 0;
+            while(root[current] < 0 && head[current] >= 0 && steps < nodes)
+            {
+                current = head[current];
+                steps++;
+            }
+            int found = root[current] >= 0 ? root[current] : current;
+
+            current = node;
+            for(int i = 0; i <= steps && root[current] < 0; i++)
+            {
+                root[current] = found;
+                current = head[current] >= 0 ? head[current] : current;
+            }
+
+            if(node == 0 || root[node] != root[node - 1])
+            {
+                sentences[count++] = node;
+            }
+        }
+        sentences[count] = nodes;
+
+        heads = head;
+        childStart = start;
+        children = child;
+        sentenceStart = sentences;
+        sentenceCount = count;
+        nodeRows = rows;
+    }
+}
@@ -1,16 +1,40 @@
 package nlp.information;
 
+import java.util.Arrays;
+
 /**
  * Created by martijn on 06/02/2017.
+ *
+ * Immutable, so equal concepts found on different mentions can share a single instance.
  */
 public class UMLSConcept {
-    private String code, system, cui;
+    private String code, system, cui, tui, preferredText, fullySpecifiedName;
+    private long[] ancestors;
+    private int hash;
 
     public UMLSConcept(String uCode, String uSystem, String uCui)
+    {
+        this(uCode, uSystem, uCui, null, null);
+    }
+
+    public UMLSConcept(String uCode, String uSystem, String uCui, String uTui, String uPreferredText)
     {
         code = uCode;
         system = uSystem;
         cui = uCui;
+        tui = uTui;
+        preferredText = uPreferredText;
+    }
+
+    /**
+     * A copy with the SNOMED CT fully specified name, preferred text and ancestor identifiers.
+     */
+    public UMLSConcept withSnomed(String fullySpecifiedName, String preferredText, long[] ancestors)
+    {
+        UMLSConcept concept = new UMLSConcept(code, system, cui, tui, preferredText);
+        concept.fullySpecifiedName = fullySpecifiedName;
+        concept.ancestors = ancestors;
+        return concept;
     }
 
     public String getCode()
@@ -27,4 +51,70 @@ public class UMLSConcept {
     {
         return cui;
     }
+
+    public String getTui()
+    {
+        return tui;
+    }
+
+    public String getPreferredText()
+    {
+        return preferredText;
+    }
+
+    public String getFullySpecifiedName()
+    {
+        return fullySpecifiedName;
+    }
+
+    /**
+     * The SNOMED CT supertypes of the concept, or null when they were not looked up.
+     */
+    public long[] getAncestors()
+    {
+        return ancestors;
+    }
+
+    public boolean equals(Object other)
+    {
+        if(this == other)
+        {
+            return true;
+        }
+        if(!(other instanceof UMLSConcept))
+        {
+            return false;
+        }
+
+        UMLSConcept concept = (UMLSConcept) other;
+        return equal(code, concept.code) && equal(system, concept.system) && equal(cui, concept.cui)
+                && equal(tui, concept.tui) && equal(preferredText, concept.preferredText)
+                && equal(fullySpecifiedName, concept.fullySpecifiedName) && Arrays.equals(ancestors, concept.ancestors);
+    }
+
+    public int hashCode()
+    {
+        int h = hash;
+        if(h == 0)
+        {
+            h = hash(code);
+            h = 31 * h + hash(system);
+            h = 31 * h + hash(cui);
+            h = 31 * h + hash(tui);
+            h = 31 * h + hash(preferredText);
+            h = 31 * h + hash(fullySpecifiedName);
+            hash = h;
+        }
+        return h;
+    }
+
+    private static boolean equal(String a, String b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int hash(String value)
+    {
+        return value == null ? 0 : value.hashCode();
+    }
 }
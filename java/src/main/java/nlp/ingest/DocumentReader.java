@@ -0,0 +1,305 @@
+package nlp.ingest;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads uploaded documents into a String with a bounded amount of memory. The bytes are kept in
+ * one buffer up to "parser.upload.spoolThreshold" kilobytes; larger uploads are spooled to a temp
+ * file that is memory-mapped for decoding, so they are never held on the heap as bytes. Uploads
+ * over "parser.upload.maxSize" megabytes are rejected with a DocumentTooLargeException as soon
+ * as the limit is passed.
+ *
+ * The bytes are decoded with the declared charset when there is one, otherwise with the charset
+ * of a byte order mark, otherwise as UTF-8 when they are valid UTF-8 and as windows-1252 when not.
+ * The decoder writes into a char buffer of the final size, so the only other copy is the String.
+ */
+public class DocumentReader {
+    public static final String CONTEXT_ATTRIBUTE = "documentReader";
+    public static final String MAX_SIZE_PARAMETER = "parser.upload.maxSize";
+    public static final String SPOOL_THRESHOLD_PARAMETER = "parser.upload.spoolThreshold";
+
+    private static final Charset FALLBACK = Charset.forName("windows-1252");
+
+    private final long maxBytes;
+    private final int spoolThreshold;
+
+    public DocumentReader(long maxBytes, int spoolThreshold)
+    {
+        if(maxBytes < 1 || maxBytes > Integer.MAX_VALUE / 2)
+        {
+            throw new IllegalArgumentException("Maximum document size must be between 1 byte and 1 GB, was " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.spoolThreshold = (int) Math.min(Math.max(spoolThreshold, 0), maxBytes);
+    }
+
+    /**
+     * Returns the reader of this application, limited to "parser.upload.maxSize" megabytes (32 by
+     * default) and spooling above "parser.upload.spoolThreshold" kilobytes (1024 by default).
+     */
+    public static DocumentReader forContext(ServletContext application)
+    {
+        synchronized (application) {
+            DocumentReader reader = (DocumentReader) application.getAttribute(CONTEXT_ATTRIBUTE);
+            if(reader == null)
+            {
+                long maxBytes = longParameter(application, MAX_SIZE_PARAMETER, 32) * 1024 * 1024;
+                long spoolThreshold = longParameter(application, SPOOL_THRESHOLD_PARAMETER, 1024) * 1024;
+
+                reader = new DocumentReader(maxBytes, (int) Math.min(spoolThreshold, Integer.MAX_VALUE));
+                application.setAttribute(CONTEXT_ATTRIBUTE, reader);
+            }
+            return reader;
+        }
+    }
+
+    private static long longParameter(ServletContext application, String name, long defaultValue)
+    {
+        String value = application.getInitParameter(name);
+        if(value == null)
+        {
+            value = System.getProperty(name);
+        }
+
+        if(value != null && !value.trim().isEmpty())
+        {
+            return Long.parseLong(value.trim());
+        }
+
+        return defaultValue;
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Rejects a document whose size is known up front, e.g. from the part headers; -1 means unknown.
+     */
+    public void checkSize(long size) throws DocumentTooLargeException
+    {
+        if(size > maxBytes)
+        {
+            throw new DocumentTooLargeException(maxBytes);
+        }
+    }
+
+    /**
+     * Rejects posted text that takes more than the limit in UTF-8, the size it was posted in; a
+     * character count would let text in other scripts through at up to three times the limit.
+     */
+    public void checkText(String text) throws DocumentTooLargeException
+    {
+        long size = 0;
+        for(int i = 0; i < text.length() && size <= maxBytes; i++)
+        {
+            char c = text.charAt(i);
+            if(c < 0x80)
+            {
+                size += 1;
+            }
+            else if(c < 0x800)
+            {
+                size += 2;
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                size += 4;
+                i++;
+            }
+            else
+            {
+                size += 3;
+            }
+        }
+        checkSize(size);
+    }
+
+    /**
+     * Reads the stream to its end and decodes it. The stream is not closed, so this can be used
+     * for the entries of a zip archive.
+     *
+     * @param charset the declared charset, or null to detect it
+     */
+    public String read(InputStream in, String charset) throws IOException
+    {
+        byte[] buffer = new byte[Math.min(8192, spoolThreshold + 1)];
+        int count = 0;
+
+        while(true)
+        {
+            if(count == buffer.length)
+            {
+                if(count > spoolThreshold)
+                {
+                    return spool(in, buffer, count, charset);
+                }
+                byte[] larger = new byte[Math.min(buffer.length * 2, spoolThreshold + 1)];
+                System.arraycopy(buffer, 0, larger, 0, count);
+                buffer = larger;
+            }
+
+            int read = in.read(buffer, count, buffer.length - count);
+            if(read < 0)
+            {
+                break;
+            }
+            count += read;
+            checkSize(count);
+        }
+
+        return decode(ByteBuffer.wrap(buffer, 0, count), charset);
+    }
+
+    private String spool(InputStream in, byte[] start, int count, String charset) throws IOException
+    {
+        File file = File.createTempFile("upload", ".txt");
+        try {
+            long size = count;
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(start, 0, count);
+
+                byte[] buffer = new byte[65536];
+                int read;
+                while((read = in.read(buffer)) >= 0)
+                {
+                    size += read;
+                    checkSize(size);
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+
+            RandomAccessFile spooled = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = spooled.getChannel();
+                return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset);
+            } finally {
+                spooled.close();
+            }
+        } finally {
+            if(!file.delete())
+            {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static String decode(ByteBuffer bytes, String declared) throws CharacterCodingException
+    {
+        Charset charset = forName(declared);
+        if(charset == null)
+        {
+            charset = byteOrderMark(bytes);
+        }
+        if(charset != null)
+        {
+            return decode(bytes, charset, CodingErrorAction.REPLACE);
+        }
+
+        try {
+            return decode(bytes.duplicate(), StandardCharsets.UTF_8, CodingErrorAction.REPORT);
+        } catch (CharacterCodingException e) {
+            return decode(bytes, FALLBACK, CodingErrorAction.REPLACE);
+        }
+    }
+
+    private static String decode(ByteBuffer bytes, Charset charset, CodingErrorAction action) throws CharacterCodingException
+    {
+        CharsetDecoder decoder = charset.newDecoder().onMalformedInput(action).onUnmappableCharacter(action);
+        CharBuffer chars = CharBuffer.allocate((int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if(result.isError())
+        {
+            result.throwException();
+        }
+        result = decoder.flush(chars);
+        if(result.isError())
+        {
+            result.throwException();
+        }
+
+        return new String(chars.array(), 0, chars.position());
+    }
+
+    /**
+     * The charset of a byte order mark at the start of the bytes, which are moved past it.
+     */
+    private static Charset byteOrderMark(ByteBuffer bytes)
+    {
+        int start = bytes.position();
+        int length = bytes.remaining();
+
+        if(length >= 3 && (bytes.get(start) & 0xFF) == 0xEF && (bytes.get(start + 1) & 0xFF) == 0xBB && (bytes.get(start + 2) & 0xFF) == 0xBF)
+        {
+            bytes.position(start + 3);
+            return StandardCharsets.UTF_8;
+        }
+        if(length >= 2 && (bytes.get(start) & 0xFF) == 0xFE && (bytes.get(start + 1) & 0xFF) == 0xFF)
+        {
+            bytes.position(start + 2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if(length >= 2 && (bytes.get(start) & 0xFF) == 0xFF && (bytes.get(start + 1) & 0xFF) == 0xFE)
+        {
+            bytes.position(start + 2);
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    private static Charset forName(String name)
+    {
+        if(name == null || name.trim().isEmpty())
+        {
+            return null;
+        }
+
+        try {
+            return Charset.forName(name.trim());
+        } catch (IllegalArgumentException e) {
+            // Unknown or unsupported charsets are detected instead
+            return null;
+        }
+    }
+
+    /**
+     * The charset parameter of a Content-Type header, or null when there is none.
+     */
+    public static String charsetOf(String contentType)
+    {
+        if(contentType == null)
+        {
+            return null;
+        }
+
+        for(String parameter : contentType.split(";"))
+        {
+            String[] pair = parameter.trim().split("=", 2);
+            if(pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset"))
+            {
+                return pair[1].trim().replace("\"", "");
+            }
+        }
+        return null;
+    }
+}
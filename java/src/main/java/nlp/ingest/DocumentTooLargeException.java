@@ -0,0 +1,14 @@
+package nlp.ingest;
+
+import java.io.IOException;
+
+/**
+ * Thrown by DocumentReader when an upload is larger than "parser.upload.maxSize"; the servlets
+ * answer it with 413 Request Entity Too Large.
+ */
+public class DocumentTooLargeException extends IOException {
+    public DocumentTooLargeException(long maxBytes)
+    {
+        super("Documents may be at most " + maxBytes + " bytes");
+    }
+}
@@ -0,0 +1,8 @@
+package nlp.metrics;
+
+/**
+ * A value that is read every time the metrics are scraped.
+ */
+public interface Gauge {
+    double getValue();
+}
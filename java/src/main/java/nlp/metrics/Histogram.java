@@ -0,0 +1,56 @@
+package nlp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed buckets, from one millisecond up to five minutes.
+ */
+public class Histogram {
+    public static final double[] BUCKETS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    public void observeNanos(long nanos)
+    {
+        double seconds = nanos / 1000000000.0;
+
+        int bucket = 0;
+        while(bucket < BUCKETS.length && seconds > BUCKETS[bucket])
+        {
+            bucket++;
+        }
+
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+    }
+
+    public void observeMillis(long millis)
+    {
+        observeNanos(millis * 1000000L);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public double getSumSeconds()
+    {
+        return sumNanos.get() / 1000000000.0;
+    }
+
+    /**
+     * Number of observations in the bucket, not including the lower buckets. The last bucket
+     * holds everything above the highest bound.
+     */
+    public long getBucketCount(int bucket)
+    {
+        return counts.get(bucket);
+    }
+}
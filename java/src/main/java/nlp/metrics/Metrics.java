@@ -0,0 +1,189 @@
+package nlp.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of histograms, counters and gauges, written in the Prometheus text exposition format.
+ * Every metric family has at most one label; metrics are created on first use, so callers can
+ * simply look them up by name and label value on every request.
+ */
+public class Metrics {
+    private static final Metrics DEFAULT = new Metrics();
+
+    private final Map<String, Family> families = new LinkedHashMap<String, Family>();
+
+    public static Metrics getDefault()
+    {
+        return DEFAULT;
+    }
+
+    public Histogram histogram(String name, String help)
+    {
+        return histogram(name, help, null, null);
+    }
+
+    public Histogram histogram(String name, String help, String label, String value)
+    {
+        Family family = family(name, help, "histogram", label);
+        Object metric = family.metrics.get(key(value));
+        if(metric == null)
+        {
+            Histogram histogram = new Histogram();
+            metric = family.metrics.putIfAbsent(key(value), histogram);
+            if(metric == null)
+            {
+                metric = histogram;
+            }
+        }
+        return (Histogram) metric;
+    }
+
+    public AtomicLong counter(String name, String help)
+    {
+        return counter(name, help, null, null);
+    }
+
+    public AtomicLong counter(String name, String help, String label, String value)
+    {
+        Family family = family(name, help, "counter", label);
+        Object metric = family.metrics.get(key(value));
+        if(metric == null)
+        {
+            AtomicLong counter = new AtomicLong();
+            metric = family.metrics.putIfAbsent(key(value), counter);
+            if(metric == null)
+            {
+                metric = counter;
+            }
+        }
+        return (AtomicLong) metric;
+    }
+
+    public void gauge(String name, String help, Gauge gauge)
+    {
+        gauge(name, help, null, null, gauge);
+    }
+
+    public void gauge(String name, String help, String label, String value, Gauge gauge)
+    {
+        family(name, help, "gauge", label).metrics.put(key(value), gauge);
+    }
+
+    /**
+     * Registers a counter that is kept elsewhere, e.g. by the ParserPool, and read on every scrape.
+     */
+    public void counter(String name, String help, Gauge source)
+    {
+        counter(name, help, null, null, source);
+    }
+
+    public void counter(String name, String help, String label, String value, Gauge source)
+    {
+        family(name, help, "counter", label).metrics.put(key(value), source);
+    }
+
+    public void write(Writer out) throws IOException
+    {
+        List<Family> snapshot;
+        synchronized (families) {
+            snapshot = new ArrayList<Family>(families.values());
+        }
+
+        for(Family family : snapshot)
+        {
+            out.write("# HELP " + family.name + " " + family.help + "\n");
+            out.write("# TYPE " + family.name + " " + family.type + "\n");
+
+            List<String> values = new ArrayList<String>(family.metrics.keySet());
+            Collections.sort(values);
+
+            for(String value : values)
+            {
+                Object metric = family.metrics.get(value);
+                String labels = family.label == null ? "" : family.label + "=\"" + escape(value) + "\"";
+
+                if(metric instanceof Histogram)
+                {
+                    writeHistogram(out, family.name, labels, (Histogram) metric);
+                }
+                else if(metric instanceof AtomicLong)
+                {
+                    out.write(family.name + braces(labels) + " " + ((AtomicLong) metric).get() + "\n");
+                }
+                else if(metric instanceof Gauge)
+                {
+                    out.write(family.name + braces(labels) + " " + ((Gauge) metric).getValue() + "\n");
+                }
+            }
+        }
+    }
+
+    private void writeHistogram(Writer out, String name, String labels, Histogram histogram) throws IOException
+    {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+
+        for(int i = 0; i < Histogram.BUCKETS.length; i++)
+        {
+            cumulative += histogram.getBucketCount(i);
+            out.write(name + "_bucket{" + prefix + "le=\"" + Histogram.BUCKETS[i] + "\"} " + cumulative + "\n");
+        }
+        cumulative += histogram.getBucketCount(Histogram.BUCKETS.length);
+        out.write(name + "_bucket{" + prefix + "le=\"+Inf\"} " + cumulative + "\n");
+        out.write(name + "_sum" + braces(labels) + " " + histogram.getSumSeconds() + "\n");
+        out.write(name + "_count" + braces(labels) + " " + histogram.getCount() + "\n");
+    }
+
+    private Family family(String name, String help, String type, String label)
+    {
+        synchronized (families) {
+            Family family = families.get(name);
+            if(family == null)
+            {
+                family = new Family(name, help, type, label);
+                families.put(name, family);
+            }
+            else if(!family.type.equals(type))
+            {
+                throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+            }
+            return family;
+        }
+    }
+
+    private static String key(String value)
+    {
+        return value == null ? "" : value;
+    }
+
+    private static String braces(String labels)
+    {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class Family {
+        private final String name, help, type, label;
+        private final ConcurrentHashMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+        private Family(String name, String help, String type, String label)
+        {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.label = label;
+        }
+    }
+}
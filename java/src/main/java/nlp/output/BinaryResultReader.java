@@ -0,0 +1,248 @@
+package nlp.output;
+
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.information.UMLSConcept;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a single document written by BinaryResultWriter back into a ParseResult.
+ */
+public class BinaryResultReader {
+    private InputStream binary;
+
+    public ParseResult read(InputStream in) throws IOException
+    {
+        binary = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 8192);
+
+        try {
+            byte[] magic = new byte[BinaryResultWriter.MAGIC.length];
+            readFully(magic);
+            if(!Arrays.equals(magic, BinaryResultWriter.MAGIC))
+            {
+                throw new IOException("Not a binary parse result");
+            }
+
+            int version = readInt();
+            if(version != BinaryResultWriter.VERSION)
+            {
+                throw new IOException("Unsupported binary parse result version " + version);
+            }
+
+            return readResult();
+        } finally {
+            binary = null;
+        }
+    }
+
+    private ParseResult readResult() throws IOException
+    {
+        String fileName = readString();
+        String input = readString();
+        SyntaxAnnotations syntax = readSyntax(input);
+        SemanticAnnotations semantic = readSemantic(input);
+
+        double environmentDuration = readDouble();
+        boolean existed = readBoolean();
+        double parsingDuration = readDouble();
+
+        return new ParseResult(fileName, input, syntax, semantic, environmentDuration, existed, parsingDuration);
+    }
+
+    private SyntaxAnnotations readSyntax(String input) throws IOException
+    {
+        SyntaxAnnotations syntax = new SyntaxAnnotations(input);
+        String[] strings = readStrings();
+        int[] groups = new int[readInt()];
+        for(int i = 0; i < groups.length; i++)
+        {
+            groups[i] = syntax.group(readString());
+        }
+
+        int rows = readInt();
+        int begin = 0;
+        for(int row = 0; row < rows; row++)
+        {
+            int group = groups[readInt()];
+            begin += readInt();
+            int end = begin + readInt();
+            int token = readInt();
+            int id = readInt();
+            int relation = readInt();
+
+            int dependentBegin = SyntaxAnnotations.NONE;
+            int dependentEnd = SyntaxAnnotations.NONE;
+            int dependentId = SyntaxAnnotations.NONE;
+            if(readBoolean())
+            {
+                dependentBegin = begin + readInt();
+                dependentEnd = dependentBegin + readInt();
+                dependentId = readInt();
+            }
+
+            syntax.add(group, begin, end, token, id, relation == 0 ? null : strings[relation - 1], dependentId, dependentBegin, dependentEnd);
+        }
+
+        return syntax;
+    }
+
+    private SemanticAnnotations readSemantic(String input) throws IOException
+    {
+        SemanticAnnotations semantic = new SemanticAnnotations(input);
+        String[] strings = readStrings();
+        int[] groups = new int[readInt()];
+        for(int i = 0; i < groups.length; i++)
+        {
+            groups[i] = semantic.group(readString());
+        }
+
+        UMLSConcept[] concepts = new UMLSConcept[readInt()];
+        for(int c = 0; c < concepts.length; c++)
+        {
+            String system = readString();
+            String code = readString();
+            String cui = readString();
+            String tui = readString();
+            String preferredText = readString();
+            String fullySpecifiedName = readString();
+
+            UMLSConcept concept = new UMLSConcept(code, system, cui, tui, preferredText);
+            int ancestorCount = readInt();
+            if(fullySpecifiedName != null || ancestorCount >= 0)
+            {
+                long[] ancestors = null;
+                if(ancestorCount >= 0)
+                {
+                    ancestors = new long[ancestorCount];
+                    for(int a = 0; a < ancestorCount; a++)
+                    {
+                        ancestors[a] = readLong();
+                    }
+                }
+                concept = concept.withSnomed(fullySpecifiedName, preferredText, ancestors);
+            }
+            concepts[c] = concept;
+        }
+
+        int rows = readInt();
+        int begin = 0;
+        for(int row = 0; row < rows; row++)
+        {
+            int group = groups[readInt()];
+            begin += readInt();
+            int end = begin + readInt();
+            int polarity = readInt();
+            int subject = readInt();
+            int historyOf = readInt();
+
+            semantic.add(group, begin, end, polarity, subject == 0 ? null : strings[subject - 1], historyOf);
+
+            int count = readInt();
+            for(int i = 0; i < count; i++)
+            {
+                semantic.addConcept(concepts[readInt()]);
+            }
+        }
+
+        return semantic;
+    }
+
+    private String[] readStrings() throws IOException
+    {
+        String[] strings = new String[readInt()];
+        for(int i = 0; i < strings.length; i++)
+        {
+            strings[i] = readString();
+        }
+        return strings;
+    }
+
+    private int readInt() throws IOException
+    {
+        int zigZag = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = readByte();
+            zigZag |= (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    private long readLong() throws IOException
+    {
+        long zigZag = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = readByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    private String readString() throws IOException
+    {
+        int length = readInt();
+        if(length == 0)
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length - 1];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean readBoolean() throws IOException
+    {
+        return readByte() != 0;
+    }
+
+    private double readDouble() throws IOException
+    {
+        long bits = 0;
+        for(int i = 0; i < 8; i++)
+        {
+            bits = (bits << 8) | readByte();
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private int readByte() throws IOException
+    {
+        int b = binary.read();
+        if(b < 0)
+        {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private void readFully(byte[] bytes) throws IOException
+    {
+        int offset = 0;
+        while(offset < bytes.length)
+        {
+            int read = binary.read(bytes, offset, bytes.length - offset);
+            if(read < 0)
+            {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package nlp.output;
+
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.information.UMLSConcept;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a ParseResult in a compact, length-prefixed binary format. Integers, including the 64-bit
+ * SNOMED CT ancestors, are written as zig-zag encoded variable-length integers (so -1 takes one
+ * byte), strings as their UTF-8 byte length plus one followed by the bytes (a length of 0 means
+ * null), and booleans as a single byte. An ancestorCount of -1 means the ancestors were not looked
+ * up. The layout is:
+ *
+ * <pre>
+ * "NLPB" version
+ * fileName input
+ * stringCount { string } groupCount { type } rowCount { group begin length token id relation hasDependent [dependentBegin dependentLength dependentId] }
+ * stringCount { string } groupCount { type } conceptCount { system code cui tui preferredText fsn ancestorCount { ancestor } }
+ *     rowCount { group begin length polarity subject historyOf mentionConceptCount { concept } }
+ * environmentDuration (IEEE 754 double, big-endian) existed parsingDuration
+ * </pre>
+ *
+ * The first line after the input holds the syntax annotations and the next two the semantic ones,
+ * row by row in the order they were added. The text of a row is not written, as it is part of the
+ * input. A begin is the difference with the begin of the row before it and a dependentBegin the
+ * difference with the begin of its own row. Relations and subjects are written as their index in
+ * the string table plus one (0 means null), and the concepts of a mention as their index in the
+ * concept table, which holds every distinct concept of the document once. Ids are the ordinals
+ * of the dependency nodes (version 5; they were hash codes before), so the adjacency form of the
+ * dependency graph is not written but rebuilt from them by SyntaxAnnotations.
+ *
+ * A batch starts with "NLPS" version and is followed by frames: a result frame (1) holding
+ * everything after the version above, an error frame (2) holding fileName and message, and
+ * an end frame (0).
+ */
+public class BinaryResultWriter implements ResultWriter {
+    public static final byte[] MAGIC = { 'N', 'L', 'P', 'B' };
+    public static final byte[] BATCH_MAGIC = { 'N', 'L', 'P', 'S' };
+    public static final int VERSION = 5;
+
+    public static final int FRAME_END = 0;
+    public static final int FRAME_RESULT = 1;
+    public static final int FRAME_ERROR = 2;
+
+    private OutputStream binary;
+
+    public String getContentType()
+    {
+        return "application/x-nlp-binary";
+    }
+
+    public String getFileExtension()
+    {
+        return "bin";
+    }
+
+    public String getBatchContentType()
+    {
+        return getContentType();
+    }
+
+    public void write(ParseResult result, OutputStream out) throws IOException
+    {
+        binary = new BufferedOutputStream(out, 8192);
+
+        try {
+            binary.write(MAGIC);
+            writeInt(VERSION);
+            writeResult(result);
+            binary.flush();
+        } finally {
+            binary = null;
+        }
+    }
+
+    public void startBatch(OutputStream out) throws IOException
+    {
+        binary = new BufferedOutputStream(out, 8192);
+        binary.write(BATCH_MAGIC);
+        writeInt(VERSION);
+    }
+
+    public void writeBatchResult(ParseResult result) throws IOException
+    {
+        binary.write(FRAME_RESULT);
+        writeResult(result);
+        binary.flush();
+    }
+
+    public void writeBatchError(String fileName, String message) throws IOException
+    {
+        binary.write(FRAME_ERROR);
+        writeString(fileName);
+        writeString(message);
+        binary.flush();
+    }
+
+    public void endBatch() throws IOException
+    {
+        try {
+            binary.write(FRAME_END);
+            binary.flush();
+        } finally {
+            binary = null;
+        }
+    }
+
+    private void writeResult(ParseResult result) throws IOException
+    {
+        writeString(result.getFileName());
+        writeString(result.getInput());
+        writeSyntax(result.getSyntax());
+        writeSemantic(result.getSemantic());
+
+        writeDouble(result.getEnvironmentDuration());
+        writeBoolean(result.isExisted());
+        writeDouble(result.getParsingDuration());
+    }
+
+    private void writeSyntax(SyntaxAnnotations syntax) throws IOException
+    {
+        writeInt(syntax.getStringCount());
+        for(int i = 0; i < syntax.getStringCount(); i++)
+        {
+            writeString(syntax.getString(i));
+        }
+
+        writeInt(syntax.getGroupCount());
+        for(int group = 0; group < syntax.getGroupCount(); group++)
+        {
+            writeString(syntax.getGroupName(group));
+        }
+
+        writeInt(syntax.size());
+        int previous = 0;
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            int begin = syntax.getBegin(row);
+            writeInt(syntax.getGroup(row));
+            writeInt(begin - previous);
+            writeInt(syntax.getEnd(row) - begin);
+            writeInt(syntax.getToken(row));
+            writeInt(syntax.getId(row));
+            writeInt(syntax.getRelationIndex(row) + 1);
+            previous = begin;
+
+            boolean dependent = syntax.hasDependent(row);
+            writeBoolean(dependent);
+            if(dependent)
+            {
+                writeInt(syntax.getDependentBegin(row) - begin);
+                writeInt(syntax.getDependentEnd(row) - syntax.getDependentBegin(row));
+                writeInt(syntax.getDependentId(row));
+            }
+        }
+    }
+
+    private void writeSemantic(SemanticAnnotations semantic) throws IOException
+    {
+        writeInt(semantic.getStringCount());
+        for(int i = 0; i < semantic.getStringCount(); i++)
+        {
+            writeString(semantic.getString(i));
+        }
+
+        writeInt(semantic.getGroupCount());
+        for(int group = 0; group < semantic.getGroupCount(); group++)
+        {
+            writeString(semantic.getGroupName(group));
+        }
+
+        // Every distinct concept once; mentions refer to it by its index
+        ConceptTable concepts = new ConceptTable(semantic);
+        writeInt(concepts.size());
+        for(int c = 0; c < concepts.size(); c++)
+        {
+            UMLSConcept concept = concepts.get(c);
+            writeString(concept.getSystem());
+            writeString(concept.getCode());
+            writeString(concept.getCui());
+            writeString(concept.getTui());
+            writeString(concept.getPreferredText());
+            writeString(concept.getFullySpecifiedName());
+
+            long[] ancestors = concept.getAncestors();
+            writeInt(ancestors == null ? -1 : ancestors.length);
+            if(ancestors != null) {
+                for (long ancestor : ancestors) {
+                    writeLong(ancestor);
+                }
+            }
+        }
+
+        writeInt(semantic.size());
+        int previous = 0;
+        for(int row = 0; row < semantic.size(); row++)
+        {
+            int begin = semantic.getBegin(row);
+            writeInt(semantic.getGroup(row));
+            writeInt(begin - previous);
+            writeInt(semantic.getEnd(row) - begin);
+            writeInt(semantic.getPolarity(row));
+            writeInt(semantic.getSubjectIndex(row) + 1);
+            writeInt(semantic.getHistoryOf(row));
+            previous = begin;
+
+            int conceptStart = semantic.getConceptStart(row);
+            int conceptEnd = semantic.getConceptEnd(row);
+            writeInt(conceptEnd - conceptStart);
+            for(int i = conceptStart; i < conceptEnd; i++)
+            {
+                writeInt(concepts.indexOf(i));
+            }
+        }
+    }
+
+    private void writeInt(int value) throws IOException
+    {
+        int zigZag = (value << 1) ^ (value >> 31);
+
+        while((zigZag & ~0x7F) != 0)
+        {
+            binary.write((zigZag & 0x7F) | 0x80);
+            zigZag >>>= 7;
+        }
+        binary.write(zigZag);
+    }
+
+    private void writeLong(long value) throws IOException
+    {
+        long zigZag = (value << 1) ^ (value >> 63);
+
+        while((zigZag & ~0x7FL) != 0)
+        {
+            binary.write((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        binary.write((int) zigZag);
+    }
+
+    private void writeString(String value) throws IOException
+    {
+        if(value == null)
+        {
+            writeInt(0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length + 1);
+        binary.write(bytes);
+    }
+
+    private void writeBoolean(boolean value) throws IOException
+    {
+        binary.write(value ? 1 : 0);
+    }
+
+    private void writeDouble(double value) throws IOException
+    {
+        long bits = Double.doubleToLongBits(value);
+        for(int shift = 56; shift >= 0; shift -= 8)
+        {
+            binary.write((int) (bits >>> shift));
+        }
+    }
+}
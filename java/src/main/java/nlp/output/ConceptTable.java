@@ -0,0 +1,57 @@
+package nlp.output;
+
+import nlp.information.SemanticAnnotations;
+import nlp.information.UMLSConcept;
+
+import java.util.HashMap;
+
+/**
+ * Every distinct concept of a document once, in the order they are first mentioned, with the
+ * index in the table of every concept of SemanticAnnotations. The same concept recurs on many
+ * mentions, so the writers that refer to concepts by index write far fewer of them.
+ */
+class ConceptTable {
+    private final UMLSConcept[] concepts;
+    private final int[] indexes;
+
+    ConceptTable(SemanticAnnotations semantic)
+    {
+        HashMap<UMLSConcept, Integer> table = new HashMap<UMLSConcept, Integer>();
+        indexes = new int[semantic.getConceptCount()];
+        for(int i = 0; i < semantic.getConceptCount(); i++)
+        {
+            UMLSConcept concept = semantic.getConcept(i);
+            Integer index = table.get(concept);
+            if(index == null)
+            {
+                index = table.size();
+                table.put(concept, index);
+            }
+            indexes[i] = index;
+        }
+
+        concepts = new UMLSConcept[table.size()];
+        for(int i = 0; i < semantic.getConceptCount(); i++)
+        {
+            concepts[indexes[i]] = semantic.getConcept(i);
+        }
+    }
+
+    int size()
+    {
+        return concepts.length;
+    }
+
+    UMLSConcept get(int index)
+    {
+        return concepts[index];
+    }
+
+    /**
+     * The index in the table of the i-th concept of the SemanticAnnotations.
+     */
+    int indexOf(int i)
+    {
+        return indexes[i];
+    }
+}
@@ -0,0 +1,120 @@
+package nlp.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Picks the compression of a response from the Accept-Encoding header and wraps the output in
+ * it. The streams flush what has been compressed so far on every flush, so the documents of a
+ * batch still reach the client as soon as they are written.
+ */
+public class ContentEncodings {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private ContentEncodings()
+    {
+    }
+
+    /**
+     * Returns the acceptable encoding with the highest quality value, gzip on ties, or null when
+     * neither gzip nor deflate is acceptable and the response is sent as it is.
+     */
+    public static String negotiate(String acceptEncoding)
+    {
+        if(acceptEncoding == null)
+        {
+            return null;
+        }
+
+        Double gzip = null;
+        Double deflate = null;
+        Double wildcard = null;
+
+        for(String coding : acceptEncoding.split(","))
+        {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+
+            double quality = 1;
+            for(int i = 1; i < parts.length; i++)
+            {
+                String parameter = parts[i].trim();
+                if(parameter.startsWith("q="))
+                {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if(name.equals(GZIP) || name.equals("x-gzip"))
+            {
+                gzip = quality;
+            }
+            else if(name.equals(DEFLATE))
+            {
+                deflate = quality;
+            }
+            else if(name.equals("*"))
+            {
+                wildcard = quality;
+            }
+        }
+
+        // A wildcard covers the codings that are not named themselves
+        double gzipQuality = gzip != null ? gzip : (wildcard != null ? wildcard : 0);
+        double deflateQuality = deflate != null ? deflate : (wildcard != null ? wildcard : 0);
+
+        if(gzipQuality > 0 && gzipQuality >= deflateQuality)
+        {
+            return GZIP;
+        }
+        return deflateQuality > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Wraps the output in the given encoding; null leaves it as it is.
+     */
+    public static OutputStream wrap(OutputStream out, String encoding) throws IOException
+    {
+        if(GZIP.equals(encoding))
+        {
+            return new GZIPOutputStream(out, 8192, true);
+        }
+        if(DEFLATE.equals(encoding))
+        {
+            return new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION), 8192, true) {
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+        return out;
+    }
+
+    /**
+     * Ends the response: the compressed data is completed and its resources released, an
+     * uncompressed output is flushed.
+     */
+    public static void finish(OutputStream out) throws IOException
+    {
+        if(out instanceof DeflaterOutputStream)
+        {
+            out.close();
+        }
+        else
+        {
+            out.flush();
+        }
+    }
+}
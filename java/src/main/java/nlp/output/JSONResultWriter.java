@@ -0,0 +1,459 @@
+package nlp.output;
+
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.information.UMLSConcept;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams a ParseResult as a JSON object with the same information as the XML output:
+ * syntax and semantic elements are grouped by their type name, and attributes that are
+ * left out of the XML (no id, no relation, ...) are left out here as well. A batch is written
+ * as newline-delimited JSON, one document or {"fileName", "error"} object per line.
+ *
+ * In compact mode "input", "text" and "dependentText" are left out, as they are the input between
+ * the offsets, and every distinct concept is written once in a "concepts" array; the "concepts"
+ * of a mention then hold the indexes of its concepts in that array.
+ */
+public class JSONResultWriter implements ResultWriter {
+    private final boolean compact;
+
+    private Writer json;
+    private final char[] digits = new char[11];
+
+    public JSONResultWriter()
+    {
+        this(false);
+    }
+
+    public JSONResultWriter(boolean compact)
+    {
+        this.compact = compact;
+    }
+
+    public String getContentType()
+    {
+        return "application/json; charset=UTF-8";
+    }
+
+    public String getFileExtension()
+    {
+        return "json";
+    }
+
+    public String getBatchContentType()
+    {
+        return "application/x-ndjson; charset=UTF-8";
+    }
+
+    public void write(ParseResult result, OutputStream out) throws IOException
+    {
+        json = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+        try {
+            writeObject(result);
+            json.flush();
+        } finally {
+            json = null;
+        }
+    }
+
+    public void startBatch(OutputStream out) throws IOException
+    {
+        json = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    public void writeBatchResult(ParseResult result) throws IOException
+    {
+        writeObject(result);
+        json.write('\n');
+        json.flush();
+    }
+
+    public void writeBatchError(String fileName, String message) throws IOException
+    {
+        json.write('{');
+        name("fileName");
+        string(fileName);
+        json.write(',');
+        name("error");
+        string(message);
+        json.write('}');
+        json.write('\n');
+        json.flush();
+    }
+
+    public void endBatch() throws IOException
+    {
+        try {
+            json.flush();
+        } finally {
+            json = null;
+        }
+    }
+
+    private void writeObject(ParseResult result) throws IOException
+    {
+        json.write('{');
+        name("fileName");
+        string(result.getFileName());
+        if(!compact)
+        {
+            json.write(',');
+            name("input");
+            string(result.getInput());
+        }
+
+        json.write(',');
+        name("syntax");
+        writeSyntax(result.getSyntax());
+
+        json.write(',');
+        name("dependencies");
+        writeDependencies(result.getSyntax());
+
+        ConceptTable concepts = null;
+        if(compact)
+        {
+            concepts = new ConceptTable(result.getSemantic());
+            json.write(',');
+            name("concepts");
+            json.write('[');
+            for(int c = 0; c < concepts.size(); c++)
+            {
+                if(c > 0) json.write(',');
+                writeConcept(concepts.get(c));
+            }
+            json.write(']');
+        }
+
+        json.write(',');
+        name("semantic");
+        writeSemantic(result.getSemantic(), concepts);
+
+        json.write(',');
+        name("duration");
+        json.write('{');
+        name("environment");
+        json.write(Double.toString(result.getEnvironmentDuration()));
+        json.write(',');
+        name("existed");
+        json.write(String.valueOf(result.isExisted()));
+        json.write(',');
+        name("parsing");
+        json.write(Double.toString(result.getParsingDuration()));
+        json.write('}');
+
+        json.write('}');
+    }
+
+    private void writeSyntax(SyntaxAnnotations syntax) throws IOException
+    {
+        String input = syntax.getInput();
+        json.write('{');
+
+        for (int group = 0; group < syntax.getGroupCount(); group++)
+        {
+            if(group > 0) json.write(',');
+
+            name(syntax.getGroupName(group));
+            json.write('[');
+            int size = syntax.getGroupSize(group);
+
+            for(int i = 0; i < size; i++)
+            {
+                if(i > 0) json.write(',');
+                int row = syntax.getRow(group, i);
+
+                json.write('{');
+                if(!compact) {
+                    name("text");
+                    quote(json, input, syntax.getBegin(row), syntax.getEnd(row));
+                    json.write(',');
+                }
+                name("begin");
+                integer(syntax.getBegin(row));
+                number("end", syntax.getEnd(row));
+
+                if(syntax.getId(row) >= 0) {
+                    number("id", syntax.getId(row));
+                }
+
+                if(syntax.getToken(row) >= 0) {
+                    number("token", syntax.getToken(row));
+                }
+
+                if(syntax.getRelation(row) != null) {
+                    json.write(',');
+                    name("relation");
+                    string(syntax.getRelation(row));
+                }
+
+                if(syntax.hasDependent(row))
+                {
+                    number("dependentBegin", syntax.getDependentBegin(row));
+                    number("dependentEnd", syntax.getDependentEnd(row));
+                    if(!compact) {
+                        json.write(',');
+                        name("dependentText");
+                        quote(json, input, syntax.getDependentBegin(row), syntax.getDependentEnd(row));
+                    }
+                    number("dependentId", syntax.getDependentId(row));
+                }
+                json.write('}');
+            }
+
+            json.write(']');
+        }
+
+        json.write('}');
+    }
+
+    /**
+     * Writes the adjacency form of the dependency graph, by node id: the head of every node (-1
+     * for a root), where the children of every node start in "children" (with the end last), and
+     * where every sentence starts (with the node count last).
+     */
+    private void writeDependencies(SyntaxAnnotations syntax) throws IOException
+    {
+        int nodes = syntax.getNodeCount();
+        json.write('{');
+
+        name("heads");
+        json.write('[');
+        for(int node = 0; node < nodes; node++)
+        {
+            if(node > 0) json.write(',');
+            integer(syntax.getHead(node));
+        }
+
+        json.write("],");
+        name("childStart");
+        json.write('[');
+        for(int node = 0; node <= nodes; node++)
+        {
+            if(node > 0) json.write(',');
+            integer(syntax.getChildStart(node));
+        }
+
+        json.write("],");
+        name("children");
+        json.write('[');
+        for(int i = 0; i < syntax.getChildStart(nodes); i++)
+        {
+            if(i > 0) json.write(',');
+            integer(syntax.getChild(i));
+        }
+
+        json.write("],");
+        name("sentenceStart");
+        json.write('[');
+        for(int sentence = 0; sentence <= syntax.getSentenceCount(); sentence++)
+        {
+            if(sentence > 0) json.write(',');
+            integer(syntax.getSentenceStart(sentence));
+        }
+
+        json.write("]}");
+    }
+
+    /**
+     * Writes the semantic elements; with a concept table their concepts are written as indexes in it.
+     */
+    private void writeSemantic(SemanticAnnotations semantic, ConceptTable concepts) throws IOException
+    {
+        String input = semantic.getInput();
+        json.write('{');
+
+        for (int group = 0; group < semantic.getGroupCount(); group++)
+        {
+            if(group > 0) json.write(',');
+
+            name(semantic.getGroupName(group));
+            json.write('[');
+            int size = semantic.getGroupSize(group);
+
+            for(int i = 0; i < size; i++)
+            {
+                if(i > 0) json.write(',');
+                int row = semantic.getRow(group, i);
+
+                json.write('{');
+                if(!compact) {
+                    name("text");
+                    quote(json, input, semantic.getBegin(row), semantic.getEnd(row));
+                    json.write(',');
+                }
+                name("begin");
+                integer(semantic.getBegin(row));
+                number("end", semantic.getEnd(row));
+                number("polarity", semantic.getPolarity(row));
+                json.write(',');
+                name("subject");
+                string(semantic.getSubject(row));
+                number("historyOf", semantic.getHistoryOf(row));
+
+                json.write(',');
+                name("concepts");
+                json.write('[');
+                int conceptStart = semantic.getConceptStart(row);
+
+                for (int c = conceptStart; c < semantic.getConceptEnd(row); c++) {
+                    if(c > conceptStart) json.write(',');
+                    if(concepts != null) {
+                        integer(concepts.indexOf(c));
+                    } else {
+                        writeConcept(semantic.getConcept(c));
+                    }
+                }
+                json.write(']');
+
+                json.write('}');
+            }
+
+            json.write(']');
+        }
+
+        json.write('}');
+    }
+
+    private void writeConcept(UMLSConcept concept) throws IOException
+    {
+        json.write('{');
+        name("system");
+        string(concept.getSystem());
+        json.write(',');
+        name("code");
+        string(concept.getCode());
+        json.write(',');
+        name("cui");
+        string(concept.getCui());
+        json.write(',');
+        name("tui");
+        string(concept.getTui());
+        json.write(',');
+        name("preferredText");
+        string(concept.getPreferredText());
+        if(concept.getFullySpecifiedName() != null) {
+            json.write(',');
+            name("fsn");
+            string(concept.getFullySpecifiedName());
+        }
+        if(concept.getAncestors() != null) {
+            // SNOMED CT identifiers do not fit in a JavaScript number, so they are strings
+            json.write(',');
+            name("ancestors");
+            json.write('[');
+            for(int a = 0; a < concept.getAncestors().length; a++) {
+                if(a > 0) json.write(',');
+                json.write('"');
+                json.write(Long.toString(concept.getAncestors()[a]));
+                json.write('"');
+            }
+            json.write(']');
+        }
+        json.write('}');
+    }
+
+    private void name(String name) throws IOException
+    {
+        string(name);
+        json.write(':');
+    }
+
+    private void number(String name, int value) throws IOException
+    {
+        json.write(',');
+        name(name);
+        integer(value);
+    }
+
+    private void integer(int value) throws IOException
+    {
+        // Written digit by digit, as a String per number is most of what the output allocates
+        if(value == Integer.MIN_VALUE)
+        {
+            json.write(Integer.toString(value));
+            return;
+        }
+
+        int position = digits.length;
+        int remaining = Math.abs(value);
+        do {
+            digits[--position] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while(remaining != 0);
+        if(value < 0)
+        {
+            digits[--position] = '-';
+        }
+        json.write(digits, position, digits.length - position);
+    }
+
+    private void string(String value) throws IOException
+    {
+        quote(json, value);
+    }
+
+    /**
+     * Writes the value as a JSON string literal, or null.
+     */
+    public static void quote(Writer json, String value) throws IOException
+    {
+        if(value == null)
+        {
+            json.write("null");
+            return;
+        }
+
+        quote(json, value, 0, value.length());
+    }
+
+    /**
+     * Writes the characters from begin to end of the value as a JSON string literal, without
+     * copying them into a String of their own first.
+     */
+    public static void quote(Writer json, String value, int begin, int end) throws IOException
+    {
+        json.write('"');
+        int start = begin;
+
+        for(int i = begin; i < end; i++)
+        {
+            char c = value.charAt(i);
+            String escape = null;
+
+            switch (c) {
+                case '"': escape = "\\\""; break;
+                case '\\': escape = "\\\\"; break;
+                case '\n': escape = "\\n"; break;
+                case '\r': escape = "\\r"; break;
+                case '\t': escape = "\\t"; break;
+                case '\b': escape = "\\b"; break;
+                case '\f': escape = "\\f"; break;
+                default:
+                    if(c < 0x20 || c == '\u2028' || c == '\u2029')
+                    {
+                        escape = String.format("\\u%04x", (int) c);
+                    }
+            }
+
+            if(escape != null)
+            {
+                json.write(value, start, i - start);
+                json.write(escape);
+                start = i + 1;
+            }
+        }
+
+        json.write(value, start, end - start);
+        json.write('"');
+    }
+}
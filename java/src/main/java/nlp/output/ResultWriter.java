@@ -0,0 +1,32 @@
+package nlp.output;
+
+import nlp.information.ParseResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializes a ParseResult to a stream without building an intermediate document tree.
+ * Implementations keep per-document state, so every response gets its own instance.
+ *
+ * A batch response is written with startBatch, one writeBatchResult or writeBatchError call
+ * per document in the order they finish, and endBatch. Every document is flushed as soon as
+ * it has been written.
+ */
+public interface ResultWriter {
+    String getContentType();
+
+    String getFileExtension();
+
+    void write(ParseResult result, OutputStream out) throws IOException;
+
+    String getBatchContentType();
+
+    void startBatch(OutputStream out) throws IOException;
+
+    void writeBatchResult(ParseResult result) throws IOException;
+
+    void writeBatchError(String fileName, String message) throws IOException;
+
+    void endBatch() throws IOException;
+}
@@ -0,0 +1,117 @@
+package nlp.output;
+
+/**
+ * Picks the output format for a request. An explicit format ("xml", "json" or "binary")
+ * wins; otherwise the media types in the Accept header are tried from the highest quality
+ * value down. XML is used whenever nothing else matches.
+ *
+ * The compact variants of XML and JSON leave out the input and the covered text, and write
+ * every concept once; the binary format is always written that way.
+ */
+public class ResultWriters {
+    public static final String FORMAT_XML = "xml";
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_BINARY = "binary";
+
+    private ResultWriters()
+    {
+    }
+
+    public static ResultWriter forFormat(String format)
+    {
+        return forFormat(format, false);
+    }
+
+    public static ResultWriter forFormat(String format, boolean compact)
+    {
+        if(FORMAT_JSON.equalsIgnoreCase(format))
+        {
+            return new JSONResultWriter(compact);
+        }
+        if(FORMAT_BINARY.equalsIgnoreCase(format))
+        {
+            return new BinaryResultWriter();
+        }
+        return new XMLResultWriter(compact);
+    }
+
+    public static ResultWriter forRequest(String accept, String format)
+    {
+        return forRequest(accept, format, false);
+    }
+
+    public static ResultWriter forRequest(String accept, String format, boolean compact)
+    {
+        if(format != null && !format.isEmpty())
+        {
+            return forFormat(format, compact);
+        }
+
+        return forFormat(negotiate(accept), compact);
+    }
+
+    /**
+     * Returns the format of the acceptable media type with the highest quality value,
+     * preferring the earliest one on ties.
+     */
+    public static String negotiate(String accept)
+    {
+        if(accept == null)
+        {
+            return FORMAT_XML;
+        }
+
+        String best = null;
+        double bestQuality = 0;
+
+        for(String range : accept.split(","))
+        {
+            String[] parts = range.split(";");
+            String format = formatOf(parts[0].trim().toLowerCase());
+            if(format == null)
+            {
+                continue;
+            }
+
+            double quality = 1;
+            for(int i = 1; i < parts.length; i++)
+            {
+                String parameter = parts[i].trim();
+                if(parameter.startsWith("q="))
+                {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if(quality > bestQuality)
+            {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+
+        return best == null ? FORMAT_XML : best;
+    }
+
+    private static String formatOf(String mediaType)
+    {
+        if(mediaType.equals("application/json"))
+        {
+            return FORMAT_JSON;
+        }
+        if(mediaType.equals("application/x-nlp-binary") || mediaType.equals("application/octet-stream"))
+        {
+            return FORMAT_BINARY;
+        }
+        if(mediaType.equals("text/xml") || mediaType.equals("application/xml")
+                || mediaType.equals("text/*") || mediaType.equals("application/*") || mediaType.equals("*/*"))
+        {
+            return FORMAT_XML;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,491 @@
+package nlp.output;
+
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.information.UMLSConcept;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams a ParseResult as the AnnotatedOutput XML document, element by element, straight to
+ * the given OutputStream. The layout (elements, attributes and two-space indentation) is the
+ * one the DOM + Transformer implementation produced, without building a tree or a String.
+ * A batch is a Batch root element holding one AnnotatedOutput or Error element per document.
+ *
+ * In compact mode the AnnotatedOutput element gets compact="true" and leaves out what the client
+ * already has: the Input element and the text and dependentText attributes, which are the input
+ * between the offsets. Every distinct concept is written once in a Concepts element, and mentions
+ * refer to theirs with a concepts attribute holding their indexes in it. Compact output also holds
+ * the dependency graph as a Dependencies element; the default layout, which the PHP client parses,
+ * does not change.
+ */
+public class XMLResultWriter implements ResultWriter {
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+    private static final String INDENT = "  ";
+
+    private final boolean compact;
+
+    private OutputStream out;
+    private XMLStreamWriter xml;
+    private int depth;
+    private boolean started;
+
+    public XMLResultWriter()
+    {
+        this(false);
+    }
+
+    public XMLResultWriter(boolean compact)
+    {
+        this.compact = compact;
+    }
+
+    public String getContentType()
+    {
+        return "text/xml; charset=UTF-8";
+    }
+
+    public String getFileExtension()
+    {
+        return "xml";
+    }
+
+    public String getBatchContentType()
+    {
+        return getContentType();
+    }
+
+    public void write(ParseResult result, OutputStream out) throws IOException
+    {
+        try {
+            open(out);
+            writeAnnotatedOutput(result);
+            close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing XML output", e);
+        } finally {
+            xml = null;
+        }
+    }
+
+    public void startBatch(OutputStream out) throws IOException
+    {
+        try {
+            open(out);
+            startElement("Batch");
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing XML output", e);
+        }
+    }
+
+    public void writeBatchResult(ParseResult result) throws IOException
+    {
+        try {
+            writeAnnotatedOutput(result);
+            xml.flush();
+            this.out.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing XML output", e);
+        }
+    }
+
+    public void writeBatchError(String fileName, String message) throws IOException
+    {
+        try {
+            newLine();
+            xml.writeStartElement("Error");
+            xml.writeAttribute("fileName", fileName == null ? "" : fileName);
+            xml.writeCharacters(message == null ? "" : message);
+            xml.writeEndElement();
+            xml.flush();
+            this.out.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing XML output", e);
+        }
+    }
+
+    public void endBatch() throws IOException
+    {
+        try {
+            endElement();
+            close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing XML output", e);
+        } finally {
+            xml = null;
+        }
+    }
+
+    private void open(OutputStream out) throws XMLStreamException
+    {
+        this.out = out;
+        xml = FACTORY.createXMLStreamWriter(out, "UTF-8");
+        depth = 0;
+        started = false;
+
+        xml.writeStartDocument("UTF-8", "1.0");
+    }
+
+    private void close() throws XMLStreamException
+    {
+        xml.writeEndDocument();
+        xml.flush();
+        xml.close();
+    }
+
+    private void writeAnnotatedOutput(ParseResult result) throws XMLStreamException
+    {
+        startElement("AnnotatedOutput");
+        if(compact)
+        {
+            xml.writeAttribute("compact", "true");
+        }
+
+        textElement("FileName", result.getFileName());
+        if(!compact)
+        {
+            textElement("Input", result.getInput());
+        }
+
+        // Syntax elements (WorkToken, NP, VP, ...)
+        startElement("Syntax");
+        writeSyntax(result.getSyntax());
+        endElement();
+
+        // The dependency graph by node id (the id of a ConllDependencyNode)
+        if(compact)
+        {
+            writeDependencies(result.getSyntax());
+        }
+
+        // Semantic elements (ProcedureMention, SemanticArgument, ...)
+        if(compact)
+        {
+            ConceptTable concepts = new ConceptTable(result.getSemantic());
+            writeConcepts(concepts);
+            startElement("Semantic");
+            writeCompactSemantic(result.getSemantic(), concepts);
+            endElement();
+        }
+        else
+        {
+            startElement("Semantic");
+            writeSemantic(result.getSemantic());
+            endElement();
+        }
+
+        startElement("Duration");
+        newLine();
+        xml.writeStartElement("Environment");
+        xml.writeAttribute("existed", String.valueOf(result.isExisted()));
+        xml.writeCharacters(Double.toString(result.getEnvironmentDuration()));
+        xml.writeEndElement();
+        textElement("Parsing", Double.toString(result.getParsingDuration()));
+        endElement();
+
+        endElement();
+    }
+
+    private void writeSyntax(SyntaxAnnotations syntax) throws XMLStreamException
+    {
+        for (int group = 0; group < syntax.getGroupCount(); group++)
+        {
+            String type = syntax.getGroupName(group);
+            int size = syntax.getGroupSize(group);
+            if(size == 0)
+            {
+                emptyElement(type + "s");
+                continue;
+            }
+
+            startElement(type + "s");
+
+            for(int i = 0; i < size; i++)
+            {
+                int row = syntax.getRow(group, i);
+                emptyElement(type);
+
+                if(!compact) {
+                    xml.writeAttribute("text", syntax.getText(row));
+                }
+                xml.writeAttribute("begin", Integer.toString(syntax.getBegin(row)));
+                xml.writeAttribute("end", Integer.toString(syntax.getEnd(row)));
+
+                if(syntax.getId(row) >= 0) {
+                    xml.writeAttribute("id", Integer.toString(syntax.getId(row)));
+                }
+
+                if(syntax.getToken(row) >= 0) {
+                    xml.writeAttribute("token", Integer.toString(syntax.getToken(row)));
+                }
+
+                if(syntax.getRelation(row) != null) {
+                    xml.writeAttribute("relation", syntax.getRelation(row));
+                }
+
+                if(syntax.hasDependent(row))
+                {
+                    xml.writeAttribute("dependentBegin", Integer.toString(syntax.getDependentBegin(row)));
+                    xml.writeAttribute("dependentEnd", Integer.toString(syntax.getDependentEnd(row)));
+                    if(!compact) {
+                        xml.writeAttribute("dependentText", syntax.getDependentText(row));
+                    }
+                    xml.writeAttribute("dependentId", Integer.toString(syntax.getDependentId(row)));
+                }
+            }
+
+            endElement();
+        }
+    }
+
+    /**
+     * Writes the adjacency form of the dependency graph as lists of numbers: the head of every
+     * node (-1 for a root), where the children of every node start in the children list (with the
+     * end of the list last), the children, and where every sentence starts (with the node count last).
+     */
+    private void writeDependencies(SyntaxAnnotations syntax) throws XMLStreamException
+    {
+        int nodes = syntax.getNodeCount();
+        StringBuilder heads = new StringBuilder(nodes * 4);
+        StringBuilder childStart = new StringBuilder(nodes * 4);
+        StringBuilder children = new StringBuilder(nodes * 4);
+        StringBuilder sentenceStart = new StringBuilder();
+
+        for(int node = 0; node < nodes; node++)
+        {
+            if(node > 0) heads.append(' ');
+            heads.append(syntax.getHead(node));
+        }
+        for(int node = 0; node <= nodes; node++)
+        {
+            if(node > 0) childStart.append(' ');
+            childStart.append(syntax.getChildStart(node));
+        }
+        for(int i = 0; i < syntax.getChildStart(nodes); i++)
+        {
+            if(i > 0) children.append(' ');
+            children.append(syntax.getChild(i));
+        }
+        for(int sentence = 0; sentence <= syntax.getSentenceCount(); sentence++)
+        {
+            if(sentence > 0) sentenceStart.append(' ');
+            sentenceStart.append(syntax.getSentenceStart(sentence));
+        }
+
+        emptyElement("Dependencies");
+        xml.writeAttribute("heads", heads.toString());
+        xml.writeAttribute("childStart", childStart.toString());
+        xml.writeAttribute("children", children.toString());
+        xml.writeAttribute("sentenceStart", sentenceStart.toString());
+    }
+
+    private void writeSemantic(SemanticAnnotations semantic) throws XMLStreamException
+    {
+        for (int group = 0; group < semantic.getGroupCount(); group++)
+        {
+            String type = semantic.getGroupName(group);
+            int size = semantic.getGroupSize(group);
+            if(size == 0)
+            {
+                emptyElement(type + "s");
+                continue;
+            }
+
+            startElement(type + "s");
+
+            for(int i = 0; i < size; i++)
+            {
+                int row = semantic.getRow(group, i);
+                int conceptStart = semantic.getConceptStart(row);
+                int conceptEnd = semantic.getConceptEnd(row);
+
+                if(conceptStart == conceptEnd)
+                {
+                    emptyElement(type);
+                }
+                else
+                {
+                    startElement(type);
+                }
+
+                xml.writeAttribute("text", semantic.getText(row));
+                xml.writeAttribute("begin", Integer.toString(semantic.getBegin(row)));
+                xml.writeAttribute("end", Integer.toString(semantic.getEnd(row)));
+                xml.writeAttribute("polarity", Integer.toString(semantic.getPolarity(row)));
+                if(semantic.getSubject(row) != null) {
+                    xml.writeAttribute("subject", semantic.getSubject(row));
+                }
+                xml.writeAttribute("historyOf", Integer.toString(semantic.getHistoryOf(row)));
+
+                if(conceptStart < conceptEnd)
+                {
+                    for (int c = conceptStart; c < conceptEnd; c++) {
+                        writeConcept(semantic.getConcept(c));
+                    }
+
+                    endElement();
+                }
+            }
+
+            endElement();
+        }
+    }
+
+    private void writeConcept(UMLSConcept concept) throws XMLStreamException
+    {
+        emptyElement("concept");
+        if(concept.getSystem() != null) {
+            xml.writeAttribute("system", concept.getSystem());
+        }
+        if(concept.getCode() != null) {
+            xml.writeAttribute("code", concept.getCode());
+        }
+        if(concept.getCui() != null) {
+            xml.writeAttribute("cui", concept.getCui());
+        }
+        if(concept.getTui() != null) {
+            xml.writeAttribute("tui", concept.getTui());
+        }
+        if(concept.getPreferredText() != null) {
+            xml.writeAttribute("preferredText", concept.getPreferredText());
+        }
+        if(concept.getFullySpecifiedName() != null) {
+            xml.writeAttribute("fsn", concept.getFullySpecifiedName());
+        }
+        if(concept.getAncestors() != null) {
+            xml.writeAttribute("ancestors", join(concept.getAncestors()));
+        }
+    }
+
+    private void writeConcepts(ConceptTable concepts) throws XMLStreamException
+    {
+        if(concepts.size() == 0)
+        {
+            emptyElement("Concepts");
+            return;
+        }
+
+        startElement("Concepts");
+        for(int c = 0; c < concepts.size(); c++)
+        {
+            writeConcept(concepts.get(c));
+        }
+        endElement();
+    }
+
+    /**
+     * The semantic elements without their text, every mention an empty element that refers to
+     * its concepts by their index in the Concepts element.
+     */
+    private void writeCompactSemantic(SemanticAnnotations semantic, ConceptTable concepts) throws XMLStreamException
+    {
+        for (int group = 0; group < semantic.getGroupCount(); group++)
+        {
+            String type = semantic.getGroupName(group);
+            int size = semantic.getGroupSize(group);
+            if(size == 0)
+            {
+                emptyElement(type + "s");
+                continue;
+            }
+
+            startElement(type + "s");
+
+            for(int i = 0; i < size; i++)
+            {
+                int row = semantic.getRow(group, i);
+                emptyElement(type);
+                xml.writeAttribute("begin", Integer.toString(semantic.getBegin(row)));
+                xml.writeAttribute("end", Integer.toString(semantic.getEnd(row)));
+                xml.writeAttribute("polarity", Integer.toString(semantic.getPolarity(row)));
+                if(semantic.getSubject(row) != null) {
+                    xml.writeAttribute("subject", semantic.getSubject(row));
+                }
+                xml.writeAttribute("historyOf", Integer.toString(semantic.getHistoryOf(row)));
+
+                int conceptStart = semantic.getConceptStart(row);
+                int conceptEnd = semantic.getConceptEnd(row);
+                if(conceptStart < conceptEnd)
+                {
+                    StringBuilder indexes = new StringBuilder((conceptEnd - conceptStart) * 3);
+                    for(int c = conceptStart; c < conceptEnd; c++)
+                    {
+                        if(c > conceptStart) indexes.append(' ');
+                        indexes.append(concepts.indexOf(c));
+                    }
+                    xml.writeAttribute("concepts", indexes.toString());
+                }
+            }
+
+            endElement();
+        }
+    }
+
+    private static String join(long[] identifiers)
+    {
+        StringBuilder builder = new StringBuilder(identifiers.length * 10);
+        for(int i = 0; i < identifiers.length; i++)
+        {
+            if(i > 0) builder.append(' ');
+            builder.append(identifiers[i]);
+        }
+        return builder.toString();
+    }
+
+    private void startElement(String name) throws XMLStreamException
+    {
+        newLine();
+        xml.writeStartElement(name);
+        depth++;
+        started = true;
+    }
+
+    private void emptyElement(String name) throws XMLStreamException
+    {
+        newLine();
+        xml.writeEmptyElement(name);
+    }
+
+    private void endElement() throws XMLStreamException
+    {
+        depth--;
+        newLine();
+        xml.writeEndElement();
+    }
+
+    private void textElement(String name, String text) throws XMLStreamException
+    {
+        newLine();
+        if(text == null || text.isEmpty())
+        {
+            xml.writeEmptyElement(name);
+        }
+        else
+        {
+            xml.writeStartElement(name);
+            xml.writeCharacters(text);
+            xml.writeEndElement();
+        }
+    }
+
+    private void newLine() throws XMLStreamException
+    {
+        if(!started)
+        {
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder(1 + depth * INDENT.length());
+        builder.append('\n');
+        for(int i = 0; i < depth; i++)
+        {
+            builder.append(INDENT);
+        }
+        xml.writeCharacters(builder.toString());
+    }
+}
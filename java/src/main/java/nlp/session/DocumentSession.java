@@ -0,0 +1,97 @@
+package nlp.session;
+
+import nlp.extraction.AnnotationFilter;
+import nlp.information.ParseResult;
+
+/**
+ * The latest result of a document that is being edited, with the profile and the annotation
+ * filter that produced it. The
+ * version goes up with every update, so a client can tell whether its edit was made against the
+ * text the server has. Only one update runs at a time: it is started with startUpdate, which
+ * refuses a second one, and the fields are read and written while synchronized on the session, so
+ * that the parse itself runs without holding it.
+ */
+public class DocumentSession {
+    private final String id;
+    private String profile;
+    private AnnotationFilter filter;
+    private ParseResult result;
+    private int version;
+    private boolean updating;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    public DocumentSession(String id)
+    {
+        this.id = id;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * The name of the profile of the current result, or null before the first update.
+     */
+    public String getProfile()
+    {
+        return profile;
+    }
+
+    /**
+     * The filter of the current result, or null before the first update.
+     */
+    public AnnotationFilter getFilter()
+    {
+        return filter;
+    }
+
+    /**
+     * The current result, or null before the first update.
+     */
+    public ParseResult getResult()
+    {
+        return result;
+    }
+
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public void update(String profile, AnnotationFilter filter, ParseResult result)
+    {
+        this.profile = profile;
+        this.filter = filter;
+        this.result = result;
+        version++;
+    }
+
+    /**
+     * Claims the session for an update, false when another update has not ended yet.
+     */
+    public synchronized boolean startUpdate()
+    {
+        if(updating)
+        {
+            return false;
+        }
+        updating = true;
+        return true;
+    }
+
+    public synchronized void endUpdate()
+    {
+        updating = false;
+    }
+
+    long getLastUsed()
+    {
+        return lastUsed;
+    }
+
+    void touch()
+    {
+        lastUsed = System.currentTimeMillis();
+    }
+}
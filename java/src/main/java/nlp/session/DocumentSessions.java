@@ -0,0 +1,146 @@
+package nlp.session;
+
+import javax.servlet.ServletContext;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The documents that are being edited, by document id. At most "parser.session.size" sessions
+ * are kept, the least recently used one being dropped first, and a session that has not been used
+ * for "parser.session.timeout" minutes expires. An edit is parsed again with
+ * "parser.session.context" sentences of context on both sides.
+ */
+public class DocumentSessions {
+    public static final String CONTEXT_ATTRIBUTE = "documentSessions";
+    public static final String SIZE_PARAMETER = "parser.session.size";
+    public static final String TIMEOUT_PARAMETER = "parser.session.timeout";
+    public static final String CONTEXT_PARAMETER = "parser.session.context";
+
+    private final int maxSessions;
+    private final long timeout;
+    private final ResultSplicer splicer;
+    private final LinkedHashMap<String, DocumentSession> sessions = new LinkedHashMap<String, DocumentSession>(64, 0.75f, true);
+
+    public DocumentSessions(int maxSessions, long timeout, int context)
+    {
+        this.maxSessions = maxSessions;
+        this.timeout = timeout;
+        this.splicer = new ResultSplicer(context);
+    }
+
+    /**
+     * Returns the sessions of this application, or null when "parser.session.size" is 0. By
+     * default 256 sessions are kept for 30 minutes, with 1 sentence of context.
+     */
+    public static DocumentSessions forContext(ServletContext application)
+    {
+        synchronized (application) {
+            Object sessions = application.getAttribute(CONTEXT_ATTRIBUTE);
+            if(sessions == null)
+            {
+                int size = intParameter(application, SIZE_PARAMETER, 256);
+                if(size <= 0)
+                {
+                    sessions = Boolean.FALSE;
+                }
+                else
+                {
+                    sessions = new DocumentSessions(size,
+                            intParameter(application, TIMEOUT_PARAMETER, 30) * 60L * 1000L,
+                            intParameter(application, CONTEXT_PARAMETER, 1));
+                }
+                application.setAttribute(CONTEXT_ATTRIBUTE, sessions);
+            }
+            return sessions instanceof DocumentSessions ? (DocumentSessions) sessions : null;
+        }
+    }
+
+    private static int intParameter(ServletContext application, String name, int defaultValue)
+    {
+        String value = application.getInitParameter(name);
+        if(value == null)
+        {
+            value = System.getProperty(name);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * The session of the document, or null when it is unknown or has expired.
+     */
+    public DocumentSession get(String id)
+    {
+        synchronized (sessions) {
+            expire();
+            DocumentSession session = sessions.get(id);
+            if(session != null)
+            {
+                session.touch();
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Returns the session of the document, starting a new one when there is none; a null id gets
+     * a new random id.
+     */
+    public DocumentSession open(String id)
+    {
+        synchronized (sessions) {
+            expire();
+            DocumentSession session = id == null ? null : sessions.get(id);
+            if(session == null)
+            {
+                session = new DocumentSession(id == null ? UUID.randomUUID().toString() : id);
+                sessions.put(session.getId(), session);
+
+                Iterator<DocumentSession> iterator = sessions.values().iterator();
+                while(sessions.size() > maxSessions && iterator.hasNext())
+                {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+            session.touch();
+            return session;
+        }
+    }
+
+    public boolean remove(String id)
+    {
+        synchronized (sessions) {
+            return sessions.remove(id) != null;
+        }
+    }
+
+    private void expire()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, DocumentSession>> iterator = sessions.entrySet().iterator();
+
+        // The least recently used sessions come first
+        while(iterator.hasNext())
+        {
+            if(now - iterator.next().getValue().getLastUsed() < timeout)
+            {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    public ResultSplicer getSplicer()
+    {
+        return splicer;
+    }
+
+    public int getSize()
+    {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+}
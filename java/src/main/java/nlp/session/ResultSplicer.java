@@ -0,0 +1,179 @@
+package nlp.session;
+
+import nlp.chunking.TextChunker;
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+
+/**
+ * Updates the result of a document after an edit without parsing all of it again. Only a window
+ * around the edit is parsed: the sentences it touches plus a number of context sentences on both
+ * sides, widened further until no annotation of the previous result crosses its edges. The
+ * annotations of the window then replace those of the same part of the previous result, and the
+ * annotations after it move by the length difference of the edit.
+ */
+public class ResultSplicer {
+    private final int context;
+
+    /**
+     * @param context the number of sentences before and after the edit that are parsed again with it
+     */
+    public ResultSplicer(int context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * The part [window[0], window[1]) of the new text to parse again.
+     */
+    public int[] window(ParseResult previous, String text, TextEdit edit)
+    {
+        int begin = sentenceBefore(text, edit.getBegin(), context);
+        int end = sentenceAfter(text, edit.getNewEnd(), context);
+
+        // Begin lies in the unchanged prefix and end in the unchanged suffix, which starts
+        // getDelta() characters earlier in the previous version
+        while(true)
+        {
+            int crossedBegin = crossedBegin(previous, begin);
+            int crossedEnd = crossedEnd(previous, end - edit.getDelta()) + edit.getDelta();
+            if(crossedBegin == begin && crossedEnd == end)
+            {
+                return new int[] { begin, end };
+            }
+            begin = sentenceBefore(text, crossedBegin, 0);
+            end = sentenceAfter(text, crossedEnd, 0);
+        }
+    }
+
+    private static int sentenceBefore(String text, int offset, int sentences)
+    {
+        int begin = offset;
+        while(!TextChunker.isSentenceBoundary(text, begin))
+        {
+            begin--;
+        }
+        for(int i = 0; i < sentences && begin > 0; i++)
+        {
+            begin--;
+            while(!TextChunker.isSentenceBoundary(text, begin))
+            {
+                begin--;
+            }
+        }
+        return begin;
+    }
+
+    private static int sentenceAfter(String text, int offset, int sentences)
+    {
+        int end = offset;
+        while(!TextChunker.isSentenceBoundary(text, end))
+        {
+            end++;
+        }
+        for(int i = 0; i < sentences && end < text.length(); i++)
+        {
+            end++;
+            while(!TextChunker.isSentenceBoundary(text, end))
+            {
+                end++;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * The begin of the earliest annotation (or head) of the previous result that starts before
+     * offset and ends after it, or offset when there is none.
+     */
+    private static int crossedBegin(ParseResult previous, int offset)
+    {
+        int begin = offset;
+
+        SyntaxAnnotations syntax = previous.getSyntax();
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            int low = syntax.getBegin(row);
+            int high = syntax.getEnd(row);
+            if(syntax.hasDependent(row))
+            {
+                low = Math.min(low, syntax.getDependentBegin(row));
+                high = Math.max(high, syntax.getDependentEnd(row));
+            }
+            if(low < offset && high > offset)
+            {
+                begin = Math.min(begin, low);
+            }
+        }
+
+        SemanticAnnotations semantic = previous.getSemantic();
+        for(int row = 0; row < semantic.size(); row++)
+        {
+            if(semantic.getBegin(row) < offset && semantic.getEnd(row) > offset)
+            {
+                begin = Math.min(begin, semantic.getBegin(row));
+            }
+        }
+        return begin;
+    }
+
+    /**
+     * The end of the latest annotation (or head) of the previous result that starts before offset
+     * and ends after it, or offset when there is none.
+     */
+    private static int crossedEnd(ParseResult previous, int offset)
+    {
+        int end = offset;
+
+        SyntaxAnnotations syntax = previous.getSyntax();
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            int low = syntax.getBegin(row);
+            int high = syntax.getEnd(row);
+            if(syntax.hasDependent(row))
+            {
+                low = Math.min(low, syntax.getDependentBegin(row));
+                high = Math.max(high, syntax.getDependentEnd(row));
+            }
+            if(low < offset && high > offset)
+            {
+                end = Math.max(end, high);
+            }
+        }
+
+        SemanticAnnotations semantic = previous.getSemantic();
+        for(int row = 0; row < semantic.size(); row++)
+        {
+            if(semantic.getBegin(row) < offset && semantic.getEnd(row) > offset)
+            {
+                end = Math.max(end, semantic.getEnd(row));
+            }
+        }
+        return end;
+    }
+
+    /**
+     * The result of text: the previous result before the window, the window result part and the
+     * previous result after the window.
+     *
+     * @param window the window returned by window(previous, text, edit)
+     * @param part the result of text.substring(window[0], window[1])
+     */
+    public static ParseResult splice(ParseResult previous, String text, TextEdit edit, int[] window, ParseResult part, double parsingDuration)
+    {
+        int previousLength = previous.getInput().length();
+        int previousEnd = window[1] - edit.getDelta();
+
+        SyntaxAnnotations syntax = new SyntaxAnnotations(text, previous.getSyntax().size() + part.getSyntax().size());
+        syntax.append(previous.getSyntax(), 0, window[0], 0);
+        syntax.append(part.getSyntax(), 0, part.getInput().length(), window[0]);
+        syntax.append(previous.getSyntax(), previousEnd, previousLength, edit.getDelta());
+
+        SemanticAnnotations semantic = new SemanticAnnotations(text, previous.getSemantic().size() + part.getSemantic().size());
+        semantic.append(previous.getSemantic(), 0, window[0], 0);
+        semantic.append(part.getSemantic(), 0, part.getInput().length(), window[0]);
+        semantic.append(previous.getSemantic(), previousEnd, previousLength, edit.getDelta());
+
+        return new ParseResult(previous.getFileName(), text, syntax, semantic, part.getEnvironmentDuration(), part.isExisted(), parsingDuration);
+    }
+}
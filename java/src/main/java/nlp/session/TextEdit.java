@@ -0,0 +1,82 @@
+package nlp.session;
+
+/**
+ * The part of a document that differs between two versions: the characters [begin, oldEnd) of
+ * the previous version were replaced by [begin, newEnd) of the new one. Everything before begin
+ * is the same in both versions and everything after the end is shifted by getDelta().
+ */
+public class TextEdit {
+    private final int begin;
+    private final int oldEnd;
+    private final int newEnd;
+
+    public TextEdit(int begin, int oldEnd, int newEnd)
+    {
+        this.begin = begin;
+        this.oldEnd = oldEnd;
+        this.newEnd = newEnd;
+    }
+
+    /**
+     * The smallest edit that turns previous into text, found by skipping the common prefix and suffix.
+     */
+    public static TextEdit between(String previous, String text)
+    {
+        int limit = Math.min(previous.length(), text.length());
+
+        int prefix = 0;
+        while(prefix < limit && previous.charAt(prefix) == text.charAt(prefix))
+        {
+            prefix++;
+        }
+
+        int suffix = 0;
+        while(suffix < limit - prefix && previous.charAt(previous.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix))
+        {
+            suffix++;
+        }
+
+        // Never split a surrogate pair between the unchanged and the changed part
+        if(prefix > 0 && Character.isHighSurrogate(previous.charAt(prefix - 1)))
+        {
+            prefix--;
+        }
+        if(suffix > 0 && Character.isLowSurrogate(previous.charAt(previous.length() - suffix)))
+        {
+            suffix--;
+        }
+
+        return new TextEdit(prefix, previous.length() - suffix, text.length() - suffix);
+    }
+
+    public int getBegin()
+    {
+        return begin;
+    }
+
+    public int getOldEnd()
+    {
+        return oldEnd;
+    }
+
+    public int getNewEnd()
+    {
+        return newEnd;
+    }
+
+    /**
+     * How far the text after the edit has moved.
+     */
+    public int getDelta()
+    {
+        return newEnd - oldEnd;
+    }
+
+    /**
+     * Whether both versions are the same.
+     */
+    public boolean isEmpty()
+    {
+        return begin == oldEnd && begin == newEnd;
+    }
+}
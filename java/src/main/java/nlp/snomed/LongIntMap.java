@@ -0,0 +1,93 @@
+package nlp.snomed;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from SNOMED CT identifiers to ordinals, so lookups do not box the 18-digit
+ * identifiers. Only non-negative values are stored; get returns -1 for a missing key.
+ */
+class LongIntMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    LongIntMap(int expected)
+    {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    int get(long key)
+    {
+        int slot = slot(key);
+        while(true)
+        {
+            long current = keys[slot];
+            if(current == key)
+            {
+                return values[slot];
+            }
+            if(current == EMPTY)
+            {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    void put(long key, int value)
+    {
+        if((size + 1) * 2 > keys.length)
+        {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            allocate(keys.length * 2);
+            for(int i = 0; i < oldKeys.length; i++)
+            {
+                if(oldKeys[i] != EMPTY)
+                {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        insert(key, value);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    private void insert(long key, int value)
+    {
+        int slot = slot(key);
+        while(keys[slot] != EMPTY && keys[slot] != key)
+        {
+            slot = (slot + 1) & mask;
+        }
+        if(keys[slot] == EMPTY)
+        {
+            size++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private int slot(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
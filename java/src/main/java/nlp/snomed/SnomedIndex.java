@@ -0,0 +1,807 @@
+package nlp.snomed;
+
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.UMLSConcept;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * SNOMED CT hierarchy and term index, loaded once from an RF2 snapshot (the concept, description
+ * and inferred relationship files, and the language reference sets when present) so concepts can
+ * be expanded and compared without database round trips.
+ *
+ * Concepts are numbered by ordinal and the is-a hierarchy is kept as arrays of parent and child
+ * ordinals. The transitive closure is encoded by numbering a spanning tree of the hierarchy in
+ * pre-order: an ancestor along the spanning tree is recognized by interval containment, and every
+ * concept only keeps the few ancestors it reaches through its other parents. The term index maps
+ * every word of an active description to the descriptions containing it.
+ *
+ * The index is immutable once loaded and can be shared by all threads.
+ */
+public class SnomedIndex {
+    public static final long IS_A = 116680003L;
+    public static final long ROOT = 138875005L;
+    public static final long FULLY_SPECIFIED_NAME = 900000000000003001L;
+    public static final long SYNONYM = 900000000000013009L;
+    public static final long US_ENGLISH = 900000000000509007L;
+    public static final long PREFERRED = 900000000000548007L;
+
+    private static final int[] NONE = new int[0];
+
+    private final LongIntMap ordinals = new LongIntMap(1 << 19);
+    private long[] ids;
+    private BitSet active;
+    private String[] fullySpecifiedNames;
+    private String[] preferredTerms;
+
+    private int[] parentOffsets, parentOrdinals;
+    private int[] childOffsets, childOrdinals;
+    private int[] treeStart, treeEnd;
+    private int[][] otherAncestors;
+    private int[] descendantCounts;
+
+    private String[] terms;
+    private int[] termConcepts;
+    private String[] words;
+    private int[][] postings;
+
+    /**
+     * Loads the snapshot files found anywhere below the directory, e.g. the Snapshot/Terminology
+     * and Snapshot/Refset/Language directories of an RF2 release.
+     */
+    public SnomedIndex(File directory) throws IOException
+    {
+        long startTime = System.nanoTime();
+
+        List<File> conceptFiles = find(directory, "sct2_Concept_Snapshot");
+        List<File> descriptionFiles = find(directory, "sct2_Description_Snapshot");
+        List<File> relationshipFiles = find(directory, "sct2_Relationship_Snapshot");
+        List<File> languageFiles = find(directory, "der2_cRefset_LanguageSnapshot");
+
+        if(conceptFiles.isEmpty() || descriptionFiles.isEmpty() || relationshipFiles.isEmpty())
+        {
+            throw new FileNotFoundException("No RF2 concept, description and relationship snapshot below " + directory);
+        }
+
+        loadConcepts(conceptFiles);
+        loadDescriptions(descriptionFiles, languageFiles);
+        loadRelationships(relationshipFiles);
+        numberSpanningTree();
+        computeClosure();
+        buildTermIndex();
+
+        double duration = (System.nanoTime() - startTime) / 1000000000.0;
+        System.out.println("\n*** Loaded SNOMED CT snapshot with " + ids.length + " concepts and " + terms.length + " descriptions in " + duration + " sec. ***\n");
+    }
+
+    private void loadConcepts(List<File> files) throws IOException
+    {
+        long[] conceptIds = new long[1 << 16];
+        int count = 0;
+        active = new BitSet();
+
+        Rf2Reader reader = new Rf2Reader(files);
+        try {
+            String[] fields;
+            while((fields = reader.next()) != null)
+            {
+                long id = Long.parseLong(fields[0]);
+                int ordinal = ordinals.get(id);
+                if(ordinal < 0)
+                {
+                    if(count == conceptIds.length)
+                    {
+                        conceptIds = Arrays.copyOf(conceptIds, count * 2);
+                    }
+                    ordinal = count++;
+                    conceptIds[ordinal] = id;
+                    ordinals.put(id, ordinal);
+                }
+                active.set(ordinal, fields[2].equals("1"));
+            }
+        } finally {
+            reader.close();
+        }
+
+        ids = Arrays.copyOf(conceptIds, count);
+        fullySpecifiedNames = new String[count];
+        preferredTerms = new String[count];
+    }
+
+    private void loadDescriptions(List<File> files, List<File> languageFiles) throws IOException
+    {
+        ArrayList<String> termList = new ArrayList<String>(1 << 20);
+        int[] concepts = new int[1 << 20];
+        BitSet synonyms = new BitSet();
+        LongIntMap descriptions = new LongIntMap(1 << 20);
+
+        Rf2Reader reader = new Rf2Reader(files);
+        try {
+            String[] fields;
+            while((fields = reader.next()) != null)
+            {
+                int concept = ordinals.get(Long.parseLong(fields[4]));
+                if(!fields[2].equals("1") || concept < 0)
+                {
+                    continue;
+                }
+
+                long type = Long.parseLong(fields[6]);
+                String term = fields[7];
+                if(type == FULLY_SPECIFIED_NAME)
+                {
+                    fullySpecifiedNames[concept] = term;
+                }
+
+                int index = termList.size();
+                if(index == concepts.length)
+                {
+                    concepts = Arrays.copyOf(concepts, index * 2);
+                }
+                termList.add(term);
+                concepts[index] = concept;
+                if(type == SYNONYM)
+                {
+                    synonyms.set(index);
+                }
+                descriptions.put(Long.parseLong(fields[0]), index);
+            }
+        } finally {
+            reader.close();
+        }
+
+        terms = termList.toArray(new String[termList.size()]);
+        termConcepts = Arrays.copyOf(concepts, terms.length);
+
+        // The preferred term is the synonym marked preferred in the US English language reference set
+        reader = new Rf2Reader(languageFiles);
+        try {
+            String[] fields;
+            while((fields = reader.next()) != null)
+            {
+                if(fields[2].equals("1") && Long.parseLong(fields[4]) == US_ENGLISH && Long.parseLong(fields[6]) == PREFERRED)
+                {
+                    int index = descriptions.get(Long.parseLong(fields[5]));
+                    if(index >= 0 && synonyms.get(index))
+                    {
+                        preferredTerms[termConcepts[index]] = terms[index];
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void loadRelationships(List<File> files) throws IOException
+    {
+        int[] sources = new int[1 << 20];
+        int[] destinations = new int[1 << 20];
+        int count = 0;
+
+        Rf2Reader reader = new Rf2Reader(files);
+        try {
+            String[] fields;
+            while((fields = reader.next()) != null)
+            {
+                if(!fields[2].equals("1") || Long.parseLong(fields[7]) != IS_A)
+                {
+                    continue;
+                }
+
+                int source = ordinals.get(Long.parseLong(fields[4]));
+                int destination = ordinals.get(Long.parseLong(fields[5]));
+                if(source < 0 || destination < 0)
+                {
+                    continue;
+                }
+
+                if(count == sources.length)
+                {
+                    sources = Arrays.copyOf(sources, count * 2);
+                    destinations = Arrays.copyOf(destinations, count * 2);
+                }
+                sources[count] = source;
+                destinations[count] = destination;
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+
+        parentOffsets = new int[ids.length + 1];
+        parentOrdinals = group(sources, destinations, count, parentOffsets);
+        childOffsets = new int[ids.length + 1];
+        childOrdinals = group(destinations, sources, count, childOffsets);
+    }
+
+    /**
+     * Groups the values by key: the values of key k end up between offsets[k] and offsets[k + 1].
+     */
+    private static int[] group(int[] keys, int[] values, int count, int[] offsets)
+    {
+        for(int i = 0; i < count; i++)
+        {
+            offsets[keys[i] + 1]++;
+        }
+        for(int k = 1; k < offsets.length; k++)
+        {
+            offsets[k] += offsets[k - 1];
+        }
+
+        int[] grouped = new int[count];
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for(int i = 0; i < count; i++)
+        {
+            grouped[next[keys[i]]++] = values[i];
+        }
+        return grouped;
+    }
+
+    /**
+     * Numbers the concepts in pre-order along a spanning tree in which every concept hangs below
+     * its first parent. A concept then lies below the tree ancestor a exactly when its number is
+     * inside the interval (treeStart[a], treeEnd[a]).
+     */
+    private void numberSpanningTree()
+    {
+        int count = ids.length;
+        treeStart = new int[count];
+        treeEnd = new int[count];
+        Arrays.fill(treeStart, -1);
+
+        int[] stack = new int[count];
+        int[] cursor = new int[count];
+        int number = 0;
+
+        // Roots first, then whatever a cycle in a broken release kept out of reach
+        for(int pass = 0; pass < 2; pass++)
+        {
+            for(int root = 0; root < count; root++)
+            {
+                if(treeStart[root] >= 0 || (pass == 0 && treeParent(root) >= 0))
+                {
+                    continue;
+                }
+
+                int depth = 0;
+                stack[0] = root;
+                cursor[0] = childOffsets[root];
+                treeStart[root] = number++;
+
+                while(depth >= 0)
+                {
+                    int node = stack[depth];
+                    if(cursor[depth] < childOffsets[node + 1])
+                    {
+                        int child = childOrdinals[cursor[depth]++];
+                        if(treeStart[child] < 0 && treeParent(child) == node)
+                        {
+                            treeStart[child] = number++;
+                            depth++;
+                            stack[depth] = child;
+                            cursor[depth] = childOffsets[child];
+                        }
+                    }
+                    else
+                    {
+                        treeEnd[node] = number;
+                        depth--;
+                    }
+                }
+            }
+        }
+    }
+
+    private int treeParent(int concept)
+    {
+        return parentOffsets[concept] < parentOffsets[concept + 1] ? parentOrdinals[parentOffsets[concept]] : -1;
+    }
+
+    private boolean isTreeAncestor(int ancestor, int concept)
+    {
+        return treeStart[ancestor] < treeStart[concept] && treeStart[concept] < treeEnd[ancestor];
+    }
+
+    /**
+     * Walks up from every concept once, counting descendants and keeping the ancestors that are
+     * not on its spanning tree path.
+     */
+    private void computeClosure()
+    {
+        int count = ids.length;
+        otherAncestors = new int[count][];
+        descendantCounts = new int[count];
+
+        int[] seen = new int[count];
+        Arrays.fill(seen, -1);
+        int[] stack = new int[count];
+        int[] others = new int[count];
+
+        for(int concept = 0; concept < count; concept++)
+        {
+            seen[concept] = concept;
+            int top = push(concept, concept, seen, stack, 0);
+            int found = 0;
+
+            while(top > 0)
+            {
+                int ancestor = stack[--top];
+                descendantCounts[ancestor]++;
+                if(!isTreeAncestor(ancestor, concept))
+                {
+                    others[found++] = ancestor;
+                }
+                top = push(ancestor, concept, seen, stack, top);
+            }
+
+            if(found == 0)
+            {
+                otherAncestors[concept] = NONE;
+            }
+            else
+            {
+                int[] sorted = Arrays.copyOf(others, found);
+                Arrays.sort(sorted);
+                otherAncestors[concept] = sorted;
+            }
+        }
+    }
+
+    private int push(int node, int concept, int[] seen, int[] stack, int top)
+    {
+        for(int i = parentOffsets[node]; i < parentOffsets[node + 1]; i++)
+        {
+            int parent = parentOrdinals[i];
+            if(seen[parent] != concept)
+            {
+                seen[parent] = concept;
+                stack[top++] = parent;
+            }
+        }
+        return top;
+    }
+
+    private void buildTermIndex()
+    {
+        HashMap<String, Postings> index = new HashMap<String, Postings>();
+
+        for(int description = 0; description < terms.length; description++)
+        {
+            for(String word : words(terms[description]))
+            {
+                Postings list = index.get(word);
+                if(list == null)
+                {
+                    list = new Postings();
+                    index.put(word, list);
+                }
+                list.add(description);
+            }
+        }
+
+        words = index.keySet().toArray(new String[index.size()]);
+        Arrays.sort(words);
+        postings = new int[words.length][];
+        for(int i = 0; i < words.length; i++)
+        {
+            Postings list = index.get(words[i]);
+            postings[i] = Arrays.copyOf(list.descriptions, list.size);
+        }
+    }
+
+    private static List<String> words(String text)
+    {
+        List<String> words = new ArrayList<String>();
+        int start = -1;
+
+        for(int i = 0; i <= text.length(); i++)
+        {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(letter && start < 0)
+            {
+                start = i;
+            }
+            else if(!letter && start >= 0)
+            {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+
+        return words;
+    }
+
+    public boolean contains(long id)
+    {
+        return ordinals.get(id) >= 0;
+    }
+
+    public boolean isActive(long id)
+    {
+        int concept = ordinals.get(id);
+        return concept >= 0 && active.get(concept);
+    }
+
+    /**
+     * Whether the first concept is a (direct or indirect) subtype of the second; a concept is not
+     * a subtype of itself.
+     */
+    public boolean isSubtypeOf(long subtype, long supertype)
+    {
+        int concept = ordinals.get(subtype);
+        int ancestor = ordinals.get(supertype);
+        return concept >= 0 && ancestor >= 0 && isSubtype(concept, ancestor);
+    }
+
+    private boolean isSubtype(int concept, int ancestor)
+    {
+        if(concept == ancestor)
+        {
+            return false;
+        }
+        return isTreeAncestor(ancestor, concept) || Arrays.binarySearch(otherAncestors[concept], ancestor) >= 0;
+    }
+
+    public long[] getParents(long id)
+    {
+        int concept = ordinals.get(id);
+        return concept < 0 ? new long[0] : identifiers(parentOrdinals, parentOffsets[concept], parentOffsets[concept + 1]);
+    }
+
+    public long[] getChildren(long id)
+    {
+        int concept = ordinals.get(id);
+        return concept < 0 ? new long[0] : identifiers(childOrdinals, childOffsets[concept], childOffsets[concept + 1]);
+    }
+
+    /**
+     * All supertypes of the concept: those on its spanning tree path, nearest first, followed by
+     * the ones reached through its other parents.
+     */
+    public long[] getAncestors(long id)
+    {
+        int concept = ordinals.get(id);
+        return concept < 0 ? new long[0] : ancestors(concept);
+    }
+
+    private long[] ancestors(int concept)
+    {
+        int depth = 0;
+        for(int node = treeParent(concept); node >= 0 && depth < ids.length; node = treeParent(node))
+        {
+            depth++;
+        }
+
+        int[] others = otherAncestors[concept];
+        long[] ancestors = new long[depth + others.length];
+        int i = 0;
+        for(int node = treeParent(concept); i < depth; node = treeParent(node))
+        {
+            ancestors[i++] = ids[node];
+        }
+        for(int other : others)
+        {
+            ancestors[i++] = ids[other];
+        }
+        return ancestors;
+    }
+
+    public int getDescendantCount(long id)
+    {
+        int concept = ordinals.get(id);
+        return concept < 0 ? 0 : descendantCounts[concept];
+    }
+
+    public String getFullySpecifiedName(long id)
+    {
+        int concept = ordinals.get(id);
+        return concept < 0 ? null : fullySpecifiedNames[concept];
+    }
+
+    /**
+     * The preferred synonym of the concept, or its fully specified name without the semantic tag
+     * when the snapshot came without a language reference set.
+     */
+    public String getPreferredTerm(long id)
+    {
+        int concept = ordinals.get(id);
+        return concept < 0 ? null : preferredTerm(concept);
+    }
+
+    private String preferredTerm(int concept)
+    {
+        String term = preferredTerms[concept];
+        String name = fullySpecifiedNames[concept];
+        if(term == null && name != null)
+        {
+            int tag = name.lastIndexOf(" (");
+            term = tag > 0 && name.endsWith(")") ? name.substring(0, tag) : name;
+        }
+        return term;
+    }
+
+    /**
+     * Active descriptions containing the term (case-insensitive), shortest first, of concepts below
+     * the given parent (or any active concept when parent is 0). A term that is a concept identifier
+     * also finds that concept. The term may start or end inside a word, like the LIKE query of
+     * SNOMEDSearch: "itis" finds "Appendicitis".
+     */
+    public List<SnomedMatch> search(String term, long parent, int limit)
+    {
+        List<SnomedMatch> matches = new ArrayList<SnomedMatch>();
+        String needle = term.trim();
+
+        int parentConcept = parent > 0 ? ordinals.get(parent) : -1;
+        if(needle.isEmpty() || (parent > 0 && parentConcept < 0))
+        {
+            return matches;
+        }
+
+        try {
+            int concept = ordinals.get(Long.parseLong(needle));
+            if(concept >= 0 && accepted(concept, parentConcept))
+            {
+                matches.add(new SnomedMatch(ids[concept], fullySpecifiedNames[concept], fullySpecifiedNames[concept]));
+            }
+        } catch (NumberFormatException e) {
+            // Not an identifier
+        }
+
+        // Every word of the term is part of a word of a matching description, so only the
+        // descriptions of the words that contain the rarest word of the term can match
+        List<String> needleWords = words(needle);
+        List<Integer> rarest = null;
+        long fewest = Long.MAX_VALUE;
+        for(String word : needleWords)
+        {
+            List<Integer> containing = new ArrayList<Integer>();
+            long count = 0;
+            for(int i = 0; i < words.length; i++)
+            {
+                if(words[i].contains(word))
+                {
+                    containing.add(i);
+                    count += postings[i].length;
+                }
+            }
+            if(count < fewest)
+            {
+                fewest = count;
+                rarest = containing;
+            }
+        }
+
+        BitSet candidates = new BitSet(terms.length);
+        if(rarest == null)
+        {
+            // No letters or digits in the term, every description has to be checked
+            candidates.set(0, terms.length);
+        }
+        else
+        {
+            for(int word : rarest)
+            {
+                for(int description : postings[word])
+                {
+                    candidates.set(description);
+                }
+            }
+        }
+
+        List<Integer> found = new ArrayList<Integer>();
+        for(int description = candidates.nextSetBit(0); description >= 0; description = candidates.nextSetBit(description + 1))
+        {
+            if(containsIgnoreCase(terms[description], needle) && accepted(termConcepts[description], parentConcept))
+            {
+                found.add(description);
+            }
+        }
+
+        Collections.sort(found, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return terms[a].length() - terms[b].length();
+            }
+        });
+
+        for(int i = 0; i < found.size() && matches.size() < limit; i++)
+        {
+            int concept = termConcepts[found.get(i)];
+            matches.add(new SnomedMatch(ids[concept], terms[found.get(i)], fullySpecifiedNames[concept]));
+        }
+
+        return matches;
+    }
+
+    private boolean accepted(int concept, int parentConcept)
+    {
+        return active.get(concept) && (parentConcept < 0 || isSubtype(concept, parentConcept));
+    }
+
+    private static boolean containsIgnoreCase(String text, String needle)
+    {
+        for(int i = 0; i + needle.length() <= text.length(); i++)
+        {
+            if(text.regionMatches(true, i, needle, 0, needle.length()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the fully specified name, the preferred term (when the dictionary gave none) and the
+     * ancestors to every SNOMED CT concept of the result. Concepts shared by several mentions are
+     * enriched once.
+     */
+    public void enrich(ParseResult result)
+    {
+        IdentityHashMap<UMLSConcept, UMLSConcept> enriched = new IdentityHashMap<UMLSConcept, UMLSConcept>();
+
+        SemanticAnnotations semantic = result.getSemantic();
+
+        for(int i = 0; i < semantic.getConceptCount(); i++)
+        {
+            UMLSConcept concept = semantic.getConcept(i);
+            UMLSConcept replacement = enriched.get(concept);
+            if(replacement == null)
+            {
+                replacement = enrich(concept);
+                enriched.put(concept, replacement);
+            }
+            semantic.setConcept(i, replacement);
+        }
+    }
+
+    private UMLSConcept enrich(UMLSConcept concept)
+    {
+        if(concept.getSystem() == null || !concept.getSystem().startsWith("SNOMEDCT") || concept.getCode() == null)
+        {
+            return concept;
+        }
+
+        int ordinal;
+        try {
+            ordinal = ordinals.get(Long.parseLong(concept.getCode()));
+        } catch (NumberFormatException e) {
+            return concept;
+        }
+        if(ordinal < 0)
+        {
+            return concept;
+        }
+
+        String preferredText = concept.getPreferredText() == null ? preferredTerm(ordinal) : concept.getPreferredText();
+        return concept.withSnomed(fullySpecifiedNames[ordinal], preferredText, ancestors(ordinal));
+    }
+
+    public int getConceptCount()
+    {
+        return ids.length;
+    }
+
+    public int getDescriptionCount()
+    {
+        return terms.length;
+    }
+
+    private long[] identifiers(int[] ordinalList, int from, int to)
+    {
+        long[] identifiers = new long[to - from];
+        for(int i = from; i < to; i++)
+        {
+            identifiers[i - from] = ids[ordinalList[i]];
+        }
+        return identifiers;
+    }
+
+    private static List<File> find(File directory, String prefix)
+    {
+        List<File> found = new ArrayList<File>();
+        File[] children = directory.listFiles();
+        if(children != null)
+        {
+            Arrays.sort(children);
+            for(File child : children)
+            {
+                if(child.isDirectory())
+                {
+                    found.addAll(find(child, prefix));
+                }
+                else if(child.getName().startsWith(prefix) && child.getName().endsWith(".txt"))
+                {
+                    found.add(child);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Descriptions containing a word, in ascending order and without repeats.
+     */
+    private static class Postings {
+        private int[] descriptions = new int[4];
+        private int size;
+
+        private void add(int description)
+        {
+            if(size > 0 && descriptions[size - 1] == description)
+            {
+                return;
+            }
+            if(size == descriptions.length)
+            {
+                descriptions = Arrays.copyOf(descriptions, size * 2);
+            }
+            descriptions[size++] = description;
+        }
+    }
+
+    /**
+     * Reads the rows of one or more tab-separated RF2 files, skipping their header lines.
+     */
+    private static class Rf2Reader {
+        private final List<File> files;
+        private int next;
+        private BufferedReader reader;
+
+        private Rf2Reader(List<File> files)
+        {
+            this.files = files;
+        }
+
+        private String[] next() throws IOException
+        {
+            while(true)
+            {
+                if(reader == null)
+                {
+                    if(next == files.size())
+                    {
+                        return null;
+                    }
+                    reader = new BufferedReader(new InputStreamReader(new FileInputStream(files.get(next++)), StandardCharsets.UTF_8), 1 << 16);
+                    reader.readLine();
+                }
+
+                String line = reader.readLine();
+                if(line == null)
+                {
+                    reader.close();
+                    reader = null;
+                }
+                else if(!line.isEmpty())
+                {
+                    return line.split("\t", -1);
+                }
+            }
+        }
+
+        private void close() throws IOException
+        {
+            if(reader != null)
+            {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
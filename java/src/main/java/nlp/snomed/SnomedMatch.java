@@ -0,0 +1,32 @@
+package nlp.snomed;
+
+/**
+ * A description found by SnomedIndex.search, with the concept it describes.
+ */
+public class SnomedMatch {
+    private final long conceptId;
+    private final String term;
+    private final String fullySpecifiedName;
+
+    public SnomedMatch(long conceptId, String term, String fullySpecifiedName)
+    {
+        this.conceptId = conceptId;
+        this.term = term;
+        this.fullySpecifiedName = fullySpecifiedName;
+    }
+
+    public long getConceptId()
+    {
+        return conceptId;
+    }
+
+    public String getTerm()
+    {
+        return term;
+    }
+
+    public String getFullySpecifiedName()
+    {
+        return fullySpecifiedName;
+    }
+}
@@ -0,0 +1,101 @@
+package nlp.snomed;
+
+import nlp.information.ParseResult;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Holds the SnomedIndex of the application. Loading a full release takes a while, so it is done
+ * by the warm-up thread of the ParserContextListener rather than by the first request; until
+ * then results are written without SNOMED CT information and the readiness probe fails.
+ */
+public class SnomedService {
+    public static final String CONTEXT_ATTRIBUTE = "snomedService";
+    public static final String DIRECTORY_PARAMETER = "snomed.directory";
+
+    private final File directory;
+    private volatile SnomedIndex index;
+    private volatile boolean failed;
+
+    public SnomedService(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the service of this application, or null when "snomed.directory" does not point to
+     * an RF2 release.
+     */
+    public static SnomedService forContext(ServletContext application)
+    {
+        synchronized (application) {
+            Object service = application.getAttribute(CONTEXT_ATTRIBUTE);
+            if(service == null)
+            {
+                String directory = application.getInitParameter(DIRECTORY_PARAMETER);
+                if(directory == null)
+                {
+                    directory = System.getProperty(DIRECTORY_PARAMETER);
+                }
+
+                if(directory == null || directory.trim().isEmpty())
+                {
+                    service = Boolean.FALSE;
+                }
+                else
+                {
+                    service = new SnomedService(new File(directory.trim()));
+                }
+                application.setAttribute(CONTEXT_ATTRIBUTE, service);
+            }
+            return service instanceof SnomedService ? (SnomedService) service : null;
+        }
+    }
+
+    public synchronized void load()
+    {
+        if(index != null || failed)
+        {
+            return;
+        }
+
+        try {
+            index = new SnomedIndex(directory);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            failed = true;
+        }
+    }
+
+    /**
+     * The loaded index, or null while it is loading or when loading failed.
+     */
+    public SnomedIndex getIndex()
+    {
+        return index;
+    }
+
+    public boolean isLoaded()
+    {
+        return index != null;
+    }
+
+    public boolean hasFailed()
+    {
+        return failed;
+    }
+
+    public void enrich(ParseResult result)
+    {
+        SnomedIndex loaded = index;
+        if(loaded != null)
+        {
+            loaded.enrich(result);
+        }
+    }
+}
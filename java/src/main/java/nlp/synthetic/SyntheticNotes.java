@@ -0,0 +1,281 @@
+package nlp.synthetic;
+
+import org.apache.ctakes.typesystem.type.refsem.UmlsConcept;
+import org.apache.ctakes.typesystem.type.syntax.Chunk;
+import org.apache.ctakes.typesystem.type.syntax.ConllDependencyNode;
+import org.apache.ctakes.typesystem.type.syntax.NP;
+import org.apache.ctakes.typesystem.type.syntax.NumToken;
+import org.apache.ctakes.typesystem.type.syntax.PunctuationToken;
+import org.apache.ctakes.typesystem.type.syntax.VP;
+import org.apache.ctakes.typesystem.type.syntax.WordToken;
+import org.apache.ctakes.typesystem.type.textsem.AnatomicalSiteMention;
+import org.apache.ctakes.typesystem.type.textsem.DiseaseDisorderMention;
+import org.apache.ctakes.typesystem.type.textsem.IdentifiedAnnotation;
+import org.apache.ctakes.typesystem.type.textsem.MedicationMention;
+import org.apache.ctakes.typesystem.type.textsem.ProcedureMention;
+import org.apache.ctakes.typesystem.type.textsem.SignSymptomMention;
+import org.apache.ctakes.typesystem.type.textspan.Sentence;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.cas.FSArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic clinical notes and annotations for benchmarks and load tests, so the
+ * extraction and output code can be exercised without a cTAKES install, UMLS credentials or
+ * dictionaries. annotate() fills a JCas with roughly the annotation volume of the clinical
+ * pipeline: sentences, tokens, NP/VP chunks, a dependency tree per sentence and identified
+ * annotations with UMLS concepts for every term of a small built-in lexicon.
+ */
+public class SyntheticNotes {
+    private static final Pattern SENTENCE = Pattern.compile("[^.!?\\n]+[.!?]?");
+    private static final Pattern TOKEN = Pattern.compile("\\p{L}+|\\p{N}+|[^\\s\\p{L}\\p{N}]");
+
+    private static final String[] TEMPLATES = {
+            "The patient reports %s in the %s since %d days.",
+            "She denies %s and has no history of %s.",
+            "He was started on %s %d mg twice daily for %s.",
+            "Family history of %s in his father, %d years ago.",
+            "Physical examination of the %s showed %s after %s.",
+            "No evidence of %s, %s was performed on day %d."
+    };
+
+    private static final String[][] LEXICON = {
+            // term, mention type, cui, tui, SNOMED CT code, preferred text
+            { "fever", "SignSymptom", "C0015967", "T184", "386661006", "Fever" },
+            { "pain", "SignSymptom", "C0030193", "T184", "22253000", "Pain" },
+            { "nausea", "SignSymptom", "C0027497", "T184", "422587007", "Nausea" },
+            { "dyspnea", "SignSymptom", "C0013404", "T184", "267036007", "Dyspnea" },
+            { "diabetes", "DiseaseDisorder", "C0011849", "T047", "73211009", "Diabetes mellitus" },
+            { "hypertension", "DiseaseDisorder", "C0020538", "T047", "38341003", "Hypertensive disorder" },
+            { "pneumonia", "DiseaseDisorder", "C0032285", "T047", "233604007", "Pneumonia" },
+            { "infarction", "DiseaseDisorder", "C0027051", "T047", "22298006", "Myocardial infarction" },
+            { "metformin", "Medication", "C0025598", "T121", "372567009", "Metformin" },
+            { "lisinopril", "Medication", "C0065374", "T121", "386873009", "Lisinopril" },
+            { "amoxicillin", "Medication", "C0002645", "T195", "372687004", "Amoxicillin" },
+            { "chest", "AnatomicalSite", "C0817096", "T029", "51185008", "Chest" },
+            { "abdomen", "AnatomicalSite", "C0000726", "T029", "113345001", "Abdomen" },
+            { "knee", "AnatomicalSite", "C0022742", "T029", "72696002", "Knee" },
+            { "colonoscopy", "Procedure", "C0009378", "T060", "73761001", "Colonoscopy" },
+            { "radiograph", "Procedure", "C0043299", "T060", "168537006", "Plain radiography" },
+            { "appendectomy", "Procedure", "C0003611", "T061", "80146002", "Appendectomy" }
+    };
+
+    private static final HashMap<String, String[]> TERMS = new HashMap<String, String[]>();
+    static {
+        for(String[] entry : LEXICON)
+        {
+            TERMS.put(entry[0], entry);
+        }
+    }
+
+    private SyntheticNotes()
+    {
+    }
+
+    /**
+     * A note of the given number of sentences; the same seed always gives the same note.
+     */
+    public static String note(int sentences, long seed)
+    {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder(sentences * 64);
+
+        for(int i = 0; i < sentences; i++)
+        {
+            String template = TEMPLATES[random.nextInt(TEMPLATES.length)];
+
+            List<Object> arguments = new ArrayList<Object>();
+            Matcher matcher = Pattern.compile("%[sd]").matcher(template);
+            while(matcher.find())
+            {
+                if(matcher.group().equals("%d"))
+                {
+                    arguments.add(1 + random.nextInt(500));
+                }
+                else
+                {
+                    arguments.add(LEXICON[random.nextInt(LEXICON.length)][0]);
+                }
+            }
+
+            builder.append(String.format(template, arguments.toArray()));
+            builder.append(i % 5 == 4 ? "\n\n" : " ");
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Adds synthetic annotations for the document text of the JCas.
+     */
+    public static void annotate(JCas jcas)
+    {
+        String text = jcas.getDocumentText();
+        int tokenNumber = 0;
+
+        Matcher sentences = SENTENCE.matcher(text);
+        while(sentences.find())
+        {
+            int sentenceBegin = sentences.start();
+            int sentenceEnd = sentences.end();
+            while(sentenceBegin < sentenceEnd && Character.isWhitespace(text.charAt(sentenceBegin)))
+            {
+                sentenceBegin++;
+            }
+            if(sentenceBegin == sentenceEnd)
+            {
+                continue;
+            }
+
+            Sentence sentence = new Sentence(jcas, sentenceBegin, sentenceEnd);
+            sentence.addToIndexes();
+
+            List<ConllDependencyNode> nodes = new ArrayList<ConllDependencyNode>();
+            int chunkBegin = -1;
+            int chunkEnd = -1;
+            int chunkLength = 0;
+            int chunks = 0;
+            boolean negated = false;
+            int sinceNegation = 0;
+
+            Matcher tokens = TOKEN.matcher(text).region(sentenceBegin, sentenceEnd);
+            while(tokens.find())
+            {
+                String form = tokens.group();
+                int begin = tokens.start();
+                int end = tokens.end();
+
+                if(Character.isLetter(form.charAt(0)))
+                {
+                    WordToken token = new WordToken(jcas, begin, end);
+                    token.setTokenNumber(tokenNumber++);
+                    token.setPartOfSpeech(TERMS.containsKey(form.toLowerCase()) ? "NN" : "DT");
+                    token.addToIndexes();
+
+                    if(chunkBegin < 0)
+                    {
+                        chunkBegin = begin;
+                    }
+                    chunkEnd = end;
+                    chunkLength++;
+                }
+                else if(Character.isDigit(form.charAt(0)))
+                {
+                    NumToken token = new NumToken(jcas, begin, end);
+                    token.setTokenNumber(tokenNumber++);
+                    token.addToIndexes();
+                }
+                else
+                {
+                    PunctuationToken token = new PunctuationToken(jcas, begin, end);
+                    token.setTokenNumber(tokenNumber++);
+                    token.addToIndexes();
+                }
+
+                // Chunks of at most three words, alternating between noun and verb phrases
+                if(chunkLength == 3 || (chunkLength > 0 && !Character.isLetter(form.charAt(0))))
+                {
+                    addChunk(jcas, chunkBegin, chunkEnd, chunks++ % 2 == 0);
+                    chunkBegin = -1;
+                    chunkLength = 0;
+                }
+
+                ConllDependencyNode node = new ConllDependencyNode(jcas, begin, end);
+                node.setId(nodes.size() + 1);
+                node.setForm(form);
+                node.setDeprel(nodes.isEmpty() ? "root" : (nodes.size() % 3 == 0 ? "nsubj" : "dobj"));
+                if(!nodes.isEmpty())
+                {
+                    node.setHead(nodes.get((nodes.size() - 1) / 2));
+                }
+                node.addToIndexes();
+                nodes.add(node);
+
+                String lower = form.toLowerCase();
+                if(lower.equals("no") || lower.equals("denies"))
+                {
+                    negated = true;
+                    sinceNegation = 0;
+                }
+                else if(++sinceNegation > 4)
+                {
+                    negated = false;
+                }
+
+                String[] term = TERMS.get(lower);
+                if(term != null)
+                {
+                    addMention(jcas, term, begin, end, negated);
+                }
+            }
+
+            if(chunkLength > 0)
+            {
+                addChunk(jcas, chunkBegin, chunkEnd, chunks % 2 == 0);
+            }
+        }
+    }
+
+    private static void addChunk(JCas jcas, int begin, int end, boolean nounPhrase)
+    {
+        Chunk chunk = nounPhrase ? new NP(jcas, begin, end) : new VP(jcas, begin, end);
+        chunk.setChunkType(nounPhrase ? "NP" : "VP");
+        chunk.addToIndexes();
+    }
+
+    private static void addMention(JCas jcas, String[] term, int begin, int end, boolean negated)
+    {
+        IdentifiedAnnotation mention;
+        String type = term[1];
+        if(type.equals("SignSymptom"))
+        {
+            mention = new SignSymptomMention(jcas, begin, end);
+        }
+        else if(type.equals("DiseaseDisorder"))
+        {
+            mention = new DiseaseDisorderMention(jcas, begin, end);
+        }
+        else if(type.equals("Medication"))
+        {
+            mention = new MedicationMention(jcas, begin, end);
+        }
+        else if(type.equals("AnatomicalSite"))
+        {
+            mention = new AnatomicalSiteMention(jcas, begin, end);
+        }
+        else
+        {
+            mention = new ProcedureMention(jcas, begin, end);
+        }
+
+        mention.setPolarity(negated ? -1 : 1);
+        mention.setSubject("patient");
+        mention.setHistoryOf(0);
+
+        // Like the dictionary lookup, every mention gets more than one concept for the same CUI
+        FSArray concepts = new FSArray(jcas, 2);
+        concepts.set(0, concept(jcas, term, "SNOMEDCT", term[4]));
+        concepts.set(1, concept(jcas, term, "UMLS", term[2]));
+        concepts.addToIndexes();
+        mention.setOntologyConceptArr(concepts);
+        mention.addToIndexes();
+    }
+
+    private static UmlsConcept concept(JCas jcas, String[] term, String codingScheme, String code)
+    {
+        UmlsConcept concept = new UmlsConcept(jcas);
+        concept.setCui(term[2]);
+        concept.setTui(term[3]);
+        concept.setCodingScheme(codingScheme);
+        concept.setCode(code);
+        concept.setPreferredText(term[5]);
+        concept.addToIndexes();
+        return concept;
+    }
+}
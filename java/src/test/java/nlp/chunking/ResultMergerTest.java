@@ -0,0 +1,308 @@
+package nlp.chunking;
+
+import nlp.engine.StubEngine;
+import nlp.extraction.AnnotationExtractor;
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.information.UMLSConcept;
+import nlp.synthetic.SyntheticNotes;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a document split with TextChunker, parsed chunk by chunk and merged with
+ * ResultMerger gives the same result as parsing it in one pass, for synthetic notes parsed with
+ * the stub engine, and the boundaries TextChunker chooses.
+ */
+public class ResultMergerTest {
+    private static final int[] SIZES = { 80, 200, 500, 2000 };
+
+    private JCas jcas;
+    private final StubEngine engine = new StubEngine(0, 0);
+    private final AnnotationExtractor extractor = new AnnotationExtractor();
+
+    @Before
+    public void createJCas() throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+    }
+
+    @Test
+    public void chunkedParseMatchesSinglePass() throws Exception
+    {
+        for(int seed = 0; seed < 5; seed++)
+        {
+            String text = SyntheticNotes.note(60, seed);
+            String expected = canonical(parse(text));
+
+            for(int size : SIZES)
+            {
+                int[] boundaries = new TextChunker(size).split(text);
+                for(int i = 1; i < boundaries.length - 1; i++)
+                {
+                    assertTrue("Note " + seed + " is cut inside a sentence at " + boundaries[i] + " with size " + size,
+                            TextChunker.isSentenceBoundary(text, boundaries[i]));
+                }
+
+                ParseResult merged = merge(text, boundaries);
+                assertEquals("Note " + seed + " in " + (boundaries.length - 1) + " chunks of " + size, expected, canonical(merged));
+                assertEquals(text, merged.getInput());
+                assertHeadsMatch(merged);
+            }
+        }
+    }
+
+    @Test
+    public void mergeRebasesOffsetsTokensAndIds() throws Exception
+    {
+        String text = "Patient has a fever. No cough.\n\nHe took 2 tablets of aspirin. Denies chest pain.";
+        int[] boundaries = { 0, 32, text.length() };
+        ParseResult second = parse(text.substring(32));
+        ParseResult merged = merge(text, boundaries);
+
+        // The rows of the second chunk come after those of the first, moved by its start
+        SyntaxAnnotations syntax = merged.getSyntax();
+        SyntaxAnnotations part = second.getSyntax();
+        int first = syntax.size() - part.size();
+        int maxToken = -1;
+        int maxId = -1;
+        for(int row = 0; row < first; row++)
+        {
+            assertTrue("Row " + row + " belongs to the first chunk", syntax.getEnd(row) <= 32);
+            maxToken = Math.max(maxToken, syntax.getToken(row));
+            maxId = Math.max(maxId, syntax.getId(row));
+        }
+        for(int row = 0; row < part.size(); row++)
+        {
+            int moved = first + row;
+            assertEquals(part.getBegin(row) + 32, syntax.getBegin(moved));
+            assertEquals(part.getEnd(row) + 32, syntax.getEnd(moved));
+            assertEquals(part.getText(row), syntax.getText(moved));
+            if(part.getToken(row) >= 0)
+            {
+                assertTrue("Tokens of the second chunk follow those of the first", syntax.getToken(moved) > maxToken);
+                assertEquals(part.getToken(row) - part.getToken(firstToken(part)), syntax.getToken(moved) - syntax.getToken(first + firstToken(part)));
+            }
+            if(part.getId(row) >= 0)
+            {
+                assertTrue("Ids of the second chunk follow those of the first", syntax.getId(moved) > maxId);
+            }
+            if(part.hasDependent(row))
+            {
+                assertEquals(part.getDependentBegin(row) + 32, syntax.getDependentBegin(moved));
+                assertEquals(part.getDependentEnd(row) + 32, syntax.getDependentEnd(moved));
+            }
+        }
+        assertHeadsMatch(merged);
+
+        SemanticAnnotations semantic = merged.getSemantic();
+        SemanticAnnotations mentions = second.getSemantic();
+        int firstMention = semantic.size() - mentions.size();
+        for(int row = 0; row < mentions.size(); row++)
+        {
+            assertEquals(mentions.getBegin(row) + 32, semantic.getBegin(firstMention + row));
+            assertEquals(mentions.getText(row), semantic.getText(firstMention + row));
+            assertEquals(mentions.getConceptEnd(row) - mentions.getConceptStart(row),
+                    semantic.getConceptEnd(firstMention + row) - semantic.getConceptStart(firstMention + row));
+        }
+    }
+
+    @Test
+    public void mergeNeedsOneResultPerChunk() throws Exception
+    {
+        String text = "No fever. No cough.";
+        List<ParseResult> parts = new ArrayList<ParseResult>();
+        parts.add(parse(text));
+        try {
+            ResultMerger.merge("", text, new int[] { 0, 10, text.length() }, parts, 0);
+            fail("Two chunks cannot be merged from one result");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void chunksCoverTheTextWithinTheSize()
+    {
+        for(int seed = 0; seed < 5; seed++)
+        {
+            String text = SyntheticNotes.note(60, seed);
+            for(int size : SIZES)
+            {
+                int[] boundaries = new TextChunker(size).split(text);
+                assertEquals(0, boundaries[0]);
+                assertEquals(text.length(), boundaries[boundaries.length - 1]);
+                for(int i = 1; i < boundaries.length; i++)
+                {
+                    int length = boundaries[i] - boundaries[i - 1];
+                    assertTrue("Chunk " + i + " of " + length + " characters with size " + size, length > 0 && length <= size);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shortTextIsOneChunk()
+    {
+        int[] boundaries = new TextChunker(100).split("No fever.");
+        assertEquals(2, boundaries.length);
+        assertEquals(0, boundaries[0]);
+        assertEquals(9, boundaries[1]);
+    }
+
+    @Test
+    public void chunksPreferParagraphsThenSentences()
+    {
+        // Within the second half of the window: a space, a sentence end and a blank line
+        String text = "aaaaaaaaaa bbbbbbbbbb. cccc\n\ndddd eeee ffffffffffffffffffff";
+        assertEquals(29, new TextChunker(40).split(text)[1]);
+
+        text = "aaaaaaaaaa bbbbbbbbbb. cccc dddd eeee ffffffffffffffffffff";
+        assertEquals(23, new TextChunker(40).split(text)[1]);
+
+        text = "aaaaaaaaaa bbbbbbbbbb cccc dddd eeee ffffffffffffffffffff";
+        assertEquals(37, new TextChunker(40).split(text)[1]);
+    }
+
+    @Test
+    public void longWordIsCutOutsideSurrogatePairs()
+    {
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i < 30; i++)
+        {
+            word.append("\uD83D\uDE00");
+        }
+        String text = "x" + word;
+
+        int[] boundaries = new TextChunker(10).split(text);
+        for(int i = 1; i < boundaries.length - 1; i++)
+        {
+            assertTrue("Cut at " + boundaries[i], !Character.isLowSurrogate(text.charAt(boundaries[i])));
+        }
+    }
+
+    private ParseResult merge(String text, int[] boundaries) throws Exception
+    {
+        List<ParseResult> parts = new ArrayList<ParseResult>();
+        for(int i = 0; i < boundaries.length - 1; i++)
+        {
+            parts.add(parse(text.substring(boundaries[i], boundaries[i + 1])));
+        }
+        return ResultMerger.merge("", text, boundaries, parts, 0);
+    }
+
+    private ParseResult parse(String text) throws Exception
+    {
+        jcas.reset();
+        jcas.setDocumentText(text);
+        engine.process(jcas);
+        return new ParseResult("", text, extractor.getSyntax(jcas), extractor.getSemantic(jcas), 0, false, 0);
+    }
+
+    private static int firstToken(SyntaxAnnotations syntax)
+    {
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            if(syntax.getToken(row) >= 0)
+            {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The annotations of the result group by group, in the order of their names, like in
+     * ResultSplicerTest. Token numbers are compared as they are; node ids are left out and checked
+     * by assertHeadsMatch.
+     */
+    private static String canonical(ParseResult result)
+    {
+        Map<String, StringBuilder> groups = new TreeMap<String, StringBuilder>();
+
+        SyntaxAnnotations syntax = result.getSyntax();
+        for(int g = 0; g < syntax.getGroupCount(); g++)
+        {
+            StringBuilder rows = new StringBuilder();
+            for(int i = 0; i < syntax.getGroupSize(g); i++)
+            {
+                int row = syntax.getRow(g, i);
+                rows.append("\n  ").append(syntax.getBegin(row)).append('-').append(syntax.getEnd(row))
+                        .append(' ').append(syntax.getText(row)).append(" token=").append(syntax.getToken(row))
+                        .append(" node=").append(syntax.getId(row) >= 0).append(" relation=").append(syntax.getRelation(row));
+                if(syntax.hasDependent(row))
+                {
+                    rows.append(" head=").append(syntax.getDependentBegin(row)).append('-').append(syntax.getDependentEnd(row));
+                }
+            }
+            groups.put("syntax " + syntax.getGroupName(g), rows);
+        }
+
+        SemanticAnnotations semantic = result.getSemantic();
+        for(int g = 0; g < semantic.getGroupCount(); g++)
+        {
+            StringBuilder rows = new StringBuilder();
+            for(int i = 0; i < semantic.getGroupSize(g); i++)
+            {
+                int row = semantic.getRow(g, i);
+                rows.append("\n  ").append(semantic.getBegin(row)).append('-').append(semantic.getEnd(row))
+                        .append(' ').append(semantic.getText(row)).append(" polarity=").append(semantic.getPolarity(row))
+                        .append(" subject=").append(semantic.getSubject(row)).append(" historyOf=").append(semantic.getHistoryOf(row));
+                for(int c = semantic.getConceptStart(row); c < semantic.getConceptEnd(row); c++)
+                {
+                    UMLSConcept concept = semantic.getConcept(c);
+                    rows.append(' ').append(concept.getSystem()).append(':').append(concept.getCode()).append('/').append(concept.getCui());
+                }
+            }
+            groups.put("semantic " + semantic.getGroupName(g), rows);
+        }
+
+        StringBuilder canonical = new StringBuilder();
+        for(Map.Entry<String, StringBuilder> group : groups.entrySet())
+        {
+            canonical.append(group.getKey()).append(':').append(group.getValue()).append('\n');
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * Every node id is used once and every dependent points at the node of its head.
+     */
+    private static void assertHeadsMatch(ParseResult result)
+    {
+        SyntaxAnnotations syntax = result.getSyntax();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        Set<Integer> seen = new HashSet<Integer>();
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            if(syntax.getId(row) >= 0)
+            {
+                assertTrue("Duplicate id " + syntax.getId(row), seen.add(syntax.getId(row)));
+                ids.put(syntax.getBegin(row) + ":" + syntax.getEnd(row), syntax.getId(row));
+            }
+        }
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            if(syntax.hasDependent(row))
+            {
+                Integer head = ids.get(syntax.getDependentBegin(row) + ":" + syntax.getDependentEnd(row));
+                assertEquals("Head of row " + row, head, Integer.valueOf(syntax.getDependentId(row)));
+            }
+        }
+    }
+}
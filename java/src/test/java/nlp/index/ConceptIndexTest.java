@@ -0,0 +1,342 @@
+package nlp.index;
+
+import nlp.engine.StubEngine;
+import nlp.extraction.AnnotationExtractor;
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.UMLSConcept;
+import nlp.synthetic.SyntheticNotes;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks ConceptIndex queries against a brute-force scan of the parse results that were added,
+ * while documents are buffered, written and merged, after the index is reopened and after a
+ * merge that was interrupted before it could remove the segments it had merged.
+ */
+public class ConceptIndexTest {
+    private static final int NOTES = 200;
+    private static final long NEVER = 3600000;
+
+    private static final List<ParseResult> notes = new ArrayList<ParseResult>();
+    private static final List<String> cuis = new ArrayList<String>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void parseNotes() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        StubEngine engine = new StubEngine(0, 0);
+        AnnotationExtractor extractor = new AnnotationExtractor();
+        TreeSet<String> found = new TreeSet<String>();
+
+        for(int i = 0; i < NOTES; i++)
+        {
+            String text = SyntheticNotes.note(5 + i % 40, i);
+            jcas.reset();
+            jcas.setDocumentText(text);
+            engine.process(jcas);
+            ParseResult result = new ParseResult("", text, extractor.getSyntax(jcas), extractor.getSemantic(jcas), 0, false, 0);
+            notes.add(result);
+
+            SemanticAnnotations semantic = result.getSemantic();
+            for(int c = 0; c < semantic.getConceptCount(); c++)
+            {
+                found.add(semantic.getConcept(c).getCui());
+            }
+        }
+
+        cuis.addAll(found);
+        // A CUI no document mentions
+        cuis.add("C9999999");
+    }
+
+    @Test
+    public void queriesMatchScanWhileWritingAndMerging() throws Exception
+    {
+        File directory = folder.newFolder();
+        Random random = new Random(1);
+
+        ConceptIndex index = new ConceptIndex(directory, 300, 200, 3);
+        int docs = 0;
+        for(int round = 0; round < 30; round++)
+        {
+            for(int i = 0; i < 100; i++)
+            {
+                assertEquals(docs, index.add(document(docs)));
+                docs++;
+            }
+            for(int i = 0; i < 30; i++)
+            {
+                checkRandomQuery(index, docs, random);
+            }
+            if(round % 10 == 0)
+            {
+                // Let the flush interval pass, so a partly filled buffer is written as well
+                Thread.sleep(300);
+            }
+        }
+        index.close();
+
+        assertTrue("Buffers should have been written", index.getFlushes() > 1);
+        assertTrue("Segments should have been merged", index.getMerges() > 0);
+        assertEquals(docs, index.getDocumentCount());
+        assertFalse(hasTemporaryFiles(directory));
+
+        index = new ConceptIndex(directory, 300, 200, 3);
+        try {
+            assertEquals(docs, index.getDocumentCount());
+            for(int i = 0; i < 300; i++)
+            {
+                checkRandomQuery(index, docs, random);
+            }
+            checkPaging(index, docs);
+            assertEquals("Ids continue after a reopen", docs, index.add(document(docs)));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void pagingReturnsEveryMentionOnce() throws Exception
+    {
+        ConceptIndex index = new ConceptIndex(folder.newFolder(), 500, NEVER, 4);
+        try {
+            for(int doc = 0; doc < 1000; doc++)
+            {
+                index.add(document(doc));
+            }
+            // Part of the documents is in segments, the rest still in buffers
+            checkPaging(index, 1000);
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void seekAfterFindsFirstPostingAfterDocument() throws Exception
+    {
+        File directory = folder.newFolder();
+        ConceptIndex index = new ConceptIndex(directory, 2000, NEVER, 100);
+        for(int doc = 0; doc < 500; doc++)
+        {
+            index.add(document(doc));
+        }
+        index.close();
+
+        for(File file : directory.listFiles())
+        {
+            IndexSegment segment = IndexSegment.open(file);
+            for(int term = 0; term < segment.getTermCount(); term++)
+            {
+                int start = segment.getPostingStart(term);
+                int end = segment.getPostingEnd(term);
+                for(int doc = segment.getFirstDoc() - 1; doc <= segment.getEndDoc(); doc++)
+                {
+                    int expected = start;
+                    while(expected < end && segment.get(expected, IndexSegment.DOC) <= doc)
+                    {
+                        expected++;
+                    }
+                    assertEquals(segment.getTerm(term) + " after " + doc, expected, segment.seekAfter(start, end, doc));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void openRemovesLeftoversOfInterruptedWrites() throws Exception
+    {
+        // The same documents and flush size give segments with the same boundaries, merged in one
+        // directory and not in the other
+        File merged = folder.newFolder();
+        ConceptIndex index = new ConceptIndex(merged, 200, NEVER, 2);
+        for(int doc = 0; doc < 1500; doc++)
+        {
+            index.add(document(doc));
+        }
+        index.close();
+        assertTrue("Segments should have been merged", index.getMerges() > 0);
+
+        File crashed = folder.newFolder();
+        index = new ConceptIndex(crashed, 200, NEVER, 1000);
+        for(int doc = 0; doc < 1500; doc++)
+        {
+            index.add(document(doc));
+        }
+        index.close();
+        assertEquals(0, index.getMerges());
+
+        // As if the process died after the merged segments were moved into place, but before the
+        // segments they replace were removed, and while another segment was being written
+        for(File file : merged.listFiles())
+        {
+            Files.copy(file.toPath(), new File(crashed, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        assertTrue(new File(crashed, "segment-1500" + IndexSegment.TEMPORARY_SUFFIX).createNewFile());
+        assertTrue(crashed.list().length > merged.list().length + 1);
+
+        index = new ConceptIndex(crashed, 200, NEVER, 1000);
+        try {
+            assertEquals(sorted(merged.list()), sorted(crashed.list()));
+            assertEquals(merged.list().length, index.getSegmentCount());
+            assertEquals(1500, index.getDocumentCount());
+
+            Random random = new Random(2);
+            for(int i = 0; i < 300; i++)
+            {
+                checkRandomQuery(index, 1500, random);
+            }
+            checkPaging(index, 1500);
+        } finally {
+            index.close();
+        }
+    }
+
+    private static ParseResult document(int doc)
+    {
+        ParseResult note = notes.get(doc % NOTES);
+        return new ParseResult("doc-" + doc, note.getInput(), note.getSyntax(), note.getSemantic(), 0, false, 0);
+    }
+
+    private static void checkRandomQuery(ConceptIndex index, int docs, Random random)
+    {
+        String cui = cuis.get(random.nextInt(cuis.size()));
+        Integer polarity = random.nextBoolean() ? null : Integer.valueOf(random.nextBoolean() ? -1 : 1);
+        Integer historyOf = random.nextInt(4) == 0 ? Integer.valueOf(0) : null;
+        String subject = random.nextInt(5) == 0 ? "patient" : null;
+        int after = random.nextInt(3) == 0 ? -1 : random.nextInt(docs);
+        int limit = 1 + random.nextInt(50);
+
+        assertEquals(cui + " polarity " + polarity + " historyOf " + historyOf + " subject " + subject + " after " + after + " limit " + limit,
+                scan(docs, cui, polarity, historyOf, subject, after, limit),
+                describe(index.query(cui, polarity, historyOf, subject, after, limit)));
+    }
+
+    /**
+     * Pages through the negated and the affirmed mentions of every CUI, passing the last document
+     * id of a page as after, and compares them with all mentions the scan finds.
+     */
+    private static void checkPaging(ConceptIndex index, int docs)
+    {
+        for(String cui : cuis)
+        {
+            for(int polarity = -1; polarity <= 1; polarity += 2)
+            {
+                StringBuilder paged = new StringBuilder();
+                int after = -1;
+                while(true)
+                {
+                    List<ConceptMention> page = index.query(cui, polarity, null, null, after, 37);
+                    if(page.isEmpty())
+                    {
+                        break;
+                    }
+                    paged.append(describe(page));
+                    after = page.get(page.size() - 1).getDocumentId();
+                }
+                assertEquals(cui + " polarity " + polarity, scan(docs, cui, polarity, null, null, -1, Integer.MAX_VALUE), paged.toString());
+            }
+        }
+    }
+
+    /**
+     * The mentions of the CUI in the documents after the given one, for at most limit documents,
+     * found by going through the parse results.
+     */
+    private static String scan(int docs, String cui, Integer polarity, Integer historyOf, String subject, int after, int limit)
+    {
+        StringBuilder mentions = new StringBuilder();
+        int documents = 0;
+        for(int doc = after + 1; doc < docs; doc++)
+        {
+            SemanticAnnotations semantic = notes.get(doc % NOTES).getSemantic();
+            boolean matched = false;
+            for(int row = 0; row < semantic.size(); row++)
+            {
+                if((polarity != null && semantic.getPolarity(row) != polarity)
+                        || (historyOf != null && semantic.getHistoryOf(row) != historyOf)
+                        || (subject != null && !subject.equals(semantic.getSubject(row))))
+                {
+                    continue;
+                }
+
+                for(int i = semantic.getConceptStart(row); i < semantic.getConceptEnd(row); i++)
+                {
+                    UMLSConcept concept = semantic.getConcept(i);
+                    if(!cui.equals(concept.getCui()))
+                    {
+                        continue;
+                    }
+                    if(!matched)
+                    {
+                        if(documents == limit)
+                        {
+                            return mentions.toString();
+                        }
+                        documents++;
+                        matched = true;
+                    }
+                    describe(mentions, doc, "doc-" + doc, semantic.getBegin(row), semantic.getEnd(row), concept.getCode(), concept.getSystem(),
+                            semantic.getPolarity(row), semantic.getHistoryOf(row), semantic.getSubject(row));
+                }
+            }
+        }
+        return mentions.toString();
+    }
+
+    private static String describe(List<ConceptMention> mentions)
+    {
+        StringBuilder description = new StringBuilder();
+        for(ConceptMention mention : mentions)
+        {
+            describe(description, mention.getDocumentId(), mention.getDocumentName(), mention.getBegin(), mention.getEnd(),
+                    mention.getCode(), mention.getSystem(), mention.getPolarity(), mention.getHistoryOf(), mention.getSubject());
+        }
+        return description.toString();
+    }
+
+    private static void describe(StringBuilder description, int doc, String name, int begin, int end, String code, String system, int polarity, int historyOf, String subject)
+    {
+        description.append(doc).append(' ').append(name).append(' ').append(begin).append('-').append(end)
+                .append(' ').append(system).append(':').append(code).append(" polarity=").append(polarity)
+                .append(" historyOf=").append(historyOf).append(" subject=").append(subject).append('\n');
+    }
+
+    private static boolean hasTemporaryFiles(File directory)
+    {
+        for(String name : directory.list())
+        {
+            if(name.endsWith(IndexSegment.TEMPORARY_SUFFIX))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> sorted(String[] names)
+    {
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+}
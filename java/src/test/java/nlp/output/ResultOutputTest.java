@@ -0,0 +1,656 @@
+package nlp.output;
+
+import nlp.engine.StubEngine;
+import nlp.extraction.AnnotationExtractor;
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.information.UMLSConcept;
+import nlp.synthetic.SyntheticNotes;
+import org.apache.ctakes.typesystem.type.syntax.ConllDependencyNode;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes a fixture result, a synthetic note with characters that need escaping parsed with the
+ * stub engine and partly enriched with SNOMED CT information, in every output format and reads
+ * it back: binary through BinaryResultReader, XML and JSON by their elements and fields, in the
+ * default and the compact layout. Also checks the columns of the dependency graph against the
+ * rows they are built from and against the dependency nodes of the CAS.
+ */
+public class ResultOutputTest {
+    private static final String SUFFIX = "\n\nCaf\u00e9 <note> & \"quoted\" fever \uD83D\uDE00 ends here.";
+
+    private JCas jcas;
+    private ParseResult fixture;
+
+    @Before
+    public void parseFixture() throws Exception
+    {
+        String text = SyntheticNotes.note(12, 7) + SUFFIX;
+        jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(text);
+        new StubEngine(0, 0).process(jcas);
+
+        AnnotationExtractor extractor = new AnnotationExtractor();
+        SemanticAnnotations semantic = extractor.getSemantic(jcas);
+        for(int c = 0; c < semantic.getConceptCount(); c++)
+        {
+            UMLSConcept concept = semantic.getConcept(c);
+            if(c % 3 == 0)
+            {
+                // Identifiers beyond the int range, and one that only fits in a long
+                semantic.setConcept(c, concept.withSnomed("Finding \"" + c + "\" (finding)", "Pr\u00e9f\u00e9r\u00e9 <" + c + ">",
+                        new long[] { 404684003L, 138875005L, Long.MAX_VALUE }));
+            }
+            else if(c % 3 == 1)
+            {
+                semantic.setConcept(c, concept.withSnomed("Finding " + c, concept.getPreferredText(), null));
+            }
+        }
+
+        fixture = new ParseResult("fixture \u00e9.txt", text, extractor.getSyntax(jcas), semantic, 1.25, true, 0.5);
+        assertTrue("The fixture needs dependency nodes", fixture.getSyntax().getNodeCount() > 10);
+        assertTrue("The fixture needs concepts", semantic.getConceptCount() > 3);
+    }
+
+    @Test
+    public void binaryRoundTrip() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryResultWriter().write(fixture, out);
+        ParseResult read = new BinaryResultReader().read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(fixture.getFileName(), read.getFileName());
+        assertEquals(fixture.getInput(), read.getInput());
+        assertEquals(fixture.getEnvironmentDuration(), read.getEnvironmentDuration(), 0);
+        assertEquals(fixture.isExisted(), read.isExisted());
+        assertEquals(fixture.getParsingDuration(), read.getParsingDuration(), 0);
+        assertEquals(describe(fixture), describe(read));
+        assertEquals(describeGraph(fixture.getSyntax()), describeGraph(read.getSyntax()));
+    }
+
+    @Test
+    public void xmlHoldsEveryAnnotation() throws Exception
+    {
+        Element output = xml(new XMLResultWriter(false));
+        assertFalse(output.hasAttribute("compact"));
+        assertEquals(fixture.getFileName(), child(output, "FileName").getTextContent());
+        assertEquals(fixture.getInput(), child(output, "Input").getTextContent());
+        assertNull("Dependencies are only written in compact mode", child(output, "Dependencies"));
+
+        assertEquals(describe(fixture), describeXml(output, false));
+    }
+
+    @Test
+    public void compactXmlHoldsEveryAnnotationAndTheGraph() throws Exception
+    {
+        Element output = xml(new XMLResultWriter(true));
+        assertEquals("true", output.getAttribute("compact"));
+        assertNull(child(output, "Input"));
+
+        Element dependencies = child(output, "Dependencies");
+        String graph = "heads " + dependencies.getAttribute("heads") + "\nchildStart " + dependencies.getAttribute("childStart")
+                + "\nchildren " + dependencies.getAttribute("children") + "\nsentenceStart " + dependencies.getAttribute("sentenceStart") + "\n";
+        assertEquals(describeGraph(fixture.getSyntax()), graph);
+
+        assertEquals(describe(fixture), describeXml(output, true));
+    }
+
+    @Test
+    public void jsonHoldsEveryAnnotationAndTheGraph() throws Exception
+    {
+        for(boolean compact : new boolean[] { false, true })
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new JSONResultWriter(compact).write(fixture, out);
+            Map<?, ?> output = (Map<?, ?>) new Json(new String(out.toByteArray(), StandardCharsets.UTF_8)).parse();
+
+            assertEquals(fixture.getFileName(), output.get("fileName"));
+            assertEquals(compact ? null : fixture.getInput(), output.get("input"));
+            assertEquals(compact, output.containsKey("concepts"));
+
+            Map<?, ?> dependencies = (Map<?, ?>) output.get("dependencies");
+            String graph = "heads " + join((List<?>) dependencies.get("heads")) + "\nchildStart " + join((List<?>) dependencies.get("childStart"))
+                    + "\nchildren " + join((List<?>) dependencies.get("children")) + "\nsentenceStart " + join((List<?>) dependencies.get("sentenceStart")) + "\n";
+            assertEquals("compact=" + compact, describeGraph(fixture.getSyntax()), graph);
+
+            assertEquals("compact=" + compact, describe(fixture), describeJson(output, compact));
+
+            Map<?, ?> duration = (Map<?, ?>) output.get("duration");
+            assertEquals(fixture.getEnvironmentDuration(), ((Number) duration.get("environment")).doubleValue(), 0);
+            assertEquals(Boolean.TRUE, duration.get("existed"));
+        }
+    }
+
+    @Test
+    public void dependencyGraphMatchesRows()
+    {
+        SyntaxAnnotations syntax = fixture.getSyntax();
+        int nodes = syntax.getNodeCount();
+
+        // Ids are the ordinals of the nodes of the CAS, in document order
+        List<ConllDependencyNode> cas = new ArrayList<ConllDependencyNode>(JCasUtil.select(jcas, ConllDependencyNode.class));
+        assertEquals(cas.size(), nodes);
+        for(int node = 0; node < nodes; node++)
+        {
+            int row = syntax.getNodeRow(node);
+            assertEquals(node, syntax.getId(row));
+            assertEquals(cas.get(node).getBegin(), syntax.getBegin(row));
+            assertEquals(cas.get(node).getEnd(), syntax.getEnd(row));
+
+            ConllDependencyNode head = cas.get(node).getHead();
+            assertEquals(head == null ? SyntaxAnnotations.NONE : cas.indexOf(head), syntax.getHead(node));
+            assertEquals(syntax.getDependentId(row), syntax.getHead(node));
+        }
+
+        // The children of a node are the nodes that have it as their head, in id order
+        for(int node = 0; node < nodes; node++)
+        {
+            StringBuilder expected = new StringBuilder();
+            for(int other = 0; other < nodes; other++)
+            {
+                if(syntax.getHead(other) == node) expected.append(other).append(' ');
+            }
+            StringBuilder children = new StringBuilder();
+            for(int i = syntax.getChildStart(node); i < syntax.getChildStart(node + 1); i++)
+            {
+                children.append(syntax.getChild(i)).append(' ');
+            }
+            assertEquals("Children of " + node, expected.toString(), children.toString());
+        }
+        assertEquals(syntax.getChildStart(nodes), nodes - roots(syntax));
+
+        // A sentence is a run of nodes with the same root, and the next run has another one
+        assertEquals(0, syntax.getSentenceStart(0));
+        assertEquals(nodes, syntax.getSentenceStart(syntax.getSentenceCount()));
+        assertEquals(roots(syntax), syntax.getSentenceCount());
+        for(int sentence = 0; sentence < syntax.getSentenceCount(); sentence++)
+        {
+            int start = syntax.getSentenceStart(sentence);
+            int end = syntax.getSentenceStart(sentence + 1);
+            assertTrue(start < end);
+            for(int node = start; node < end; node++)
+            {
+                assertEquals("Root of " + node, root(syntax, start), root(syntax, node));
+            }
+            if(end < nodes)
+            {
+                assertTrue(root(syntax, start) != root(syntax, end));
+            }
+        }
+    }
+
+    private Element xml(XMLResultWriter writer) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(fixture, out);
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+        return document.getDocumentElement();
+    }
+
+    private static int roots(SyntaxAnnotations syntax)
+    {
+        int roots = 0;
+        for(int node = 0; node < syntax.getNodeCount(); node++)
+        {
+            if(syntax.getHead(node) == SyntaxAnnotations.NONE) roots++;
+        }
+        return roots;
+    }
+
+    private static int root(SyntaxAnnotations syntax, int node)
+    {
+        while(syntax.getHead(node) != SyntaxAnnotations.NONE)
+        {
+            node = syntax.getHead(node);
+        }
+        return node;
+    }
+
+    /**
+     * Every row of the result, group by group in the order of the groups, with all of its columns.
+     */
+    private static String describe(ParseResult result)
+    {
+        StringBuilder description = new StringBuilder();
+
+        SyntaxAnnotations syntax = result.getSyntax();
+        for(int g = 0; g < syntax.getGroupCount(); g++)
+        {
+            description.append("syntax ").append(syntax.getGroupName(g)).append('\n');
+            for(int i = 0; i < syntax.getGroupSize(g); i++)
+            {
+                int row = syntax.getRow(g, i);
+                describeSyntax(description, syntax.getBegin(row), syntax.getEnd(row), syntax.getToken(row), syntax.getId(row), syntax.getRelation(row),
+                        syntax.hasDependent(row), syntax.getDependentBegin(row), syntax.getDependentEnd(row), syntax.getDependentId(row));
+            }
+        }
+
+        SemanticAnnotations semantic = result.getSemantic();
+        for(int g = 0; g < semantic.getGroupCount(); g++)
+        {
+            description.append("semantic ").append(semantic.getGroupName(g)).append('\n');
+            for(int i = 0; i < semantic.getGroupSize(g); i++)
+            {
+                int row = semantic.getRow(g, i);
+                describeMention(description, semantic.getBegin(row), semantic.getEnd(row), semantic.getPolarity(row), semantic.getSubject(row), semantic.getHistoryOf(row));
+                for(int c = semantic.getConceptStart(row); c < semantic.getConceptEnd(row); c++)
+                {
+                    UMLSConcept concept = semantic.getConcept(c);
+                    describeConcept(description, concept.getSystem(), concept.getCode(), concept.getCui(), concept.getTui(), concept.getPreferredText(),
+                            concept.getFullySpecifiedName(), concept.getAncestors() == null ? null : join(concept.getAncestors()));
+                }
+            }
+        }
+        return description.toString();
+    }
+
+    private static String describeGraph(SyntaxAnnotations syntax)
+    {
+        int nodes = syntax.getNodeCount();
+        List<Integer> heads = new ArrayList<Integer>();
+        List<Integer> childStart = new ArrayList<Integer>();
+        List<Integer> children = new ArrayList<Integer>();
+        List<Integer> sentenceStart = new ArrayList<Integer>();
+        for(int node = 0; node < nodes; node++)
+        {
+            heads.add(syntax.getHead(node));
+        }
+        for(int node = 0; node <= nodes; node++)
+        {
+            childStart.add(syntax.getChildStart(node));
+        }
+        for(int i = 0; i < syntax.getChildStart(nodes); i++)
+        {
+            children.add(syntax.getChild(i));
+        }
+        for(int sentence = 0; sentence <= syntax.getSentenceCount(); sentence++)
+        {
+            sentenceStart.add(syntax.getSentenceStart(sentence));
+        }
+        return "heads " + join(heads) + "\nchildStart " + join(childStart) + "\nchildren " + join(children) + "\nsentenceStart " + join(sentenceStart) + "\n";
+    }
+
+    /**
+     * Describes the annotations of an AnnotatedOutput element like describe, checking on the way
+     * that the text attributes are the input between the offsets and that compact mode leaves them out.
+     */
+    private String describeXml(Element output, boolean compact)
+    {
+        String input = fixture.getInput();
+        StringBuilder description = new StringBuilder();
+
+        for(Element group : children(child(output, "Syntax")))
+        {
+            String type = group.getTagName().substring(0, group.getTagName().length() - 1);
+            description.append("syntax ").append(type).append('\n');
+            for(Element row : children(group))
+            {
+                assertEquals(type, row.getTagName());
+                int begin = integer(row, "begin");
+                int end = integer(row, "end");
+                boolean dependent = row.hasAttribute("dependentBegin");
+                checkText(row, "text", input, begin, end, compact);
+                if(dependent)
+                {
+                    checkText(row, "dependentText", input, integer(row, "dependentBegin"), integer(row, "dependentEnd"), compact);
+                }
+                describeSyntax(description, begin, end, integer(row, "token"), integer(row, "id"), attribute(row, "relation"), dependent,
+                        integer(row, "dependentBegin"), integer(row, "dependentEnd"), integer(row, "dependentId"));
+            }
+        }
+
+        List<Element> concepts = compact ? children(child(output, "Concepts")) : null;
+        for(Element group : children(child(output, "Semantic")))
+        {
+            String type = group.getTagName().substring(0, group.getTagName().length() - 1);
+            description.append("semantic ").append(type).append('\n');
+            for(Element row : children(group))
+            {
+                assertEquals(type, row.getTagName());
+                int begin = integer(row, "begin");
+                int end = integer(row, "end");
+                checkText(row, "text", input, begin, end, compact);
+                describeMention(description, begin, end, integer(row, "polarity"), attribute(row, "subject"), integer(row, "historyOf"));
+
+                List<Element> mentionConcepts = new ArrayList<Element>();
+                if(compact)
+                {
+                    assertTrue(children(row).isEmpty());
+                    if(row.hasAttribute("concepts"))
+                    {
+                        for(String index : row.getAttribute("concepts").split(" "))
+                        {
+                            mentionConcepts.add(concepts.get(Integer.parseInt(index)));
+                        }
+                    }
+                }
+                else
+                {
+                    mentionConcepts = children(row);
+                }
+                for(Element concept : mentionConcepts)
+                {
+                    describeConcept(description, attribute(concept, "system"), attribute(concept, "code"), attribute(concept, "cui"), attribute(concept, "tui"),
+                            attribute(concept, "preferredText"), attribute(concept, "fsn"), attribute(concept, "ancestors"));
+                }
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Describes the annotations of a JSON result like describe, checking the text fields like describeXml.
+     */
+    private String describeJson(Map<?, ?> output, boolean compact)
+    {
+        String input = fixture.getInput();
+        StringBuilder description = new StringBuilder();
+
+        for(Map.Entry<?, ?> group : ((Map<?, ?>) output.get("syntax")).entrySet())
+        {
+            description.append("syntax ").append(group.getKey()).append('\n');
+            for(Object item : (List<?>) group.getValue())
+            {
+                Map<?, ?> row = (Map<?, ?>) item;
+                int begin = integer(row, "begin");
+                int end = integer(row, "end");
+                boolean dependent = row.containsKey("dependentBegin");
+                checkText(row, "text", input, begin, end, compact);
+                if(dependent)
+                {
+                    checkText(row, "dependentText", input, integer(row, "dependentBegin"), integer(row, "dependentEnd"), compact);
+                }
+                describeSyntax(description, begin, end, integer(row, "token"), integer(row, "id"), (String) row.get("relation"), dependent,
+                        integer(row, "dependentBegin"), integer(row, "dependentEnd"), integer(row, "dependentId"));
+            }
+        }
+
+        List<?> concepts = (List<?>) output.get("concepts");
+        for(Map.Entry<?, ?> group : ((Map<?, ?>) output.get("semantic")).entrySet())
+        {
+            description.append("semantic ").append(group.getKey()).append('\n');
+            for(Object item : (List<?>) group.getValue())
+            {
+                Map<?, ?> row = (Map<?, ?>) item;
+                int begin = integer(row, "begin");
+                int end = integer(row, "end");
+                checkText(row, "text", input, begin, end, compact);
+                describeMention(description, begin, end, integer(row, "polarity"), (String) row.get("subject"), integer(row, "historyOf"));
+
+                for(Object mentionConcept : (List<?>) row.get("concepts"))
+                {
+                    Map<?, ?> concept = (Map<?, ?>) (compact ? concepts.get(((Number) mentionConcept).intValue()) : mentionConcept);
+                    List<?> ancestors = (List<?>) concept.get("ancestors");
+                    describeConcept(description, (String) concept.get("system"), (String) concept.get("code"), (String) concept.get("cui"),
+                            (String) concept.get("tui"), (String) concept.get("preferredText"), (String) concept.get("fsn"),
+                            ancestors == null ? null : join(ancestors));
+                }
+            }
+        }
+        return description.toString();
+    }
+
+    private static void describeSyntax(StringBuilder description, int begin, int end, int token, int id, String relation,
+                                       boolean dependent, int dependentBegin, int dependentEnd, int dependentId)
+    {
+        description.append("  ").append(begin).append('-').append(end).append(" token=").append(token).append(" id=").append(id)
+                .append(" relation=").append(relation);
+        if(dependent)
+        {
+            description.append(" head=").append(dependentBegin).append('-').append(dependentEnd).append('/').append(dependentId);
+        }
+        description.append('\n');
+    }
+
+    private static void describeMention(StringBuilder description, int begin, int end, int polarity, String subject, int historyOf)
+    {
+        description.append("  ").append(begin).append('-').append(end).append(" polarity=").append(polarity)
+                .append(" subject=").append(subject).append(" historyOf=").append(historyOf).append('\n');
+    }
+
+    private static void describeConcept(StringBuilder description, String system, String code, String cui, String tui, String preferredText,
+                                        String fullySpecifiedName, String ancestors)
+    {
+        description.append("    ").append(system).append(':').append(code).append(" cui=").append(cui).append(" tui=").append(tui)
+                .append(" preferred=").append(preferredText).append(" fsn=").append(fullySpecifiedName).append(" ancestors=").append(ancestors).append('\n');
+    }
+
+    private static void checkText(Element row, String name, String input, int begin, int end, boolean compact)
+    {
+        if(compact)
+        {
+            assertFalse(name + " is left out in compact mode", row.hasAttribute(name));
+        }
+        else
+        {
+            assertEquals(input.substring(begin, end), row.getAttribute(name));
+        }
+    }
+
+    private static void checkText(Map<?, ?> row, String name, String input, int begin, int end, boolean compact)
+    {
+        assertEquals(compact ? null : input.substring(begin, end), row.get(name));
+    }
+
+    private static Element child(Element parent, String name)
+    {
+        for(Element child : children(parent))
+        {
+            if(child.getTagName().equals(name)) return child;
+        }
+        return null;
+    }
+
+    private static List<Element> children(Element parent)
+    {
+        List<Element> children = new ArrayList<Element>();
+        for(Node node = parent.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if(node instanceof Element) children.add((Element) node);
+        }
+        return children;
+    }
+
+    private static String attribute(Element element, String name)
+    {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    private static int integer(Element element, String name)
+    {
+        return element.hasAttribute(name) ? Integer.parseInt(element.getAttribute(name)) : SyntaxAnnotations.NONE;
+    }
+
+    private static int integer(Map<?, ?> object, String name)
+    {
+        Object value = object.get(name);
+        return value == null ? SyntaxAnnotations.NONE : ((Number) value).intValue();
+    }
+
+    private static String join(long[] values)
+    {
+        StringBuilder joined = new StringBuilder();
+        for(int i = 0; i < values.length; i++)
+        {
+            if(i > 0) joined.append(' ');
+            joined.append(values[i]);
+        }
+        return joined.toString();
+    }
+
+    private static String join(List<?> values)
+    {
+        StringBuilder joined = new StringBuilder();
+        for(int i = 0; i < values.size(); i++)
+        {
+            if(i > 0) joined.append(' ');
+            joined.append(values.get(i));
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Just enough of a JSON parser to read the output back: objects keep the order of their
+     * fields, integers become Longs and other numbers Doubles.
+     */
+    private static class Json {
+        private final String text;
+        private int position;
+
+        private Json(String text)
+        {
+            this.text = text;
+        }
+
+        private Object parse()
+        {
+            Object value = value();
+            skipSpace();
+            assertEquals("Trailing characters", text.length(), position);
+            return value;
+        }
+
+        private Object value()
+        {
+            skipSpace();
+            char c = text.charAt(position);
+            if(c == '{')
+            {
+                Map<String, Object> object = new LinkedHashMap<String, Object>();
+                position++;
+                skipSpace();
+                if(text.charAt(position) == '}')
+                {
+                    position++;
+                    return object;
+                }
+                while(true)
+                {
+                    skipSpace();
+                    String name = string();
+                    skipSpace();
+                    expect(':');
+                    assertFalse("Duplicate field " + name, object.containsKey(name));
+                    object.put(name, value());
+                    skipSpace();
+                    if(text.charAt(position++) == '}') return object;
+                    assertEquals(',', text.charAt(position - 1));
+                }
+            }
+            if(c == '[')
+            {
+                List<Object> array = new ArrayList<Object>();
+                position++;
+                skipSpace();
+                if(text.charAt(position) == ']')
+                {
+                    position++;
+                    return array;
+                }
+                while(true)
+                {
+                    array.add(value());
+                    skipSpace();
+                    if(text.charAt(position++) == ']') return array;
+                    assertEquals(',', text.charAt(position - 1));
+                }
+            }
+            if(c == '"')
+            {
+                return string();
+            }
+            if(text.startsWith("null", position))
+            {
+                position += 4;
+                return null;
+            }
+            if(text.startsWith("true", position))
+            {
+                position += 4;
+                return Boolean.TRUE;
+            }
+            if(text.startsWith("false", position))
+            {
+                position += 5;
+                return Boolean.FALSE;
+            }
+
+            int start = position;
+            while(position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0)
+            {
+                position++;
+            }
+            String number = text.substring(start, position);
+            return number.matches("-?[0-9]+") ? (Object) Long.valueOf(number) : (Object) Double.valueOf(number);
+        }
+
+        private String string()
+        {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while(true)
+            {
+                char c = text.charAt(position++);
+                if(c == '"') return value.toString();
+                assertTrue("Unescaped control character", c >= 0x20);
+                if(c != '\\')
+                {
+                    value.append(c);
+                    continue;
+                }
+
+                char escape = text.charAt(position++);
+                switch(escape)
+                {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        assertTrue("Unknown escape " + escape, escape == '"' || escape == '\\' || escape == '/');
+                        value.append(escape);
+                }
+            }
+        }
+
+        private void expect(char c)
+        {
+            assertEquals(c, text.charAt(position++));
+        }
+
+        private void skipSpace()
+        {
+            while(position < text.length() && Character.isWhitespace(text.charAt(position)))
+            {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package nlp.session;
+
+import nlp.engine.StubEngine;
+import nlp.extraction.AnnotationExtractor;
+import nlp.information.ParseResult;
+import nlp.information.SemanticAnnotations;
+import nlp.information.SyntaxAnnotations;
+import nlp.information.UMLSConcept;
+import nlp.synthetic.SyntheticNotes;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a result updated with ResultSplicer is the same as the result of parsing the whole
+ * new text, for random edits of a synthetic note parsed with the stub engine.
+ */
+public class ResultSplicerTest {
+    private static final String[] REPLACEMENTS = { "", "fever ", "aspirin", ". New sentence. ", "\n\n", "x", " and cough" };
+
+    private JCas jcas;
+    private final StubEngine engine = new StubEngine(0, 0);
+    private final AnnotationExtractor extractor = new AnnotationExtractor();
+
+    @Before
+    public void createJCas() throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+    }
+
+    @Test
+    public void editsMatchFullParseWithoutContext() throws Exception
+    {
+        checkRandomEdits(new ResultSplicer(0), 1);
+    }
+
+    @Test
+    public void editsMatchFullParseWithContext() throws Exception
+    {
+        checkRandomEdits(new ResultSplicer(2), 2);
+    }
+
+    @Test
+    public void editRemovingTheLastAnnotationOfATypeMatchesFullParse() throws Exception
+    {
+        String text = "Patient has a fever. He took 2 tablets of aspirin.";
+        String next = "Patient has a fever. He took tablets of aspirin.";
+        ParseResult previous = parse(text);
+        assertTrue(canonical(previous).contains("syntax NumToken:\n"));
+
+        checkEdit(new ResultSplicer(0), previous, text, next, "Removing the number");
+    }
+
+    @Test
+    public void unchangedTextIsAnEmptyEdit()
+    {
+        assertTrue(TextEdit.between("No fever.", "No fever.").isEmpty());
+    }
+
+    @Test
+    public void editSkipsCommonPrefixAndSuffix()
+    {
+        TextEdit edit = TextEdit.between("Patient has a fever.", "Patient has a mild fever.");
+        assertEquals(14, edit.getBegin());
+        assertEquals(14, edit.getOldEnd());
+        assertEquals(19, edit.getNewEnd());
+        assertEquals(5, edit.getDelta());
+
+        edit = TextEdit.between("No cough. No fever.", "No fever.");
+        assertEquals(3, edit.getBegin());
+        assertEquals(13, edit.getOldEnd());
+        assertEquals(3, edit.getNewEnd());
+    }
+
+    @Test
+    public void editNeverSplitsSurrogatePairs()
+    {
+        // Both pairs share their high surrogate, which has to stay in the edit with the low one
+        TextEdit edit = TextEdit.between("a\uD83D\uDE00b", "a\uD83D\uDE01b");
+        assertEquals(1, edit.getBegin());
+        assertEquals(3, edit.getOldEnd());
+        assertEquals(3, edit.getNewEnd());
+    }
+
+    private void checkRandomEdits(ResultSplicer splicer, long seed) throws Exception
+    {
+        Random random = new Random(seed);
+        String text = SyntheticNotes.note(300, 3);
+        ParseResult current = parse(text);
+
+        for(int i = 0; i < 200; i++)
+        {
+            int begin = random.nextInt(text.length());
+            int end = Math.min(text.length(), begin + random.nextInt(15));
+            String next = text.substring(0, begin) + REPLACEMENTS[random.nextInt(REPLACEMENTS.length)] + text.substring(end);
+
+            if(text.equals(next))
+            {
+                continue;
+            }
+
+            ParseResult spliced = checkEdit(splicer, current, text, next, "Edit " + i + " at " + begin);
+
+            text = next;
+            current = spliced;
+        }
+    }
+
+    /**
+     * Splices the edit from text to next into current and checks it against a full parse of next.
+     */
+    private ParseResult checkEdit(ResultSplicer splicer, ParseResult current, String text, String next, String message) throws Exception
+    {
+        TextEdit edit = TextEdit.between(text, next);
+        int[] window = splicer.window(current, next, edit);
+        assertTrue("The window must cover the edit", window[0] <= edit.getBegin() && edit.getNewEnd() <= window[1]);
+        assertNothingCrosses(current, window[0], "begin of the window, " + message);
+        assertNothingCrosses(current, window[1] - edit.getDelta(), "end of the window, " + message);
+
+        ParseResult part = parse(next.substring(window[0], window[1]));
+        ParseResult spliced = ResultSplicer.splice(current, next, edit, window, part, 0);
+
+        assertEquals(message, canonical(parse(next)), canonical(spliced));
+        assertHeadsMatch(spliced);
+        return spliced;
+    }
+
+    private ParseResult parse(String text) throws Exception
+    {
+        jcas.reset();
+        jcas.setDocumentText(text);
+        engine.process(jcas);
+        return new ParseResult("", text, extractor.getSyntax(jcas), extractor.getSemantic(jcas), 0, false, 0);
+    }
+
+    /**
+     * The annotations of the result group by group, in the order of their names. The extractor
+     * orders the groups by type as well as by position, which a spliced result cannot follow, and
+     * the writers identify groups by name. The ids of the nodes, which a spliced result numbers
+     * differently, are left out; assertHeadsMatch checks that they point at the right nodes.
+     */
+    private static String canonical(ParseResult result)
+    {
+        Map<String, StringBuilder> groups = new TreeMap<String, StringBuilder>();
+
+        SyntaxAnnotations syntax = result.getSyntax();
+        for(int g = 0; g < syntax.getGroupCount(); g++)
+        {
+            StringBuilder rows = new StringBuilder();
+            for(int i = 0; i < syntax.getGroupSize(g); i++)
+            {
+                int row = syntax.getRow(g, i);
+                rows.append("\n  ").append(syntax.getBegin(row)).append('-').append(syntax.getEnd(row))
+                        .append(' ').append(syntax.getText(row)).append(" token=").append(syntax.getToken(row))
+                        .append(" node=").append(syntax.getId(row) >= 0).append(" relation=").append(syntax.getRelation(row));
+                if(syntax.hasDependent(row))
+                {
+                    rows.append(" head=").append(syntax.getDependentBegin(row)).append('-').append(syntax.getDependentEnd(row));
+                }
+            }
+            groups.put("syntax " + syntax.getGroupName(g), rows);
+        }
+
+        SemanticAnnotations semantic = result.getSemantic();
+        for(int g = 0; g < semantic.getGroupCount(); g++)
+        {
+            StringBuilder rows = new StringBuilder();
+            for(int i = 0; i < semantic.getGroupSize(g); i++)
+            {
+                int row = semantic.getRow(g, i);
+                rows.append("\n  ").append(semantic.getBegin(row)).append('-').append(semantic.getEnd(row))
+                        .append(' ').append(semantic.getText(row)).append(" polarity=").append(semantic.getPolarity(row))
+                        .append(" subject=").append(semantic.getSubject(row)).append(" historyOf=").append(semantic.getHistoryOf(row));
+                for(int c = semantic.getConceptStart(row); c < semantic.getConceptEnd(row); c++)
+                {
+                    UMLSConcept concept = semantic.getConcept(c);
+                    rows.append(' ').append(concept.getSystem()).append(':').append(concept.getCode()).append('/').append(concept.getCui());
+                }
+            }
+            groups.put("semantic " + semantic.getGroupName(g), rows);
+        }
+
+        StringBuilder canonical = new StringBuilder();
+        for(Map.Entry<String, StringBuilder> group : groups.entrySet())
+        {
+            canonical.append(group.getKey()).append(':').append(group.getValue()).append('\n');
+        }
+        return canonical.toString();
+    }
+
+    private static void assertHeadsMatch(ParseResult result)
+    {
+        SyntaxAnnotations syntax = result.getSyntax();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        Set<Integer> seen = new HashSet<Integer>();
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            if(syntax.getId(row) >= 0)
+            {
+                assertTrue("Duplicate id " + syntax.getId(row), seen.add(syntax.getId(row)));
+                ids.put(syntax.getBegin(row) + ":" + syntax.getEnd(row), syntax.getId(row));
+            }
+        }
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            if(syntax.hasDependent(row))
+            {
+                Integer head = ids.get(syntax.getDependentBegin(row) + ":" + syntax.getDependentEnd(row));
+                assertEquals("Head of row " + row, head, Integer.valueOf(syntax.getDependentId(row)));
+            }
+        }
+    }
+
+    private static void assertNothingCrosses(ParseResult result, int offset, String where)
+    {
+        SyntaxAnnotations syntax = result.getSyntax();
+        for(int row = 0; row < syntax.size(); row++)
+        {
+            assertTrue("Syntax row " + row + " crosses the " + where, syntax.getBegin(row) >= offset || syntax.getEnd(row) <= offset);
+        }
+        SemanticAnnotations semantic = result.getSemantic();
+        for(int row = 0; row < semantic.size(); row++)
+        {
+            assertTrue("Mention " + row + " crosses the " + where, semantic.getBegin(row) >= offset || semantic.getEnd(row) <= offset);
+        }
+    }
+}
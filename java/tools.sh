@@ -0,0 +1,98 @@
+#!/bin/bash
+#
+# Builds and runs the parts of the project that are not deployed with the web application:
+#
+#   ./tools.sh bench [PATTERN] [-p name=values]   JMH benchmarks of src/jmh (nlp.bench.Benchmarks)
+#   ./tools.sh loadtest [name=value ...]          load generator of src/loadtest (nlp.loadtest.LoadGenerator)
+#   ./tools.sh test [CLASS ...]                   JUnit tests of src/test, all of them by default
+#
+# The classes of src/main/java are compiled against the jars in $CTAKES_HOME/lib (the cTAKES 3.2.2
+# binary distribution, cTAKES-3.2.2 next to this script by default) and lib. The servlet API,
+# JMH, Tomcat and JUnit jars are downloaded from Maven Central into target/tools-lib the first
+# time they are needed. Everything is compiled into target/tools and run with the stub engine
+# or synthetic notes, so no UMLS install is needed.
+
+set -e
+
+DIR="$(cd "$(dirname "$0")" && pwd)"
+CTAKES_HOME="${CTAKES_HOME:-$DIR/cTAKES-3.2.2}"
+MAVEN="${MAVEN_REPOSITORY:-https://repo1.maven.org/maven2}"
+LIB="$DIR/target/tools-lib"
+OUT="$DIR/target/tools"
+
+# Downloads group:artifact:version into target/tools-lib and prints the path of the jar
+fetch()
+{
+    local group artifact version jar
+    IFS=: read -r group artifact version <<< "$1"
+    jar="$LIB/$artifact-$version.jar"
+    if [ ! -f "$jar" ]; then
+        mkdir -p "$LIB"
+        curl -sSfL -o "$jar.part" "$MAVEN/${group//.//}/$artifact/$version/$artifact-$version.jar"
+        mv "$jar.part" "$jar"
+    fi
+    echo "$jar"
+}
+
+# Joins the given jars, or all jars in the given directories, with ':'
+classpath()
+{
+    local path=""
+    for entry in "$@"; do
+        if [ -d "$entry" ]; then
+            for jar in "$entry"/*.jar; do
+                [ -f "$jar" ] && path="$path:$jar"
+            done
+        else
+            path="$path:$entry"
+        fi
+    done
+    echo "${path#:}"
+}
+
+# Compiles src/main/java and the given source directory into target/tools/NAME
+compile()
+{
+    local name="$1" sources="$2" extra="$3" processor="$4"
+    rm -rf "$OUT/$name" && mkdir -p "$OUT/$name"
+    find "$DIR/src/main/java" "$sources" -name "*.java" > "$OUT/$name.sources"
+    javac -nowarn -source 8 -target 8 -Xlint:-options -encoding UTF-8 \
+        ${processor:+-processorpath "$processor"} \
+        -cp "$BASE:$extra" -d "$OUT/$name" @"$OUT/$name.sources"
+    if [ -d "$DIR/src/main/resources" ]; then
+        cp -r "$DIR/src/main/resources/." "$OUT/$name"
+    fi
+}
+
+if [ ! -d "$CTAKES_HOME/lib" ]; then
+    echo "No cTAKES distribution in $CTAKES_HOME, set CTAKES_HOME to the directory of cTAKES 3.2.2" >&2
+    exit 1
+fi
+BASE="$(classpath "$CTAKES_HOME/lib" "$DIR/lib" "$(fetch javax.servlet:javax.servlet-api:3.1.0)")"
+
+command="$1"
+shift || true
+case "$command" in
+    bench)
+        JMH="$(classpath "$(fetch org.openjdk.jmh:jmh-core:1.37)" "$(fetch net.sf.jopt-simple:jopt-simple:5.0.4)" "$(fetch org.apache.commons:commons-math3:3.6.1)")"
+        compile bench "$DIR/src/jmh/java" "$JMH" "$JMH:$(fetch org.openjdk.jmh:jmh-generator-annprocess:1.37)"
+        exec java -cp "$OUT/bench:$BASE:$JMH" nlp.bench.Benchmarks "$@"
+        ;;
+    loadtest)
+        TOMCAT="$(classpath "$(fetch org.apache.tomcat.embed:tomcat-embed-core:8.5.100)" "$(fetch org.apache.tomcat:tomcat-annotations-api:8.5.100)")"
+        compile loadtest "$DIR/src/loadtest/java" "$TOMCAT"
+        exec java -cp "$OUT/loadtest:$BASE:$TOMCAT" nlp.loadtest.LoadGenerator "$@"
+        ;;
+    test)
+        JUNIT="$(classpath "$(fetch junit:junit:4.12)" "$(fetch org.hamcrest:hamcrest-core:1.3)")"
+        compile test "$DIR/src/test/java" "$JUNIT"
+        if [ $# -eq 0 ]; then
+            set -- $(cd "$DIR/src/test/java" && find . -name "*Test.java" | sed -e 's|^\./||' -e 's|\.java$||' -e 's|/|.|g' | sort)
+        fi
+        exec java -cp "$OUT/test:$BASE:$JUNIT" org.junit.runner.JUnitCore "$@"
+        ;;
+    *)
+        echo "Usage: $0 bench|loadtest|test [arguments]" >&2
+        exit 1
+        ;;
+esac
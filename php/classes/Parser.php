@@ -9,6 +9,11 @@ class Parser
      */
     const CTAKES_URL = "http://localhost:8080/NLPServlet";
 
+    /**
+     * The readiness end point of the cTAKES API, which only succeeds once the engines are warmed up
+     */
+    const CTAKES_READY_URL = "http://localhost:8080/ready";
+
     /**
      * The syntax relationships that define subjects
      */
@@ -14,12 +14,12 @@ class ParserAPI extends API
     }
 
     /**
-     * Check if the cTAKES API is running
+     * Check if the cTAKES API is running and its engines are ready to parse
      * @return array Running information
      */
     protected function check() {
         if ($this->method == 'GET') {
-            $ch = curl_init(Parser::CTAKES_URL);
+            $ch = curl_init(Parser::CTAKES_READY_URL);
             curl_setopt($ch, CURLOPT_TIMEOUT, 5);
             curl_setopt($ch, CURLOPT_CONNECTTIMEOUT, 5);
             curl_setopt($ch, CURLOPT_RETURNTRANSFER, true);
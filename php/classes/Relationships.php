@@ -20,7 +20,7 @@ class Relationships
     );
 
     /**
-     * @var array All relationships
+     * @var array All relationships, by their ID (the index of their dependency node)
      */
     private $relationships;
 
@@ -45,7 +45,7 @@ class Relationships
      */
     public function addRelationShip($id, $dependentId, $oBegin, $oEnd, $dBegin, $dEnd, $relation, $text)
     {
-        $this->relationships[] = new Relationship($id, $dependentId, $oBegin, $oEnd, $dBegin, $dEnd, $relation, $text);
+        $this->relationships[$id] = new Relationship($id, $dependentId, $oBegin, $oEnd, $dBegin, $dEnd, $relation, $text);
     }
 
     /**
@@ -108,7 +108,9 @@ class Relationships
             if (in_array($relationship->getRelation(), $this::SUBJECTS))
             {
                 $root = $this->getRelationship($relationship->getDependentId());
-                $root->addDependency($relationship);
+                if ($root != null) {
+                    $root->addDependency($relationship);
+                }
             }
         }
     }
@@ -120,10 +122,7 @@ class Relationships
      */
     public function getRelationship($id)
     {
-        foreach ($this->relationships as $relationship) {
-            if ($relationship->getId() == $id) return $relationship;
-        }
-        return null;
+        return isset($this->relationships[$id]) ? $this->relationships[$id] : null;
     }
 
     /**